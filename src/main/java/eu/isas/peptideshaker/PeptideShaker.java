@@ -11,8 +11,6 @@ import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
 import com.compomics.util.experiment.identification.matches.ProteinMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
-import com.compomics.util.experiment.identification.ptm.PTMLocationScores;
-import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import eu.isas.peptideshaker.fileimport.FileImporter;
@@ -27,12 +25,17 @@ import eu.isas.peptideshaker.preferences.ProcessingPreferences;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import eu.isas.peptideshaker.preferences.SearchParameters;
 import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
+import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences.SpectralCountingMethod;
 import eu.isas.peptideshaker.scoring.InputMap;
 import eu.isas.peptideshaker.scoring.*;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
+import eu.isas.peptideshaker.utils.FractionIndex;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.PeptideOccurrenceIndex;
+import eu.isas.peptideshaker.utils.PtmLocalizationScorer;
+import eu.isas.peptideshaker.utils.SpectrumMatchFileIterator;
 
 import javax.swing.*;
 import java.io.File;
@@ -42,6 +45,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -89,10 +100,6 @@ public class PeptideShaker {
      * The sequence factory.
      */
     private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
-    /**
-     * The spectrum factory.
-     */
-    private SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
     /**
      * The location of the folder used for serialization of matches.
      */
@@ -118,6 +125,36 @@ public class PeptideShaker {
      * A cache where the objects will be saved
      */
     private ObjectsCache objectsCache;
+    /**
+     * The number of spectra processed in a task when selecting the best hits.
+     */
+    private static final int PSM_CHUNK_SIZE = 1000;
+    /**
+     * The number of shared protein groups processed in a task when cleaning
+     * the protein groups.
+     */
+    private static final int SHARED_GROUPS_CHUNK_SIZE = 500;
+    /**
+     * The processing preferences, giving the number of threads to use.
+     */
+    private ProcessingPreferences processingPreferences = new ProcessingPreferences();
+    /**
+     * The PTM localization scorer, created for the preferences below and
+     * reused as long as the same preferences are used.
+     */
+    private PtmLocalizationScorer ptmLocalizationScorer = null;
+    /**
+     * The search parameters of the PTM localization scorer.
+     */
+    private SearchParameters scorerSearchParameters = null;
+    /**
+     * The annotation preferences of the PTM localization scorer.
+     */
+    private AnnotationPreferences scorerAnnotationPreferences = null;
+    /**
+     * The PTM scoring preferences of the PTM localization scorer.
+     */
+    private PTMScoringPreferences scorerScoringPreferences = null;
 
     /**
      * Constructor without mass specification. Calculation will be done on new
@@ -207,6 +244,15 @@ public class PeptideShaker {
         return objectsCache;
     }
 
+    /**
+     * Sets the processing preferences, giving the number of threads to use.
+     *
+     * @param processingPreferences the processing preferences
+     */
+    public void setProcessingPreferences(ProcessingPreferences processingPreferences) {
+        this.processingPreferences = processingPreferences;
+    }
+
     /**
      * Returns the reference identifying the identification under process.
      *
@@ -234,6 +280,7 @@ public class PeptideShaker {
     public void processIdentifications(InputMap inputMap, WaitingHandler waitingHandler, SearchParameters searchParameters, AnnotationPreferences annotationPreferences, IdFilter idFilter, ProcessingPreferences processingPreferences, PTMScoringPreferences ptmScoringPreferences)
             throws IllegalArgumentException, IOException, Exception {
 
+        this.processingPreferences = processingPreferences;
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
         if (!objectsCache.memoryCheck()) {
             waitingHandler.appendReport("PeptideShaker is encountering memory issues! See http://peptide-shaker.googlecode.com for help.", true, true);
@@ -242,7 +289,7 @@ public class PeptideShaker {
             return;
         }
         waitingHandler.appendReport("Computing assumptions probabilities.", true, true);
-        inputMap.estimateProbabilities(waitingHandler);
+        inputMap.estimateProbabilities(waitingHandler, processingPreferences.getnThreads());
         waitingHandler.increaseProgressValue();
         if (waitingHandler.isRunCanceled()) {
             return;
@@ -254,14 +301,14 @@ public class PeptideShaker {
             return;
         }
         waitingHandler.appendReport("Selecting best peptide per spectrum.", true, true);
-        fillPsmMap(inputMap, waitingHandler);
+        fillPsmMap(inputMap, waitingHandler, processingPreferences.getnThreads());
         psmMap.cure();
         waitingHandler.increaseProgressValue();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
         waitingHandler.appendReport("Computing PSM probabilities.", true, true);
-        psmMap.estimateProbabilities(waitingHandler);
+        psmMap.estimateProbabilities(waitingHandler, processingPreferences.getnThreads());
         if (waitingHandler.isRunCanceled()) {
             return;
         }
@@ -278,7 +325,7 @@ public class PeptideShaker {
             return;
         }
         waitingHandler.appendReport("Computing peptide probabilities.", true, true);
-        peptideMap.estimateProbabilities(waitingHandler);
+        peptideMap.estimateProbabilities(waitingHandler, processingPreferences.getnThreads());
         if (waitingHandler.isRunCanceled()) {
             return;
         }
@@ -324,7 +371,7 @@ public class PeptideShaker {
             return;
         }
         waitingHandler.appendReport("Scoring PTMs in peptides.", true, true);
-        scorePeptidePtms(waitingHandler, searchParameters, annotationPreferences, ptmScoringPreferences);
+        scorePeptidePtms(waitingHandler, searchParameters, annotationPreferences, ptmScoringPreferences, processingPreferences.getnThreads());
         waitingHandler.increaseProgressValue();
         if (waitingHandler.isRunCanceled()) {
             return;
@@ -484,7 +531,7 @@ public class PeptideShaker {
         attachSpectrumProbabilitiesAndBuildPeptidesAndProteins(waitingHandler);
         fillPeptideMaps(waitingHandler);
         peptideMap.cure();
-        peptideMap.estimateProbabilities(waitingHandler);
+        peptideMap.estimateProbabilities(waitingHandler, processingPreferences.getnThreads());
         attachPeptideProbabilities(waitingHandler);
         fillProteinMap(waitingHandler);
         proteinMap.estimateProbabilities(waitingHandler);
@@ -522,7 +569,12 @@ public class PeptideShaker {
     }
 
     /**
-     * This method will flag validated identifications.
+     * This method will flag validated identifications. Only the levels for
+     * which the validation settings changed since they were last applied are
+     * processed, and only the matches whose validation can change, i.e. with
+     * a score between the former and the current thresholds, are updated.
+     * The fraction details are only recomputed for the peptides and proteins
+     * whose underlying matches changed.
      *
      * @param progressBar the progress bar
      * @throws SQLException
@@ -534,7 +586,6 @@ public class PeptideShaker {
 
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
         PSParameter psParameter = new PSParameter();
-        PSParameter psParameter2 = new PSParameter();
 
         if (progressBar != null) {
             progressBar.setMaximum(identification.getProteinIdentification().size()
@@ -542,335 +593,631 @@ public class PeptideShaker {
                     + identification.getSpectrumIdentification().size());
         }
 
+        boolean psmValidationChanged = false;
+        for (int mapKey : psmMap.getKeys().keySet()) {
+            if (psmMap.getTargetDecoyMap(mapKey).getTargetDecoyResults().validationChanged()) {
+                psmValidationChanged = true;
+                break;
+            }
+        }
+        boolean peptideValidationChanged = false;
+        boolean peptideValidationApplied = true;
+        for (String mapKey : peptideMap.getKeys()) {
+            TargetDecoyResults peptideResults = peptideMap.getTargetDecoyMap(mapKey).getTargetDecoyResults();
+            if (peptideResults.validationChanged()) {
+                peptideValidationChanged = true;
+            }
+            if (!peptideResults.isValidationApplied()) {
+                peptideValidationApplied = false;
+            }
+        }
+        TargetDecoyResults proteinResults = proteinMap.getTargetDecoyMap().getTargetDecoyResults();
+        boolean proteinValidationApplied = proteinResults.isValidationApplied();
+
 
         // validate the spectra
-        for (String spectrumKey : identification.getSpectrumIdentification()) {
-            psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-            double psmThreshold = psmMap.getTargetDecoyMap(psmMap.getCorrectedKey(psParameter.getSecificMapKey())).getTargetDecoyResults().getScoreLimit();
-            boolean noValidated = psmMap.getTargetDecoyMap(psmMap.getCorrectedKey(psParameter.getSecificMapKey())).getTargetDecoyResults().noValidated();
-            if (!noValidated && psParameter.getPsmProbabilityScore() <= psmThreshold) {
-                psParameter.setValidated(true);
-            } else {
-                psParameter.setValidated(false);
+        HashSet<String> changedSpectra = new HashSet<String>();
+
+        if (psmValidationChanged) {
+            for (String spectrumKey : identification.getSpectrumIdentification()) {
+                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                TargetDecoyResults psmResults = psmMap.getTargetDecoyMap(psmMap.getCorrectedKey(psParameter.getSecificMapKey())).getTargetDecoyResults();
+                if (psmResults.validationMayChange(psParameter.getPsmProbabilityScore())) {
+                    boolean validated = psmResults.isValidated(psParameter.getPsmProbabilityScore());
+                    if (validated != psParameter.isValidated()) {
+                        psParameter.setValidated(validated);
+                        identification.updateSpectrumMatchParameter(spectrumKey, psParameter);
+                        changedSpectra.add(spectrumKey);
+                    }
+                }
+                if (progressBar != null) {
+                    progressBar.setValue(progressBar.getValue() + 1);
+                }
             }
-            identification.updateSpectrumMatchParameter(spectrumKey, psParameter);
-            if (progressBar != null) {
-                progressBar.setValue(progressBar.getValue() + 1);
+            for (int mapKey : psmMap.getKeys().keySet()) {
+                psmMap.getTargetDecoyMap(mapKey).getTargetDecoyResults().setValidationApplied();
             }
+        } else if (progressBar != null) {
+            progressBar.setValue(progressBar.getValue() + identification.getSpectrumIdentification().size());
         }
 
 
         // validate the peptides
-        for (String peptideKey : identification.getPeptideIdentification()) {
+        HashSet<String> changedPeptides = new HashSet<String>();
 
-            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
-            double peptideThreshold = peptideMap.getTargetDecoyMap(peptideMap.getCorrectedKey(psParameter.getSecificMapKey())).getTargetDecoyResults().getScoreLimit();
-            boolean noValidated = peptideMap.getTargetDecoyMap(peptideMap.getCorrectedKey(psParameter.getSecificMapKey())).getTargetDecoyResults().noValidated();
+        if (peptideValidationChanged || !changedSpectra.isEmpty()) {
+            for (String peptideKey : identification.getPeptideIdentification()) {
 
-            if (!noValidated && psParameter.getPeptideProbabilityScore() <= peptideThreshold) {
-                psParameter.setValidated(true);
-            } else {
-                psParameter.setValidated(false);
-            }
+                psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+                TargetDecoyResults peptideResults = peptideMap.getTargetDecoyMap(peptideMap.getCorrectedKey(psParameter.getSecificMapKey())).getTargetDecoyResults();
+                boolean changed = false;
+
+                if (peptideResults.validationMayChange(psParameter.getPeptideProbabilityScore())) {
+                    boolean validated = peptideResults.isValidated(psParameter.getPeptideProbabilityScore());
+                    if (validated != psParameter.isValidated()) {
+                        psParameter.setValidated(validated);
+                        changed = true;
+                    }
+                }
 
+                if (!peptideValidationApplied || fractionMatchesChanged(peptideKey, psParameter, changedSpectra)) {
+                    setPeptideFractionDetails(identification, peptideKey, psParameter);
+                    changed = true;
+                }
 
-            // set the fraction details
-            // @TODO: could be a better more elegant way of doing this?
-            HashMap<String, Integer> validatedPsmsPerFraction = new HashMap<String, Integer>();
-            HashMap<String, ArrayList<Double>> precursorIntensitesPerFraction = new HashMap<String, ArrayList<Double>>();
+                if (changed) {
+                    identification.updatePeptideMatchParameter(peptideKey, psParameter);
+                    changedPeptides.add(peptideKey);
+                }
+                if (progressBar != null) {
+                    progressBar.setValue(progressBar.getValue() + 1);
+                }
+            }
+            for (String mapKey : peptideMap.getKeys()) {
+                peptideMap.getTargetDecoyMap(mapKey).getTargetDecoyResults().setValidationApplied();
+            }
+        } else if (progressBar != null) {
+            progressBar.setValue(progressBar.getValue() + identification.getPeptideIdentification().size());
+        }
 
-            for (String fraction : psParameter.getFractions()) {
 
-                ArrayList<Double> precursorIntensities = new ArrayList<Double>();
+        // validate the proteins
+        if (proteinResults.validationChanged() || !changedPeptides.isEmpty()) {
 
-                if (metrics.getFractionPsmMatches().get(fraction + "_" + peptideKey) != null) {
-                    ArrayList<String> spectrumKeys = metrics.getFractionPsmMatches().get(fraction + "_" + peptideKey);
+            int maxValidatedSpectraFractionLevel = 0;
+            int maxValidatedPeptidesFractionLevel = 0;
+            double maxProteinAveragePrecursorIntensity = 0;
 
-                    for (int k = 0; k < spectrumKeys.size(); k++) {
+            for (String proteinKey : identification.getProteinIdentification()) {
 
-                        psParameter2 = (PSParameter) identification.getSpectrumMatchParameter(spectrumKeys.get(k), psParameter2);
+                psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+                boolean changed = false;
 
-                        if (psParameter2.isValidated()) {
-                            if (validatedPsmsPerFraction.containsKey(fraction)) {
-                                Integer value = validatedPsmsPerFraction.get(fraction);
-                                validatedPsmsPerFraction.put(fraction, value + 1);
-                            } else {
-                                validatedPsmsPerFraction.put(fraction, 1);
-                            }
+                if (proteinResults.validationMayChange(psParameter.getProteinProbabilityScore())) {
+                    boolean validated = proteinResults.isValidated(psParameter.getProteinProbabilityScore());
+                    if (validated != psParameter.isValidated()) {
+                        psParameter.setValidated(validated);
+                        changed = true;
+                    }
+                }
 
-                            if (SpectrumFactory.getInstance().getPrecursor(spectrumKeys.get(k)).getIntensity() > 0) {
-                                precursorIntensities.add(SpectrumFactory.getInstance().getPrecursor(spectrumKeys.get(k)).getIntensity());
-                            }
+                boolean updateFractions = !proteinValidationApplied;
+                if (!updateFractions && !changedPeptides.isEmpty()) {
+                    for (String peptideKey : identification.getProteinMatch(proteinKey).getPeptideMatches()) {
+                        if (changedPeptides.contains(peptideKey)) {
+                            updateFractions = true;
+                            break;
                         }
                     }
                 }
+                if (updateFractions) {
+                    setProteinFractionDetails(identification, proteinKey, psParameter);
+                    changed = true;
+                }
 
-                precursorIntensitesPerFraction.put(fraction, precursorIntensities);
+                if (psParameter.getFractions() != null) {
+                    for (String fraction : psParameter.getFractions()) {
+                        Integer nValidated = psParameter.getFractionValidatedSpectra(fraction);
+                        if (nValidated != null && nValidated > maxValidatedSpectraFractionLevel) {
+                            maxValidatedSpectraFractionLevel = nValidated;
+                        }
+                        nValidated = psParameter.getFractionValidatedPeptides(fraction);
+                        if (nValidated != null && nValidated > maxValidatedPeptidesFractionLevel) {
+                            maxValidatedPeptidesFractionLevel = nValidated;
+                        }
+                        if (psParameter.getPrecursorIntensityAveragePerFraction(fraction) != null
+                                && psParameter.getPrecursorIntensityAveragePerFraction(fraction) > maxProteinAveragePrecursorIntensity) {
+                            maxProteinAveragePrecursorIntensity = psParameter.getPrecursorIntensityAveragePerFraction(fraction);
+                        }
+                    }
+                }
+
+                if (changed) {
+                    identification.updateProteinMatchParameter(proteinKey, psParameter);
+                }
+
+                if (progressBar != null) {
+                    progressBar.setValue(progressBar.getValue() + 1);
+                }
             }
 
-            // set the number of validated spectra per fraction for each peptide
-            psParameter.setFractionValidatedSpectra(validatedPsmsPerFraction);
-            psParameter.setPrecursorIntensityPerFraction(precursorIntensitesPerFraction);
+            proteinResults.setValidationApplied();
 
-            identification.updatePeptideMatchParameter(peptideKey, psParameter);
-            if (progressBar != null) {
-                progressBar.setValue(progressBar.getValue() + 1);
+            // set the max values in the metrics
+            metrics.setMaxValidatedPeptidesPerFraction(maxValidatedPeptidesFractionLevel);
+            metrics.setMaxValidatedSpectraPerFraction(maxValidatedSpectraFractionLevel);
+            metrics.setMaxProteinAveragePrecursorIntensity(maxProteinAveragePrecursorIntensity);
+        } else if (progressBar != null) {
+            progressBar.setValue(progressBar.getValue() + identification.getProteinIdentification().size());
+        }
+    }
+
+    /**
+     * Indicates whether the validation of one of the spectra of a peptide per
+     * fraction changed.
+     *
+     * @param peptideKey the key of the peptide match
+     * @param psParameter the peptide match parameter
+     * @param changedSpectra the keys of the spectra whose validation changed
+     * @return a boolean indicating whether the validation of one of the
+     * spectra of the peptide changed
+     */
+    private boolean fractionMatchesChanged(String peptideKey, PSParameter psParameter, HashSet<String> changedSpectra) {
+        if (changedSpectra.isEmpty()) {
+            return false;
+        }
+        FractionIndex fractionIndex = metrics.getFractionIndex();
+        int peptideIndex = fractionIndex.getPeptideIndex(peptideKey);
+        if (peptideIndex == -1) {
+            return false;
+        }
+        for (int fractionId : fractionIndex.getPeptideFractions(peptideIndex)) {
+            for (int spectrumIndex : fractionIndex.getSpectra(peptideIndex, fractionId)) {
+                if (changedSpectra.contains(fractionIndex.getSpectrumKey(spectrumIndex))) {
+                    return true;
+                }
             }
         }
+        return false;
+    }
 
+    /**
+     * Sets the number of validated spectra and the precursor intensities per
+     * fraction of a peptide.
+     *
+     * @param identification the identification
+     * @param peptideKey the key of the peptide match
+     * @param psParameter the peptide match parameter to update
+     * @throws SQLException
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws MzMLUnmarshallerException
+     */
+    private void setPeptideFractionDetails(Identification identification, String peptideKey, PSParameter psParameter) throws SQLException, IOException, ClassNotFoundException, MzMLUnmarshallerException {
 
-        // validate the proteins
-        double proteinThreshold = proteinMap.getTargetDecoyMap().getTargetDecoyResults().getScoreLimit();
-        boolean noValidated = proteinMap.getTargetDecoyMap().getTargetDecoyResults().noValidated();
+        PSParameter psParameter2 = new PSParameter();
+        FractionIndex fractionIndex = metrics.getFractionIndex();
+        int peptideIndex = fractionIndex.getPeptideIndex(peptideKey);
 
-        int maxValidatedSpectraFractionLevel = 0;
-        int maxValidatedPeptidesFractionLevel = 0;
-        double maxProteinAveragePrecursorIntensity = 0;
+        HashMap<String, Integer> validatedPsmsPerFraction = new HashMap<String, Integer>();
+        HashMap<String, ArrayList<Double>> precursorIntensitesPerFraction = new HashMap<String, ArrayList<Double>>();
 
-        for (String proteinKey : identification.getProteinIdentification()) {
+        if (peptideIndex != -1) {
+            for (int fractionId : fractionIndex.getPeptideFractions(peptideIndex)) {
 
-            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+                int[] spectra = fractionIndex.getSpectra(peptideIndex, fractionId);
+                ArrayList<Double> precursorIntensities = new ArrayList<Double>(spectra.length);
+                int nValidated = 0;
 
-            if (!noValidated && psParameter.getProteinProbabilityScore() <= proteinThreshold) {
-                psParameter.setValidated(true);
-            } else {
-                psParameter.setValidated(false);
+                for (int spectrumIndex : spectra) {
+
+                    String spectrumKey = fractionIndex.getSpectrumKey(spectrumIndex);
+                    psParameter2 = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter2);
+
+                    if (psParameter2.isValidated()) {
+                        nValidated++;
+
+                        double intensity = fractionIndex.getPrecursorIntensity(spectrumIndex);
+                        if (Double.isNaN(intensity)) {
+                            // projects from former versions do not have the intensities in the index
+                            intensity = SpectrumFactory.getInstance().getPrecursor(spectrumKey).getIntensity();
+                            fractionIndex.setPrecursorIntensity(spectrumIndex, intensity);
+                        }
+                        if (intensity > 0) {
+                            precursorIntensities.add(intensity);
+                        }
+                    }
+                }
+
+                String fraction = fractionIndex.getFractionName(fractionId);
+                if (nValidated > 0) {
+                    validatedPsmsPerFraction.put(fraction, nValidated);
+                }
+                precursorIntensitesPerFraction.put(fraction, precursorIntensities);
             }
+        }
 
+        // set the number of validated spectra per fraction for each peptide
+        psParameter.setFractionValidatedSpectra(validatedPsmsPerFraction);
+        psParameter.setPrecursorIntensityPerFraction(precursorIntensitesPerFraction);
+    }
 
-            // set the fraction details
-            // @TODO: could be a better more elegant way of doing this?
-            HashMap<String, Integer> validatedPsmsPerFraction = new HashMap<String, Integer>();
-            HashMap<String, Integer> validatedPeptidesPerFraction = new HashMap<String, Integer>();
-            HashMap<String, Double> precursorIntensityPerFraction = new HashMap<String, Double>();
-            HashMap<String, ArrayList<Double>> precursorIntensitesPerFraction = new HashMap<String, ArrayList<Double>>();
+    /**
+     * Sets the number of validated spectra and peptides and the precursor
+     * intensities per fraction of a protein.
+     *
+     * @param identification the identification
+     * @param proteinKey the key of the protein match
+     * @param psParameter the protein match parameter to update
+     * @throws SQLException
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void setProteinFractionDetails(Identification identification, String proteinKey, PSParameter psParameter) throws SQLException, IOException, ClassNotFoundException {
 
-            ArrayList<String> peptideKeys = identification.getProteinMatch(proteinKey).getPeptideMatches();
+        PSParameter psParameter2 = new PSParameter();
 
-            for (int j = 0; j < peptideKeys.size(); j++) {
+        // @TODO: could be a better more elegant way of doing this?
+        HashMap<String, Integer> validatedPsmsPerFraction = new HashMap<String, Integer>();
+        HashMap<String, Integer> validatedPeptidesPerFraction = new HashMap<String, Integer>();
+        HashMap<String, Double> precursorIntensityPerFraction = new HashMap<String, Double>();
+        HashMap<String, ArrayList<Double>> precursorIntensitesPerFraction = new HashMap<String, ArrayList<Double>>();
 
-                String currentPeptideKey = peptideKeys.get(j);
+        ArrayList<String> peptideKeys = identification.getProteinMatch(proteinKey).getPeptideMatches();
 
-                psParameter2 = (PSParameter) identification.getPeptideMatchParameter(currentPeptideKey, psParameter2);
+        for (int j = 0; j < peptideKeys.size(); j++) {
 
-                for (String fraction : psParameter2.getFractions()) {
+            String currentPeptideKey = peptideKeys.get(j);
 
-                    if (psParameter2.getFractionValidatedSpectra(fraction) != null) {
-                        if (validatedPsmsPerFraction.containsKey(fraction)) {
-                            Integer value = validatedPsmsPerFraction.get(fraction);
-                            validatedPsmsPerFraction.put(fraction, value + psParameter2.getFractionValidatedSpectra(fraction));
-                        } else {
-                            validatedPsmsPerFraction.put(fraction, psParameter2.getFractionValidatedSpectra(fraction));
-                        }
+            psParameter2 = (PSParameter) identification.getPeptideMatchParameter(currentPeptideKey, psParameter2);
 
-                        if (validatedPsmsPerFraction.get(fraction) > maxValidatedSpectraFractionLevel) {
-                            maxValidatedSpectraFractionLevel = validatedPsmsPerFraction.get(fraction);
-                        }
-                    }
+            for (String fraction : psParameter2.getFractions()) {
 
-                    if (psParameter2.getPrecursorIntensityPerFraction(fraction) != null) {
-                        if (precursorIntensityPerFraction.containsKey(fraction)) {
-                            for (int i = 0; i < psParameter2.getPrecursorIntensityPerFraction(fraction).size(); i++) {
-                                precursorIntensitesPerFraction.get(fraction).add(psParameter2.getPrecursorIntensityPerFraction(fraction).get(i));
-                            }
-                        } else {
-                            precursorIntensitesPerFraction.put(fraction, psParameter2.getPrecursorIntensityPerFraction(fraction));
-                        }
+                if (psParameter2.getFractionValidatedSpectra(fraction) != null) {
+                    if (validatedPsmsPerFraction.containsKey(fraction)) {
+                        Integer value = validatedPsmsPerFraction.get(fraction);
+                        validatedPsmsPerFraction.put(fraction, value + psParameter2.getFractionValidatedSpectra(fraction));
+                    } else {
+                        validatedPsmsPerFraction.put(fraction, psParameter2.getFractionValidatedSpectra(fraction));
                     }
+                }
 
-                    if (psParameter2.isValidated()) {
-                        if (validatedPeptidesPerFraction.containsKey(fraction)) {
-                            Integer value = validatedPeptidesPerFraction.get(fraction);
-                            validatedPeptidesPerFraction.put(fraction, value + 1);
-                        } else {
-                            validatedPeptidesPerFraction.put(fraction, 1);
+                if (psParameter2.getPrecursorIntensityPerFraction(fraction) != null) {
+                    if (precursorIntensityPerFraction.containsKey(fraction)) {
+                        for (int i = 0; i < psParameter2.getPrecursorIntensityPerFraction(fraction).size(); i++) {
+                            precursorIntensitesPerFraction.get(fraction).add(psParameter2.getPrecursorIntensityPerFraction(fraction).get(i));
                         }
+                    } else {
+                        precursorIntensitesPerFraction.put(fraction, psParameter2.getPrecursorIntensityPerFraction(fraction));
+                    }
+                }
 
-                        if (validatedPeptidesPerFraction.get(fraction) > maxValidatedPeptidesFractionLevel) {
-                            maxValidatedPeptidesFractionLevel = validatedPeptidesPerFraction.get(fraction);
-                        }
+                if (psParameter2.isValidated()) {
+                    if (validatedPeptidesPerFraction.containsKey(fraction)) {
+                        Integer value = validatedPeptidesPerFraction.get(fraction);
+                        validatedPeptidesPerFraction.put(fraction, value + 1);
+                    } else {
+                        validatedPeptidesPerFraction.put(fraction, 1);
                     }
                 }
             }
+        }
 
+        // set the number of validated spectra per fraction for each peptide
+        psParameter.setFractionValidatedSpectra(validatedPsmsPerFraction);
+        psParameter.setFractionValidatedPeptides(validatedPeptidesPerFraction);
+        psParameter.setPrecursorIntensityPerFraction(precursorIntensitesPerFraction);
+    }
 
-            // set the number of validated spectra per fraction for each peptide
-            psParameter.setFractionValidatedSpectra(validatedPsmsPerFraction);
-            psParameter.setFractionValidatedPeptides(validatedPeptidesPerFraction);
-            psParameter.setPrecursorIntensityPerFraction(precursorIntensitesPerFraction);
+    /**
+     * Fills the psm specific map. The best hit of every spectrum is selected
+     * concurrently on chunks of spectra, every thread accumulating its points
+     * in its own psm specific map. These maps are merged at the end of the
+     * process. The spectrum matches are loaded and saved on the calling
+     * thread in the order of the spectrum identification.
+     *
+     * @param inputMap The input map
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param nThreads the number of threads to use
+     */
+    private void fillPsmMap(InputMap inputMap, WaitingHandler waitingHandler, int nThreads) throws Exception {
 
-            for (String fraction : psParameter.getFractions()) {
-                if (psParameter.getPrecursorIntensityAveragePerFraction(fraction) != null
-                        && psParameter.getPrecursorIntensityAveragePerFraction(fraction) > maxProteinAveragePrecursorIntensity) {
-                    maxProteinAveragePrecursorIntensity = psParameter.getPrecursorIntensityAveragePerFraction(fraction);
+        Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
+        int max = identification.getSpectrumIdentification().size();
+        waitingHandler.setSecondaryProgressDialogIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressValue(max);
+
+        boolean multiSE = inputMap.isMultipleSearchEngines();
+        final ArrayList<PsmSpecificMap> threadPsmMaps = new ArrayList<PsmSpecificMap>();
+        ThreadLocal<PsmSpecificMap> threadPsmMap = new ThreadLocal<PsmSpecificMap>() {
+            @Override
+            protected PsmSpecificMap initialValue() {
+                PsmSpecificMap threadMap = new PsmSpecificMap();
+                synchronized (threadPsmMaps) {
+                    threadPsmMaps.add(threadMap);
                 }
+                return threadMap;
             }
+        };
 
-            identification.updateProteinMatchParameter(proteinKey, psParameter);
-
-            if (progressBar != null) {
-                progressBar.setValue(progressBar.getValue() + 1);
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            int maxPendingTasks = 2 * nThreads;
+            LinkedList<Future<BestHitSelection>> pendingTasks = new LinkedList<Future<BestHitSelection>>();
+            SpectrumMatchFileIterator spectrumMatchIterator = new SpectrumMatchFileIterator(identification, false, true, PSM_CHUNK_SIZE, waitingHandler);
+
+            while (spectrumMatchIterator.hasNext()) {
+                ArrayList<String> spectrumKeys = spectrumMatchIterator.next();
+                ArrayList<SpectrumMatch> spectrumMatches = new ArrayList<SpectrumMatch>(spectrumKeys.size());
+                for (String spectrumKey : spectrumKeys) {
+                    spectrumMatches.add(spectrumMatchIterator.getSpectrumMatch(spectrumKey));
+                }
+                pendingTasks.add(pool.submit(new BestHitSelection(spectrumKeys, spectrumMatches, multiSE, threadPsmMap)));
+                waitingHandler.increaseSecondaryProgressValue(spectrumKeys.size());
+                while (pendingTasks.size() >= maxPendingTasks) {
+                    saveBestHits(getResult(pendingTasks.removeFirst()), identification, waitingHandler);
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                }
+            }
+            while (!pendingTasks.isEmpty()) {
+                saveBestHits(getResult(pendingTasks.removeFirst()), identification, waitingHandler);
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
             }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (PsmSpecificMap threadMap : threadPsmMaps) {
+            psmMap.addAll(threadMap);
         }
 
-        // set the max values in the metrics
-        metrics.setMaxValidatedPeptidesPerFraction(maxValidatedPeptidesFractionLevel);
-        metrics.setMaxValidatedSpectraPerFraction(maxValidatedSpectraFractionLevel);
-        metrics.setMaxProteinAveragePrecursorIntensity(maxProteinAveragePrecursorIntensity);
+        // the protein count map is no longer needed
+        proteinCount.clear();
+
+        waitingHandler.setSecondaryProgressDialogIndeterminate(true);
     }
 
     /**
-     * Fills the psm specific map.
+     * Saves the best hits selected for a chunk of spectra in the
+     * identification.
      *
-     * @param inputMap The input map
+     * @param selection the best hit selection of the chunk
+     * @param identification the identification
      * @param waitingHandler the handler displaying feedback to the user
      */
-    private void fillPsmMap(InputMap inputMap, WaitingHandler waitingHandler) throws Exception {
+    private void saveBestHits(BestHitSelection selection, Identification identification, WaitingHandler waitingHandler) throws Exception {
+        for (int i = 0; i < selection.spectrumKeys.size(); i++) {
+            SpectrumMatch spectrumMatch = selection.spectrumMatches.get(i);
+            PSParameter psParameter = new PSParameter();
+            psParameter.setSpectrumProbabilityScore(selection.scores[i]);
+            psParameter.setSecificMapKey(psmMap.getKey(spectrumMatch) + "");
+            identification.addSpectrumMatchParameter(selection.spectrumKeys.get(i), psParameter);
+            identification.updateSpectrumMatch(spectrumMatch);
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+        }
+    }
 
-        Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
-        int max = identification.getSpectrumIdentification().size();
-        waitingHandler.setSecondaryProgressDialogIndeterminate(false);
-        waitingHandler.setMaxSecondaryProgressValue(max);
-        ArrayList<String> identifications;
-        // map of the first hits for this spectrum: score -> max protein count -> max search engine votes
-        HashMap<Double, HashMap<Integer, HashMap<Integer, PeptideAssumption>>> peptideAssumptions;
-        PSParameter psParameter, psParameter2;
-        PeptideAssumption bestAssumption;
-        SpectrumMatch spectrumMatch;
-        ArrayList<Double> eValues2;
-        boolean found, multiSE = inputMap.isMultipleSearchEngines();
-        String id;
-        double p, bestEvalue;
-        int nSE, proteinMax;
-        Integer tempCount;
-
-        for (String spectrumKey : identification.getSpectrumIdentification()) {
-            psParameter = new PSParameter();
-            identifications = new ArrayList<String>();
-            peptideAssumptions = new HashMap<Double, HashMap<Integer, HashMap<Integer, PeptideAssumption>>>();
-            spectrumMatch = identification.getSpectrumMatch(spectrumKey);
-
-            for (int searchEngine1 : spectrumMatch.getAdvocates()) {
-                bestEvalue = Collections.min(spectrumMatch.getAllAssumptions(searchEngine1).keySet());
-                for (PeptideAssumption peptideAssumption1 : spectrumMatch.getAllAssumptions(searchEngine1).get(bestEvalue)) {
-                    id = peptideAssumption1.getPeptide().getKey();
-                    if (!identifications.contains(id)) {
-                        psParameter = (PSParameter) peptideAssumption1.getUrParam(psParameter);
-                        if (multiSE) {
-                            p = psParameter.getSearchEngineProbability();
-                        } else {
-                            p = peptideAssumption1.getEValue();
+    /**
+     * Returns the result of a task executed in a pool, the exception thrown by
+     * the task if any is thrown back.
+     *
+     * @param future the future result of the task
+     * @return the result of the task
+     * @throws Exception exception thrown by the task
+     */
+    private <T> T getResult(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Selects the best peptide assumption of a spectrum match and sets it as
+     * first hit and best assumption. Candidates are ranked by probability,
+     * then by the maximal number of spectra of their proteins, then by the
+     * number of search engines retaining them. Ties are resolved by keeping
+     * the first candidate encountered.
+     *
+     * @param spectrumMatch the spectrum match
+     * @param multiSE boolean indicating whether multiple search engines were
+     * used
+     * @return the probabilistic score of the best assumption
+     */
+    private double selectBestHit(SpectrumMatch spectrumMatch, boolean multiSE) {
+
+        PSParameter psParameter = new PSParameter();
+        ArrayList<Integer> advocates = spectrumMatch.getAdvocates();
+
+        // sorted e-values of every search engine
+        HashMap<Integer, ArrayList<Double>> sortedEValues = new HashMap<Integer, ArrayList<Double>>(advocates.size());
+        for (int searchEngine : advocates) {
+            ArrayList<Double> eValues = new ArrayList<Double>(spectrumMatch.getAllAssumptions(searchEngine).keySet());
+            Collections.sort(eValues);
+            sortedEValues.put(searchEngine, eValues);
+        }
+
+        // probability of the first occurrence of every peptide for every search engine
+        HashMap<Integer, HashMap<String, Double>> firstProbabilities = null;
+        if (advocates.size() > 1) {
+            firstProbabilities = new HashMap<Integer, HashMap<String, Double>>(advocates.size());
+            for (int searchEngine : advocates) {
+                HashMap<String, Double> seProbabilities = new HashMap<String, Double>();
+                for (double eValue : sortedEValues.get(searchEngine)) {
+                    for (PeptideAssumption peptideAssumption : spectrumMatch.getAllAssumptions(searchEngine).get(eValue)) {
+                        String peptideKey = peptideAssumption.getPeptide().getKey();
+                        if (!seProbabilities.containsKey(peptideKey)) {
+                            psParameter = (PSParameter) peptideAssumption.getUrParam(psParameter);
+                            seProbabilities.put(peptideKey, psParameter.getSearchEngineProbability());
                         }
-                        nSE = 1;
-                        proteinMax = 1;
-                        for (String protein : peptideAssumption1.getPeptide().getParentProteins()) {
-                            tempCount = proteinCount.get(protein);
-                            if (tempCount != null && tempCount > proteinMax) {
-                                proteinMax = tempCount;
-                            }
+                    }
+                }
+                firstProbabilities.put(searchEngine, seProbabilities);
+            }
+        }
+
+        HashSet<String> identifications = new HashSet<String>();
+        PeptideAssumption bestAssumption = null;
+        double bestP = 0;
+        int bestProteinMax = 0, bestNSE = 0;
+
+        for (int searchEngine1 : advocates) {
+            double bestEvalue = sortedEValues.get(searchEngine1).get(0);
+            for (PeptideAssumption peptideAssumption1 : spectrumMatch.getAllAssumptions(searchEngine1).get(bestEvalue)) {
+                String id = peptideAssumption1.getPeptide().getKey();
+                if (identifications.add(id)) {
+                    double p;
+                    if (multiSE) {
+                        psParameter = (PSParameter) peptideAssumption1.getUrParam(psParameter);
+                        p = psParameter.getSearchEngineProbability();
+                    } else {
+                        p = peptideAssumption1.getEValue();
+                    }
+                    int nSE = 1;
+                    int proteinMax = 1;
+                    for (String protein : peptideAssumption1.getPeptide().getParentProteins()) {
+                        Integer tempCount = proteinCount.get(protein);
+                        if (tempCount != null && tempCount > proteinMax) {
+                            proteinMax = tempCount;
                         }
-                        for (int searchEngine2 : spectrumMatch.getAdvocates()) {
+                    }
+                    if (firstProbabilities != null) {
+                        for (int searchEngine2 : advocates) {
                             if (searchEngine1 != searchEngine2) {
-                                found = false;
-                                eValues2 = new ArrayList<Double>(spectrumMatch.getAllAssumptions(searchEngine2).keySet());
-                                Collections.sort(eValues2);
-                                for (double eValue2 : eValues2) {
-                                    for (PeptideAssumption peptideAssumption2 : spectrumMatch.getAllAssumptions(searchEngine2).get(eValue2)) {
-                                        if (id.equals(peptideAssumption2.getPeptide().getKey())) {
-                                            psParameter2 = (PSParameter) peptideAssumption2.getUrParam(psParameter);
-                                            p = p * psParameter2.getSearchEngineProbability();
-                                            nSE++;
-                                            found = true;
-                                            break;
-                                        }
-                                    }
-                                    if (found) {
-                                        break;
-                                    }
+                                Double p2 = firstProbabilities.get(searchEngine2).get(id);
+                                if (p2 != null) {
+                                    p = p * p2;
+                                    nSE++;
                                 }
                             }
                         }
-                        identifications.add(id);
-                        if (!peptideAssumptions.containsKey(p)) {
-                            peptideAssumptions.put(p, new HashMap<Integer, HashMap<Integer, PeptideAssumption>>());
-                        }
-                        if (!peptideAssumptions.get(p).containsKey(proteinMax)) {
-                            peptideAssumptions.get(p).put(proteinMax, new HashMap<Integer, PeptideAssumption>());
-                        }
-                        if (!peptideAssumptions.get(p).get(proteinMax).containsKey(nSE)) {
-                            peptideAssumptions.get(p).get(proteinMax).put(nSE, peptideAssumption1);
-                        }
+                    }
+                    int comparison = bestAssumption == null ? -1 : Double.compare(p, bestP);
+                    if (comparison < 0
+                            || comparison == 0 && (proteinMax > bestProteinMax
+                            || proteinMax == bestProteinMax && nSE > bestNSE)) {
+                        bestAssumption = peptideAssumption1;
+                        bestP = p;
+                        bestProteinMax = proteinMax;
+                        bestNSE = nSE;
                     }
                 }
             }
+        }
 
-            p = Collections.min(peptideAssumptions.keySet());
-            proteinMax = Collections.max(peptideAssumptions.get(p).keySet());
-            nSE = Collections.max(peptideAssumptions.get(p).get(proteinMax).keySet());
-            bestAssumption = peptideAssumptions.get(p).get(proteinMax).get(nSE);
-            if (multiSE) { //try to find the best modification site
-                HashMap<PeptideAssumption, ArrayList<Double>> assumptions = new HashMap<PeptideAssumption, ArrayList<Double>>();
-                for (int searchEngine1 : spectrumMatch.getAdvocates()) {
-                    found = false;
-                    eValues2 = new ArrayList<Double>(spectrumMatch.getAllAssumptions(searchEngine1).keySet());
-                    Collections.sort(eValues2);
-                    for (double eValue : eValues2) {
-                        for (PeptideAssumption assumption : spectrumMatch.getAllAssumptions(searchEngine1).get(eValue)) {
-                            if (assumption.getPeptide().isSameAs(bestAssumption.getPeptide())) {
-                                found = true;
-                                boolean found2 = false;
-                                for (PeptideAssumption assumption1 : assumptions.keySet()) {
-                                    if (assumption1.getPeptide().sameModificationsAs(assumption.getPeptide())) {
-                                        found2 = true;
-                                        psParameter = (PSParameter) assumption.getUrParam(psParameter);
-                                        assumptions.get(assumption1).add(psParameter.getSearchEngineProbability());
-                                        break;
-                                    }
-                                }
-                                if (!found2) {
-                                    assumptions.put(assumption, new ArrayList<Double>());
+        if (multiSE) { //try to find the best modification site
+            HashMap<PeptideAssumption, ArrayList<Double>> assumptions = new HashMap<PeptideAssumption, ArrayList<Double>>();
+            for (int searchEngine1 : advocates) {
+                boolean found = false;
+                for (double eValue : sortedEValues.get(searchEngine1)) {
+                    for (PeptideAssumption assumption : spectrumMatch.getAllAssumptions(searchEngine1).get(eValue)) {
+                        if (assumption.getPeptide().isSameAs(bestAssumption.getPeptide())) {
+                            found = true;
+                            boolean found2 = false;
+                            for (PeptideAssumption assumption1 : assumptions.keySet()) {
+                                if (assumption1.getPeptide().sameModificationsAs(assumption.getPeptide())) {
+                                    found2 = true;
                                     psParameter = (PSParameter) assumption.getUrParam(psParameter);
-                                    assumptions.get(assumption).add(psParameter.getSearchEngineProbability());
+                                    assumptions.get(assumption1).add(psParameter.getSearchEngineProbability());
+                                    break;
                                 }
                             }
-                        }
-                        if (found) {
-                            break;
+                            if (!found2) {
+                                assumptions.put(assumption, new ArrayList<Double>());
+                                psParameter = (PSParameter) assumption.getUrParam(psParameter);
+                                assumptions.get(assumption).add(psParameter.getSearchEngineProbability());
+                            }
                         }
                     }
-                }
-                Double sep, bestSeP = null;
-                int nSe = -1;
-                for (PeptideAssumption peptideAssumption : assumptions.keySet()) {
-                    sep = Collections.min(assumptions.get(peptideAssumption));
-                    if (bestSeP == null || bestSeP > sep) {
-                        bestSeP = sep;
-                        nSe = assumptions.get(peptideAssumption).size();
-                        bestAssumption = peptideAssumption;
-                    } else if (sep == bestSeP && assumptions.get(peptideAssumption).size() > nSe) {
-                        nSe = assumptions.get(peptideAssumption).size();
-                        bestAssumption = peptideAssumption;
+                    if (found) {
+                        break;
                     }
                 }
             }
-            spectrumMatch.setFirstHit(bestAssumption.getAdvocate(), bestAssumption);
-            spectrumMatch.setBestAssumption(bestAssumption);
-            psParameter = new PSParameter();
-            psParameter.setSpectrumProbabilityScore(p);
-            psmMap.addPoint(p, spectrumMatch);
-            psParameter.setSecificMapKey(psmMap.getKey(spectrumMatch) + "");
-            identification.addSpectrumMatchParameter(spectrumKey, psParameter);
-            identification.updateSpectrumMatch(spectrumMatch);
-            waitingHandler.increaseSecondaryProgressValue();
-            if (waitingHandler.isRunCanceled()) {
-                return;
+            Double sep, bestSeP = null;
+            int nSe = -1;
+            for (PeptideAssumption peptideAssumption : assumptions.keySet()) {
+                sep = Collections.min(assumptions.get(peptideAssumption));
+                if (bestSeP == null || bestSeP > sep) {
+                    bestSeP = sep;
+                    nSe = assumptions.get(peptideAssumption).size();
+                    bestAssumption = peptideAssumption;
+                } else if (sep == bestSeP && assumptions.get(peptideAssumption).size() > nSe) {
+                    nSe = assumptions.get(peptideAssumption).size();
+                    bestAssumption = peptideAssumption;
+                }
             }
         }
+        spectrumMatch.setFirstHit(bestAssumption.getAdvocate(), bestAssumption);
+        spectrumMatch.setBestAssumption(bestAssumption);
+        return bestP;
+    }
 
-        // the protein count map is no longer needed
-        proteinCount.clear();
+    /**
+     * Selects the best hits of a chunk of spectra. The points are added to
+     * the psm specific map of the executing thread.
+     */
+    private class BestHitSelection implements Callable<BestHitSelection> {
+
+        /**
+         * The keys of the spectra of the chunk.
+         */
+        private ArrayList<String> spectrumKeys;
+        /**
+         * The spectrum matches of the chunk.
+         */
+        private ArrayList<SpectrumMatch> spectrumMatches;
+        /**
+         * Boolean indicating whether multiple search engines were used.
+         */
+        private boolean multiSE;
+        /**
+         * The psm specific map of the executing thread.
+         */
+        private ThreadLocal<PsmSpecificMap> threadPsmMap;
+        /**
+         * The probabilistic scores of the best hits, in the order of the
+         * spectrum matches.
+         */
+        private double[] scores;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumKeys the keys of the spectra of the chunk
+         * @param spectrumMatches the spectrum matches of the chunk
+         * @param multiSE boolean indicating whether multiple search engines
+         * were used
+         * @param threadPsmMap the psm specific map of the executing thread
+         */
+        public BestHitSelection(ArrayList<String> spectrumKeys, ArrayList<SpectrumMatch> spectrumMatches, boolean multiSE, ThreadLocal<PsmSpecificMap> threadPsmMap) {
+            this.spectrumKeys = spectrumKeys;
+            this.spectrumMatches = spectrumMatches;
+            this.multiSE = multiSE;
+            this.threadPsmMap = threadPsmMap;
+        }
 
-        waitingHandler.setSecondaryProgressDialogIndeterminate(true);
+        @Override
+        public BestHitSelection call() {
+            PsmSpecificMap threadMap = threadPsmMap.get();
+            scores = new double[spectrumMatches.size()];
+            for (int i = 0; i < spectrumMatches.size(); i++) {
+                SpectrumMatch spectrumMatch = spectrumMatches.get(i);
+                scores[i] = selectBestHit(spectrumMatch, multiSE);
+                threadMap.addPoint(scores[i], spectrumMatch);
+            }
+            return this;
+        }
     }
 
     /**
@@ -887,40 +1234,45 @@ public class PeptideShaker {
         waitingHandler.setSecondaryProgressDialogIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressValue(max);
 
-        for (String spectrumKey : identification.getSpectrumIdentification()) {
+        SpectrumMatchFileIterator spectrumMatchIterator = new SpectrumMatchFileIterator(identification, false, true, SpectrumMatchFileIterator.DEFAULT_CHUNK_SIZE, waitingHandler);
 
-            waitingHandler.increaseSecondaryProgressValue();
+        while (spectrumMatchIterator.hasNext()) {
 
-            SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
+            for (String spectrumKey : spectrumMatchIterator.next()) {
 
-            for (int searchEngine : spectrumMatch.getAdvocates()) {
+                waitingHandler.increaseSecondaryProgressValue();
 
-                ArrayList<Double> eValues = new ArrayList<Double>(spectrumMatch.getAllAssumptions(searchEngine).keySet());
-                Collections.sort(eValues);
-                double previousP = 0;
+                SpectrumMatch spectrumMatch = spectrumMatchIterator.getSpectrumMatch(spectrumKey);
 
-                for (double eValue : eValues) {
+                for (int searchEngine : spectrumMatch.getAdvocates()) {
 
-                    for (PeptideAssumption peptideAssumption : spectrumMatch.getAllAssumptions(searchEngine).get(eValue)) {
+                    ArrayList<Double> eValues = new ArrayList<Double>(spectrumMatch.getAllAssumptions(searchEngine).keySet());
+                    Collections.sort(eValues);
+                    double previousP = 0;
 
-                        PSParameter psParameter = new PSParameter();
-                        double newP = inputMap.getProbability(searchEngine, eValue);
+                    for (double eValue : eValues) {
 
-                        if (newP > previousP) {
-                            psParameter.setSearchEngineProbability(newP);
-                            previousP = newP;
-                        } else {
-                            psParameter.setSearchEngineProbability(previousP);
-                        }
+                        for (PeptideAssumption peptideAssumption : spectrumMatch.getAllAssumptions(searchEngine).get(eValue)) {
 
-                        peptideAssumption.addUrParam(psParameter);
+                            PSParameter psParameter = new PSParameter();
+                            double newP = inputMap.getProbability(searchEngine, eValue);
+
+                            if (newP > previousP) {
+                                psParameter.setSearchEngineProbability(newP);
+                                previousP = newP;
+                            } else {
+                                psParameter.setSearchEngineProbability(previousP);
+                            }
+
+                            peptideAssumption.addUrParam(psParameter);
+                        }
                     }
                 }
-            }
 
-            identification.updateSpectrumMatch(spectrumMatch);
-            if (waitingHandler.isRunCanceled()) {
-                return;
+                identification.updateSpectrumMatch(spectrumMatch);
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
             }
         }
 
@@ -942,19 +1294,27 @@ public class PeptideShaker {
         waitingHandler.setSecondaryProgressDialogIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressValue(identification.getSpectrumIdentification().size());
 
-        PSParameter psParameter = new PSParameter();
+        // the scores change, the spectra need to be validated again
+        for (int mapKey : psmMap.getKeys().keySet()) {
+            psmMap.getTargetDecoyMap(mapKey).getTargetDecoyResults().resetValidationApplied();
+        }
 
-        for (String spectrumKey : identification.getSpectrumIdentification()) {
+        SpectrumMatchFileIterator spectrumMatchIterator = new SpectrumMatchFileIterator(identification, true, true, SpectrumMatchFileIterator.DEFAULT_CHUNK_SIZE, waitingHandler);
 
-            psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-            psParameter.setPsmProbability(psmMap.getProbability(psParameter.getSecificMapKey(), psParameter.getPsmProbabilityScore()));
-            identification.updateSpectrumMatchParameter(spectrumKey, psParameter);
+        while (spectrumMatchIterator.hasNext()) {
 
-            identification.buildPeptidesAndProteins(spectrumKey);
+            for (String spectrumKey : spectrumMatchIterator.next()) {
 
-            waitingHandler.increaseSecondaryProgressValue();
-            if (waitingHandler.isRunCanceled()) {
-                return;
+                PSParameter psParameter = spectrumMatchIterator.getParameter(spectrumKey);
+                psParameter.setPsmProbability(psmMap.getProbability(psParameter.getSecificMapKey(), psParameter.getPsmProbabilityScore()));
+                identification.updateSpectrumMatchParameter(spectrumKey, psParameter);
+
+                identification.buildPeptidesAndProteins(spectrumKey);
+
+                waitingHandler.increaseSecondaryProgressValue();
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
             }
         }
 
@@ -964,7 +1324,7 @@ public class PeptideShaker {
     /**
      * Attaches scores to possible PTM locations to spectrum matches.
      *
-     * @param inspectedSpectra
+     * @param inspectedSpectra the keys of the spectrum matches to score
      * @param waitingHandler the handler displaying feedback to the user
      * @param searchParameters the search preferences containing the m/z
      * tolerances
@@ -975,25 +1335,13 @@ public class PeptideShaker {
     public void scorePSMPTMs(ArrayList<String> inspectedSpectra, WaitingHandler waitingHandler, SearchParameters searchParameters,
             AnnotationPreferences annotationPreferences, PTMScoringPreferences ptmScoringPreferences) throws Exception {
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
-        SpectrumMatch spectrumMatch;
-
-        int max = inspectedSpectra.size();
-        waitingHandler.setSecondaryProgressDialogIndeterminate(false);
-        waitingHandler.setMaxSecondaryProgressValue(max);
-        PSParameter psParameter = new PSParameter();
-        for (String spectrumKey : inspectedSpectra) {
-            waitingHandler.increaseSecondaryProgressValue();
-            spectrumMatch = identification.getSpectrumMatch(spectrumKey);
-            psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-            double confidenceThreshold = psmMap.getTargetDecoyMap(psmMap.getCorrectedKey(psParameter.getSecificMapKey())).getTargetDecoyResults().getConfidenceLimit();
-            scorePTMs(spectrumMatch, searchParameters, annotationPreferences, ptmScoringPreferences, confidenceThreshold);
-        }
-
-        waitingHandler.setSecondaryProgressDialogIndeterminate(true);
+        PtmLocalizationScorer ptmLocalizationScorer = getPtmLocalizationScorer(searchParameters, annotationPreferences, ptmScoringPreferences);
+        ptmLocalizationScorer.scorePtms(identification, psmMap, inspectedSpectra, processingPreferences.getnThreads(), waitingHandler);
     }
 
     /**
-     * Scores the PTMs of all validated peptides.
+     * Scores the PTMs of all validated peptides using the number of threads
+     * of the processing preferences.
      *
      * @param waitingHandler the handler displaying feedback to the user
      * @param searchParameters the search preferences containing the m/z
@@ -1004,6 +1352,24 @@ public class PeptideShaker {
      * deserializing a match
      */
     public void scorePeptidePtms(WaitingHandler waitingHandler, SearchParameters searchParameters, AnnotationPreferences annotationPreferences, PTMScoringPreferences ptmScoringPreferences) throws Exception {
+        scorePeptidePtms(waitingHandler, searchParameters, annotationPreferences, ptmScoringPreferences, processingPreferences.getnThreads());
+    }
+
+    /**
+     * Scores the PTMs of all validated peptides. The best spectrum matches of
+     * every modified peptide are first gathered, then scored on the given
+     * number of threads, and the peptide scores are finally aggregated.
+     *
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param searchParameters the search preferences containing the m/z
+     * tolerances
+     * @param annotationPreferences the spectrum annotation preferences
+     * @param ptmScoringPreferences the prm scoring preferences
+     * @param nThreads the number of threads to use
+     * @throws Exception exception thrown whenever a problem occurred while
+     * deserializing a match
+     */
+    public void scorePeptidePtms(WaitingHandler waitingHandler, SearchParameters searchParameters, AnnotationPreferences annotationPreferences, PTMScoringPreferences ptmScoringPreferences, int nThreads) throws Exception {
 
         waitingHandler.setWaitingText("Scoring Peptide PTMs. Please Wait...");
 
@@ -1013,9 +1379,39 @@ public class PeptideShaker {
         waitingHandler.setSecondaryProgressDialogIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressValue(max);
 
+        ArrayList<String> modifiedPeptides = new ArrayList<String>();
+        HashMap<String, ArrayList<String>> peptideModifications = new HashMap<String, ArrayList<String>>();
+        HashMap<String, ArrayList<String>> peptideBestKeys = new HashMap<String, ArrayList<String>>();
+        ArrayList<String> spectrumKeys = new ArrayList<String>();
+
         for (String peptideKey : identification.getPeptideIdentification()) {
             PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
-            scorePTMs(peptideMatch, searchParameters, annotationPreferences, ptmScoringPreferences);
+            ArrayList<String> variableModifications = getVariableModifications(peptideMatch);
+            if (!variableModifications.isEmpty()) {
+                ArrayList<String> bestKeys = getBestSpectrumKeys(identification, peptideMatch);
+                modifiedPeptides.add(peptideKey);
+                peptideModifications.put(peptideKey, variableModifications);
+                peptideBestKeys.put(peptideKey, bestKeys);
+                spectrumKeys.addAll(bestKeys);
+            }
+            waitingHandler.increaseSecondaryProgressValue();
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+        }
+
+        PtmLocalizationScorer ptmLocalizationScorer = getPtmLocalizationScorer(searchParameters, annotationPreferences, ptmScoringPreferences);
+        ptmLocalizationScorer.scorePtms(identification, psmMap, spectrumKeys, nThreads, waitingHandler);
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
+
+        waitingHandler.setSecondaryProgressDialogIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressValue(modifiedPeptides.size());
+
+        for (String peptideKey : modifiedPeptides) {
+            PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+            attachPeptidePtmScores(identification, peptideMatch, peptideModifications.get(peptideKey), peptideBestKeys.get(peptideKey));
             waitingHandler.increaseSecondaryProgressValue();
             if (waitingHandler.isRunCanceled()) {
                 return;
@@ -1059,18 +1455,38 @@ public class PeptideShaker {
 
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
 
-        int max = identification.getProteinIdentification().size();
-        waitingHandler.setSecondaryProgressDialogIndeterminate(false);
-        waitingHandler.setMaxSecondaryProgressValue(max);
-
         // If needed, while we are iterating proteins, we will take the maximal spectrum counting value and number of validated proteins as well.
         // The spectrum counting preferences are here the default preferences.
         int nValidatedProteins = 0;
         SpectrumCountingPreferences tempPreferences = new SpectrumCountingPreferences();
         PSParameter psParameter = new PSParameter();
         double tempSpectrumCounting, maxSpectrumCounting = 0;
-        Enzyme enzyme = searchParameters.getEnzyme();
-        int maxPepLength = idFilter.getMaxPepLength();
+        Enzyme enzyme = null;
+        int maxPepLength = 0;
+        HashMap<String, Double> spectrumCounting = null;
+
+        if (metrics != null) {
+            enzyme = searchParameters.getEnzyme();
+            maxPepLength = idFilter.getMaxPepLength();
+
+            // the NSAF of all proteins is estimated in a single pass using the peptide occurrences in the protein groups
+            if (tempPreferences.getSelectedMethod() == SpectralCountingMethod.NSAF) {
+                PeptideOccurrenceIndex peptideOccurrenceIndex = new PeptideOccurrenceIndex(identification, sequenceFactory, waitingHandler);
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
+                spectrumCounting = peptideOccurrenceIndex.getNsaf(identification, sequenceFactory, identification.getProteinIdentification(),
+                        tempPreferences, enzyme, maxPepLength, waitingHandler);
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
+            }
+        }
+
+        int max = identification.getProteinIdentification().size();
+        waitingHandler.setSecondaryProgressDialogIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressValue(max);
+        waitingHandler.setSecondaryProgressValue(0);
 
         for (String proteinKey : identification.getProteinIdentification()) {
             ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
@@ -1081,7 +1497,11 @@ public class PeptideShaker {
                 if (psParameter.isValidated()) {
                     nValidatedProteins++;
                 }
-                tempSpectrumCounting = IdentificationFeaturesGenerator.estimateSpectrumCounting(identification, sequenceFactory, proteinKey, tempPreferences, enzyme, maxPepLength);
+                if (spectrumCounting != null) {
+                    tempSpectrumCounting = spectrumCounting.get(proteinKey);
+                } else {
+                    tempSpectrumCounting = IdentificationFeaturesGenerator.estimateSpectrumCounting(identification, sequenceFactory, proteinKey, tempPreferences, enzyme, maxPepLength);
+                }
                 if (tempSpectrumCounting > maxSpectrumCounting) {
                     maxSpectrumCounting = tempSpectrumCounting;
                 }
@@ -1185,286 +1605,183 @@ public class PeptideShaker {
      */
     public void scorePTMs(PeptideMatch peptideMatch, SearchParameters searchParameters, AnnotationPreferences annotationPreferences, PTMScoringPreferences scoringPreferences) throws Exception {
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
-        PSPtmScores psmScores, peptideScores = new PSPtmScores();
-        PSParameter psParameter = new PSParameter();
-        ArrayList<String> variableModifications = new ArrayList<String>();
-
-        for (ModificationMatch modificationMatch : peptideMatch.getTheoreticPeptide().getModificationMatches()) {
-            if (modificationMatch.isVariable()) {
-                PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
-                if (ptm.getType() == PTM.MODAA
-                        && !variableModifications.contains(modificationMatch.getTheoreticPtm())) {
-                    variableModifications.add(modificationMatch.getTheoreticPtm());
-                }
-            }
-        }
+        ArrayList<String> variableModifications = getVariableModifications(peptideMatch);
 
         if (variableModifications.size() > 0) {
 
-            boolean validated = false;
-            double bestConfidence = 0;
-            ArrayList<String> bestKeys = new ArrayList<String>();
-
-            for (String spectrumKey : peptideMatch.getSpectrumMatches()) {
-                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-                if (psParameter.isValidated()) {
-                    if (!validated) {
-                        validated = true;
-                        bestKeys.clear();
-                    }
-                    bestKeys.add(spectrumKey);
-                } else if (!validated) {
-                    if (psParameter.getPsmConfidence() > bestConfidence) {
-                        bestConfidence = psParameter.getPsmConfidence();
-                        bestKeys.clear();
-                        bestKeys.add(spectrumKey);
-                    } else if (psParameter.getPsmConfidence() == bestConfidence) {
-                        bestKeys.add(spectrumKey);
-                    }
-                }
-            }
+            ArrayList<String> bestKeys = getBestSpectrumKeys(identification, peptideMatch);
+            PtmLocalizationScorer ptmLocalizationScorer = getPtmLocalizationScorer(searchParameters, annotationPreferences, scoringPreferences);
+            PSParameter psParameter = new PSParameter();
 
             for (String spectrumKey : bestKeys) {
-
                 psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
                 double confidenceThreshold = psmMap.getTargetDecoyMap(psmMap.getCorrectedKey(psParameter.getSecificMapKey())).getTargetDecoyResults().getConfidenceLimit();
                 SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
-                scorePTMs(spectrumMatch, searchParameters, annotationPreferences, scoringPreferences, confidenceThreshold);
-
-                for (String modification : variableModifications) {
-
-                    if (!peptideScores.containsPtm(modification)) {
-                        peptideScores.addPtmScoring(modification, new PtmScoring(modification));
-                    }
-
-                    psmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
-
-                    if (psmScores != null) {
-                        PtmScoring spectrumScoring = psmScores.getPtmScoring(modification);
-                        if (spectrumScoring != null) {
-                            peptideScores.getPtmScoring(modification).addAll(spectrumScoring);
-                        }
-                    }
+                if (ptmLocalizationScorer.scorePtms(spectrumMatch, confidenceThreshold)) {
+                    identification.updateSpectrumMatch(spectrumMatch);
                 }
             }
 
-            for (String modification : variableModifications) {
-
-                PtmScoring scoring = peptideScores.getPtmScoring(modification);
-
-                if (scoring != null) {
-                    for (int mainLocation : scoring.getPtmLocation()) {
-                        peptideScores.addMainModificationSite(modification, mainLocation);
-                    }
-                    for (int secondaryLocation : scoring.getSecondaryPtmLocations()) {
-                        peptideScores.addSecondaryModificationSite(modification, secondaryLocation);
-                    }
-                }
-            }
-
-            peptideMatch.addUrParam(peptideScores);
-            identification.updatePeptideMatch(peptideMatch);
+            attachPeptidePtmScores(identification, peptideMatch, variableModifications, bestKeys);
         }
     }
 
     /**
-     * Scores PTM locations for a desired spectrumMatch.
+     * Returns the PTM localization scorer for the given preferences. The
+     * scorer copies the annotation preferences when created, it is therefore
+     * reused as long as the same preference objects are given.
      *
-     * @param spectrumMatch The spectrum match of interest
      * @param searchParameters the search preferences containing the m/z
      * tolerances
      * @param annotationPreferences the spectrum annotation preferences
      * @param scoringPreferences the PTM scoring preferences
-     * @param confidenceThreshold the confidence validation threshold for this
-     * PSM
-     * @throws Exception exception thrown whenever an error occurred while
-     * reading/writing the an identification match
+     * @return the PTM localization scorer
+     * @throws Exception exception thrown whenever the annotation preferences
+     * could not be copied
      */
-    public void scorePTMs(SpectrumMatch spectrumMatch, SearchParameters searchParameters, AnnotationPreferences annotationPreferences, PTMScoringPreferences scoringPreferences, double confidenceThreshold) throws Exception {
-
-        attachDeltaScore(spectrumMatch);
-        if (scoringPreferences.aScoreCalculation()) {
-            attachAScore(spectrumMatch, searchParameters, annotationPreferences, scoringPreferences);
+    private synchronized PtmLocalizationScorer getPtmLocalizationScorer(SearchParameters searchParameters, AnnotationPreferences annotationPreferences, PTMScoringPreferences scoringPreferences) throws Exception {
+        if (ptmLocalizationScorer == null
+                || scorerSearchParameters != searchParameters
+                || scorerAnnotationPreferences != annotationPreferences
+                || scorerScoringPreferences != scoringPreferences) {
+            ptmLocalizationScorer = new PtmLocalizationScorer(searchParameters, annotationPreferences, scoringPreferences);
+            scorerSearchParameters = searchParameters;
+            scorerAnnotationPreferences = annotationPreferences;
+            scorerScoringPreferences = scoringPreferences;
         }
-        PSPtmScores ptmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
-
-        if (ptmScores != null) {
-
-            for (String modification : ptmScores.getScoredPTMs()) {
-
-                PtmScoring ptmScoring = ptmScores.getPtmScoring(modification);
-                String bestAKey = ptmScoring.getBestAScoreLocations();
-                String bestDKey = ptmScoring.getBestDeltaScoreLocations();
-                String retainedKey;
-                int confidence = PtmScoring.RANDOM;
+        return ptmLocalizationScorer;
+    }
 
-                if (bestAKey != null) {
-                    retainedKey = bestAKey;
-                    if (ptmScoring.getAScore(bestAKey) <= scoringPreferences.getaScoreThreshold()) {
-                        if (bestAKey.equals(bestDKey)) {
-                            confidence = PtmScoring.DOUBTFUL;
-                            if (ptmScoring.getDeltaScore(bestDKey) > 100.0 - confidenceThreshold) {
-                                confidence = PtmScoring.CONFIDENT;
-                            }
-                        }
-                    } else if (bestAKey.equals(bestDKey)) {
-                        confidence = PtmScoring.VERY_CONFIDENT;
-                    } else {
-                        confidence = PtmScoring.CONFIDENT;
-                    }
-                } else {
-                    retainedKey = bestDKey;
-                    if (ptmScoring.getDeltaScore(bestDKey) > 100.0 - confidenceThreshold) {
-                        confidence = PtmScoring.CONFIDENT;
-                    } else {
-                        confidence = PtmScoring.DOUBTFUL;
-                    }
-                }
-                if (retainedKey != null) {
-                    ptmScoring.setPtmSite(retainedKey, confidence);
+    /**
+     * Returns the variable PTMs located on amino acids of a peptide match.
+     *
+     * @param peptideMatch the peptide match of interest
+     * @return the names of the variable PTMs of the peptide
+     */
+    private ArrayList<String> getVariableModifications(PeptideMatch peptideMatch) {
+        ArrayList<String> variableModifications = new ArrayList<String>();
+        for (ModificationMatch modificationMatch : peptideMatch.getTheoreticPeptide().getModificationMatches()) {
+            if (modificationMatch.isVariable()) {
+                PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
+                if (ptm.getType() == PTM.MODAA
+                        && !variableModifications.contains(modificationMatch.getTheoreticPtm())) {
+                    variableModifications.add(modificationMatch.getTheoreticPtm());
                 }
             }
         }
+        return variableModifications;
     }
 
     /**
-     * Scores the PTM locations using the delta score.
+     * Returns the keys of the spectrum matches used to score the PTMs of a
+     * peptide: the validated spectrum matches if any, the spectrum matches
+     * with the best confidence otherwise.
      *
-     * @param spectrumMatch the spectrum match of interest
+     * @param identification the identification
+     * @param peptideMatch the peptide match of interest
+     * @return the keys of the spectrum matches to score
      * @throws Exception exception thrown whenever an error occurred while
-     * reading/writing the an identification match
+     * deserializing a match
      */
-    private void attachDeltaScore(SpectrumMatch spectrumMatch) throws Exception {
-        Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
-
-        HashMap<String, ArrayList<Integer>> modificationProfiles = new HashMap<String, ArrayList<Integer>>();
-        PSPtmScores ptmScores = new PSPtmScores();
-
-        if (spectrumMatch.getUrParam(new PSPtmScores()) != null) {
-            ptmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
-        }
+    private ArrayList<String> getBestSpectrumKeys(Identification identification, PeptideMatch peptideMatch) throws Exception {
 
         PSParameter psParameter = new PSParameter();
-        psParameter = (PSParameter) spectrumMatch.getBestAssumption().getUrParam(psParameter);
-        double p1 = psParameter.getSearchEngineProbability();
+        boolean validated = false;
+        double bestConfidence = 0;
+        ArrayList<String> bestKeys = new ArrayList<String>();
 
-        String mainSequence = spectrumMatch.getBestAssumption().getPeptide().getSequence();
-        double p2 = 1;
-        ArrayList<String> modifications = new ArrayList<String>();
-
-        for (ModificationMatch modificationMatch : spectrumMatch.getBestAssumption().getPeptide().getModificationMatches()) {
-            if (modificationMatch.isVariable()) {
-                PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
-                if (ptm.getType() == PTM.MODAA) {
-                    String modificationName = modificationMatch.getTheoreticPtm();
-                    if (!modifications.contains(modificationName)) {
-                        modifications.add(modificationName);
-                        modificationProfiles.put(modificationName, new ArrayList<Integer>());
-                    }
-                    modificationProfiles.get(modificationName).add(modificationMatch.getModificationSite());
-                }
-            }
-        }
-
-        if (!modifications.isEmpty()) {
-            for (String mod : modifications) {
-                for (PeptideAssumption peptideAssumption : spectrumMatch.getAllAssumptions()) {
-                    if (peptideAssumption.getPeptide().getSequence().equals(mainSequence)) {
-                        boolean newLocation = false;
-                        for (ModificationMatch modMatch : peptideAssumption.getPeptide().getModificationMatches()) {
-                            if (modMatch.getTheoreticPtm().equals(mod)
-                                    && !modificationProfiles.get(mod).contains(modMatch.getModificationSite())) {
-                                newLocation = true;
-                                break;
-                            }
-                        }
-                        if (newLocation) {
-                            psParameter = (PSParameter) peptideAssumption.getUrParam(psParameter);
-                            if (psParameter.getSearchEngineProbability() < p2) {
-                                p2 = psParameter.getSearchEngineProbability();
-                            }
-                        }
-                    }
-                }
-                PtmScoring ptmScoring = ptmScores.getPtmScoring(mod);
-                if (ptmScoring == null) {
-                    ptmScoring = new PtmScoring(mod);
+        for (String spectrumKey : peptideMatch.getSpectrumMatches()) {
+            psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+            if (psParameter.isValidated()) {
+                if (!validated) {
+                    validated = true;
+                    bestKeys.clear();
                 }
-                if (p2 < p1) {
-                    p2 = p1;
+                bestKeys.add(spectrumKey);
+            } else if (!validated) {
+                if (psParameter.getPsmConfidence() > bestConfidence) {
+                    bestConfidence = psParameter.getPsmConfidence();
+                    bestKeys.clear();
+                    bestKeys.add(spectrumKey);
+                } else if (psParameter.getPsmConfidence() == bestConfidence) {
+                    bestKeys.add(spectrumKey);
                 }
-                ptmScoring.addDeltaScore(modificationProfiles.get(mod), (p2 - p1) * 100);
-                ptmScores.addPtmScoring(mod, ptmScoring);
             }
-
-            spectrumMatch.addUrParam(ptmScores);
-            identification.updateSpectrumMatch(spectrumMatch);
         }
+
+        return bestKeys;
     }
 
     /**
-     * Attach the a-score.
+     * Aggregates the PTM scores of the given scored spectrum matches and
+     * attaches them to the peptide match.
      *
-     * @param spectrumMatch
-     * @param searchParameters
-     * @param annotationPreferences
-     * @throws Exception
+     * @param identification the identification
+     * @param peptideMatch the peptide match of interest
+     * @param variableModifications the variable PTMs of the peptide
+     * @param bestKeys the keys of the scored spectrum matches
+     * @throws Exception exception thrown whenever an error occurred while
+     * reading/writing the an identification match
      */
-    private void attachAScore(SpectrumMatch spectrumMatch, SearchParameters searchParameters, AnnotationPreferences annotationPreferences, PTMScoringPreferences scoringPreferences) throws Exception {
+    private void attachPeptidePtmScores(Identification identification, PeptideMatch peptideMatch, ArrayList<String> variableModifications, ArrayList<String> bestKeys) throws Exception {
 
-        Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
+        PSPtmScores psmScores, peptideScores = new PSPtmScores();
 
-        PSPtmScores ptmScores = new PSPtmScores();
+        for (String spectrumKey : bestKeys) {
 
-        if (spectrumMatch.getUrParam(new PSPtmScores()) != null) {
-            ptmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
-        }
+            SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
+            psmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
 
-        HashMap<String, PTM> modifications = new HashMap<String, PTM>();
-        HashMap<String, Integer> nMod = new HashMap<String, Integer>();
+            for (String modification : variableModifications) {
 
-        for (ModificationMatch modificationMatch : spectrumMatch.getBestAssumption().getPeptide().getModificationMatches()) {
-            if (modificationMatch.isVariable()) {
-                PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
-                if (ptm.getType() == PTM.MODAA) {
-                    String modificationName = modificationMatch.getTheoreticPtm();
-                    if (!modifications.keySet().contains(modificationName)) {
-                        modifications.put(modificationName, ptm);
-                        nMod.put(modificationName, 1);
-                    } else {
-                        nMod.put(modificationName, nMod.get(modificationName) + 1);
+                if (!peptideScores.containsPtm(modification)) {
+                    peptideScores.addPtmScoring(modification, new PtmScoring(modification));
+                }
+
+                if (psmScores != null) {
+                    PtmScoring spectrumScoring = psmScores.getPtmScoring(modification);
+                    if (spectrumScoring != null) {
+                        peptideScores.getPtmScoring(modification).addAll(spectrumScoring);
                     }
                 }
             }
         }
 
-        if (!modifications.isEmpty()) {
+        for (String modification : variableModifications) {
 
-            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumMatch.getKey());
-            annotationPreferences.setCurrentSettings(spectrumMatch.getBestAssumption().getPeptide(), spectrumMatch.getBestAssumption().getIdentificationCharge().value, true);
+            PtmScoring scoring = peptideScores.getPtmScoring(modification);
 
-            for (String mod : modifications.keySet()) {
-                if (nMod.get(mod) == 1) {
-                    HashMap<ArrayList<Integer>, Double> aScores = PTMLocationScores.getAScore(spectrumMatch.getBestAssumption().getPeptide(),
-                            modifications.get(mod), nMod.get(mod), spectrum, annotationPreferences.getIonTypes(),
-                            annotationPreferences.getNeutralLosses(), annotationPreferences.getValidatedCharges(),
-                            spectrumMatch.getBestAssumption().getIdentificationCharge().value,
-                            searchParameters.getFragmentIonAccuracy(), scoringPreferences.isaScoreNeutralLosses());
-                    PtmScoring ptmScoring = ptmScores.getPtmScoring(mod);
-
-                    if (ptmScoring == null) {
-                        ptmScoring = new PtmScoring(mod);
-                    }
-
-                    for (ArrayList<Integer> modificationProfile : aScores.keySet()) {
-                        ptmScoring.addAScore(modificationProfile, aScores.get(modificationProfile));
-                    }
-
-                    ptmScores.addPtmScoring(mod, ptmScoring);
+            if (scoring != null) {
+                for (int mainLocation : scoring.getPtmLocation()) {
+                    peptideScores.addMainModificationSite(modification, mainLocation);
+                }
+                for (int secondaryLocation : scoring.getSecondaryPtmLocations()) {
+                    peptideScores.addSecondaryModificationSite(modification, secondaryLocation);
                 }
             }
+        }
 
-            spectrumMatch.addUrParam(ptmScores);
+        peptideMatch.addUrParam(peptideScores);
+        identification.updatePeptideMatch(peptideMatch);
+    }
+
+    /**
+     * Scores PTM locations for a desired spectrumMatch.
+     *
+     * @param spectrumMatch The spectrum match of interest
+     * @param searchParameters the search preferences containing the m/z
+     * tolerances
+     * @param annotationPreferences the spectrum annotation preferences
+     * @param scoringPreferences the PTM scoring preferences
+     * @param confidenceThreshold the confidence validation threshold for this
+     * PSM
+     * @throws Exception exception thrown whenever an error occurred while
+     * reading/writing the an identification match
+     */
+    public void scorePTMs(SpectrumMatch spectrumMatch, SearchParameters searchParameters, AnnotationPreferences annotationPreferences, PTMScoringPreferences scoringPreferences, double confidenceThreshold) throws Exception {
+        Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
+        PtmLocalizationScorer ptmLocalizationScorer = getPtmLocalizationScorer(searchParameters, annotationPreferences, scoringPreferences);
+        if (ptmLocalizationScorer.scorePtms(spectrumMatch, confidenceThreshold)) {
             identification.updateSpectrumMatch(spectrumMatch);
         }
     }
@@ -1482,11 +1799,25 @@ public class PeptideShaker {
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
         PSParameter psParameter = new PSParameter();
 
+        // read the PSM probabilities with the parameters of one spectrum file loaded at a time
+        HashMap<String, Double> psmProbabilities = new HashMap<String, Double>(identification.getSpectrumIdentification().size());
+        SpectrumMatchFileIterator spectrumMatchIterator = new SpectrumMatchFileIterator(identification, true, false, SpectrumMatchFileIterator.DEFAULT_CHUNK_SIZE, waitingHandler);
+
+        while (spectrumMatchIterator.hasNext()) {
+            for (String spectrumKey : spectrumMatchIterator.next()) {
+                psmProbabilities.put(spectrumKey, spectrumMatchIterator.getParameter(spectrumKey).getPsmProbability());
+            }
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+        }
+
         waitingHandler.setSecondaryProgressDialogIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressValue(identification.getPeptideIdentification().size());
 
         ArrayList<String> foundModifications = new ArrayList<String>();
-        HashMap<String, ArrayList<String>> fractionPsmMatches = new HashMap<String, ArrayList<String>>();
+        FractionIndex fractionIndex = new FractionIndex();
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
 
         for (String peptideKey : identification.getPeptideIdentification()) {
             for (String modification : Peptide.getModificationFamily(peptideKey)) {
@@ -1498,28 +1829,26 @@ public class PeptideShaker {
             double probaScore = 1;
             HashMap<String, Double> fractionScores = new HashMap<String, Double>();
             PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+            double[] precursorIntensities = new double[peptideMatch.getSpectrumMatches().size()];
+            int spectrumIndex = 0;
 
             // get the fraction scores
             for (String spectrumKey : peptideMatch.getSpectrumMatches()) {
-                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-                probaScore = probaScore * psParameter.getPsmProbability();
+                double psmProbability = psmProbabilities.get(spectrumKey);
+                probaScore = probaScore * psmProbability;
                 String fraction = Spectrum.getSpectrumFile(spectrumKey);
 
                 if (!fractionScores.containsKey(fraction)) {
                     fractionScores.put(fraction, 1.0);
                 }
 
-                fractionScores.put(fraction, fractionScores.get(fraction) * psParameter.getPsmProbability());
+                fractionScores.put(fraction, fractionScores.get(fraction) * psmProbability);
 
-                if (!fractionPsmMatches.containsKey(fraction + "_" + peptideKey)) {
-                    ArrayList<String> spectrumMatches = new ArrayList<String>(1);
-                    spectrumMatches.add(spectrumKey);
-                    fractionPsmMatches.put(fraction + "_" + peptideKey, spectrumMatches);
-                } else {
-                    fractionPsmMatches.get(fraction + "_" + peptideKey).add(spectrumKey);
-                }
+                precursorIntensities[spectrumIndex++] = spectrumFactory.getPrecursor(spectrumKey).getIntensity();
             }
 
+            fractionIndex.addPeptide(peptideKey, peptideMatch.getSpectrumMatches(), precursorIntensities);
+
             psParameter = new PSParameter();
             psParameter.setPeptideProbabilityScore(probaScore);
             psParameter.setSecificMapKey(peptideMap.getKey(peptideMatch));
@@ -1539,8 +1868,8 @@ public class PeptideShaker {
             }
         }
 
-        // set the fraction psm matches
-        metrics.setFractionPsmMatches(fractionPsmMatches);
+        // set the spectra per fraction
+        metrics.setFractionIndex(fractionIndex);
 
         // set the ptms
         metrics.setFoundModifications(foundModifications);
@@ -1558,8 +1887,14 @@ public class PeptideShaker {
 
         waitingHandler.setWaitingText("Attaching Peptide Probabilities. Please Wait...");
 
+        // the scores change, the peptides need to be validated again
+        for (String mapKey : peptideMap.getKeys()) {
+            peptideMap.getTargetDecoyMap(mapKey).getTargetDecoyResults().resetValidationApplied();
+        }
+
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
         PSParameter psParameter = new PSParameter();
+        identification.loadPeptideMatchParameters(psParameter, waitingHandler);
 
         waitingHandler.setSecondaryProgressDialogIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressValue(identification.getPeptideIdentification().size());
@@ -1591,6 +1926,8 @@ public class PeptideShaker {
 
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
         PSParameter psParameter = new PSParameter();
+        identification.loadProteinMatches(waitingHandler);
+        identification.loadPeptideMatchParameters(psParameter, waitingHandler);
 
         int max = identification.getProteinIdentification().size();
 
@@ -1651,7 +1988,12 @@ public class PeptideShaker {
 
         waitingHandler.setWaitingText("Attaching Protein Probabilities. Please Wait...");
 
+        // the scores change, the proteins need to be validated again
+        proteinMap.getTargetDecoyMap().getTargetDecoyResults().resetValidationApplied();
+
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
+        identification.loadProteinMatches(waitingHandler);
+        identification.loadProteinMatchParameters(new PSParameter(), waitingHandler);
 
         waitingHandler.setSecondaryProgressDialogIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressValue(identification.getProteinIdentification().size());
@@ -1713,6 +2055,8 @@ public class PeptideShaker {
 
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
         PSParameter psParameter = new PSParameter();
+        identification.loadProteinMatches(waitingHandler);
+        identification.loadProteinMatchParameters(psParameter, waitingHandler);
         ArrayList<String> toRemove = new ArrayList<String>();
         int maxProteinKeyLength = 0;
 
@@ -1721,26 +2065,73 @@ public class PeptideShaker {
         waitingHandler.setSecondaryProgressDialogIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressValue(max);
 
-        for (String proteinSharedKey : identification.getProteinIdentification()) {
+        // index the groups by accession and get the group scores
+        final ArrayList<String> proteinKeys = identification.getProteinIdentification();
+        final HashMap<String, ArrayList<Integer>> accessionToGroups = new HashMap<String, ArrayList<Integer>>();
+        final double[] groupScores = new double[proteinKeys.size()];
+        ArrayList<Integer> sharedGroups = new ArrayList<Integer>();
+
+        for (int i = 0; i < proteinKeys.size(); i++) {
+            String proteinKey = proteinKeys.get(i);
+            for (String accession : ProteinMatch.getAccessions(proteinKey)) {
+                ArrayList<Integer> groups = accessionToGroups.get(accession);
+                if (groups == null) {
+                    groups = new ArrayList<Integer>(1);
+                    accessionToGroups.put(accession, groups);
+                }
+                groups.add(i);
+            }
+            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+            groupScores[i] = psParameter.getProteinProbabilityScore();
+            if (ProteinMatch.getNProteins(proteinKey) > 1 && groupScores[i] < 1) {
+                sharedGroups.add(i);
+            }
+        }
 
-            if (ProteinMatch.getNProteins(proteinSharedKey) > 1) {
-                psParameter = (PSParameter) identification.getProteinMatchParameter(proteinSharedKey, psParameter);
-                double sharedProteinProbabilityScore = psParameter.getProteinProbabilityScore();
-                if (sharedProteinProbabilityScore < 1) {
+        // find the groups contained in every shared group, the shared groups are independent
+        int nThreads = Math.max(1, Math.min(processingPreferences.getnThreads(), sharedGroups.size() / SHARED_GROUPS_CHUNK_SIZE + 1));
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<Future<int[][]>> futures = new ArrayList<Future<int[][]>>();
+        try {
+            for (int start = 0; start < sharedGroups.size(); start += SHARED_GROUPS_CHUNK_SIZE) {
+                final List<Integer> chunk = sharedGroups.subList(start, Math.min(start + SHARED_GROUPS_CHUNK_SIZE, sharedGroups.size()));
+                futures.add(pool.submit(new Callable<int[][]>() {
+                    public int[][] call() {
+                        int[][] result = new int[chunk.size()][];
+                        for (int i = 0; i < chunk.size(); i++) {
+                            result[i] = getContainedGroups(chunk.get(i), proteinKeys, accessionToGroups);
+                        }
+                        return result;
+                    }
+                }));
+            }
+
+            int sharedIndex = 0;
+            for (Future<int[][]> future : futures) {
+                int[][] containedGroups;
+                try {
+                    containedGroups = future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+                for (int[] contained : containedGroups) {
+                    int sharedGroup = sharedGroups.get(sharedIndex++);
+                    String proteinSharedKey = proteinKeys.get(sharedGroup);
+                    double sharedProteinProbabilityScore = groupScores[sharedGroup];
                     boolean better = false;
-                    for (String proteinUniqueKey : identification.getProteinIdentification()) {
-                        if (ProteinMatch.contains(proteinSharedKey, proteinUniqueKey)) {
-                            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinUniqueKey, psParameter);
-                            double uniqueProteinProbabilityScore = psParameter.getProteinProbabilityScore();
-                            ProteinMatch proteinUnique = identification.getProteinMatch(proteinUniqueKey);
-                            ProteinMatch proteinShared = identification.getProteinMatch(proteinSharedKey);
-                            for (String sharedPeptideKey : proteinShared.getPeptideMatches()) {
-                                proteinUnique.addPeptideMatch(sharedPeptideKey);
-                            }
-                            identification.updateProteinMatch(proteinUnique);
-                            if (uniqueProteinProbabilityScore <= sharedProteinProbabilityScore) {
-                                better = true;
-                            }
+                    for (int uniqueGroup : contained) {
+                        String proteinUniqueKey = proteinKeys.get(uniqueGroup);
+                        ProteinMatch proteinUnique = identification.getProteinMatch(proteinUniqueKey);
+                        ProteinMatch proteinShared = identification.getProteinMatch(proteinSharedKey);
+                        for (String sharedPeptideKey : proteinShared.getPeptideMatches()) {
+                            proteinUnique.addPeptideMatch(sharedPeptideKey);
+                        }
+                        identification.updateProteinMatch(proteinUnique);
+                        if (groupScores[uniqueGroup] <= sharedProteinProbabilityScore) {
+                            better = true;
                         }
                     }
                     if (better) {
@@ -1753,6 +2144,8 @@ public class PeptideShaker {
                     }
                 }
             }
+        } finally {
+            pool.shutdownNow();
         }
 
         for (String proteinKey : toRemove) {
@@ -1990,6 +2383,35 @@ public class PeptideShaker {
         waitingHandler.appendReport(nSolved + " conflicts resolved. " + nGroups + " protein groups remaining (" + nLeft + " suspicious).", true, true);
     }
 
+    /**
+     * Returns the indexes of the protein groups contained in a shared group,
+     * in the order of the given protein keys. Only the groups sharing an
+     * accession with the shared group are inspected.
+     *
+     * @param sharedGroup the index of the shared group
+     * @param proteinKeys the protein group keys
+     * @param accessionToGroups the indexes of the groups containing every
+     * accession
+     * @return the indexes of the groups contained in the shared group
+     */
+    private static int[] getContainedGroups(int sharedGroup, ArrayList<String> proteinKeys, HashMap<String, ArrayList<Integer>> accessionToGroups) {
+        String proteinSharedKey = proteinKeys.get(sharedGroup);
+        HashSet<Integer> candidates = new HashSet<Integer>();
+        for (String accession : ProteinMatch.getAccessions(proteinSharedKey)) {
+            candidates.addAll(accessionToGroups.get(accession));
+        }
+        int[] contained = new int[candidates.size()];
+        int nContained = 0;
+        for (int candidate : candidates) {
+            if (ProteinMatch.contains(proteinSharedKey, proteinKeys.get(candidate))) {
+                contained[nContained++] = candidate;
+            }
+        }
+        contained = Arrays.copyOf(contained, nContained);
+        Arrays.sort(contained);
+        return contained;
+    }
+
     /**
      * Parses a protein description retaining only words longer than 3
      * characters.
@@ -2045,6 +2467,16 @@ public class PeptideShaker {
         return metrics;
     }
 
+    /**
+     * Sets the metrics to use and update, typically the metrics of a project
+     * being revalidated.
+     *
+     * @param metrics the metrics
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * Sets the protein count map
      *
@@ -7,12 +7,17 @@ import com.compomics.util.experiment.biology.EnzymeFactory;
 import com.compomics.util.experiment.biology.PTM;
 import com.compomics.util.experiment.biology.PTMFactory;
 import com.compomics.util.experiment.biology.Sample;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.IdentificationMethod;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
 import com.compomics.util.experiment.io.identifications.IdentificationParametersReader;
 import eu.isas.peptideshaker.PeptideShaker;
+import eu.isas.peptideshaker.export.ColumnarExporter;
 import eu.isas.peptideshaker.export.CsvExporter;
 import eu.isas.peptideshaker.fileimport.FileImporter;
 import eu.isas.peptideshaker.fileimport.IdFilter;
 import eu.isas.peptideshaker.gui.NewDialog;
+import eu.isas.peptideshaker.myparameters.PSParameter;
 import com.compomics.util.gui.waiting.WaitingHandler;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
 import com.compomics.util.preferences.AnnotationPreferences;
@@ -20,6 +25,8 @@ import eu.isas.peptideshaker.preferences.PTMScoringPreferences;
 import eu.isas.peptideshaker.preferences.ProcessingPreferences;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import eu.isas.peptideshaker.preferences.SearchParameters;
+import eu.isas.peptideshaker.utils.GoEnrichment;
+import eu.isas.peptideshaker.utils.GoMappingIndex;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import org.apache.commons.cli.*;
 
@@ -167,6 +174,10 @@ public class PeptideShakerCLI implements Callable {
         processingPreferences.setPsmFDR(iCLIInputBean.getPSMFDR());
         processingPreferences.setPeptideFDR(iCLIInputBean.getPeptideFDR());
         processingPreferences.setProteinFDR(iCLIInputBean.getProteinFDR());
+        processingPreferences.setIsoleucineLeucineEquivalent(iCLIInputBean.isIsoleucineLeucineEquivalent());
+        if (iCLIInputBean.getNThreads() != null) {
+            processingPreferences.setnThreads(iCLIInputBean.getNThreads());
+        }
         
         PTMScoringPreferences ptmScoringPreferences = new PTMScoringPreferences();
         ptmScoringPreferences.setaScoreCalculation(iCLIInputBean.estimateAScore());
@@ -177,7 +188,21 @@ public class PeptideShakerCLI implements Callable {
 
         // Export the PeptideShaker project into a CSV file
         CsvExporter exporter = new CsvExporter(experiment, sample, 1, searchParameters.getEnzyme(), lIdentificationFeaturesGenerator);
-        exporter.exportResults(null, iCLIInputBean.getOutput()); //@TODO you might want to use other kind of output
+        exporter.exportResults(null, iCLIInputBean.getOutput(), processingPreferences.getnThreads()); //@TODO you might want to use other kind of output
+
+        if (iCLIInputBean.exportColumnar()) {
+            ColumnarExporter columnarExporter = new ColumnarExporter(experiment, sample, 1, searchParameters.getEnzyme(), lIdentificationFeaturesGenerator);
+            columnarExporter.exportResults(null, iCLIInputBean.getOutput());
+        }
+
+        if (iCLIInputBean.getGoMappingFile() != null) {
+            try {
+                exportGoEnrichment(iCLIInputBean.getGoMappingFile(), iCLIInputBean.getOutput(), processingPreferences.getnThreads());
+            } catch (Exception e) {
+                System.err.println("The GO enrichment analysis failed.");
+                e.printStackTrace();
+            }
+        }
 
         // Finished!
         System.out.println("finished PeptideShaker-CLI");
@@ -185,6 +210,81 @@ public class PeptideShakerCLI implements Callable {
         return null;
     }
 
+    /**
+     * Exports the GO enrichment analysis of the validated target proteins:
+     * the frequency of every GO term in the species and in the dataset, the
+     * hypergeometric p-value and the Benjamini-Hochberg corrected p-value.
+     *
+     * @param goMappingFile the GO mapping file of the species
+     * @param outputFolder the folder where to write the analysis
+     * @param nThreads the number of threads to use
+     * @throws Exception exception thrown whenever an error occurred while
+     * reading the mappings or the identification, or writing the file
+     */
+    private void exportGoEnrichment(File goMappingFile, File outputFolder, int nThreads) throws Exception {
+
+        System.out.println("Exporting the GO enrichment analysis. Please Wait...");
+
+        GoMappingIndex goMappingIndex = GoMappingIndex.getIndex(goMappingFile, iWaitingHandler);
+
+        if (goMappingIndex == null) {
+            return;
+        }
+
+        Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(iReplicaNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
+        int[] datasetGoTermUsage = new int[goMappingIndex.getNTerms()];
+        int nMappedProteins = 0;
+        PSParameter psParameter = new PSParameter();
+
+        for (String matchKey : identification.getProteinIdentification()) {
+
+            psParameter = (PSParameter) identification.getProteinMatchParameter(matchKey, psParameter);
+
+            if (psParameter.isValidated() && !ProteinMatch.isDecoy(matchKey)) {
+
+                String mainAccession = matchKey;
+
+                if (ProteinMatch.getNProteins(matchKey) > 1) {
+                    mainAccession = identification.getProteinMatch(matchKey).getMainMatch();
+                }
+
+                int proteinIndex = goMappingIndex.getProteinIndex(mainAccession);
+
+                if (proteinIndex != -1) {
+                    for (int goTerm : goMappingIndex.getProteinTerms(proteinIndex)) {
+                        datasetGoTermUsage[goTerm]++;
+                    }
+                    nMappedProteins++;
+                }
+            }
+        }
+
+        int[] termCounts = new int[goMappingIndex.getNTerms()];
+        for (int goTerm = 0; goTerm < termCounts.length; goTerm++) {
+            termCounts[goTerm] = goMappingIndex.getTermCount(goTerm);
+        }
+        double[] pValues = new GoEnrichment(goMappingIndex).getProbabilities(termCounts, datasetGoTermUsage, nMappedProteins, nThreads);
+        double[] correctedPValues = GoEnrichment.getBenjaminiHochbergCorrection(pValues);
+
+        File outputFile = new File(outputFolder, "PeptideShaker_" + experiment.getReference() + "_" + sample.getReference() + "_" + iReplicaNumber + "_go_enrichment.txt");
+        BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
+
+        try {
+            writer.write("GO Accession\tGO Term\tFrequency All (%)\tFrequency Dataset (%)\tp-value\tCorrected p-value");
+            writer.newLine();
+
+            for (int goTerm = 0; goTerm < termCounts.length; goTerm++) {
+                double percentAll = ((double) termCounts[goTerm]) / goMappingIndex.getNProteins() * 100;
+                double percentDataset = nMappedProteins > 0 ? ((double) datasetGoTermUsage[goTerm]) / nMappedProteins * 100 : 0;
+                writer.write(goMappingIndex.getTermAccession(goTerm) + "\t" + goMappingIndex.getTermName(goTerm) + "\t" + percentAll + "\t"
+                        + percentDataset + "\t" + pValues[goTerm] + "\t" + correctedPValues[goTerm]);
+                writer.newLine();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
     /**
      * PeptideShaker CLI header message when printing the usage.
      */
@@ -218,6 +318,10 @@ public class PeptideShakerCLI implements Callable {
         aOptions.addOption(PeptideShakerCLIParams.PEPTIDESHAKER_INPUT.id, true, PeptideShakerCLIParams.PEPTIDESHAKER_INPUT.description);
         aOptions.addOption(PeptideShakerCLIParams.PEPTIDESHAKER_OUTPUT.id, true, PeptideShakerCLIParams.PEPTIDESHAKER_OUTPUT.description);
         aOptions.addOption(PeptideShakerCLIParams.ASCORE.id, false, PeptideShakerCLIParams.ASCORE.description);
+        aOptions.addOption(PeptideShakerCLIParams.ISOLEUCINE_LEUCINE.id, false, PeptideShakerCLIParams.ISOLEUCINE_LEUCINE.description);
+        aOptions.addOption(PeptideShakerCLIParams.THREADS.id, true, PeptideShakerCLIParams.THREADS.description);
+        aOptions.addOption(PeptideShakerCLIParams.COLUMNAR.id, false, PeptideShakerCLIParams.COLUMNAR.description);
+        aOptions.addOption(PeptideShakerCLIParams.GO_MAPPING.id, true, PeptideShakerCLIParams.GO_MAPPING.description);
         aOptions.addOption(PeptideShakerCLIParams.EXPERIMENT.id, true, PeptideShakerCLIParams.EXPERIMENT.description);
         aOptions.addOption(PeptideShakerCLIParams.SAMPLE.id, true, PeptideShakerCLIParams.SAMPLE.description);
     }
@@ -649,6 +753,22 @@ public class PeptideShakerCLI implements Callable {
         }
 
 
+        // number of threads is a positive integer?
+        if (aLine.hasOption(PeptideShakerCLIParams.THREADS.id)) {
+            String lThreads = aLine.getOptionValue(PeptideShakerCLIParams.THREADS.id);
+            int lNThreads = 0;
+            try {
+                lNThreads = Integer.parseInt(lThreads);
+            } catch (NumberFormatException e) {
+                System.out.println(String.format("Number of threads '%s' not a number!!", lThreads));
+            }
+            if (lNThreads <= 0) {
+                System.out.println(String.format("Number of threads '%s' is not valid!!", lThreads));
+                return false;
+            }
+        }
+
+
         // All is fine!
         return true;
     }
@@ -28,6 +28,23 @@ public class PeptideShakerCLIInputBean {
      * Include estimation of AScore.
      */
     private boolean boolAScore = false;
+    /**
+     * Consider isoleucine and leucine as indistinguishable.
+     */
+    private boolean boolIsoleucineLeucineEquivalent = false;
+    /**
+     * The number of threads used for the processing, null for the number of
+     * available processors.
+     */
+    private Integer iNThreads = null;
+    /**
+     * Also export the results in the columnar binary format.
+     */
+    private boolean boolColumnar = false;
+    /**
+     * The GO mapping file used for the GO enrichment analysis, null if none.
+     */
+    private File iGoMappingFile = null;
     /**
      * SearchGUI input folder.
      */
@@ -71,6 +88,22 @@ public class PeptideShakerCLIInputBean {
             iProteinFDR = Double.parseDouble(aLine.getOptionValue(PeptideShakerCLIParams.FDR_LEVEL_PROTEIN.id));
         }
 
+        if (aLine.hasOption(PeptideShakerCLIParams.ISOLEUCINE_LEUCINE.id)) {
+            boolIsoleucineLeucineEquivalent = true;
+        }
+
+        if (aLine.hasOption(PeptideShakerCLIParams.THREADS.id)) {
+            iNThreads = Integer.parseInt(aLine.getOptionValue(PeptideShakerCLIParams.THREADS.id));
+        }
+
+        if (aLine.hasOption(PeptideShakerCLIParams.COLUMNAR.id)) {
+            boolColumnar = true;
+        }
+
+        if (aLine.hasOption(PeptideShakerCLIParams.GO_MAPPING.id)) {
+            iGoMappingFile = new File(aLine.getOptionValue(PeptideShakerCLIParams.GO_MAPPING.id));
+        }
+
         if (aLine.hasOption(PeptideShakerCLIParams.EXPERIMENT.id)) {
             iExperimentID = aLine.getOptionValue(PeptideShakerCLIParams.EXPERIMENT.id);
         }
@@ -232,4 +265,86 @@ public class PeptideShakerCLIInputBean {
     public void setEstimateAScore(boolean boolAScore) {
         this.boolAScore = boolAScore;
     }
+
+    /**
+     * Returns whether the results should also be exported in the columnar
+     * binary format.
+     * 
+     * @return whether the results should be exported in the columnar format
+     */
+    public boolean exportColumnar() {
+        return boolColumnar;
+    }
+
+    /**
+     * Set if the results should also be exported in the columnar binary
+     * format.
+     * 
+     * @param boolColumnar if the results should be exported in the columnar
+     * format
+     */
+    public void setExportColumnar(boolean boolColumnar) {
+        this.boolColumnar = boolColumnar;
+    }
+
+    /**
+     * Returns the GO mapping file used for the GO enrichment analysis, null
+     * if no analysis should be exported.
+     * 
+     * @return the GO mapping file
+     */
+    public File getGoMappingFile() {
+        return iGoMappingFile;
+    }
+
+    /**
+     * Sets the GO mapping file used for the GO enrichment analysis, null if
+     * no analysis should be exported.
+     * 
+     * @param aGoMappingFile the GO mapping file
+     */
+    public void setGoMappingFile(File aGoMappingFile) {
+        this.iGoMappingFile = aGoMappingFile;
+    }
+
+    /**
+     * Returns whether isoleucine and leucine should be considered as
+     * indistinguishable when mapping peptides to proteins.
+     * 
+     * @return whether isoleucine and leucine are indistinguishable
+     */
+    public boolean isIsoleucineLeucineEquivalent() {
+        return boolIsoleucineLeucineEquivalent;
+    }
+
+    /**
+     * Sets whether isoleucine and leucine should be considered as
+     * indistinguishable when mapping peptides to proteins.
+     * 
+     * @param boolIsoleucineLeucineEquivalent whether isoleucine and leucine
+     * are indistinguishable
+     */
+    public void setIsoleucineLeucineEquivalent(boolean boolIsoleucineLeucineEquivalent) {
+        this.boolIsoleucineLeucineEquivalent = boolIsoleucineLeucineEquivalent;
+    }
+
+    /**
+     * Returns the number of threads used for the processing, null for the
+     * number of available processors.
+     * 
+     * @return the number of threads used for the processing
+     */
+    public Integer getNThreads() {
+        return iNThreads;
+    }
+
+    /**
+     * Sets the number of threads used for the processing, null for the
+     * number of available processors.
+     * 
+     * @param aNThreads the number of threads used for the processing
+     */
+    public void setNThreads(Integer aNThreads) {
+        this.iNThreads = aNThreads;
+    }
 }
@@ -13,6 +13,10 @@ public enum PeptideShakerCLIParams {
     FDR_LEVEL_PEPTIDE("pep", "FDR at PEPTIDE level (default 1% FDR: <1>)"),
     FDR_LEVEL_PROTEIN("prot", "FDR at PROTEIN level (default 1% FDR: <1>)"),
     ASCORE("ascore", "Include ascore to estimate the probability of phospho sites"),
+    ISOLEUCINE_LEUCINE("il_equivalent", "Consider isoleucine and leucine as indistinguishable when mapping peptides to proteins"),
+    THREADS("threads", "Number of threads used for the processing (default: number of available processors)"),
+    COLUMNAR("columnar", "Also export the results in the columnar binary format"),
+    GO_MAPPING("go_mapping", "GO mapping file of the species (protein accession, GO accession, GO term), exports a GO enrichment analysis of the validated proteins"),
     EXPERIMENT("experiment", "Specifies the experiment name"),
     SAMPLE("sample", "Specifies the sample name within an experiment");
     /**
@@ -0,0 +1,477 @@
+package eu.isas.peptideshaker.export;
+
+import com.compomics.util.experiment.MsExperiment;
+import com.compomics.util.experiment.biology.Enzyme;
+import com.compomics.util.experiment.biology.Sample;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.gui.waiting.waitinghandlers.ProgressDialogX;
+import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Exports the protein, peptide and PSM fields of the csv export in column
+ * oriented, block compressed binary files which can be read using the
+ * ColumnarReader. See the ColumnarReader for the description of the format.
+ *
+ * @author Marc Vaudel
+ */
+public class ColumnarExporter {
+
+    /**
+     * The default number of rows per block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 10000;
+    /**
+     * The numeric columns of the protein file.
+     */
+    private static final String[] NUMERIC_PROTEIN_COLUMNS = {"Group class", "n peptides", "n spectra", "n peptides validated", "n spectra validated",
+        "MW", "NSAF", "Sequence coverage", "Observable coverage", "p score", "p", "Decoy", "Validated"};
+    /**
+     * The numeric columns of the peptide file.
+     */
+    private static final String[] NUMERIC_PEPTIDE_COLUMNS = {"n Spectra", "n Spectra Validated", "p score", "p", "Decoy", "Validated"};
+    /**
+     * The numeric columns of the PSM file.
+     */
+    private static final String[] NUMERIC_SPECTRUM_COLUMNS = {"Identification Charge", "Precursor RT", "Precursor mz", "Theoretic Mass", "Mass Error (ppm)",
+        "Mascot Score", "Mascot E-Value", "OMSSA E-Value", "X!Tandem E-Value", "p score", "p", "Decoy", "Validated"};
+    /**
+     * The csv exporter providing the fields.
+     */
+    private CsvExporter csvExporter;
+    /**
+     * Name of the file containing the identification information at the protein
+     * level.
+     */
+    private String proteinFile;
+    /**
+     * Name of the file containing the identification information at the peptide
+     * level.
+     */
+    private String peptideFile;
+    /**
+     * Name of the file containing the identification information at the psm
+     * level.
+     */
+    private String psmFile;
+    /**
+     * The number of rows per block.
+     */
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    /**
+     * Creates a ColumnarExporter object.
+     *
+     * @param experiment the ms experiment
+     * @param sample the sample
+     * @param replicateNumber the replicate number
+     * @param enzyme the enzyme used
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     */
+    public ColumnarExporter(MsExperiment experiment, Sample sample, int replicateNumber, Enzyme enzyme, IdentificationFeaturesGenerator identificationFeaturesGenerator) {
+
+        csvExporter = new CsvExporter(experiment, sample, replicateNumber, enzyme, identificationFeaturesGenerator);
+
+        proteinFile = "PeptideShaker_" + experiment.getReference() + "_" + sample.getReference() + "_" + replicateNumber + "_proteins.psc";
+        peptideFile = "PeptideShaker_" + experiment.getReference() + "_" + sample.getReference() + "_" + replicateNumber + "_peptides.psc";
+        psmFile = "PeptideShaker_" + experiment.getReference() + "_" + sample.getReference() + "_" + replicateNumber + "_psms.psc";
+    }
+
+    /**
+     * Sets the number of rows per block.
+     *
+     * @param blockSize the number of rows per block
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Exports the results to columnar files.
+     *
+     * @param progressDialog a progress dialog, can be null
+     * @param folder the folder to store the results in.
+     * @return true if the export was sucessfull
+     */
+    public boolean exportResults(ProgressDialogX progressDialog, File folder) {
+
+        try {
+            Identification identification = csvExporter.getIdentification();
+
+            if (progressDialog != null) {
+                progressDialog.setIndeterminate(false);
+                progressDialog.setMaxProgressValue(identification.getProteinIdentification().size()
+                        + identification.getPeptideIdentification().size()
+                        + identification.getSpectrumIdentification().size());
+            }
+
+            int progress = 0;
+
+            String lMessage = "Exporting Proteins. Please Wait...";
+            if (progressDialog != null) {
+                progressDialog.setTitle(lMessage);
+            } else {
+                System.out.println(lMessage);
+            }
+
+            progress = exportFile(CsvExporter.PROTEIN_LINES, NUMERIC_PROTEIN_COLUMNS, identification.getProteinIdentification(),
+                    new File(folder, proteinFile), progressDialog, progress);
+
+            if (progressDialog != null && progressDialog.isRunCanceled()) {
+                return false;
+            }
+
+            lMessage = "Exporting Peptides. Please Wait...";
+            if (progressDialog != null) {
+                progressDialog.setTitle(lMessage);
+            } else {
+                System.out.println(lMessage);
+            }
+
+            progress = exportFile(CsvExporter.PEPTIDE_LINES, NUMERIC_PEPTIDE_COLUMNS, identification.getPeptideIdentification(),
+                    new File(folder, peptideFile), progressDialog, progress);
+
+            if (progressDialog != null && progressDialog.isRunCanceled()) {
+                return false;
+            }
+
+            lMessage = "Exporting Spectra. Please Wait...";
+            if (progressDialog != null) {
+                progressDialog.setTitle(lMessage);
+            } else {
+                System.out.println(lMessage);
+            }
+
+            exportFile(CsvExporter.SPECTRUM_LINES, NUMERIC_SPECTRUM_COLUMNS, identification.getSpectrumIdentification(),
+                    new File(folder, psmFile), progressDialog, progress);
+
+            if (progressDialog != null && progressDialog.isRunCanceled()) {
+                return false;
+            }
+
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Writes the lines of the given type in a columnar file.
+     *
+     * @param lineType the type of line, see the static fields of the
+     * CsvExporter
+     * @param numericColumns the names of the numeric columns
+     * @param keys the keys of the matches to export
+     * @param destination the file to write
+     * @param progressDialog a progress dialog, can be null
+     * @param progress the progress before writing this file
+     * @return the progress after writing this file
+     * @throws Exception exception thrown whenever an error occurred while
+     * loading a match or writing the file
+     */
+    private int exportFile(int lineType, String[] numericColumns, ArrayList<String> keys, File destination, ProgressDialogX progressDialog, int progress) throws Exception {
+
+        String header = CsvExporter.getHeader(lineType);
+        String[] columnNames = header.substring(0, header.length() - System.getProperty("line.separator").length()).split(CsvExporter.SEPARATOR);
+        HashSet<String> numericColumnNames = new HashSet<String>(Arrays.asList(numericColumns));
+
+        ColumnarFileWriter writer = new ColumnarFileWriter(destination, columnNames, numericColumnNames, blockSize);
+
+        try {
+            for (String key : keys) {
+
+                csvExporter.writeLine(lineType, key, writer);
+                writer.flush();
+
+                if (progressDialog != null) {
+                    progressDialog.setValue(++progress);
+                    if (progressDialog.isRunCanceled()) {
+                        break;
+                    }
+                }
+            }
+
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+
+        return progress;
+    }
+
+    /**
+     * Writes a string as its number of UTF-8 bytes followed by the bytes.
+     *
+     * @param output the output to write to
+     * @param value the string to write
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the string
+     */
+    private static void writeString(DataOutput output, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Writes lines in a columnar file. The fields of the lines are stored in
+     * the columns of the current block: numbers are stored as such in the
+     * numeric columns, text in a numeric column is considered as missing and
+     * null text is stored as empty. The lines are expected to have the columns
+     * of the header, missing trailing fields are left empty. A full block is
+     * written when flushing.
+     */
+    static class ColumnarFileWriter implements CsvExporter.LineWriter {
+
+        /**
+         * The output of the file.
+         */
+        private DataOutputStream output;
+        /**
+         * The deflater compressing the columns.
+         */
+        private Deflater deflater = new Deflater();
+        /**
+         * The number of rows per block.
+         */
+        private int blockSize;
+        /**
+         * The types of the columns.
+         */
+        private byte[] columnTypes;
+        /**
+         * The values of the numeric columns.
+         */
+        private double[][] numericValues;
+        /**
+         * The values of the text columns.
+         */
+        private String[][] textValues;
+        /**
+         * The number of rows in the block.
+         */
+        private int nRows = 0;
+        /**
+         * The column of the next field.
+         */
+        private int currentColumn = 0;
+
+        /**
+         * Creates the file and writes its schema.
+         *
+         * @param destination the file to write
+         * @param columnNames the names of the columns
+         * @param numericColumnNames the names of the numeric columns
+         * @param blockSize the number of rows per block
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the file
+         */
+        public ColumnarFileWriter(File destination, String[] columnNames, Set<String> numericColumnNames, int blockSize) throws IOException {
+
+            this.blockSize = blockSize;
+            int nColumns = columnNames.length;
+            columnTypes = new byte[nColumns];
+            numericValues = new double[nColumns][];
+            textValues = new String[nColumns][];
+
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(destination)));
+
+            try {
+                output.writeInt(ColumnarReader.MAGIC_NUMBER);
+                output.writeInt(ColumnarReader.VERSION);
+                output.writeInt(nColumns);
+                for (int column = 0; column < nColumns; column++) {
+                    writeString(output, columnNames[column]);
+                    if (numericColumnNames.contains(columnNames[column])) {
+                        columnTypes[column] = ColumnarReader.NUMERIC;
+                        numericValues[column] = new double[blockSize];
+                    } else {
+                        columnTypes[column] = ColumnarReader.TEXT;
+                        textValues[column] = new String[blockSize];
+                    }
+                    output.writeByte(columnTypes[column]);
+                }
+                output.writeInt(blockSize);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Writes the current block if it is full.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the file
+         */
+        public void flush() throws IOException {
+            if (nRows == blockSize) {
+                writeBlock();
+            }
+        }
+
+        /**
+         * Writes the last block and the end of the file.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the file
+         */
+        public void finish() throws IOException {
+            if (nRows > 0) {
+                writeBlock();
+            }
+            output.writeInt(0);
+        }
+
+        /**
+         * Closes the file.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * closing the file
+         */
+        public void close() throws IOException {
+            deflater.end();
+            output.close();
+        }
+
+        public void addText(String text) {
+            if (currentColumn < columnTypes.length) {
+                if (columnTypes[currentColumn] == ColumnarReader.NUMERIC) {
+                    numericValues[currentColumn][nRows] = Double.NaN;
+                } else if (text == null) {
+                    textValues[currentColumn][nRows] = "";
+                } else {
+                    textValues[currentColumn][nRows] = text;
+                }
+                currentColumn++;
+            }
+        }
+
+        public void addNumber(int value) {
+            if (currentColumn < columnTypes.length) {
+                if (columnTypes[currentColumn] == ColumnarReader.NUMERIC) {
+                    numericValues[currentColumn][nRows] = value;
+                } else {
+                    textValues[currentColumn][nRows] = String.valueOf(value);
+                }
+                currentColumn++;
+            }
+        }
+
+        public void addNumber(double value) {
+            if (currentColumn < columnTypes.length) {
+                if (columnTypes[currentColumn] == ColumnarReader.NUMERIC) {
+                    numericValues[currentColumn][nRows] = value;
+                } else {
+                    textValues[currentColumn][nRows] = String.valueOf(value);
+                }
+                currentColumn++;
+            }
+        }
+
+        public void addEmpty() {
+            addText("");
+        }
+
+        public void endLine() {
+            while (currentColumn < columnTypes.length) {
+                addEmpty();
+            }
+            nRows++;
+            currentColumn = 0;
+        }
+
+        /**
+         * Writes the current block: the number of rows followed by every column
+         * compressed separately, preceded by its minimal and maximal value and
+         * its decompressed and compressed lengths.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the block
+         */
+        private void writeBlock() throws IOException {
+
+            output.writeInt(nRows);
+
+            for (int column = 0; column < columnTypes.length; column++) {
+
+                ByteArrayOutputStream rawBytes = new ByteArrayOutputStream();
+                DataOutputStream rawOutput = new DataOutputStream(rawBytes);
+
+                if (columnTypes[column] == ColumnarReader.NUMERIC) {
+                    double min = Double.NaN, max = Double.NaN;
+                    for (int row = 0; row < nRows; row++) {
+                        double value = numericValues[column][row];
+                        rawOutput.writeDouble(value);
+                        if (!Double.isNaN(value)) {
+                            if (Double.isNaN(min) || value < min) {
+                                min = value;
+                            }
+                            if (Double.isNaN(max) || value > max) {
+                                max = value;
+                            }
+                        }
+                    }
+                    output.writeDouble(min);
+                    output.writeDouble(max);
+                } else {
+                    String min = null, max = null;
+                    for (int row = 0; row < nRows; row++) {
+                        String value = textValues[column][row];
+                        writeString(rawOutput, value);
+                        if (min == null || value.compareTo(min) < 0) {
+                            min = value;
+                        }
+                        if (max == null || value.compareTo(max) > 0) {
+                            max = value;
+                        }
+                    }
+                    writeString(output, min);
+                    writeString(output, max);
+                }
+
+                rawOutput.close();
+                byte[] raw = rawBytes.toByteArray();
+                byte[] compressed = compress(raw);
+                output.writeInt(raw.length);
+                output.writeInt(compressed.length);
+                output.write(compressed);
+            }
+
+            nRows = 0;
+            currentColumn = 0;
+        }
+
+        /**
+         * Compresses the given bytes.
+         *
+         * @param raw the bytes to compress
+         * @return the compressed bytes
+         */
+        private byte[] compress(byte[] raw) {
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 16);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                compressed.write(buffer, 0, length);
+            }
+            return compressed.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package eu.isas.peptideshaker.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the column oriented binary files written by the ColumnarExporter.
+ *
+ * A file starts with a schema: the magic number, the format version, the
+ * number of columns, the name and type of every column and the number of rows
+ * per block. It is followed by blocks of rows, every block starting with its
+ * number of rows and containing every column compressed separately together
+ * with its minimal and maximal value. A block of zero rows ends the file.
+ *
+ * Only the block headers are read when the file is opened, the columns are
+ * memory mapped and decompressed when requested.
+ *
+ * @author Marc Vaudel
+ */
+public class ColumnarReader {
+
+    /**
+     * The magic number starting every file.
+     */
+    public static final int MAGIC_NUMBER = 0x50534331;
+    /**
+     * The version of the format.
+     */
+    public static final int VERSION = 1;
+    /**
+     * Index for numeric columns, stored as doubles, NaN when missing.
+     */
+    public static final byte NUMERIC = 0;
+    /**
+     * Index for text columns, stored as UTF-8 strings.
+     */
+    public static final byte TEXT = 1;
+    /**
+     * The file read.
+     */
+    private RandomAccessFile file;
+    /**
+     * The channel of the file.
+     */
+    private FileChannel channel;
+    /**
+     * The names of the columns.
+     */
+    private ArrayList<String> columnNames = new ArrayList<String>();
+    /**
+     * The index of every column indexed by name.
+     */
+    private HashMap<String, Integer> columnIndexes = new HashMap<String, Integer>();
+    /**
+     * The types of the columns.
+     */
+    private byte[] columnTypes;
+    /**
+     * The number of rows per block.
+     */
+    private int blockSize;
+    /**
+     * The number of rows of every block.
+     */
+    private ArrayList<Integer> blockRows = new ArrayList<Integer>();
+    /**
+     * The offset of every column of every block in the file.
+     */
+    private ArrayList<long[]> blockOffsets = new ArrayList<long[]>();
+    /**
+     * The compressed length of every column of every block.
+     */
+    private ArrayList<int[]> compressedLengths = new ArrayList<int[]>();
+    /**
+     * The decompressed length of every column of every block.
+     */
+    private ArrayList<int[]> rawLengths = new ArrayList<int[]>();
+    /**
+     * The minimal value of every column of every block, a Double or a String.
+     */
+    private ArrayList<Object[]> minima = new ArrayList<Object[]>();
+    /**
+     * The maximal value of every column of every block, a Double or a String.
+     */
+    private ArrayList<Object[]> maxima = new ArrayList<Object[]>();
+    /**
+     * The total number of rows.
+     */
+    private int nRows = 0;
+
+    /**
+     * Opens a file and reads its schema and block headers.
+     *
+     * @param columnarFile the file to read
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file or if the file is not in the expected format
+     */
+    public ColumnarReader(File columnarFile) throws IOException {
+
+        file = new RandomAccessFile(columnarFile, "r");
+        channel = file.getChannel();
+
+        try {
+            if (file.readInt() != MAGIC_NUMBER) {
+                throw new IOException(columnarFile.getName() + " is not a PeptideShaker columnar file.");
+            }
+            int version = file.readInt();
+            if (version != VERSION) {
+                throw new IOException("Version " + version + " of the columnar format is not supported.");
+            }
+
+            int nColumns = file.readInt();
+            columnTypes = new byte[nColumns];
+            for (int column = 0; column < nColumns; column++) {
+                String name = readString(file);
+                columnNames.add(name);
+                columnIndexes.put(name, column);
+                columnTypes[column] = file.readByte();
+            }
+            blockSize = file.readInt();
+
+            int blockRowCount;
+            while ((blockRowCount = file.readInt()) > 0) {
+                long[] offsets = new long[nColumns];
+                int[] compressed = new int[nColumns];
+                int[] raw = new int[nColumns];
+                Object[] min = new Object[nColumns];
+                Object[] max = new Object[nColumns];
+                for (int column = 0; column < nColumns; column++) {
+                    if (columnTypes[column] == NUMERIC) {
+                        min[column] = file.readDouble();
+                        max[column] = file.readDouble();
+                    } else {
+                        min[column] = readString(file);
+                        max[column] = readString(file);
+                    }
+                    raw[column] = file.readInt();
+                    compressed[column] = file.readInt();
+                    offsets[column] = file.getFilePointer();
+                    file.seek(offsets[column] + compressed[column]);
+                }
+                blockRows.add(blockRowCount);
+                blockOffsets.add(offsets);
+                compressedLengths.add(compressed);
+                rawLengths.add(raw);
+                minima.add(min);
+                maxima.add(max);
+                nRows += blockRowCount;
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the names of the columns in the order of the file.
+     *
+     * @return the names of the columns
+     */
+    public ArrayList<String> getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * Returns the index of a column.
+     *
+     * @param columnName the name of the column
+     * @return the index of the column
+     * @throws IllegalArgumentException exception thrown if the column is not
+     * in the file
+     */
+    public int getColumnIndex(String columnName) {
+        Integer index = columnIndexes.get(columnName);
+        if (index == null) {
+            throw new IllegalArgumentException("Column " + columnName + " not found.");
+        }
+        return index;
+    }
+
+    /**
+     * Returns the type of a column, NUMERIC or TEXT.
+     *
+     * @param column the index of the column
+     * @return the type of the column
+     */
+    public byte getColumnType(int column) {
+        return columnTypes[column];
+    }
+
+    /**
+     * Returns the number of rows per block used when writing the file.
+     *
+     * @return the number of rows per block
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the number of blocks.
+     *
+     * @return the number of blocks
+     */
+    public int getNBlocks() {
+        return blockRows.size();
+    }
+
+    /**
+     * Returns the number of rows of a block.
+     *
+     * @param block the index of the block
+     * @return the number of rows of the block
+     */
+    public int getNRows(int block) {
+        return blockRows.get(block);
+    }
+
+    /**
+     * Returns the total number of rows.
+     *
+     * @return the total number of rows
+     */
+    public int getNRows() {
+        return nRows;
+    }
+
+    /**
+     * Returns the minimal value of a column in a block: a Double for numeric
+     * columns, NaN if no value is set, a String for text columns.
+     *
+     * @param block the index of the block
+     * @param column the index of the column
+     * @return the minimal value
+     */
+    public Object getMinimum(int block, int column) {
+        return minima.get(block)[column];
+    }
+
+    /**
+     * Returns the maximal value of a column in a block: a Double for numeric
+     * columns, NaN if no value is set, a String for text columns.
+     *
+     * @param block the index of the block
+     * @param column the index of the column
+     * @return the maximal value
+     */
+    public Object getMaximum(int block, int column) {
+        return maxima.get(block)[column];
+    }
+
+    /**
+     * Returns the values of a numeric column in a block.
+     *
+     * @param block the index of the block
+     * @param column the index of the column
+     * @return the values of the column, NaN when missing
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public double[] getNumericColumn(int block, int column) throws IOException {
+        if (columnTypes[column] != NUMERIC) {
+            throw new IllegalArgumentException("Column " + columnNames.get(column) + " is not numeric.");
+        }
+        double[] values = new double[blockRows.get(block)];
+        ByteBuffer.wrap(decompress(block, column)).asDoubleBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * Returns the values of a text column in a block.
+     *
+     * @param block the index of the block
+     * @param column the index of the column
+     * @return the values of the column
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public String[] getTextColumn(int block, int column) throws IOException {
+        if (columnTypes[column] != TEXT) {
+            throw new IllegalArgumentException("Column " + columnNames.get(column) + " is not a text column.");
+        }
+        String[] values = new String[blockRows.get(block)];
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(decompress(block, column)));
+        for (int row = 0; row < values.length; row++) {
+            values[row] = readString(input);
+        }
+        return values;
+    }
+
+    /**
+     * Returns all values of a numeric column.
+     *
+     * @param columnName the name of the column
+     * @return the values of the column, NaN when missing
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public double[] getNumericColumn(String columnName) throws IOException {
+        int column = getColumnIndex(columnName);
+        double[] values = new double[nRows];
+        int offset = 0;
+        for (int block = 0; block < blockRows.size(); block++) {
+            double[] blockValues = getNumericColumn(block, column);
+            System.arraycopy(blockValues, 0, values, offset, blockValues.length);
+            offset += blockValues.length;
+        }
+        return values;
+    }
+
+    /**
+     * Returns all values of a text column.
+     *
+     * @param columnName the name of the column
+     * @return the values of the column
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public String[] getTextColumn(String columnName) throws IOException {
+        int column = getColumnIndex(columnName);
+        String[] values = new String[nRows];
+        int offset = 0;
+        for (int block = 0; block < blockRows.size(); block++) {
+            String[] blockValues = getTextColumn(block, column);
+            System.arraycopy(blockValues, 0, values, offset, blockValues.length);
+            offset += blockValues.length;
+        }
+        return values;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * closing the file
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Maps the compressed content of a column of a block and decompresses it.
+     *
+     * @param block the index of the block
+     * @param column the index of the column
+     * @return the decompressed content
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private byte[] decompress(int block, int column) throws IOException {
+
+        int compressedLength = compressedLengths.get(block)[column];
+        MappedByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, blockOffsets.get(block)[column], compressedLength);
+        byte[] compressed = new byte[compressedLength];
+        mappedBuffer.get(compressed);
+
+        byte[] raw = new byte[rawLengths.get(block)[column]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                length += inflater.inflate(raw, length, raw.length - length);
+                if (inflater.needsInput() && length < raw.length) {
+                    throw new IOException("Column " + columnNames.get(column) + " of block " + block + " is truncated.");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Column " + columnNames.get(column) + " of block " + block + " is corrupted: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    /**
+     * Reads a string written as its number of UTF-8 bytes followed by the
+     * bytes.
+     *
+     * @param input the input to read from
+     * @return the string
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the input
+     */
+    static String readString(DataInput input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -25,12 +25,17 @@ import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
-import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Contains methods for exporting the search engine results to csv files.
@@ -42,7 +47,27 @@ public class CsvExporter {
     /**
      * Separator for csv export. Hard coded for now, could be user setting.
      */
-    private static final String SEPARATOR = "\t";
+    static final String SEPARATOR = "\t";
+    /**
+     * The number of lines computed in a task.
+     */
+    public static final int CHUNK_SIZE = 1000;
+    /**
+     * Index for the protein lines.
+     */
+    static final int PROTEIN_LINES = 0;
+    /**
+     * Index for the peptide lines.
+     */
+    static final int PEPTIDE_LINES = 1;
+    /**
+     * Index for the spectrum lines.
+     */
+    static final int SPECTRUM_LINES = 2;
+    /**
+     * Index for the peptide assumption lines.
+     */
+    static final int ASSUMPTION_LINES = 3;
     /**
      * The experiment to export.
      */
@@ -95,6 +120,19 @@ public class CsvExporter {
      * The identification features generator.
      */
     private IdentificationFeaturesGenerator identificationFeaturesGenerator;
+    /**
+     * The buffer of every thread where the lines are appended.
+     */
+    private ThreadLocal<StringBuilder> lineBuffer = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
+    /**
+     * The number of lines exported.
+     */
+    private int progress = 0;
 
     /**
      * Creates a CsvExporter object.
@@ -119,572 +157,677 @@ public class CsvExporter {
     }
 
     /**
-     * Exports the results to csv files.
+     * Exports the results to csv files. The protein, peptide and spectrum
+     * files are written concurrently. The lines of every file are computed by
+     * chunks of keys on a pool of threads and written in order.
      *
      * @param progressDialog a progress dialog, can be null
      * @param folder the folder to store the results in.
+     * @param nThreads the number of threads to use to compute the lines
      * @return true if the export was sucessfull
      */
-    public boolean exportResults(ProgressDialogX progressDialog, File folder) {
-
-        try {
-            // write the proteins
-            String lMessage = "Exporting Proteins. Please Wait...";
-            if (progressDialog != null) {
-                progressDialog.setTitle(lMessage);
-            } else {
-                System.out.println(lMessage);
-            }
-
-            Writer proteinWriter = new BufferedWriter(new FileWriter(new File(folder, proteinFile)));
-            String content = "Protein" + SEPARATOR + "Equivalent proteins" + SEPARATOR + "Group class" + SEPARATOR + "n peptides" + SEPARATOR + "n spectra"
-                    + SEPARATOR + "n peptides validated" + SEPARATOR + "n spectra validated" + SEPARATOR + "MW" + SEPARATOR + "NSAF" + SEPARATOR + "Sequence coverage" + SEPARATOR + "Observable coverage" + SEPARATOR + "p score"
-                    + SEPARATOR + "p" + SEPARATOR + "Decoy" + SEPARATOR + "Validated" + SEPARATOR + "Description" + System.getProperty("line.separator");
-            proteinWriter.write(content);
+    public boolean exportResults(ProgressDialogX progressDialog, File folder, int nThreads) {
 
-            identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
-
-            if (progressDialog != null) {
-                progressDialog.setIndeterminate(false);
-                progressDialog.setMaxProgressValue(identification.getProteinIdentification().size()
-                        + identification.getPeptideIdentification().size()
-                        + 2 * identification.getSpectrumIdentification().size());
-            }
+        String lMessage = "Exporting Proteins, Peptides and Spectra. Please Wait...";
+        if (progressDialog != null) {
+            progressDialog.setTitle(lMessage);
+        } else {
+            System.out.println(lMessage);
+        }
 
-            int progress = 0;
+        Identification identification = getIdentification();
 
-            for (String proteinKey : identification.getProteinIdentification()) {
+        if (progressDialog != null) {
+            progressDialog.setIndeterminate(false);
+            progressDialog.setMaxProgressValue(identification.getProteinIdentification().size()
+                    + identification.getPeptideIdentification().size()
+                    + identification.getSpectrumIdentification().size());
+        }
 
-                proteinWriter.write(getProteinLine(proteinKey));
+        progress = 0;
 
-                if (progressDialog != null) {
-                    progressDialog.setValue(++progress);
-                }
+        ExecutorService linePool = Executors.newFixedThreadPool(nThreads);
+        ExecutorService filePool = Executors.newFixedThreadPool(3);
 
-                if (progressDialog!= null  && progressDialog.isRunCanceled()) {
-                    break;
-                }
+        try {
+            ArrayList<Future<Object>> files = new ArrayList<Future<Object>>();
+            files.add(filePool.submit(new FileExport(PROTEIN_LINES, new File(folder, proteinFile), getHeader(PROTEIN_LINES),
+                    identification.getProteinIdentification(), linePool, 2 * nThreads, progressDialog)));
+            files.add(filePool.submit(new FileExport(PEPTIDE_LINES, new File(folder, peptideFile), getHeader(PEPTIDE_LINES),
+                    identification.getPeptideIdentification(), linePool, 2 * nThreads, progressDialog)));
+            files.add(filePool.submit(new FileExport(SPECTRUM_LINES, new File(folder, psmFile), getHeader(SPECTRUM_LINES),
+                    identification.getSpectrumIdentification(), linePool, 2 * nThreads, progressDialog)));
+            for (Future<Object> file : files) {
+                file.get();
             }
+            return true;
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return false;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            filePool.shutdownNow();
+            linePool.shutdownNow();
+        }
+    }
 
-            proteinWriter.close();
-
+    /**
+     * Returns the identification to export.
+     *
+     * @return the identification to export
+     */
+    Identification getIdentification() {
+        if (identification == null) {
+            identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
+        }
+        return identification;
+    }
 
-            // write the peptides
-            lMessage = "Exporting Peptides. Please Wait...";
-            if (progressDialog != null) {
-                progressDialog.setTitle(lMessage);
-            } else {
-                System.out.println(lMessage);
-            }
+    /**
+     * Returns the header of the given type of line, column names separated by
+     * the separator and followed by a line separator.
+     *
+     * @param lineType the type of line, see the static fields
+     * @return the corresponding header
+     */
+    static String getHeader(int lineType) {
+        switch (lineType) {
+            case PROTEIN_LINES:
+                return "Protein" + SEPARATOR + "Equivalent proteins" + SEPARATOR + "Group class" + SEPARATOR + "n peptides" + SEPARATOR + "n spectra"
+                        + SEPARATOR + "n peptides validated" + SEPARATOR + "n spectra validated" + SEPARATOR + "MW" + SEPARATOR + "NSAF" + SEPARATOR + "Sequence coverage" + SEPARATOR + "Observable coverage" + SEPARATOR + "p score"
+                        + SEPARATOR + "p" + SEPARATOR + "Decoy" + SEPARATOR + "Validated" + SEPARATOR + "Description" + System.getProperty("line.separator");
+            case PEPTIDE_LINES:
+                return "Protein(s)" + SEPARATOR + "Sequence" + SEPARATOR + "Variable Modification(s)" + SEPARATOR + "PTM location confidence" + SEPARATOR
+                        + "n Spectra" + SEPARATOR + "n Spectra Validated" + SEPARATOR + "p score" + SEPARATOR + "p" + SEPARATOR + "Decoy" + SEPARATOR + "Validated" + System.getProperty("line.separator");
+            case SPECTRUM_LINES:
+                return "Protein(s)" + SEPARATOR + "Sequence" + SEPARATOR + "Variable Modification(s)" + SEPARATOR + "D-score" + SEPARATOR + "A-score" + SEPARATOR + "PTM location confidence" + SEPARATOR
+                        + "Spectrum Charge" + SEPARATOR + "Identification Charge" + SEPARATOR + "Spectrum" + SEPARATOR + "Spectrum File" + SEPARATOR + "Identification File(s)"
+                        + SEPARATOR + "Precursor RT" + SEPARATOR + "Precursor mz" + SEPARATOR + "Theoretic Mass" + SEPARATOR + "Mass Error (ppm)" + SEPARATOR
+                        + "Mascot Score" + SEPARATOR + "Mascot E-Value" + SEPARATOR + "OMSSA E-Value"
+                        + SEPARATOR + "X!Tandem E-Value" + SEPARATOR + "p score" + SEPARATOR + "p" + SEPARATOR + "Decoy" + SEPARATOR + "Validated" + System.getProperty("line.separator");
+            case ASSUMPTION_LINES:
+                return "Search Engine" + SEPARATOR + "Rank" + SEPARATOR + "Protein(s)" + SEPARATOR + "Sequence" + SEPARATOR + "Variable Modification(s)" + SEPARATOR
+                        + "Charge" + SEPARATOR + "Spectrum" + SEPARATOR + "Spectrum File" + SEPARATOR + "Identification File(s)"
+                        + SEPARATOR + "Theoretic Mass" + SEPARATOR + "Mass Error (ppm)" + SEPARATOR + "Mascot Score" + SEPARATOR + "Mascot E-Value" + SEPARATOR + "OMSSA E-Value"
+                        + SEPARATOR + "X!Tandem E-Value" + SEPARATOR + "p score" + SEPARATOR + "p" + SEPARATOR + "Decoy" + SEPARATOR + "Validated" + System.getProperty("line.separator");
+            default:
+                throw new IllegalArgumentException("Line type " + lineType + " not implemented.");
+        }
+    }
 
-            Writer peptideWriter = new BufferedWriter(new FileWriter(new File(folder, peptideFile)));
-            content = "Protein(s)" + SEPARATOR + "Sequence" + SEPARATOR + "Variable Modification(s)" + SEPARATOR + "PTM location confidence" + SEPARATOR
-                    + "n Spectra" + SEPARATOR + "n Spectra Validated" + SEPARATOR + "p score" + SEPARATOR + "p" + SEPARATOR + "Decoy" + SEPARATOR + "Validated" + System.getProperty("line.separator");
-            peptideWriter.write(content);
+    /**
+     * Increases the progress of the progress dialog.
+     *
+     * @param progressDialog a progress dialog, can be null
+     * @param increment the number of exported lines
+     */
+    private synchronized void increaseProgress(ProgressDialogX progressDialog, int increment) {
+        progress += increment;
+        if (progressDialog != null) {
+            progressDialog.setValue(progress);
+        }
+    }
 
-            for (String peptideKey : identification.getPeptideIdentification()) {
+    /**
+     * Writes the line of the given type corresponding to the given key.
+     *
+     * @param lineType the type of line, see the static fields
+     * @param key the key of the match to export
+     * @param line the writer receiving the fields of the line
+     * @throws Exception exception thrown whenever an error occurred while
+     * loading the match
+     */
+    void writeLine(int lineType, String key, LineWriter line) throws Exception {
+        switch (lineType) {
+            case PROTEIN_LINES:
+                writeProteinLine(key, line);
+                break;
+            case PEPTIDE_LINES:
+                writePeptideLine(key, line);
+                break;
+            case SPECTRUM_LINES:
+                writeSpectrumLine(key, line);
+                break;
+            case ASSUMPTION_LINES:
+                writeAssumptionLines(key, line);
+                break;
+            default:
+                throw new IllegalArgumentException("Line type " + lineType + " not implemented.");
+        }
+    }
 
-                peptideWriter.write(getPeptideLine(peptideKey));
+    /**
+     * Receives the fields of the exported lines in order. Numbers are passed
+     * as such so that they can be written without being formatted and parsed
+     * again.
+     */
+    interface LineWriter {
+
+        /**
+         * Adds a text field.
+         *
+         * @param text the text
+         */
+        public void addText(String text);
+
+        /**
+         * Adds an integer field.
+         *
+         * @param value the value
+         */
+        public void addNumber(int value);
+
+        /**
+         * Adds a decimal field.
+         *
+         * @param value the value
+         */
+        public void addNumber(double value);
+
+        /**
+         * Adds an empty field.
+         */
+        public void addEmpty();
+
+        /**
+         * Ends the current line.
+         */
+        public void endLine();
+    }
 
-                if (progressDialog != null) {
-                    progressDialog.setValue(++progress);
-                }
+    /**
+     * Writes the fields as text in a buffer, separated by the separator.
+     */
+    private static class TextLineWriter implements LineWriter {
+
+        /**
+         * The buffer where to append the lines.
+         */
+        private StringBuilder buffer;
+        /**
+         * Indicates whether the next field is the first of the line.
+         */
+        private boolean firstField = true;
+
+        /**
+         * Constructor.
+         *
+         * @param buffer the buffer where to append the lines
+         */
+        public TextLineWriter(StringBuilder buffer) {
+            this.buffer = buffer;
+        }
 
-                if (progressDialog != null && progressDialog.isRunCanceled()) {
-                    break;
-                }
+        /**
+         * Appends the separator unless the next field is the first of the
+         * line.
+         */
+        private void newField() {
+            if (firstField) {
+                firstField = false;
+            } else {
+                buffer.append(SEPARATOR);
             }
+        }
 
-            peptideWriter.close();
+        public void addText(String text) {
+            newField();
+            buffer.append(text);
+        }
 
+        public void addNumber(int value) {
+            newField();
+            buffer.append(value);
+        }
 
-            // write the spectra
-            lMessage = "Exporting Spectra. Please Wait...";
-            if (progressDialog != null) {
-                progressDialog.setTitle(lMessage);
-            } else {
-                System.out.println(lMessage);
-            }
+        public void addNumber(double value) {
+            newField();
+            buffer.append(value);
+        }
 
-            Writer spectrumWriter = new BufferedWriter(new FileWriter(new File(folder, psmFile)));
-            content = "Protein(s)" + SEPARATOR + "Sequence" + SEPARATOR + "Variable Modification(s)" + SEPARATOR + "D-score" + SEPARATOR + "A-score" + SEPARATOR + "PTM location confidence" + SEPARATOR
-                    + "Spectrum Charge" + SEPARATOR + "Identification Charge" + SEPARATOR + "Spectrum" + SEPARATOR + "Spectrum File" + SEPARATOR + "Identification File(s)"
-                    + SEPARATOR + "Precursor RT" + SEPARATOR + "Precursor mz" + SEPARATOR + "Theoretic Mass" + SEPARATOR + "Mass Error (ppm)" + SEPARATOR
-                    + "Mascot Score" + SEPARATOR + "Mascot E-Value" + SEPARATOR + "OMSSA E-Value"
-                    + SEPARATOR + "X!Tandem E-Value" + SEPARATOR + "p score" + SEPARATOR + "p" + SEPARATOR + "Decoy" + SEPARATOR + "Validated" + System.getProperty("line.separator");
-            spectrumWriter.write(content);
+        public void addEmpty() {
+            newField();
+        }
 
-            for (String spectrumKey : identification.getSpectrumIdentification()) {
+        public void endLine() {
+            buffer.append(System.getProperty("line.separator"));
+            firstField = true;
+        }
+    }
 
-                spectrumWriter.write(getSpectrumLine(spectrumKey));
+    /**
+     * Writes a file of the export: the header followed by the lines of all
+     * keys in order. The lines are computed by chunks on the line pool and a
+     * limited number of chunks is kept pending.
+     */
+    private class FileExport implements Callable<Object> {
+
+        /**
+         * The type of line to export.
+         */
+        private int lineType;
+        /**
+         * The file to write.
+         */
+        private File file;
+        /**
+         * The header of the file.
+         */
+        private String header;
+        /**
+         * The keys of the matches to export.
+         */
+        private ArrayList<String> keys;
+        /**
+         * The pool computing the lines.
+         */
+        private ExecutorService linePool;
+        /**
+         * The maximal number of chunks pending.
+         */
+        private int maxPendingChunks;
+        /**
+         * A progress dialog, can be null.
+         */
+        private ProgressDialogX progressDialog;
+
+        /**
+         * Constructor.
+         *
+         * @param lineType the type of line to export
+         * @param file the file to write
+         * @param header the header of the file
+         * @param keys the keys of the matches to export
+         * @param linePool the pool computing the lines
+         * @param maxPendingChunks the maximal number of chunks pending
+         * @param progressDialog a progress dialog, can be null
+         */
+        public FileExport(int lineType, File file, String header, ArrayList<String> keys, ExecutorService linePool, int maxPendingChunks, ProgressDialogX progressDialog) {
+            this.lineType = lineType;
+            this.file = file;
+            this.header = header;
+            this.keys = keys;
+            this.linePool = linePool;
+            this.maxPendingChunks = maxPendingChunks;
+            this.progressDialog = progressDialog;
+        }
 
-                if (progressDialog != null) {
-                    progressDialog.setValue(++progress);
+        /**
+         * Writes the file.
+         *
+         * @return null
+         * @throws Exception exception thrown whenever an error occurred while
+         * computing or writing the lines
+         */
+        public Object call() throws Exception {
+
+            Writer writer = new BufferedWriter(new FileWriter(file));
+
+            try {
+                writer.write(header);
+                LinkedList<Future<String>> pendingChunks = new LinkedList<Future<String>>();
+
+                for (int start = 0; start < keys.size(); start += CHUNK_SIZE) {
+                    final List<String> chunk = keys.subList(start, Math.min(start + CHUNK_SIZE, keys.size()));
+                    pendingChunks.add(linePool.submit(new Callable<String>() {
+                        public String call() throws Exception {
+                            StringBuilder buffer = lineBuffer.get();
+                            buffer.setLength(0);
+                            TextLineWriter lineWriter = new TextLineWriter(buffer);
+                            for (String key : chunk) {
+                                writeLine(lineType, key, lineWriter);
+                            }
+                            increaseProgress(progressDialog, chunk.size());
+                            return buffer.toString();
+                        }
+                    }));
+                    while (pendingChunks.size() >= maxPendingChunks) {
+                        writeChunk(pendingChunks.removeFirst(), writer);
+                        if (progressDialog != null && progressDialog.isRunCanceled()) {
+                            return null;
+                        }
+                    }
                 }
-
-                if (progressDialog != null && progressDialog.isRunCanceled()) {
-                    break;
+                while (!pendingChunks.isEmpty()) {
+                    writeChunk(pendingChunks.removeFirst(), writer);
+                    if (progressDialog != null && progressDialog.isRunCanceled()) {
+                        return null;
+                    }
                 }
+            } finally {
+                writer.close();
             }
 
-            spectrumWriter.close();
-
-
-            // write the assumptions
-//            if (progressDialog != null) {
-//                progressDialog.setTitle("Exporting Assumptions. Please Wait...");
-//            }
-//            
-//            Writer assumptionWriter = new BufferedWriter(new FileWriter(new File(folder, assumptionFile)));
-//            content = "Search Engine" + SEPARATOR + "Rank" + SEPARATOR + "Protein(s)" + SEPARATOR + "Sequence" + SEPARATOR + "Variable Modification(s)" + SEPARATOR
-//                    + "Charge" + SEPARATOR + "Spectrum" + SEPARATOR + "Spectrum File" + SEPARATOR + "Identification File(s)"
-//                    + SEPARATOR + "Theoretic Mass" + SEPARATOR + "Mass Error (ppm)" + SEPARATOR + "Mascot Score" + SEPARATOR + "Mascot E-Value" + SEPARATOR + "OMSSA E-Value"
-//                    + SEPARATOR + "X!Tandem E-Value" + SEPARATOR + "p score" + SEPARATOR + "p" + SEPARATOR + "Decoy" + SEPARATOR + "Validated" + System.getProperty("line.separator");
-//            assumptionWriter.write(content);
-
-//            for (String spectrumKey : identification.getSpectrumIdentification()) {
-//                assumptionWriter.write(getAssumptionLines(spectrumKey));
-//                if(progressDialog != null){
-//                  progressDialog.setValue(++progress);
-//                    }
-//            }
-//            
-//            assumptionWriter.close();
+            return null;
+        }
 
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        } catch (MzMLUnmarshallerException e) {
-            e.printStackTrace();
-            return false;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+        /**
+         * Writes the lines of a chunk once computed.
+         *
+         * @param chunk the chunk
+         * @param writer the writer
+         * @throws Exception exception thrown whenever an error occurred while
+         * computing or writing the lines
+         */
+        private void writeChunk(Future<String> chunk, Writer writer) throws Exception {
+            String lines;
+            try {
+                lines = chunk.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+            writer.write(lines);
         }
     }
 
     /**
-     * Exports the protein match as a line of text.
+     * Writes the protein match as a line.
      *
-     * @param proteinMatch the protein match to export
-     * @return the protein match as a line of text
+     * @param proteinKey the key of the protein match to export
+     * @param line the writer receiving the fields of the line
      */
-    private String getProteinLine(String proteinKey) throws Exception {
-
-        // @TODO: would it be faster to send the output directly to the buffered writer than going via a string??
+    private void writeProteinLine(String proteinKey, LineWriter line) throws Exception {
 
         PSParameter probabilities = new PSParameter();
-        probabilities = (PSParameter) identification.getProteinMatchParameter(proteinKey, probabilities);
-        ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
-        String line = proteinMatch.getMainMatch() + SEPARATOR;
-
-        for (String otherAccession : proteinMatch.getTheoreticProteinsAccessions()) {
-            if (!otherAccession.equals(proteinMatch.getMainMatch())) {
-                line += otherAccession + " ";
-            }
-        }
-
-        line += SEPARATOR + probabilities.getGroupClass() + SEPARATOR;
-        line += proteinMatch.getPeptideCount() + SEPARATOR;
+        ProteinMatch proteinMatch;
         int nSpectra = 0;
         int nValidatedPeptides = 0;
         int nValidatedPsms = 0;
-        PSParameter psParameter = new PSParameter();
+        double molecularWeight = 0, spectrumCounting = 0, sequenceCoverage = 0, observableCoverage = 0;
+        boolean proteinFound = true;
+        String description;
+
+        // read the identification features, the line is formatted outside the lock
+        synchronized (identification) {
 
-        for (String peptideKey : proteinMatch.getPeptideMatches()) {
+            probabilities = (PSParameter) identification.getProteinMatchParameter(proteinKey, probabilities);
+            proteinMatch = identification.getProteinMatch(proteinKey);
+            PSParameter psParameter = new PSParameter();
 
-            PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
-            nSpectra += peptideMatch.getSpectrumCount();
-            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+            for (String peptideKey : proteinMatch.getPeptideMatches()) {
 
-            if (psParameter.isValidated()) {
+                PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+                nSpectra += peptideMatch.getSpectrumCount();
+                psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
 
-                nValidatedPeptides++;
+                if (psParameter.isValidated()) {
 
-                for (String spectrumKey : peptideMatch.getSpectrumMatches()) {
+                    nValidatedPeptides++;
 
-                    psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                    for (String spectrumKey : peptideMatch.getSpectrumMatches()) {
 
-                    if (psParameter.isValidated()) {
-                        nValidatedPsms++;
+                        psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+
+                        if (psParameter.isValidated()) {
+                            nValidatedPsms++;
+                        }
                     }
                 }
             }
+
+            try {
+                molecularWeight = sequenceFactory.computeMolecularWeight(proteinMatch.getMainMatch());
+                spectrumCounting = identificationFeaturesGenerator.getSpectrumCounting(proteinKey);
+                sequenceCoverage = identificationFeaturesGenerator.getSequenceCoverage(proteinKey);
+                observableCoverage = identificationFeaturesGenerator.getObservableCoverage(proteinKey);
+            } catch (Exception e) {
+                proteinFound = false;
+            }
+
+            try {
+                description = sequenceFactory.getHeader(proteinMatch.getMainMatch()).getDescription();
+            } catch (Exception e) {
+                description = "Protein not found";
+            }
         }
 
-        line += nSpectra + SEPARATOR;
-        line += nValidatedPeptides + SEPARATOR + nValidatedPsms + SEPARATOR;
+        line.addText(proteinMatch.getMainMatch());
 
-        try {
-            line += sequenceFactory.computeMolecularWeight(proteinMatch.getMainMatch()) + SEPARATOR;
-            line += identificationFeaturesGenerator.getSpectrumCounting(proteinKey) + SEPARATOR;
-            line += identificationFeaturesGenerator.getSequenceCoverage(proteinKey) * 100 + SEPARATOR;
-            line += identificationFeaturesGenerator.getObservableCoverage(proteinKey) + SEPARATOR;
-        } catch (Exception e) {
-            line += "protein not found " + SEPARATOR + SEPARATOR;
+        StringBuilder otherAccessions = new StringBuilder();
+        for (String otherAccession : proteinMatch.getTheoreticProteinsAccessions()) {
+            if (!otherAccession.equals(proteinMatch.getMainMatch())) {
+                otherAccessions.append(otherAccession).append(" ");
+            }
+        }
+
+        line.addText(otherAccessions.toString());
+        line.addNumber(probabilities.getGroupClass());
+        line.addNumber(proteinMatch.getPeptideCount());
+        line.addNumber(nSpectra);
+        line.addNumber(nValidatedPeptides);
+        line.addNumber(nValidatedPsms);
+
+        if (proteinFound) {
+            line.addNumber(molecularWeight);
+            line.addNumber(spectrumCounting);
+            line.addNumber(sequenceCoverage * 100);
+            line.addNumber(observableCoverage);
+        } else {
+            line.addText("protein not found ");
+            line.addEmpty();
+            line.addEmpty();
+            line.addEmpty();
         }
 
         try {
-            line += probabilities.getProteinProbabilityScore() + SEPARATOR
-                    + probabilities.getProteinProbability() + SEPARATOR;
+            double proteinProbabilityScore = probabilities.getProteinProbabilityScore();
+            double proteinProbability = probabilities.getProteinProbability();
+            line.addNumber(proteinProbabilityScore);
+            line.addNumber(proteinProbability);
         } catch (Exception e) {
-            line += SEPARATOR + SEPARATOR;
+            line.addEmpty();
+            line.addEmpty();
         }
 
         if (proteinMatch.isDecoy()) {
-            line += "1" + SEPARATOR;
+            line.addNumber(1);
         } else {
-            line += "0" + SEPARATOR;
+            line.addNumber(0);
         }
 
         if (probabilities.isValidated()) {
-            line += "1" + SEPARATOR;
+            line.addNumber(1);
         } else {
-            line += "0" + SEPARATOR;
-        }
-
-        try {
-            line += sequenceFactory.getHeader(proteinMatch.getMainMatch()).getDescription();
-        } catch (Exception e) {
-            line += "Protein not found";
+            line.addNumber(0);
         }
 
-        line += System.getProperty("line.separator");
-
-        return line;
+        line.addText(description);
+        line.endLine();
     }
 
     /**
-     * Exports the peptide match as a line of text.
+     * Writes the peptide match as a line.
      *
-     * @param peptideMatch the peptide match to export
-     * @return the peptide match as a line of text
+     * @param peptideKey the key of the peptide match to export
+     * @param line the writer receiving the fields of the line
      */
-    private String getPeptideLine(String peptideKey) throws Exception {
-
-        // @TODO: would it be faster to send the output directly to the buffered writer than going via a string??
+    private void writePeptideLine(String peptideKey, LineWriter line) throws Exception {
 
-        String line = "";
-        PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
-
-        for (String protein : peptideMatch.getTheoreticPeptide().getParentProteins()) {
-            line += protein + " ";
-        }
+        PeptideMatch peptideMatch;
+        PSParameter probabilities = new PSParameter();
+        int nSpectraValidated = 0;
 
-        line += SEPARATOR;
-        line += peptideMatch.getTheoreticPeptide().getSequence() + SEPARATOR;
+        synchronized (identification) {
 
-        HashMap<String, ArrayList<Integer>> modMap = new HashMap<String, ArrayList<Integer>>();
+            peptideMatch = identification.getPeptideMatch(peptideKey);
 
-        for (ModificationMatch modificationMatch : peptideMatch.getTheoreticPeptide().getModificationMatches()) {
-            if (modificationMatch.isVariable()) {
-                if (!modMap.containsKey(modificationMatch.getTheoreticPtm())) {
-                    modMap.put(modificationMatch.getTheoreticPtm(), new ArrayList<Integer>());
+            for (String spectrumKey : peptideMatch.getSpectrumMatches()) {
+                probabilities = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, probabilities);
+                if (probabilities.isValidated()) {
+                    nSpectraValidated++;
                 }
-                modMap.get(modificationMatch.getTheoreticPtm()).add(modificationMatch.getModificationSite());
             }
-        }
 
-        boolean first = true;
-        ArrayList<String> modifications = new ArrayList<String>(modMap.keySet());
-        Collections.sort(modifications);
+            probabilities = (PSParameter) identification.getPeptideMatchParameter(peptideKey, new PSParameter());
+        }
 
-        for (String mod : modifications) {
-            if (first) {
-                first = false;
-            } else {
-                line += ", ";
-            }
+        StringBuilder field = new StringBuilder();
 
-            boolean first2 = true;
-            line += mod + "(";
+        for (String protein : peptideMatch.getTheoreticPeptide().getParentProteins()) {
+            field.append(protein).append(" ");
+        }
 
-            for (int aa : modMap.get(mod)) {
-                if (first2) {
-                    first2 = false;
-                } else {
-                    line += ", ";
-                }
-                line += aa;
-            }
+        line.addText(field.toString());
+        line.addText(peptideMatch.getTheoreticPeptide().getSequence());
 
-            line += ")";
-        }
+        field.setLength(0);
+        ArrayList<String> modifications = appendModifications(peptideMatch.getTheoreticPeptide(), field);
+        line.addText(field.toString());
 
-        line += SEPARATOR;
-        first = true;
+        PSPtmScores ptmScores = (PSPtmScores) peptideMatch.getUrParam(new PSPtmScores());
+        field.setLength(0);
+        boolean first = true;
 
         for (String mod : modifications) {
 
             if (first) {
                 first = false;
             } else {
-                line += ", ";
+                field.append(", ");
             }
 
-            PSPtmScores ptmScores = (PSPtmScores) peptideMatch.getUrParam(new PSPtmScores());
-            line += mod + " (";
-
-            if (ptmScores != null && ptmScores.getPtmScoring(mod) != null) {
-
-                int ptmConfidence = ptmScores.getPtmScoring(mod).getPtmSiteConfidence();
-
-                if (ptmConfidence == PtmScoring.NOT_FOUND) {
-                    line += "Not Scored"; // Well this should not happen
-                } else if (ptmConfidence == PtmScoring.RANDOM) {
-                    line += "Random";
-                } else if (ptmConfidence == PtmScoring.DOUBTFUL) {
-                    line += "Doubtfull";
-                } else if (ptmConfidence == PtmScoring.CONFIDENT) {
-                    line += "Confident";
-                } else if (ptmConfidence == PtmScoring.VERY_CONFIDENT) {
-                    line += "Very Confident";
-                }
-            } else {
-                line += "Not Scored";
-            }
-
-            line += ")";
+            field.append(mod).append(" (");
+            appendPtmConfidence(ptmScores, mod, field);
+            field.append(")");
         }
 
-        line += SEPARATOR;
-
-        line += peptideMatch.getSpectrumCount() + SEPARATOR;
-        PSParameter probabilities = new PSParameter();
-        int nSpectraValidated = 0;
-
-        for (String spectrumKey : peptideMatch.getSpectrumMatches()) {
-            probabilities = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, probabilities);
-            if (probabilities.isValidated()) {
-                nSpectraValidated++;
-            }
-        }
+        line.addText(field.toString());
 
-        line += nSpectraValidated + SEPARATOR;
-        probabilities = (PSParameter) identification.getPeptideMatchParameter(peptideKey, probabilities);
+        line.addNumber(peptideMatch.getSpectrumCount());
+        line.addNumber(nSpectraValidated);
 
-        line += probabilities.getPeptideProbabilityScore() + SEPARATOR
-                + probabilities.getPeptideProbability() + SEPARATOR;
+        line.addNumber(probabilities.getPeptideProbabilityScore());
+        line.addNumber(probabilities.getPeptideProbability());
 
         if (peptideMatch.isDecoy()) {
-            line += "1" + SEPARATOR;
+            line.addNumber(1);
         } else {
-            line += "0" + SEPARATOR;
+            line.addNumber(0);
         }
 
         if (probabilities.isValidated()) {
-            line += "1";
+            line.addNumber(1);
         } else {
-            line += "0";
+            line.addNumber(0);
         }
 
-        line += System.getProperty("line.separator");
-
-        return line;
+        line.endLine();
     }
 
     /**
-     * Exports the spectrum match as a line of text.
+     * Writes the spectrum match as a line.
      *
-     * @param spectrumMatch the spectrum match to export
-     * @return the spectrum match as a line of text
+     * @param psmKey the key of the spectrum match to export
+     * @param line the writer receiving the fields of the line
      */
-    private String getSpectrumLine(String psmKey) throws Exception {
-
-        // @TODO: would it be faster to send the output directly to the buffered writer than going via a string??
+    private void writeSpectrumLine(String psmKey, LineWriter line) throws Exception {
 
-        SpectrumMatch spectrumMatch = identification.getSpectrumMatch(psmKey);
-        Peptide bestAssumption = spectrumMatch.getBestAssumption().getPeptide();
-
-        String line = "";
+        SpectrumMatch spectrumMatch;
+        PSParameter probabilities = new PSParameter();
 
-        for (String protein : bestAssumption.getParentProteins()) {
-            line += protein + " ";
+        synchronized (identification) {
+            spectrumMatch = identification.getSpectrumMatch(psmKey);
+            probabilities = (PSParameter) identification.getSpectrumMatchParameter(psmKey, probabilities);
         }
 
-        line += SEPARATOR;
-        line += bestAssumption.getSequence() + SEPARATOR;
-
-        HashMap<String, ArrayList<Integer>> modMap = new HashMap<String, ArrayList<Integer>>();
+        String fileName = Spectrum.getSpectrumFile(spectrumMatch.getKey());
+        String spectrumTitle = Spectrum.getSpectrumTitle(spectrumMatch.getKey());
+        Precursor precursor;
 
-        for (ModificationMatch modificationMatch : bestAssumption.getModificationMatches()) {
-            if (modificationMatch.isVariable()) {
-                if (!modMap.containsKey(modificationMatch.getTheoreticPtm())) {
-                    modMap.put(modificationMatch.getTheoreticPtm(), new ArrayList<Integer>());
-                }
-                modMap.get(modificationMatch.getTheoreticPtm()).add(modificationMatch.getModificationSite());
-            }
+        synchronized (spectrumFactory) {
+            precursor = spectrumFactory.getPrecursor(fileName, spectrumTitle);
         }
 
-        boolean first = true;
-        ArrayList<String> modifications = new ArrayList<String>(modMap.keySet());
-        Collections.sort(modifications);
-
-        for (String mod : modifications) {
-            if (first) {
-                first = false;
-            } else {
-                line += ", ";
-            }
-
-            boolean first2 = true;
-            line += mod + "(";
-
-            for (int aa : modMap.get(mod)) {
-                if (first2) {
-                    first2 = false;
-                } else {
-                    line += ", ";
-                }
-                line += aa;
-            }
+        Peptide bestAssumption = spectrumMatch.getBestAssumption().getPeptide();
+        StringBuilder field = new StringBuilder();
 
-            line += ")";
+        for (String protein : bestAssumption.getParentProteins()) {
+            field.append(protein).append(" ");
         }
 
-        line += SEPARATOR;
-
-        PSPtmScores ptmScores = new PSPtmScores();
+        line.addText(field.toString());
+        line.addText(bestAssumption.getSequence());
 
-        first = true;
+        field.setLength(0);
+        ArrayList<String> modifications = appendModifications(bestAssumption, field);
+        line.addText(field.toString());
 
-        for (String mod : modifications) {
-
-            if (spectrumMatch.getUrParam(ptmScores) != null) {
+        PSPtmScores ptmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
+        field.setLength(0);
 
+        if (ptmScores != null) {
+            boolean first = true;
+            for (String mod : modifications) {
                 if (first) {
                     first = false;
                 } else {
-                    line += ", ";
+                    field.append(", ");
                 }
-
-                ptmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
-                line += mod + " (";
-
-                if (ptmScores != null && ptmScores.getPtmScoring(mod) != null) {
-                    String location = ptmScores.getPtmScoring(mod).getBestDeltaScoreLocations();
-                    if (location != null) {
-                        ArrayList<Integer> locations = PtmScoring.getLocations(location);
-                        Collections.sort(locations);
-                        first = true;
-                        String commaSeparated = "";
-                        for (int aa : locations) {
-                            if (first) {
-                                first = false;
-                            } else {
-                                commaSeparated += ", ";
-                            }
-                            commaSeparated += aa;
-                        }
-                        line += commaSeparated + ": ";
-                        double dScore = ptmScores.getPtmScoring(mod).getDeltaScore(location);
-                        line += dScore + "";
-                    } else {
-                        line += "Not Scored";
-                    }
+                field.append(mod).append(" (");
+                PtmScoring ptmScoring = ptmScores.getPtmScoring(mod);
+                String location = ptmScoring == null ? null : ptmScoring.getBestDeltaScoreLocations();
+                if (location != null) {
+                    appendLocations(location, field);
+                    field.append(": ").append(ptmScoring.getDeltaScore(location));
                 } else {
-                    line += "Not Scored";
+                    field.append("Not Scored");
                 }
-
-                line += ")";
+                field.append(")");
             }
         }
-        line += SEPARATOR;
 
-        first = true;
-
-        for (String mod : modifications) {
-
-
-            if (spectrumMatch.getUrParam(ptmScores) != null) {
+        line.addText(field.toString());
+        field.setLength(0);
 
+        if (ptmScores != null) {
+            boolean first = true;
+            for (String mod : modifications) {
                 if (first) {
                     first = false;
                 } else {
-                    line += ", ";
+                    field.append(", ");
                 }
-                ptmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
-                line += mod + " (";
-
-                if (ptmScores != null && ptmScores.getPtmScoring(mod) != null) {
-
-                    String location = ptmScores.getPtmScoring(mod).getBestAScoreLocations();
-                    if (location != null) {
-                        ArrayList<Integer> locations = PtmScoring.getLocations(location);
-                        Collections.sort(locations);
-                        first = true;
-                        String commaSeparated = "";
-                        for (int aa : locations) {
-
-                            if (first) {
-                                first = false;
-                            } else {
-                                commaSeparated += ", ";
-                            }
-                            commaSeparated += aa;
-                        }
-                        line += commaSeparated + ": ";
-                        Double aScore = ptmScores.getPtmScoring(mod).getAScore(location);
-                        line += aScore + "";
-                    } else {
-                        line += "Not Scored";
-                    }
+                field.append(mod).append(" (");
+                PtmScoring ptmScoring = ptmScores.getPtmScoring(mod);
+                String location = ptmScoring == null ? null : ptmScoring.getBestAScoreLocations();
+                if (location != null) {
+                    appendLocations(location, field);
+                    Double aScore = ptmScoring.getAScore(location);
+                    field.append(": ").append(aScore);
                 } else {
-                    line += "Not Scored";
+                    field.append("Not Scored");
                 }
-
-                line += ")";
+                field.append(")");
             }
         }
-        line += SEPARATOR;
-
-        first = true;
-
-        for (String mod : modifications) {
 
-            if (spectrumMatch.getUrParam(ptmScores) != null) {
+        line.addText(field.toString());
+        field.setLength(0);
 
+        if (ptmScores != null) {
+            boolean first = true;
+            for (String mod : modifications) {
                 if (first) {
                     first = false;
                 } else {
-                    line += ", ";
+                    field.append(", ");
                 }
-
-                ptmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
-                line += mod + " (";
-
-                if (ptmScores != null && ptmScores.getPtmScoring(mod) != null) {
-
-                    int ptmConfidence = ptmScores.getPtmScoring(mod).getPtmSiteConfidence();
-
-                    if (ptmConfidence == PtmScoring.NOT_FOUND) {
-                        line += "Not Scored"; // Well this should not happen
-                    } else if (ptmConfidence == PtmScoring.RANDOM) {
-                        line += "Random";
-                    } else if (ptmConfidence == PtmScoring.DOUBTFUL) {
-                        line += "Doubtfull";
-                    } else if (ptmConfidence == PtmScoring.CONFIDENT) {
-                        line += "Confident";
-                    } else if (ptmConfidence == PtmScoring.VERY_CONFIDENT) {
-                        line += "Very Confident";
-                    }
-                } else {
-                    line += "Not Scored";
-                }
-
-                line += ")";
+                field.append(mod).append(" (");
+                appendPtmConfidence(ptmScores, mod, field);
+                field.append(")");
             }
         }
 
-        line += SEPARATOR;
-        String fileName = Spectrum.getSpectrumFile(spectrumMatch.getKey());
-        String spectrumTitle = Spectrum.getSpectrumTitle(spectrumMatch.getKey());
-        Precursor precursor = spectrumFactory.getPrecursor(fileName, spectrumTitle);
-        line += precursor.getPossibleChargesAsString() + SEPARATOR;
-        line += spectrumMatch.getBestAssumption().getIdentificationCharge().value + SEPARATOR;
-        line += fileName + SEPARATOR;
-        line += spectrumTitle + SEPARATOR;
+        line.addText(field.toString());
+        line.addText(precursor.getPossibleChargesAsString());
+        line.addNumber(spectrumMatch.getBestAssumption().getIdentificationCharge().value);
+        line.addText(fileName);
+        line.addText(spectrumTitle);
 
         ArrayList<String> fileNames = new ArrayList<String>();
 
@@ -697,16 +840,17 @@ public class CsvExporter {
         }
 
         Collections.sort(fileNames);
+        field.setLength(0);
 
         for (String name : fileNames) {
-            line += name + " ";
+            field.append(name).append(" ");
         }
 
-        line += SEPARATOR;
-        line += precursor.getRt() + SEPARATOR;
-        line += precursor.getMz() + SEPARATOR;
-        line += spectrumMatch.getBestAssumption().getPeptide().getMass() + SEPARATOR;
-        line += Math.abs(spectrumMatch.getBestAssumption().getDeltaMass(precursor.getMz(), true)) + SEPARATOR;
+        line.addText(field.toString());
+        line.addNumber(precursor.getRt());
+        line.addNumber(precursor.getMz());
+        line.addNumber(spectrumMatch.getBestAssumption().getPeptide().getMass());
+        line.addNumber(Math.abs(spectrumMatch.getBestAssumption().getDeltaMass(precursor.getMz(), true)));
         Double mascotEValue = null;
         Double omssaEValue = null;
         Double xtandemEValue = null;
@@ -736,70 +880,169 @@ public class CsvExporter {
         }
 
         if (mascotEValue != null) {
-            line += mascotScore;
-        }
-
-        line += SEPARATOR;
-
-        if (mascotEValue != null) {
-            line += mascotEValue;
+            line.addNumber(mascotScore);
+            line.addNumber(mascotEValue);
+        } else {
+            line.addEmpty();
+            line.addEmpty();
         }
 
-        line += SEPARATOR;
-
         if (omssaEValue != null) {
-            line += omssaEValue;
+            line.addNumber(omssaEValue);
+        } else {
+            line.addEmpty();
         }
 
-        line += SEPARATOR;
-
         if (xtandemEValue != null) {
-            line += xtandemEValue;
+            line.addNumber(xtandemEValue);
+        } else {
+            line.addEmpty();
         }
 
-        line += SEPARATOR;
-        PSParameter probabilities = new PSParameter();
-        probabilities = (PSParameter) identification.getSpectrumMatchParameter(psmKey, probabilities);
-
-        line += probabilities.getPsmProbabilityScore() + SEPARATOR
-                + probabilities.getPsmProbability() + SEPARATOR;
+        line.addNumber(probabilities.getPsmProbabilityScore());
+        line.addNumber(probabilities.getPsmProbability());
 
         if (spectrumMatch.getBestAssumption().isDecoy()) {
-            line += "1" + SEPARATOR;
+            line.addNumber(1);
         } else {
-            line += "0" + SEPARATOR;
+            line.addNumber(0);
         }
 
         if (probabilities.isValidated()) {
-            line += "1";
+            line.addNumber(1);
         } else {
-            line += "0";
+            line.addNumber(0);
+        }
+
+        line.endLine();
+    }
+
+    /**
+     * Appends the variable modifications of a peptide to the buffer in the
+     * form "mod1(site1, site2), mod2(site)" and returns the sorted names of
+     * the modifications.
+     *
+     * @param peptide the peptide of interest
+     * @param line the buffer where to append the modifications
+     * @return the sorted names of the variable modifications
+     */
+    private ArrayList<String> appendModifications(Peptide peptide, StringBuilder line) {
+
+        HashMap<String, ArrayList<Integer>> modMap = new HashMap<String, ArrayList<Integer>>();
+
+        for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+            if (modificationMatch.isVariable()) {
+                if (!modMap.containsKey(modificationMatch.getTheoreticPtm())) {
+                    modMap.put(modificationMatch.getTheoreticPtm(), new ArrayList<Integer>());
+                }
+                modMap.get(modificationMatch.getTheoreticPtm()).add(modificationMatch.getModificationSite());
+            }
+        }
+
+        boolean first = true;
+        ArrayList<String> modifications = new ArrayList<String>(modMap.keySet());
+        Collections.sort(modifications);
+
+        for (String mod : modifications) {
+            if (first) {
+                first = false;
+            } else {
+                line.append(", ");
+            }
+
+            boolean first2 = true;
+            line.append(mod).append("(");
+
+            for (int aa : modMap.get(mod)) {
+                if (first2) {
+                    first2 = false;
+                } else {
+                    line.append(", ");
+                }
+                line.append(aa);
+            }
+
+            line.append(")");
         }
 
-        line += System.getProperty("line.separator");
+        return modifications;
+    }
 
-        return line;
+    /**
+     * Appends the sorted sites of a PTM location key to the buffer, separated
+     * by commas.
+     *
+     * @param location the location key
+     * @param line the buffer where to append the sites
+     */
+    private void appendLocations(String location, StringBuilder line) {
+        ArrayList<Integer> locations = PtmScoring.getLocations(location);
+        Collections.sort(locations);
+        boolean first = true;
+        for (int aa : locations) {
+            if (first) {
+                first = false;
+            } else {
+                line.append(", ");
+            }
+            line.append(aa);
+        }
     }
 
     /**
-     * Exports the peptide assumptions from a peptide spectrum match as lines of
-     * text.
+     * Appends the PTM site confidence of a modification to the buffer.
      *
-     * @param spectrumMatch the spectrum match to export
-     * @return the peptide assumptions from a peptide spectrum match as lines of
-     * text
+     * @param ptmScores the PTM scores, can be null
+     * @param mod the modification of interest
+     * @param line the buffer where to append the confidence
      */
-    private String getAssumptionLines(String spectrumKey) throws Exception {
+    private void appendPtmConfidence(PSPtmScores ptmScores, String mod, StringBuilder line) {
+
+        if (ptmScores != null && ptmScores.getPtmScoring(mod) != null) {
+
+            int ptmConfidence = ptmScores.getPtmScoring(mod).getPtmSiteConfidence();
+
+            if (ptmConfidence == PtmScoring.NOT_FOUND) {
+                line.append("Not Scored"); // Well this should not happen
+            } else if (ptmConfidence == PtmScoring.RANDOM) {
+                line.append("Random");
+            } else if (ptmConfidence == PtmScoring.DOUBTFUL) {
+                line.append("Doubtfull");
+            } else if (ptmConfidence == PtmScoring.CONFIDENT) {
+                line.append("Confident");
+            } else if (ptmConfidence == PtmScoring.VERY_CONFIDENT) {
+                line.append("Very Confident");
+            }
+        } else {
+            line.append("Not Scored");
+        }
+    }
+
+    /**
+     * Writes the peptide assumptions from a peptide spectrum match as lines.
+     *
+     * @param spectrumKey the key of the spectrum match to export
+     * @param line the writer receiving the fields of the lines
+     */
+    private void writeAssumptionLines(String spectrumKey, LineWriter line) throws Exception {
 
-        // @TODO: would it be faster to send the output directly to the buffered writer than going via a string??
+        SpectrumMatch spectrumMatch;
+
+        synchronized (identification) {
+            spectrumMatch = identification.getSpectrumMatch(spectrumKey);
+        }
 
-        String line = "";
-        SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
         ArrayList<Integer> searchEngines = spectrumMatch.getAdvocates();
         Collections.sort(searchEngines);
         String fileName = Spectrum.getSpectrumFile(spectrumMatch.getKey());
         String spectrumTitle = Spectrum.getSpectrumTitle(spectrumMatch.getKey());
-        Precursor precursor = spectrumFactory.getPrecursor(fileName, spectrumTitle);
+        Precursor precursor;
+
+        synchronized (spectrumFactory) {
+            precursor = spectrumFactory.getPrecursor(fileName, spectrumTitle);
+        }
+
+        StringBuilder field = new StringBuilder();
 
         for (int se : searchEngines) {
 
@@ -811,88 +1054,93 @@ public class CsvExporter {
                 for (PeptideAssumption assumption : spectrumMatch.getAllAssumptions(se).get(eValue)) {
 
                     if (se == Advocate.MASCOT) {
-                        line += "M" + SEPARATOR;
+                        line.addText("M");
                     } else if (se == Advocate.OMSSA) {
-                        line += "O" + SEPARATOR;
+                        line.addText("O");
                     } else if (se == Advocate.XTANDEM) {
-                        line += "X" + SEPARATOR;
+                        line.addText("X");
+                    } else {
+                        line.addEmpty();
                     }
 
-                    line += rank + SEPARATOR;
+                    line.addNumber(rank);
 
+                    field.setLength(0);
                     for (String protein : assumption.getPeptide().getParentProteins()) {
-                        line += protein + " ";
+                        field.append(protein).append(" ");
                     }
 
-                    line += SEPARATOR;
-                    line += assumption.getPeptide().getSequence() + SEPARATOR;
+                    line.addText(field.toString());
+                    line.addText(assumption.getPeptide().getSequence());
 
+                    field.setLength(0);
                     for (ModificationMatch mod : assumption.getPeptide().getModificationMatches()) {
                         if (mod.isVariable()) {
-                            line += mod.getTheoreticPtm() + "(" + mod.getModificationSite() + ") ";
+                            field.append(mod.getTheoreticPtm()).append("(").append(mod.getModificationSite()).append(") ");
                         }
                     }
 
-                    line += SEPARATOR;
-                    line += assumption.getIdentificationCharge().value + SEPARATOR;
-                    line += spectrumTitle + SEPARATOR;
-                    line += fileName + SEPARATOR;
-                    line += assumption.getFile() + SEPARATOR;
-                    line += spectrumMatch.getBestAssumption().getPeptide().getMass() + SEPARATOR;
-                    line += Math.abs(spectrumMatch.getBestAssumption().getDeltaMass(precursor.getMz(), true)) + SEPARATOR;
+                    line.addText(field.toString());
+                    line.addNumber(assumption.getIdentificationCharge().value);
+                    line.addText(spectrumTitle);
+                    line.addText(fileName);
+                    line.addText(assumption.getFile());
+                    line.addNumber(spectrumMatch.getBestAssumption().getPeptide().getMass());
+                    line.addNumber(Math.abs(spectrumMatch.getBestAssumption().getDeltaMass(precursor.getMz(), true)));
 
                     if (se == Advocate.MASCOT) {
                         MascotScore score = (MascotScore) assumption.getUrParam(new MascotScore(0));
-                        line += score.getScore() + SEPARATOR;
-                        line += assumption.getEValue() + SEPARATOR;
+                        line.addNumber(score.getScore());
+                        line.addNumber(assumption.getEValue());
                     } else {
-                        line += SEPARATOR + SEPARATOR;
+                        line.addEmpty();
+                        line.addEmpty();
                     }
 
                     if (se == Advocate.OMSSA) {
-                        line += assumption.getEValue() + "";
+                        line.addNumber(assumption.getEValue());
+                    } else {
+                        line.addEmpty();
                     }
 
-                    line += SEPARATOR;
-
                     if (se == Advocate.XTANDEM) {
-                        line += assumption.getEValue() + "";
+                        line.addNumber(assumption.getEValue());
+                    } else {
+                        line.addEmpty();
                     }
 
-                    line += SEPARATOR;
-
                     PSParameter probabilities = new PSParameter();
                     probabilities = (PSParameter) assumption.getUrParam(probabilities);
 
                     try {
-                        line += assumption.getEValue() + SEPARATOR
-                                + probabilities.getSearchEngineProbability() + SEPARATOR;
+                        double searchEngineProbability = probabilities.getSearchEngineProbability();
+                        line.addNumber(assumption.getEValue());
+                        line.addNumber(searchEngineProbability);
                     } catch (Exception e) {
-                        line += SEPARATOR + SEPARATOR;
+                        line.addEmpty();
+                        line.addEmpty();
                     }
 
                     if (assumption.isDecoy()) {
-                        line += "1" + SEPARATOR;
+                        line.addNumber(1);
                     } else {
-                        line += "0" + SEPARATOR;
+                        line.addNumber(0);
                     }
 
                     try {
                         if (probabilities.isValidated()) {
-                            line += "1";
+                            line.addNumber(1);
                         } else {
-                            line += "0";
+                            line.addNumber(0);
                         }
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
 
-                    line += System.getProperty("line.separator");
+                    line.endLine();
                     rank++;
                 }
             }
         }
-
-        return line;
     }
 }
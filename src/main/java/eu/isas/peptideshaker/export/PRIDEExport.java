@@ -34,6 +34,13 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -85,9 +92,28 @@ public class PRIDEExport {
      */
     private Instrument instrument;
     /**
-     * The fileWriter.
+     * The number of spectra serialized in a task.
      */
-    private FileWriter r;
+    public static final int SPECTRA_CHUNK_SIZE = 100;
+    /**
+     * The size of the buffer of the writer in characters.
+     */
+    private static final int WRITER_BUFFER_SIZE = 1 << 20;
+    /**
+     * The tab spaces for the first indentation levels.
+     */
+    private static final String[] TAB_SPACES = new String[32];
+
+    static {
+        TAB_SPACES[0] = "";
+        for (int i = 1; i < TAB_SPACES.length; i++) {
+            TAB_SPACES[i] = TAB_SPACES[i - 1] + "\t";
+        }
+    }
+    /**
+     * The file writer.
+     */
+    private Writer r;
     /**
      * The buffered writer which will write the results in the desired file.
      */
@@ -109,7 +135,7 @@ public class PRIDEExport {
      * The spectrum key to PRIDE spectrum index map - key: spectrum key,
      * element: PRIDE XML file spectrum index.
      */
-    private HashMap<String, Long> spectrumIndexes;
+    private SpectrumIndexMap spectrumIndexes;
     /**
      * The ptm to PRIDE map.
      */
@@ -157,6 +183,38 @@ public class PRIDEExport {
     public PRIDEExport(PeptideShakerGUI peptideShakerGUI, PrideExportDialog prideExportDialog, String experimentTitle, String experimentLabel, String experimentDescription, String experimentProject,
             ArrayList<Reference> references, Contact contact, Sample sample, Protocol protocol, Instrument instrument,
             File outputFolder, String fileName) throws FileNotFoundException, IOException, ClassNotFoundException {
+        this(peptideShakerGUI, prideExportDialog, experimentTitle, experimentLabel, experimentDescription, experimentProject,
+                references, contact, sample, protocol, instrument, outputFolder, fileName, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param peptideShakerGUI Instance of the main GUI class
+     * @param prideExportDialog A reference to the PrideExportDialog.
+     * @param experimentTitle Title of the experiment
+     * @param experimentLabel Label of the experiment
+     * @param experimentDescription Description of the experiment
+     * @param experimentProject project of the experiment
+     * @param references References for the experiment
+     * @param contact Contact for the experiment
+     * @param sample Samples in this experiment
+     * @param protocol Protocol used in this experiment
+     * @param instrument Instruments used in this experiment
+     * @param outputFolder Output folder
+     * @param fileName the file name without extension
+     * @param gzip boolean indicating whether the file should be gzipped, the
+     * .gz extension is then added
+     * @throws FileNotFoundException Exception thrown whenever a file was not
+     * found
+     * @throws IOException Exception thrown whenever an error occurred while
+     * reading/writing a file
+     * @throws ClassNotFoundException Exception thrown whenever an error
+     * occurred while deserializing a pride object
+     */
+    public PRIDEExport(PeptideShakerGUI peptideShakerGUI, PrideExportDialog prideExportDialog, String experimentTitle, String experimentLabel, String experimentDescription, String experimentProject,
+            ArrayList<Reference> references, Contact contact, Sample sample, Protocol protocol, Instrument instrument,
+            File outputFolder, String fileName, boolean gzip) throws FileNotFoundException, IOException, ClassNotFoundException {
         this.peptideShakerGUI = peptideShakerGUI;
         this.prideExportDialog = prideExportDialog;
         this.experimentTitle = experimentTitle;
@@ -170,8 +228,12 @@ public class PRIDEExport {
         this.instrument = instrument;
         PrideObjectsFactory prideObjectsFactory = PrideObjectsFactory.getInstance();
         ptmToPrideMap = prideObjectsFactory.getPtmToPrideMap();
-        r = new FileWriter(new File(outputFolder, fileName + ".xml"));
-        br = new BufferedWriter(r);
+        if (gzip) {
+            r = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(new File(outputFolder, fileName + ".xml.gz")), 1 << 16));
+        } else {
+            r = new FileWriter(new File(outputFolder, fileName + ".xml"));
+        }
+        br = new BufferedWriter(r, WRITER_BUFFER_SIZE);
     }
 
     /**
@@ -764,7 +826,10 @@ public class PRIDEExport {
     }
 
     /**
-     * Writes all spectra in the mzData format.
+     * Writes all spectra in the mzData format. The spectra are read in the
+     * order of the mgf files on this thread while the previous ones are
+     * serialized by chunks on a pool of threads, the chunks are then written
+     * in order.
      *
      * @param progressDialog a progress dialog to display progress to the user
      * @throws IOException exception thrown whenever a problem occurred while
@@ -776,7 +841,7 @@ public class PRIDEExport {
 
         progressDialog.setTitle("Creating PRIDE XML File. Please Wait...  (Part 1 of 2: Exporting Spectra)");
 
-        spectrumIndexes = new HashMap<String, Long>();
+        spectrumIndexes = new SpectrumIndexMap((int) (totalProgress / 2));
 
         long spectrumCounter = 0;
 
@@ -787,31 +852,60 @@ public class PRIDEExport {
 
         Identification identification = peptideShakerGUI.getIdentification();
 
-        for (String mgfFile : spectrumFactory.getMgfFileNames()) {
+        int nThreads = peptideShakerGUI.getProcessingPreferences().getnThreads();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
 
-            if (prideExportDialog.progressCancelled()) {
-                break;
-            }
+        try {
+            LinkedList<Future<String>> pendingChunks = new LinkedList<Future<String>>();
+            ArrayList<MSnSpectrum> spectra = new ArrayList<MSnSpectrum>(SPECTRA_CHUNK_SIZE);
+            ArrayList<Boolean> identified = new ArrayList<Boolean>(SPECTRA_CHUNK_SIZE);
+            long firstIndex = spectrumCounter;
 
-            for (String spectrumTitle : spectrumFactory.getSpectrumTitles(mgfFile)) {
+            for (String mgfFile : spectrumFactory.getMgfFileNames()) {
 
                 if (prideExportDialog.progressCancelled()) {
                     break;
                 }
 
-                String spectrumKey = Spectrum.getSpectrumKey(mgfFile, spectrumTitle);
-                MSnSpectrum tempSpectrum = ((MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey));
-                if (!tempSpectrum.getPeakList().isEmpty()) {
-                    boolean identified = identification.matchExists(spectrumKey);
-                    writeSpectrum(tempSpectrum, identified, spectrumCounter);
-                    if (identified) {
-                        spectrumIndexes.put(spectrumKey, spectrumCounter);
+                for (String spectrumTitle : spectrumFactory.getSpectrumTitles(mgfFile)) {
+
+                    if (prideExportDialog.progressCancelled()) {
+                        break;
                     }
-                    spectrumCounter++;
+
+                    String spectrumKey = Spectrum.getSpectrumKey(mgfFile, spectrumTitle);
+                    MSnSpectrum tempSpectrum = ((MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey));
+                    if (!tempSpectrum.getPeakList().isEmpty()) {
+                        boolean matchExists = identification.matchExists(spectrumKey);
+                        spectra.add(tempSpectrum);
+                        identified.add(matchExists);
+                        if (matchExists) {
+                            spectrumIndexes.put(spectrumKey, spectrumCounter);
+                        }
+                        spectrumCounter++;
+                        if (spectra.size() == SPECTRA_CHUNK_SIZE) {
+                            pendingChunks.add(pool.submit(new SpectrumSerializer(spectra, identified, firstIndex, tabCounter)));
+                            spectra = new ArrayList<MSnSpectrum>(SPECTRA_CHUNK_SIZE);
+                            identified = new ArrayList<Boolean>(SPECTRA_CHUNK_SIZE);
+                            firstIndex = spectrumCounter;
+                            while (pendingChunks.size() >= 2 * nThreads) {
+                                writeChunk(pendingChunks.removeFirst());
+                            }
+                        }
+                    }
+                    progress++;
+                    progressDialog.setValue((int) ((100 * progress) / totalProgress));
                 }
-                progress++;
-                progressDialog.setValue((int) ((100 * progress) / totalProgress));
             }
+
+            if (!spectra.isEmpty()) {
+                pendingChunks.add(pool.submit(new SpectrumSerializer(spectra, identified, firstIndex, tabCounter)));
+            }
+            while (!pendingChunks.isEmpty()) {
+                writeChunk(pendingChunks.removeFirst());
+            }
+        } finally {
+            pool.shutdownNow();
         }
 
         tabCounter--;
@@ -819,96 +913,154 @@ public class PRIDEExport {
     }
 
     /**
-     * Writes a spectrum.
+     * Writes a chunk of serialized spectra once ready.
+     *
+     * @param chunk the chunk
+     * @throws IOException exception thrown whenever a problem occurred while
+     * serializing or writing the spectra
+     */
+    private void writeChunk(Future<String> chunk) throws IOException {
+        try {
+            br.write(chunk.get());
+        } catch (InterruptedException e) {
+            throw new IOException("Spectrum export interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("An error occurred while exporting the spectra: " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Serializes a chunk of spectra in the mzData format.
+     */
+    private static class SpectrumSerializer implements Callable<String> {
+
+        /**
+         * The spectra to serialize.
+         */
+        private ArrayList<MSnSpectrum> spectra;
+        /**
+         * Indicates for every spectrum whether it was identified.
+         */
+        private ArrayList<Boolean> identified;
+        /**
+         * The index of the first spectrum.
+         */
+        private long firstIndex;
+        /**
+         * The number of tabs at the beginning of a spectrum element.
+         */
+        private int tabs;
+
+        /**
+         * Constructor.
+         *
+         * @param spectra the spectra to serialize
+         * @param identified indicates for every spectrum whether it was
+         * identified
+         * @param firstIndex the index of the first spectrum
+         * @param tabs the number of tabs at the beginning of a spectrum
+         * element
+         */
+        public SpectrumSerializer(ArrayList<MSnSpectrum> spectra, ArrayList<Boolean> identified, long firstIndex, int tabs) {
+            this.spectra = spectra;
+            this.identified = identified;
+            this.firstIndex = firstIndex;
+            this.tabs = tabs;
+        }
+
+        /**
+         * Serializes the spectra.
+         *
+         * @return the spectra in the mzData format
+         */
+        public String call() {
+            StringBuilder xml = new StringBuilder(spectra.size() * 4096);
+            for (int i = 0; i < spectra.size(); i++) {
+                appendSpectrum(xml, spectra.get(i), identified.get(i), firstIndex + i, tabs);
+            }
+            return xml.toString();
+        }
+    }
+
+    /**
+     * Appends a spectrum in the mzData format.
      *
+     * @param xml the builder where to append the spectrum
      * @param spectrum The spectrum
      * @param matchExists boolean indicating whether the match exists
      * @param spectrumCounter index of the spectrum
-     * @throws IOException exception thrown whenever a problem occurred while
-     * reading/writing a file
+     * @param tabs the number of tabs at the beginning of the spectrum element
      */
-    private void writeSpectrum(MSnSpectrum spectrum, boolean matchExists, long spectrumCounter) throws IOException {
+    private static void appendSpectrum(StringBuilder xml, MSnSpectrum spectrum, boolean matchExists, long spectrumCounter, int tabs) {
 
-        br.write(getCurrentTabSpace() + "<spectrum id=\"" + spectrumCounter + "\">" + System.getProperty("line.separator"));
-        tabCounter++;
+        String lineSeparator = System.getProperty("line.separator");
 
-        br.write(getCurrentTabSpace() + "<spectrumDesc>" + System.getProperty("line.separator"));
-        tabCounter++;
+        xml.append(getTabSpace(tabs)).append("<spectrum id=\"").append(spectrumCounter).append("\">").append(lineSeparator);
+        xml.append(getTabSpace(tabs + 1)).append("<spectrumDesc>").append(lineSeparator);
 
-        br.write(getCurrentTabSpace() + "<spectrumSettings>" + System.getProperty("line.separator"));
-        tabCounter++;
-        br.write(getCurrentTabSpace() + "<spectrumInstrument mzRangeStop=\"" + spectrum.getMaxMz()
-                + " \" mzRangeStart=\"" + spectrum.getMinMz()
-                + "\" msLevel=\"" + spectrum.getLevel() + "\" />" + System.getProperty("line.separator"));
-        tabCounter--;
-        br.write(getCurrentTabSpace() + "</spectrumSettings>" + System.getProperty("line.separator"));
+        xml.append(getTabSpace(tabs + 2)).append("<spectrumSettings>").append(lineSeparator);
+        xml.append(getTabSpace(tabs + 3)).append("<spectrumInstrument mzRangeStop=\"").append(spectrum.getMaxMz())
+                .append(" \" mzRangeStart=\"").append(spectrum.getMinMz())
+                .append("\" msLevel=\"").append(spectrum.getLevel()).append("\" />").append(lineSeparator);
+        xml.append(getTabSpace(tabs + 2)).append("</spectrumSettings>").append(lineSeparator);
 
-        br.write(getCurrentTabSpace() + "<precursorList count=\"1\">" + System.getProperty("line.separator")); // note that precursor count is hardcoded to 1
-        tabCounter++;
-        br.write(getCurrentTabSpace() + "<precursor msLevel=\"1\" spectrumRef=\"0\">" + System.getProperty("line.separator")); // note that precursor ms level is hardcoded to 1 with no corresponding spectrum
-        tabCounter++;
-        br.write(getCurrentTabSpace() + "<ionSelection>" + System.getProperty("line.separator"));
-        tabCounter++;
+        xml.append(getTabSpace(tabs + 2)).append("<precursorList count=\"1\">").append(lineSeparator); // note that precursor count is hardcoded to 1
+        xml.append(getTabSpace(tabs + 3)).append("<precursor msLevel=\"1\" spectrumRef=\"0\">").append(lineSeparator); // note that precursor ms level is hardcoded to 1 with no corresponding spectrum
+        xml.append(getTabSpace(tabs + 4)).append("<ionSelection>").append(lineSeparator);
 
         // precursor charge states
         for (int i = 0; i < spectrum.getPrecursor().getPossibleCharges().size(); i++) {
-            br.write(getCurrentTabSpace() + "<cvParam cvLabel=\"MS\" accession=\"MS:1000041\" name=\"ChargeState\" value=\""
-                    + spectrum.getPrecursor().getPossibleCharges().get(i).value + "\" />" + System.getProperty("line.separator")); // note that charge is assumed to be positive...
+            xml.append(getTabSpace(tabs + 5)).append("<cvParam cvLabel=\"MS\" accession=\"MS:1000041\" name=\"ChargeState\" value=\"")
+                    .append(spectrum.getPrecursor().getPossibleCharges().get(i).value).append("\" />").append(lineSeparator); // note that charge is assumed to be positive...
         }
 
         // precursor m/z value
-        br.write(getCurrentTabSpace() + "<cvParam cvLabel=\"MS\" accession=\"MS:1000744\" name=\"selected ion m/z\" value=\""
-                + spectrum.getPrecursor().getMz() + "\" />" + System.getProperty("line.separator"));
+        xml.append(getTabSpace(tabs + 5)).append("<cvParam cvLabel=\"MS\" accession=\"MS:1000744\" name=\"selected ion m/z\" value=\"")
+                .append(spectrum.getPrecursor().getMz()).append("\" />").append(lineSeparator);
 
         // precursor intensity
         if (spectrum.getPrecursor().getIntensity() > 0) {
-            br.write(getCurrentTabSpace() + "<cvParam cvLabel=\"MS\" accession=\"MS:1000042\" name=\"peak intensity\" value=\""
-                    + spectrum.getPrecursor().getIntensity() + "\" />" + System.getProperty("line.separator"));
+            xml.append(getTabSpace(tabs + 5)).append("<cvParam cvLabel=\"MS\" accession=\"MS:1000042\" name=\"peak intensity\" value=\"")
+                    .append(spectrum.getPrecursor().getIntensity()).append("\" />").append(lineSeparator);
         }
 
-        tabCounter--;
-        br.write(getCurrentTabSpace() + "</ionSelection>" + System.getProperty("line.separator"));
+        xml.append(getTabSpace(tabs + 4)).append("</ionSelection>").append(lineSeparator);
 
         // activation
-        br.write(getCurrentTabSpace() + "<activation />" + System.getProperty("line.separator")); // @TODO: always empty, but i think it's a required field?
+        xml.append(getTabSpace(tabs + 4)).append("<activation />").append(lineSeparator); // @TODO: always empty, but i think it's a required field?
 
-        tabCounter--;
-        br.write(getCurrentTabSpace() + "</precursor>" + System.getProperty("line.separator"));
-        tabCounter--;
-        br.write(getCurrentTabSpace() + "</precursorList>" + System.getProperty("line.separator"));
+        xml.append(getTabSpace(tabs + 3)).append("</precursor>").append(lineSeparator);
+        xml.append(getTabSpace(tabs + 2)).append("</precursorList>").append(lineSeparator);
 
         if (matchExists) {
-            br.write(getCurrentTabSpace() + "<comments>Identified</comments>" + System.getProperty("line.separator"));
+            xml.append(getTabSpace(tabs + 2)).append("<comments>Identified</comments>").append(lineSeparator);
         } else {
-            br.write(getCurrentTabSpace() + "<comments>Not identified</comments>" + System.getProperty("line.separator"));
+            xml.append(getTabSpace(tabs + 2)).append("<comments>Not identified</comments>").append(lineSeparator);
         }
 
-        tabCounter--;
-        br.write(getCurrentTabSpace() + "</spectrumDesc>" + System.getProperty("line.separator"));
+        xml.append(getTabSpace(tabs + 1)).append("</spectrumDesc>").append(lineSeparator);
 
         // get the m/z and intensity arrays
         double[][] arrays = spectrum.getMzAndIntensityAsArray();
 
         // write the m/z values
-        br.write(getCurrentTabSpace() + "<mzArrayBinary>" + System.getProperty("line.separator"));
-        tabCounter++;
+        xml.append(getTabSpace(tabs + 1)).append("<mzArrayBinary>").append(lineSeparator);
         BinaryArrayImpl mzValues = new BinaryArrayImpl(arrays[0], BinaryArrayImpl.LITTLE_ENDIAN_LABEL);
-        br.write(getCurrentTabSpace() + "<data precision=\"" + mzValues.getDataPrecision() + "\" endian=\"" + mzValues.getDataEndian()
-                + "\" length=\"" + mzValues.getDataLength() + "\">" + mzValues.getBase64String() + "</data>" + System.getProperty("line.separator"));
-        tabCounter--;
-        br.write(getCurrentTabSpace() + "</mzArrayBinary>" + System.getProperty("line.separator"));
+        xml.append(getTabSpace(tabs + 2)).append("<data precision=\"").append(mzValues.getDataPrecision()).append("\" endian=\"").append(mzValues.getDataEndian())
+                .append("\" length=\"").append(mzValues.getDataLength()).append("\">").append(mzValues.getBase64String()).append("</data>").append(lineSeparator);
+        xml.append(getTabSpace(tabs + 1)).append("</mzArrayBinary>").append(lineSeparator);
 
         // write the intensity values
-        br.write(getCurrentTabSpace() + "<intenArrayBinary>" + System.getProperty("line.separator"));
-        tabCounter++;
+        xml.append(getTabSpace(tabs + 1)).append("<intenArrayBinary>").append(lineSeparator);
         BinaryArrayImpl intValues = new BinaryArrayImpl(arrays[1], BinaryArrayImpl.LITTLE_ENDIAN_LABEL);
-        br.write(getCurrentTabSpace() + "<data precision=\"" + intValues.getDataPrecision() + "\" endian=\"" + intValues.getDataEndian()
-                + "\" length=\"" + intValues.getDataLength() + "\">" + intValues.getBase64String() + "</data>" + System.getProperty("line.separator"));
-        tabCounter--;
-        br.write(getCurrentTabSpace() + "</intenArrayBinary>" + System.getProperty("line.separator"));
+        xml.append(getTabSpace(tabs + 2)).append("<data precision=\"").append(intValues.getDataPrecision()).append("\" endian=\"").append(intValues.getDataEndian())
+                .append("\" length=\"").append(intValues.getDataLength()).append("\">").append(intValues.getBase64String()).append("</data>").append(lineSeparator);
+        xml.append(getTabSpace(tabs + 1)).append("</intenArrayBinary>").append(lineSeparator);
 
-        tabCounter--;
-        br.write(getCurrentTabSpace() + "</spectrum>" + System.getProperty("line.separator"));
+        xml.append(getTabSpace(tabs)).append("</spectrum>").append(lineSeparator);
     }
 
     /**
@@ -1233,14 +1385,28 @@ public class PRIDEExport {
      * @return the tabs in the beginning of each line as a string
      */
     private String getCurrentTabSpace() {
+        return getTabSpace(tabCounter);
+    }
+
+    /**
+     * Returns the given number of tabs as a string.
+     *
+     * @param nTabs the number of tabs
+     * @return the tab space
+     */
+    private static String getTabSpace(int nTabs) {
+
+        if (nTabs < TAB_SPACES.length) {
+            return TAB_SPACES[nTabs];
+        }
 
-        String tabSpace = "";
+        StringBuilder tabSpace = new StringBuilder(TAB_SPACES[TAB_SPACES.length - 1]);
 
-        for (int i = 0; i < tabCounter; i++) {
-            tabSpace += "\t";
+        for (int i = TAB_SPACES.length - 1; i < nTabs; i++) {
+            tabSpace.append("\t");
         }
 
-        return tabSpace;
+        return tabSpace.toString();
     }
 
     /**
@@ -0,0 +1,121 @@
+package eu.isas.peptideshaker.export;
+
+/**
+ * Map of spectrum keys to PRIDE XML spectrum indexes. The keys and indexes are
+ * stored in arrays using open addressing, avoiding an entry and a Long per
+ * spectrum.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumIndexMap {
+
+    /**
+     * The value returned when a key is not in the map.
+     */
+    public static final long NOT_FOUND = -1;
+    /**
+     * The keys, null where empty.
+     */
+    private String[] keys;
+    /**
+     * The indexes.
+     */
+    private long[] indexes;
+    /**
+     * The number of keys in the map.
+     */
+    private int size = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param expectedSize the expected number of keys
+     */
+    public SpectrumIndexMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < 2 * expectedSize) {
+            capacity <<= 1;
+        }
+        keys = new String[capacity];
+        indexes = new long[capacity];
+    }
+
+    /**
+     * Sets the index of a spectrum key.
+     *
+     * @param spectrumKey the spectrum key
+     * @param index the PRIDE XML spectrum index
+     */
+    public void put(String spectrumKey, long index) {
+        if (2 * (size + 1) > keys.length) {
+            resize(2 * keys.length);
+        }
+        int slot = getSlot(spectrumKey, keys);
+        if (keys[slot] == null) {
+            keys[slot] = spectrumKey;
+            size++;
+        }
+        indexes[slot] = index;
+    }
+
+    /**
+     * Returns the index of a spectrum key.
+     *
+     * @param spectrumKey the spectrum key
+     * @return the PRIDE XML spectrum index, NOT_FOUND if the key is not in the
+     * map
+     */
+    public long get(String spectrumKey) {
+        int slot = getSlot(spectrumKey, keys);
+        if (keys[slot] == null) {
+            return NOT_FOUND;
+        }
+        return indexes[slot];
+    }
+
+    /**
+     * Returns the number of keys in the map.
+     *
+     * @return the number of keys in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the slot of a key in the given table: the slot containing the
+     * key or the empty slot where it should be inserted.
+     *
+     * @param spectrumKey the spectrum key
+     * @param table the table of keys
+     * @return the slot of the key
+     */
+    private static int getSlot(String spectrumKey, String[] table) {
+        int mask = table.length - 1;
+        int hash = spectrumKey.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (table[slot] != null && !table[slot].equals(spectrumKey)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Resizes the tables.
+     *
+     * @param capacity the new capacity, a power of two
+     */
+    private void resize(int capacity) {
+        String[] newKeys = new String[capacity];
+        long[] newIndexes = new long[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                int slot = getSlot(keys[i], newKeys);
+                newKeys[slot] = keys[i];
+                newIndexes[slot] = indexes[i];
+            }
+        }
+        keys = newKeys;
+        indexes = newIndexes;
+    }
+}
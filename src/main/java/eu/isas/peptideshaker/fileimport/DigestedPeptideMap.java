@@ -0,0 +1,565 @@
+package eu.isas.peptideshaker.fileimport;
+
+import com.compomics.util.experiment.biology.Enzyme;
+import com.compomics.util.experiment.identification.SequenceFactory;
+import com.compomics.util.gui.waiting.WaitingHandler;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Map of the peptides obtained by in silico digestion of the database to the
+ * proteins they originate from. The map is built with a bounded memory
+ * footprint: digested peptides are sorted in batches spilled to disk, the
+ * batches are then merged, at most MAX_MERGE_FAN_IN at a time, into a sorted
+ * peptide to protein table which is memory mapped for the lookups.
+ *
+ * @author Marc Vaudel
+ */
+public class DigestedPeptideMap {
+
+    /**
+     * The default number of digested peptides kept in memory before sorting
+     * and writing them to disk.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1000000;
+    /**
+     * The maximal number of runs merged at once. If more runs are written,
+     * they are merged in several passes.
+     */
+    public static final int MAX_MERGE_FAN_IN = 64;
+    /**
+     * The size of a mapped segment of the table. Entries never overlap two
+     * segments.
+     */
+    private static final long SEGMENT_SIZE = 1L << 30;
+    /**
+     * The accessions of the proteins in the sequence factory order.
+     */
+    private ArrayList<String> accessions;
+    /**
+     * The file containing the peptide to protein table.
+     */
+    private File tableFile;
+    /**
+     * The file containing the offsets of the table entries.
+     */
+    private File offsetsFile;
+    /**
+     * The mapped segments of the table.
+     */
+    private ByteBuffer[] segments;
+    /**
+     * The offsets of the entries in the table, sorted by peptide sequence.
+     */
+    private LongBuffer offsets;
+    /**
+     * The number of peptides in the map.
+     */
+    private int nPeptides;
+
+    /**
+     * Constructor, private use build() instead.
+     */
+    private DigestedPeptideMap() {
+    }
+
+    /**
+     * Digests the proteins loaded in the sequence factory and builds the
+     * peptide to protein map.
+     *
+     * @param enzyme the enzyme to use
+     * @param nMissedCleavages the maximal number of missed cleavages
+     * @param nMin the minimal peptide length
+     * @param nMax the maximal peptide length
+     * @param bufferSize the number of peptides to keep in memory before
+     * writing them to disk
+     * @param waitingHandler the handler displaying feedback to the user
+     * @return the peptide map, null if the process was canceled
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws InterruptedException exception thrown whenever an error occurred
+     * while reading a protein from the sequence factory
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a protein from the sequence factory
+     */
+    public static DigestedPeptideMap build(Enzyme enzyme, int nMissedCleavages, int nMin, int nMax, int bufferSize, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, ClassNotFoundException {
+
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        DigestedPeptideMap result = new DigestedPeptideMap();
+        result.accessions = new ArrayList<String>(sequenceFactory.getAccessions());
+
+        ArrayList<File> runs = new ArrayList<File>();
+        ArrayList<DigestedPeptide> buffer = new ArrayList<DigestedPeptide>();
+
+        waitingHandler.setSecondaryProgressDialogIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressValue(result.accessions.size());
+
+        try {
+            for (int i = 0; i < result.accessions.size(); i++) {
+                String sequence = sequenceFactory.getProtein(result.accessions.get(i)).getSequence();
+                for (String peptide : enzyme.digest(sequence, nMissedCleavages, nMin, nMax)) {
+                    buffer.add(new DigestedPeptide(peptide, i));
+                }
+                if (buffer.size() >= bufferSize) {
+                    runs.add(writeRun(buffer));
+                    buffer.clear();
+                }
+                waitingHandler.increaseSecondaryProgressValue();
+                if (waitingHandler.isRunCanceled()) {
+                    return null;
+                }
+            }
+            if (!buffer.isEmpty()) {
+                runs.add(writeRun(buffer));
+                buffer.clear();
+            }
+
+            waitingHandler.setSecondaryProgressDialogIndeterminate(true);
+
+            // reduce the number of runs to merge at once
+            while (runs.size() > MAX_MERGE_FAN_IN) {
+                ArrayList<File> mergedRuns = new ArrayList<File>();
+                try {
+                    for (int start = 0; start < runs.size(); start += MAX_MERGE_FAN_IN) {
+                        mergedRuns.add(mergeRuns(runs.subList(start, Math.min(start + MAX_MERGE_FAN_IN, runs.size()))));
+                        if (waitingHandler.isRunCanceled()) {
+                            return null;
+                        }
+                    }
+                } finally {
+                    for (File run : runs) {
+                        run.delete();
+                    }
+                    runs = mergedRuns;
+                }
+            }
+
+            boolean success = false;
+            try {
+                result.mergeRunsToTable(runs);
+                result.map();
+                success = true;
+            } finally {
+                if (!success) {
+                    result.close();
+                }
+            }
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Sorts the given peptides and writes them to a temporary file.
+     *
+     * @param buffer the peptides to write
+     * @return the file where the peptides were written
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private static File writeRun(ArrayList<DigestedPeptide> buffer) throws IOException {
+        Collections.sort(buffer);
+        File run = File.createTempFile("peptides", ".run");
+        run.deleteOnExit();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)));
+        try {
+            out.writeInt(buffer.size());
+            for (DigestedPeptide digestedPeptide : buffer) {
+                out.writeUTF(digestedPeptide.sequence);
+                out.writeInt(digestedPeptide.protein);
+            }
+        } finally {
+            out.close();
+        }
+        return run;
+    }
+
+    /**
+     * Merges sorted runs into a new sorted run.
+     *
+     * @param runs the sorted runs, at most MAX_MERGE_FAN_IN
+     * @return the file where the merged run was written
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    private static File mergeRuns(List<File> runs) throws IOException {
+
+        File mergedRun = File.createTempFile("peptides", ".run");
+        mergedRun.deleteOnExit();
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+        boolean success = false;
+
+        try {
+            int nPeptides = openRuns(runs, queue);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mergedRun)));
+            try {
+                out.writeInt(nPeptides);
+                while (!queue.isEmpty()) {
+                    RunReader reader = queue.poll();
+                    out.writeUTF(reader.current.sequence);
+                    out.writeInt(reader.current.protein);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    } else {
+                        reader.close();
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            success = true;
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+            if (!success) {
+                mergedRun.delete();
+            }
+        }
+
+        return mergedRun;
+    }
+
+    /**
+     * Opens readers on the given runs and adds the non empty ones to the
+     * queue.
+     *
+     * @param runs the sorted runs
+     * @param queue the queue of readers
+     * @return the total number of peptides in the runs
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a file
+     */
+    private static int openRuns(List<File> runs, PriorityQueue<RunReader> queue) throws IOException {
+        int nPeptides = 0;
+        for (File run : runs) {
+            RunReader reader = new RunReader(run);
+            nPeptides += reader.nLeft;
+            if (reader.next()) {
+                queue.add(reader);
+            } else {
+                reader.close();
+            }
+        }
+        return nPeptides;
+    }
+
+    /**
+     * Merges the sorted runs into the peptide to protein table.
+     *
+     * @param runs the sorted runs, at most MAX_MERGE_FAN_IN
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    private void mergeRunsToTable(List<File> runs) throws IOException {
+
+        tableFile = File.createTempFile("peptides", ".table");
+        tableFile.deleteOnExit();
+        offsetsFile = File.createTempFile("peptides", ".offsets");
+        offsetsFile.deleteOnExit();
+
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+        DataOutputStream tableOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tableFile)));
+        DataOutputStream offsetsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetsFile)));
+
+        try {
+            openRuns(runs, queue);
+
+            long position = 0;
+            nPeptides = 0;
+            String currentPeptide = null;
+            ArrayList<Integer> currentProteins = new ArrayList<Integer>();
+
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                if (!reader.current.sequence.equals(currentPeptide)) {
+                    if (currentPeptide != null) {
+                        position = writeEntry(tableOut, offsetsOut, position, currentPeptide, currentProteins);
+                        nPeptides++;
+                    }
+                    currentPeptide = reader.current.sequence;
+                    currentProteins.clear();
+                }
+                int protein = reader.current.protein;
+                if (currentProteins.isEmpty() || currentProteins.get(currentProteins.size() - 1) != protein) {
+                    currentProteins.add(protein);
+                }
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            if (currentPeptide != null) {
+                writeEntry(tableOut, offsetsOut, position, currentPeptide, currentProteins);
+                nPeptides++;
+            }
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+            tableOut.close();
+            offsetsOut.close();
+        }
+    }
+
+    /**
+     * Writes an entry in the table and its offset in the offsets file.
+     *
+     * @param tableOut the table stream
+     * @param offsetsOut the offsets stream
+     * @param position the current position in the table
+     * @param peptide the peptide sequence
+     * @param proteins the indexes of the proteins
+     * @return the new position in the table
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing a file
+     */
+    private static long writeEntry(DataOutputStream tableOut, DataOutputStream offsetsOut, long position, String peptide, ArrayList<Integer> proteins) throws IOException {
+
+        int entryLength = 2 + peptide.length() + 4 + 4 * proteins.size();
+
+        if (entryLength > SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Peptide " + peptide + " is found in too many proteins to be indexed.");
+        }
+
+        // do not let an entry overlap two segments
+        long segmentEnd = (position / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+        if (position + entryLength > segmentEnd) {
+            while (position < segmentEnd) {
+                tableOut.write(0);
+                position++;
+            }
+        }
+
+        offsetsOut.writeLong(position);
+        tableOut.writeShort(peptide.length());
+        tableOut.writeBytes(peptide);
+        tableOut.writeInt(proteins.size());
+        for (int protein : proteins) {
+            tableOut.writeInt(protein);
+        }
+        return position + entryLength;
+    }
+
+    /**
+     * Maps the table and offsets files in memory.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping a file
+     */
+    private void map() throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(offsetsFile, "r");
+        try {
+            offsets = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, 8L * nPeptides).asLongBuffer();
+        } finally {
+            raf.close();
+        }
+
+        raf = new RandomAccessFile(tableFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            int nSegments = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            segments = new ByteBuffer[nSegments];
+            for (int i = 0; i < nSegments; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the accessions of the proteins from which the given peptide is
+     * obtained upon digestion, null if the peptide is not in the map.
+     *
+     * @param peptideSequence the peptide sequence
+     * @return the accessions of the proteins, null if not found
+     */
+    public ArrayList<String> getProteins(String peptideSequence) {
+
+        int low = 0;
+        int high = nPeptides - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long offset = offsets.get(mid);
+            ByteBuffer segment = segments[(int) (offset / SEGMENT_SIZE)];
+            int position = (int) (offset % SEGMENT_SIZE);
+            int comparison = compare(segment, position, peptideSequence);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                int length = segment.getShort(position);
+                position += 2 + length;
+                int nProteins = segment.getInt(position);
+                position += 4;
+                ArrayList<String> result = new ArrayList<String>(nProteins);
+                for (int i = 0; i < nProteins; i++) {
+                    result.add(accessions.get(segment.getInt(position)));
+                    position += 4;
+                }
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares the peptide stored at the given position to a peptide
+     * sequence.
+     *
+     * @param segment the segment containing the entry
+     * @param position the position of the entry in the segment
+     * @param peptideSequence the peptide sequence
+     * @return a negative integer, zero, or a positive integer as the stored
+     * peptide is less than, equal to, or greater than the given sequence
+     */
+    private static int compare(ByteBuffer segment, int position, String peptideSequence) {
+        int length = segment.getShort(position);
+        int minLength = Math.min(length, peptideSequence.length());
+        for (int i = 0; i < minLength; i++) {
+            int difference = (segment.get(position + 2 + i) & 0xff) - peptideSequence.charAt(i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - peptideSequence.length();
+    }
+
+    /**
+     * Returns the number of peptides in the map.
+     *
+     * @return the number of peptides in the map
+     */
+    public int size() {
+        return nPeptides;
+    }
+
+    /**
+     * Releases the map and deletes the underlying files.
+     */
+    public void close() {
+        offsets = null;
+        segments = null;
+        if (tableFile != null) {
+            tableFile.delete();
+        }
+        if (offsetsFile != null) {
+            offsetsFile.delete();
+        }
+    }
+
+    /**
+     * A peptide obtained by digestion of a protein.
+     */
+    private static class DigestedPeptide implements Comparable<DigestedPeptide> {
+
+        /**
+         * The peptide sequence.
+         */
+        private String sequence;
+        /**
+         * The index of the protein.
+         */
+        private int protein;
+
+        /**
+         * Constructor.
+         *
+         * @param sequence the peptide sequence
+         * @param protein the index of the protein
+         */
+        public DigestedPeptide(String sequence, int protein) {
+            this.sequence = sequence;
+            this.protein = protein;
+        }
+
+        @Override
+        public int compareTo(DigestedPeptide other) {
+            int comparison = sequence.compareTo(other.sequence);
+            if (comparison != 0) {
+                return comparison;
+            }
+            return protein < other.protein ? -1 : (protein == other.protein ? 0 : 1);
+        }
+    }
+
+    /**
+     * Reader of a sorted run.
+     */
+    private static class RunReader implements Comparable<RunReader> {
+
+        /**
+         * The input stream.
+         */
+        private DataInputStream in;
+        /**
+         * The number of peptides left in the run.
+         */
+        private int nLeft;
+        /**
+         * The current peptide.
+         */
+        private DigestedPeptide current;
+
+        /**
+         * Constructor.
+         *
+         * @param run the run file
+         * @throws IOException exception thrown whenever an error occurred while
+         * reading the file
+         */
+        public RunReader(File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+            nLeft = in.readInt();
+        }
+
+        /**
+         * Reads the next peptide.
+         *
+         * @return false if the end of the run was reached
+         * @throws IOException exception thrown whenever an error occurred while
+         * reading the file
+         */
+        public boolean next() throws IOException {
+            if (nLeft == 0) {
+                return false;
+            }
+            nLeft--;
+            current = new DigestedPeptide(in.readUTF(), in.readInt());
+            return true;
+        }
+
+        /**
+         * Closes the reader.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * closing the file
+         */
+        public void close() throws IOException {
+            in.close();
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            return current.compareTo(other.current);
+        }
+    }
+}
@@ -13,6 +13,7 @@ import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.io.identifications.IdfileReader;
 import com.compomics.util.experiment.io.identifications.IdfileReaderFactory;
 import com.compomics.util.experiment.io.identifications.idfilereaders.MascotIdfileReader;
+import com.compomics.util.experiment.massspectrometry.Precursor;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.protein.Header.DatabaseType;
@@ -36,6 +37,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * This class is responsible for the import of identifications.
@@ -88,22 +90,30 @@ public class FileImporter {
      */
     private SequenceFactory sequenceFactory = SequenceFactory.getInstance(100000);
     /**
-     * Peptide to protein map: peptide sequence -> protein accession.
+     * Peptide to protein map obtained by digestion of the database.
      */
-    private HashMap<String, ArrayList<String>> sharedPeptides = new HashMap<String, ArrayList<String>>();
+    private DigestedPeptideMap digestedPeptideMap = null;
     /**
      * Peptide to protein map: peptide sequence -> protein accession.
      */
-    private HashMap<String, ArrayList<String>> foundSharedPeptides = new HashMap<String, ArrayList<String>>();
+    private ConcurrentHashMap<String, ArrayList<String>> foundSharedPeptides = new ConcurrentHashMap<String, ArrayList<String>>();
+    /**
+     * The suffix array index of the protein sequences.
+     */
+    private ProteinSequenceIndex proteinSequenceIndex = null;
     /**
      * db processing disabled if no X!Tandem file is selected.
      */
     private boolean needPeptideMap = false;
     /**
-     * If a Mascot dat file is bigger than this size, an indexed parsing will be
-     * used.
+     * The number of spectrum matches filtered per task when importing PSMs.
+     */
+    private static final int MATCH_CHUNK_SIZE = 1000;
+    /**
+     * The maximal number of filtering tasks waiting to be added to the
+     * identification per thread.
      */
-    public static final double mascotMaxSize = 400;
+    private static final int MAX_PENDING_TASKS_PER_THREAD = 2;
     /**
      * Metrics of the dataset picked-up while loading the data.
      */
@@ -205,59 +215,37 @@ public class FileImporter {
             }
 
             waitingHandler.resetSecondaryProgressBar();
-            waitingHandler.setSecondaryProgressDialogIndeterminate(true);
-
-            if (needPeptideMap) {
-                if (2 * sequenceFactory.getNTargetSequences() < sequenceFactory.getnCache()) { // @TODO: should this be overrideable by the user??
-                    waitingHandler.appendReport("Creating peptide to protein map.", true, true);
 
-                    Enzyme enzyme = searchParameters.getEnzyme();
-                    if (enzyme == null) {
-                        throw new NullPointerException("Enzyme not found");
-                    }
-                    int nMissedCleavages = searchParameters.getnMissedCleavages();
-                    int nMin = idFilter.getMinPepLength();
-                    int nMax = idFilter.getMaxPepLength();
-                    sharedPeptides = new HashMap<String, ArrayList<String>>();
-                    HashMap<String, String> tempMap = new HashMap<String, String>();
-
-                    int numberOfSequences = sequenceFactory.getAccessions().size();
-
-                    waitingHandler.setSecondaryProgressDialogIndeterminate(false);
-                    waitingHandler.setMaxSecondaryProgressValue(numberOfSequences);
-
-                    for (String proteinKey : sequenceFactory.getAccessions()) {
+            try {
+                proteinSequenceIndex = ProteinSequenceIndex.loadIndex(fastaFile, waitingHandler);
+            } catch (IllegalArgumentException e) {
+                proteinSequenceIndex = null;
+                waitingHandler.appendReport(e.getLocalizedMessage() + " Protein inference will rely on the search engine results.", true, true);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
 
-                        waitingHandler.increaseSecondaryProgressValue();
+            waitingHandler.resetSecondaryProgressBar();
+            waitingHandler.setSecondaryProgressDialogIndeterminate(true);
 
-                        String sequence = sequenceFactory.getProtein(proteinKey).getSequence();
+            if (needPeptideMap) {
+                waitingHandler.appendReport("Creating peptide to protein map.", true, true);
 
-                        for (String peptide : enzyme.digest(sequence, nMissedCleavages, nMin, nMax)) {
-                            ArrayList<String> proteins = sharedPeptides.get(peptide);
-                            if (proteins != null) {
-                                proteins.add(proteinKey);
-                            } else {
-                                String tempProtein = tempMap.get(peptide);
-                                if (tempProtein != null) {
-                                    ArrayList<String> tempList = new ArrayList<String>(2);
-                                    tempList.add(tempProtein);
-                                    tempList.add(proteinKey);
-                                    sharedPeptides.put(peptide, tempList);
-                                } else {
-                                    tempMap.put(peptide, proteinKey);
-                                }
-                            }
-                        }
-                        if (waitingHandler.isRunCanceled()) {
-                            return;
-                        }
-                    }
-                    tempMap.clear();
+                Enzyme enzyme = searchParameters.getEnzyme();
+                if (enzyme == null) {
+                    throw new NullPointerException("Enzyme not found");
+                }
+                int nMissedCleavages = searchParameters.getnMissedCleavages();
+                int nMin = idFilter.getMinPepLength();
+                int nMax = idFilter.getMaxPepLength();
 
-                    waitingHandler.setSecondaryProgressDialogIndeterminate(true);
-                } else {
-                    waitingHandler.appendReport("The database is too large to be parsed into peptides. Note that X!Tandem peptides might present protein inference issues.", true, true);
+                digestedPeptideMap = DigestedPeptideMap.build(enzyme, nMissedCleavages, nMin, nMax, DigestedPeptideMap.DEFAULT_BUFFER_SIZE, waitingHandler);
+                if (waitingHandler.isRunCanceled()) {
+                    return;
                 }
+
+                waitingHandler.setSecondaryProgressDialogIndeterminate(true);
             }
 
             waitingHandler.appendReport("FASTA file import completed.", true, true);
@@ -296,62 +284,38 @@ public class FileImporter {
 
     /**
      * Returns the list of proteins which contain in their sequence the given
-     * peptide sequence.
+     * peptide sequence. An empty list is returned if the proteins cannot be
+     * retrieved from the database.
      *
      * @param peptideSequence the tested peptide sequence
-     * @param waitingHandler the handler displaying feedback to the user
+     * @param ilEquivalent if true isoleucine and leucine are considered as
+     * indistinguishable
      * @return a list of corresponding proteins found in the database
      */
-    private ArrayList<String> getProteins(String peptideSequence, WaitingHandler waitingHandler) {
-        
-        // @TODO: the use of contains(...) below is very slow!! using something like suffix trees should be a lot faster
-        
+    private ArrayList<String> getProteins(String peptideSequence, boolean ilEquivalent) {
+
         ArrayList<String> result = foundSharedPeptides.get(peptideSequence);
 
         if (result == null) {
-            result = sharedPeptides.get(peptideSequence);
-
-            boolean inspectAll = 2 * sequenceFactory.getNTargetSequences() < sequenceFactory.getnCache() && needPeptideMap;
-
+            if (!ilEquivalent && digestedPeptideMap != null) {
+                result = digestedPeptideMap.getProteins(peptideSequence);
+            }
             if (result == null) {
-                result = new ArrayList<String>();
-                if (inspectAll) {
-                    try {
-                        for (String proteinKey : sequenceFactory.getAccessions()) {
-                            if (sequenceFactory.getProtein(proteinKey).getSequence().contains(peptideSequence)) {
-                                result.add(proteinKey);
-                            }
-                            if (waitingHandler.isRunCanceled()) {
-                                return new ArrayList<String>();
-                            }
-                        }
-                    } catch (IOException e) {
-                        waitingHandler.appendReport("An error occured while accessing the FASTA file."
-                                + "\nProtein to peptide link will be incomplete. Please restart the analysis.", true, true);
-                        e.printStackTrace();
-                        waitingHandler.setRunCanceled();
-                    } catch (InterruptedException e) {
-                        waitingHandler.appendReport("An error occured while accessing the FASTA file."
-                                + "\nProtein to peptide link will be incomplete. Please restart the analysis.", true, true);
-                        e.printStackTrace();
-                        waitingHandler.setRunCanceled();
-                    } catch (IllegalArgumentException e) {
-                        waitingHandler.appendReport(e.getLocalizedMessage() + "\n" + "Please refer to the troubleshooting section at http://peptide-shaker.googlecode.com."
-                                + "\nProtein to peptide link will be incomplete. Please restart the analysis.", true, true);
-                        e.printStackTrace();
-                        waitingHandler.setRunCanceled();
-                    }
-                    sharedPeptides.put(peptideSequence, result);
+                if (proteinSequenceIndex != null) {
+                    result = proteinSequenceIndex.getProteins(peptideSequence, ilEquivalent);
+                } else {
+                    result = new ArrayList<String>();
                 }
-            } else {
-                foundSharedPeptides.put(peptideSequence, result);
             }
+            foundSharedPeptides.put(peptideSequence, result);
         }
         return result;
     }
 
     /**
-     * Returns a search-engine independent PTM.
+     * Returns a search-engine independent PTM. The PTM factory is not thread
+     * safe and unknown PTMs are added to it, this method is therefore only
+     * called by the importing thread, in the order of the matches.
      *
      * @param sePTM The search engine PTM
      * @param modificationSite The modified site according to the search engine
@@ -508,7 +472,7 @@ public class FileImporter {
         /**
          * List of one hit wonders
          */
-        private ArrayList<String> singleProteinList = new ArrayList<String>();
+        private HashSet<String> singleProteinList = new HashSet<String>();
         /**
          * Map of proteins found several times with the number of times they
          * appeared as first hit
@@ -598,9 +562,7 @@ public class FileImporter {
                 PeptideShaker.setPeptideShakerPTMs(searchParameters);
                 waitingHandler.appendReport("Reading identification files.", true, true);
 
-                for (File idFile : idFiles) {
-                    importPsms(idFile);
-                }
+                importPsms(idFiles);
 
                 while (!missingMgfFiles.isEmpty()) {
                     if (boolCLI) {
@@ -623,23 +585,26 @@ public class FileImporter {
                     }
                     waitingHandler.appendReport("Processing files with the new input.", true, true);
                     ArrayList<File> filesToProcess = new ArrayList<File>(missingMgfFiles.keySet());
+                    Collections.sort(filesToProcess);
 
                     for (String mgfName : missingMgfFiles.values()) {
                         File newFile = spectrumFactory.getSpectrumFileFromIdName(mgfName);
                         spectrumFiles.put(newFile.getName(), newFile);
                     }
                     missingMgfFiles.clear();
-                    for (File idFile : filesToProcess) {
-                        importPsms(idFile);
-                    }
+                    importPsms(filesToProcess);
                     if (waitingHandler.isRunCanceled()) {
                         return 1;
                     }
                 }
 
                 // clear the objects not needed anymore
-                sharedPeptides.clear();
+                if (digestedPeptideMap != null) {
+                    digestedPeptideMap.close();
+                    digestedPeptideMap = null;
+                }
                 foundSharedPeptides.clear();
+                proteinSequenceIndex = null;
                 singleProteinList.clear();
 
                 if (nRetained == 0) {
@@ -679,53 +644,123 @@ public class FileImporter {
         }
 
         /**
-         * Imports the psms from an identification file.
+         * Imports the psms from identification files. The matches of a file
+         * are filtered on a pool of threads. The file readers only return all
+         * the matches of a file at once, the next file is therefore parsed in
+         * the background only once all matches of the current file were
+         * handed to the filtering threads, and only if memory is available.
+         * Only the limited number of chunks of the current file still being
+         * filtered are then held while the next file is parsed. The
+         * results are added to the identification in the order of the files
+         * and of the matches so that the result does not depend on the number
+         * of threads.
+         *
+         * @param files the identification files
+         * @throws Exception exception thrown whenever an error occurred while
+         * parsing a file or importing the matches
+         */
+        public void importPsms(ArrayList<File> files) throws Exception {
+
+            ExecutorService parsingPool = Executors.newSingleThreadExecutor();
+            ExecutorService filteringPool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+
+            try {
+                Future<HashSet<SpectrumMatch>> nextFile = null;
+
+                for (int i = 0; i < files.size(); i++) {
+
+                    File idFile = files.get(i);
+                    waitingHandler.setSecondaryProgressDialogIndeterminate(true);
+                    waitingHandler.appendReport("Parsing " + idFile.getName() + ".", true, true);
+                    if (nextFile == null) {
+                        nextFile = parsingPool.submit(new FileParser(idFile));
+                    }
+                    HashSet<SpectrumMatch> matches = getResult(nextFile);
+                    File nextIdFile = i + 1 < files.size() ? files.get(i + 1) : null;
+                    nextFile = importPsms(idFile, matches, filteringPool, nextIdFile, parsingPool);
+                    matches = null;
+
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                }
+            } finally {
+                parsingPool.shutdownNow();
+                filteringPool.shutdownNow();
+            }
+        }
+
+        /**
+         * Imports the psms parsed from an identification file. The matches are
+         * removed from the parsed set when submitted by chunks to the
+         * filtering threads so that they can be released once added to the
+         * identification. The number of chunks submitted and not yet added is
+         * limited. Once the parsed set is empty, the parsing of the next file
+         * is started if memory is available.
          *
          * @param idFile the identification file
-         * @throws FileNotFoundException exception thrown whenever a file was
-         * not found
-         * @throws IOException exception thrown whenever an error occurred while
-         * reading or writing a file
-         * @throws SAXException exception thrown whenever an error occurred
-         * while parsing an xml file
-         * @throws MzMLUnmarshallerException exception thrown whenever an error
-         * occurred while reading an mzML file
-         */
-        public void importPsms(File idFile) throws FileNotFoundException, IOException, SAXException, MzMLUnmarshallerException, IllegalArgumentException, Exception {
-
-            boolean idReport, goodFirstHit, unknown = false;
-            Identification identification = proteomicAnalysis.getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
-            waitingHandler.setSecondaryProgressDialogIndeterminate(true);
-            waitingHandler.appendReport("Parsing " + idFile.getName() + ".", true, true);
-            IdfileReader fileReader;
+         * @param matches the matches parsed from the file, the set is emptied
+         * during the import
+         * @param filteringPool the pool of threads to use for the filtering
+         * @param nextIdFile the next identification file, null if none
+         * @param parsingPool the pool where to parse the next file
+         * @return the future matches of the next file, null if its parsing
+         * was not started
+         * @throws Exception exception thrown whenever an error occurred while
+         * importing the matches
+         */
+        private Future<HashSet<SpectrumMatch>> importPsms(File idFile, HashSet<SpectrumMatch> matches, ExecutorService filteringPool,
+                File nextIdFile, ExecutorService parsingPool) throws Exception {
 
+            Identification identification = proteomicAnalysis.getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
             int searchEngine = readerFactory.getSearchEngine(idFile);
-
-            if (searchEngine == Advocate.MASCOT && idFile.length() > mascotMaxSize * 1048576) {
-                fileReader = new MascotIdfileReader(idFile, true);
-            } else {
-                fileReader = readerFactory.getFileReader(idFile, null);
+            int numberOfMatches = matches.size();
+
+            // import the spectrum files needed before filtering the matches
+            ArrayList<String> neededFiles = new ArrayList<String>();
+            for (SpectrumMatch match : matches) {
+                String fileName = Spectrum.getSpectrumFile(match.getKey());
+                File spectrumFile = spectrumFactory.getSpectrumFileFromIdName(fileName);
+                if (spectrumFile != null) {
+                    fileName = spectrumFile.getName();
+                }
+                if (!mgfUsed.contains(fileName) && !neededFiles.contains(fileName)) {
+                    neededFiles.add(fileName);
+                }
+            }
+            for (String fileName : neededFiles) {
+                if (!spectrumFiles.containsKey(fileName)) {
+                    missingMgfFiles.put(idFile, fileName);
+                    waitingHandler.appendReport(fileName + " not found.", true, true);
+                    return null;
+                }
+            }
+            for (String fileName : neededFiles) {
+                importSpectra(fileName, searchParameters);
+                mgfUsed.add(fileName);
+                nSpectra += spectrumFactory.getNSpectra(fileName);
+                if (waitingHandler.isRunCanceled()) {
+                    return null;
+                }
             }
 
+            waitingHandler.appendReport("Importing PSMs from " + idFile.getName(), true, true);
             waitingHandler.setSecondaryProgressDialogIndeterminate(false);
-            HashSet<SpectrumMatch> tempSet = fileReader.getAllSpectrumMatches(waitingHandler);
-            fileReader.close();
-            Iterator<SpectrumMatch> matchIt = tempSet.iterator();
-
-            int numberOfMatches = tempSet.size();
-            int progress = 0;
             waitingHandler.setMaxSecondaryProgressValue(numberOfMatches);
-            idReport = false;
-            ArrayList<Integer> charges = new ArrayList<Integer>();
-            double maxErrorPpm = 0, maxErrorDa = 0;
+
+            int maxPendingTasks = MAX_PENDING_TASKS_PER_THREAD * processingPreferences.getnThreads();
+            LinkedList<Future<MatchFilterResult>> pendingTasks = new LinkedList<Future<MatchFilterResult>>();
+            MatchFilterResult fileSummary = new MatchFilterResult();
+            ArrayList<SpectrumMatch> chunk = new ArrayList<SpectrumMatch>(MATCH_CHUNK_SIZE);
+            ArrayList<Precursor> chunkPrecursors = new ArrayList<Precursor>(MATCH_CHUNK_SIZE);
+            Iterator<SpectrumMatch> matchIt = matches.iterator();
 
             while (matchIt.hasNext()) {
 
                 SpectrumMatch match = matchIt.next();
-                nPSMs++;
-                nSecondary += match.getAllAssumptions().size() - 1;
+                matchIt.remove();
 
-                PeptideAssumption firstHit = match.getFirstHit(searchEngine);
+                // map the match to its spectrum
                 String spectrumKey = match.getKey();
                 String fileName = Spectrum.getSpectrumFile(spectrumKey);
                 if (spectrumFactory.getSpectrumFileFromIdName(fileName) != null) {
@@ -743,123 +778,50 @@ public class FileImporter {
                             && !spectrumFactory.spectrumLoaded(spectrumKey)) {
                         waitingHandler.appendReport("Spectrum " + oldTitle + " number " + spectrumTitle + " not found in file " + fileName + ".", true, true);
                         waitingHandler.setRunCanceled();
-                        return;
-                    }
-                }
-
-                if (!mgfUsed.contains(fileName)) {
-                    if (spectrumFiles.containsKey(fileName)) {
-                        importSpectra(fileName, searchParameters);
-                        waitingHandler.setSecondaryProgressDialogIndeterminate(false);
-                        waitingHandler.setMaxSecondaryProgressValue(numberOfMatches);
-                        mgfUsed.add(fileName);
-                        nSpectra += spectrumFactory.getNSpectra(fileName);
-                    } else {
-                        missingMgfFiles.put(idFile, fileName);
-                        waitingHandler.appendReport(fileName + " not found.", true, true);
-                        break;
+                        return null;
                     }
                 }
-                if (!idReport) {
-                    waitingHandler.appendReport("Importing PSMs from " + idFile.getName(), true, true);
-                    idReport = true;
-                }
-
-                goodFirstHit = false;
-                ArrayList<PeptideAssumption> allAssumptions = match.getAllAssumptions(searchEngine).get(firstHit.getEValue());
-
-                for (PeptideAssumption assumption : allAssumptions) {
-                    if (idFilter.validateId(assumption, spectrumKey)) {
-                        if (!goodFirstHit) {
-                            match.setFirstHit(searchEngine, assumption);
-                        }
-                        double precursorMz = spectrumFactory.getPrecursor(spectrumKey).getMz();
-                        goodFirstHit = true;
-                        double error = Math.abs(assumption.getDeltaMass(precursorMz, true));
-
-                        if (error > maxErrorPpm) {
-                            maxErrorPpm = error;
-                        }
 
-                        error = Math.abs(assumption.getDeltaMass(precursorMz, false));
+                chunk.add(match);
+                chunkPrecursors.add(spectrumFactory.getPrecursor(spectrumKey));
 
-                        if (error > maxErrorDa) {
-                            maxErrorDa = error;
-                        }
-
-                        int currentCharge = assumption.getIdentificationCharge().value;
-
-                        if (!charges.contains(currentCharge)) {
-                            charges.add(currentCharge);
-                        }
-
-                        Peptide peptide = assumption.getPeptide();
-                        String peptideSequence = peptide.getSequence();
-                        if (searchEngine == Advocate.XTANDEM) {
-                            ArrayList<String> proteins = getProteins(peptideSequence, waitingHandler);
-                            if (!proteins.isEmpty()) {
-                                peptide.setParentProteins(proteins);
-                            }
-                        }
+                if (chunk.size() == MATCH_CHUNK_SIZE || !matchIt.hasNext()) {
+                    pendingTasks.add(filteringPool.submit(new SpectrumMatchFilter(searchEngine, chunk, chunkPrecursors)));
+                    chunk = new ArrayList<SpectrumMatch>(MATCH_CHUNK_SIZE);
+                    chunkPrecursors = new ArrayList<Precursor>(MATCH_CHUNK_SIZE);
 
-                        for (String protein : peptide.getParentProteins()) {
-                            Integer count = proteinCount.get(protein);
-                            if (count != null) {
-                                proteinCount.put(protein, count + 1);
-                            } else {
-                                int index = singleProteinList.indexOf(protein);
-                                if (index != -1) {
-                                    singleProteinList.remove(index);
-                                    proteinCount.put(protein, 2);
-                                } else {
-                                    singleProteinList.add(protein);
-                                }
-                            }
-                        }
+                    // wait for the oldest chunk when too many are pending
+                    if (pendingTasks.size() >= maxPendingTasks) {
+                        addFilterResult(getResult(pendingTasks.removeFirst()), fileSummary, searchEngine, identification);
                     }
                 }
 
-                if (!goodFirstHit) {
-                    matchIt.remove();
-                } else {
-                    // use search engine independant PTMs
-                    for (PeptideAssumption assumptions : match.getAllAssumptions()) {
-                        Peptide peptide = assumptions.getPeptide();
-                        String sequence = peptide.getSequence();
-                        for (ModificationMatch seMod : peptide.getModificationMatches()) {
-                            if (seMod.getTheoreticPtm().equals(PTMFactory.unknownPTM.getName())) {
-                                if (!unknown) {
-                                    waitingHandler.appendReport("An unknown modification was encountered and might impair further processing."
-                                            + "\nPlease make sure that all modifications are loaded in the search parameters and reload the data.", true, true);
-                                    unknown = true;
-                                }
-                            }
-                            seMod.setTheoreticPtm(getPTM(seMod.getTheoreticPtm(), seMod.getModificationSite(), sequence, searchParameters)); // @TODO: this might cause problems..? 
-                        }
-                    }
-
-                    if (idFilter.validateId(firstHit, spectrumKey)) {
-                        inputMap.addEntry(searchEngine, firstHit.getEValue(), firstHit.isDecoy());
-                        identification.addSpectrumMatch(match);
-                        nRetained++;
-                    }
+                if (waitingHandler.isRunCanceled()) {
+                    return null;
                 }
+            }
+
+            // all matches were handed to the filtering threads, parse the next file if memory allows
+            Future<HashSet<SpectrumMatch>> nextFile = null;
+            if (nextIdFile != null && peptideShaker.getCache().memoryCheck()) {
+                nextFile = parsingPool.submit(new FileParser(nextIdFile));
+            }
 
+            while (!pendingTasks.isEmpty()) {
+                addFilterResult(getResult(pendingTasks.removeFirst()), fileSummary, searchEngine, identification);
                 if (waitingHandler.isRunCanceled()) {
-                    return;
+                    return nextFile;
                 }
-
-                waitingHandler.setSecondaryProgressValue(++progress);
             }
-            metrics.addFoundCharges(charges);
-            if (maxErrorDa > metrics.getMaxPrecursorErrorDa()) {
-                metrics.setMaxPrecursorErrorDa(maxErrorDa);
+
+            metrics.addFoundCharges(fileSummary.charges);
+            if (fileSummary.maxErrorDa > metrics.getMaxPrecursorErrorDa()) {
+                metrics.setMaxPrecursorErrorDa(fileSummary.maxErrorDa);
             }
-            if (maxErrorPpm > metrics.getMaxPrecursorErrorPpm()) {
-                metrics.setMaxPrecursorErrorPpm(maxErrorPpm);
+            if (fileSummary.maxErrorPpm > metrics.getMaxPrecursorErrorPpm()) {
+                metrics.setMaxPrecursorErrorPpm(fileSummary.maxErrorPpm);
             }
 
-
             // Free at least 1GB for the next parser if not anymore available
             // (not elegant so most likely not optimal)
             if (Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() < 1073741824) {
@@ -867,7 +829,7 @@ public class FileImporter {
                 if (Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() < 1073741824) {
                     waitingHandler.appendReport("Reducing memory consumption.", true, true);
                     waitingHandler.setSecondaryProgressDialogIndeterminate(false);
-                    double share = 1073741824 / Runtime.getRuntime().totalMemory();
+                    double share = ((double) 1073741824) / Runtime.getRuntime().totalMemory();
                     share = Math.min(share, 1);
                     peptideShaker.getCache().reduceMemoryConsumption(share, waitingHandler);
                     System.gc();
@@ -876,6 +838,238 @@ public class FileImporter {
             }
 
             waitingHandler.increaseProgressValue();
+
+            return nextFile;
+        }
+
+        /**
+         * Maps the modifications of the filtered matches to the PeptideShaker
+         * PTMs and adds the result of the filtering of a chunk of matches to
+         * the identification and to the summary of the file.
+         *
+         * @param result the result of the filtering
+         * @param fileSummary the summary of the file where charges, precursor
+         * errors and unknown PTMs are gathered
+         * @param searchEngine the search engine used to obtain the matches
+         * @param identification the identification where to add the matches
+         * @throws Exception exception thrown whenever an error occurred while
+         * adding a match to the identification
+         */
+        private void addFilterResult(MatchFilterResult result, MatchFilterResult fileSummary, int searchEngine, Identification identification) throws Exception {
+
+            nPSMs += result.nMatches;
+            nSecondary += result.nSecondary;
+
+            // use search engine independant PTMs
+            for (SpectrumMatch match : result.matchesToMap) {
+                for (PeptideAssumption assumptions : match.getAllAssumptions()) {
+                    Peptide peptide = assumptions.getPeptide();
+                    String sequence = peptide.getSequence();
+                    for (ModificationMatch seMod : peptide.getModificationMatches()) {
+                        seMod.setTheoreticPtm(getPTM(seMod.getTheoreticPtm(), seMod.getModificationSite(), sequence, searchParameters)); // @TODO: this might cause problems..? 
+                    }
+                }
+            }
+
+            for (int i = 0; i < result.retainedMatches.size(); i++) {
+                PeptideAssumption firstHit = result.retainedFirstHits.get(i);
+                inputMap.addEntry(searchEngine, firstHit.getEValue(), firstHit.isDecoy());
+                identification.addSpectrumMatch(result.retainedMatches.get(i));
+                nRetained++;
+            }
+
+            for (String protein : result.proteins) {
+                Integer count = proteinCount.get(protein);
+                if (count != null) {
+                    proteinCount.put(protein, count + 1);
+                } else if (singleProteinList.remove(protein)) {
+                    proteinCount.put(protein, 2);
+                } else {
+                    singleProteinList.add(protein);
+                }
+            }
+
+            for (int charge : result.charges) {
+                if (!fileSummary.charges.contains(charge)) {
+                    fileSummary.charges.add(charge);
+                }
+            }
+            fileSummary.maxErrorPpm = Math.max(fileSummary.maxErrorPpm, result.maxErrorPpm);
+            fileSummary.maxErrorDa = Math.max(fileSummary.maxErrorDa, result.maxErrorDa);
+
+            if (result.unknownPtm && !fileSummary.unknownPtm) {
+                waitingHandler.appendReport("An unknown modification was encountered and might impair further processing."
+                        + "\nPlease make sure that all modifications are loaded in the search parameters and reload the data.", true, true);
+                fileSummary.unknownPtm = true;
+            }
+
+            waitingHandler.increaseSecondaryProgressValue(result.nMatches);
+        }
+
+        /**
+         * Returns the result of a task executed in a pool, the exception
+         * thrown by the task if any is thrown back.
+         *
+         * @param future the future result of the task
+         * @return the result of the task
+         * @throws Exception exception thrown by the task
+         */
+        private <T> T getResult(Future<T> future) throws Exception {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Task parsing an identification file.
+         */
+        private class FileParser implements Callable<HashSet<SpectrumMatch>> {
+
+            /**
+             * The identification file.
+             */
+            private File idFile;
+
+            /**
+             * Constructor.
+             *
+             * @param idFile the identification file to parse
+             */
+            public FileParser(File idFile) {
+                this.idFile = idFile;
+            }
+
+            @Override
+            public HashSet<SpectrumMatch> call() throws Exception {
+
+                IdfileReader fileReader;
+                int searchEngine = readerFactory.getSearchEngine(idFile);
+
+                // Mascot files are always parsed using an index to limit the memory footprint
+                if (searchEngine == Advocate.MASCOT) {
+                    fileReader = new MascotIdfileReader(idFile, true);
+                } else {
+                    fileReader = readerFactory.getFileReader(idFile, null);
+                }
+
+                // the progress is displayed by the importing thread only
+                HashSet<SpectrumMatch> result = fileReader.getAllSpectrumMatches(null);
+                fileReader.close();
+                return result;
+            }
+        }
+
+        /**
+         * Task filtering a list of spectrum matches from a file. The
+         * modifications of the matches are mapped to the PeptideShaker PTMs
+         * afterwards by the importing thread.
+         */
+        private class SpectrumMatchFilter implements Callable<MatchFilterResult> {
+
+            /**
+             * The search engine used to obtain the matches.
+             */
+            private int searchEngine;
+            /**
+             * The matches to filter.
+             */
+            private List<SpectrumMatch> matches;
+            /**
+             * The precursors of the matches spectra.
+             */
+            private List<Precursor> precursors;
+
+            /**
+             * Constructor.
+             *
+             * @param searchEngine the search engine used to obtain the matches
+             * @param matches the matches to filter
+             * @param precursors the precursors of the matches spectra in the
+             * same order
+             */
+            public SpectrumMatchFilter(int searchEngine, List<SpectrumMatch> matches, List<Precursor> precursors) {
+                this.searchEngine = searchEngine;
+                this.matches = matches;
+                this.precursors = precursors;
+            }
+
+            @Override
+            public MatchFilterResult call() throws Exception {
+
+                MatchFilterResult result = new MatchFilterResult();
+                boolean ilEquivalent = processingPreferences.isIsoleucineLeucineEquivalent();
+
+                for (int i = 0; i < matches.size(); i++) {
+
+                    SpectrumMatch match = matches.get(i);
+                    Precursor precursor = precursors.get(i);
+                    double precursorMz = precursor.getMz();
+                    result.nMatches++;
+                    result.nSecondary += match.getAllAssumptions().size() - 1;
+
+                    PeptideAssumption firstHit = match.getFirstHit(searchEngine);
+                    boolean goodFirstHit = false;
+                    ArrayList<PeptideAssumption> allAssumptions = match.getAllAssumptions(searchEngine).get(firstHit.getEValue());
+
+                    for (PeptideAssumption assumption : allAssumptions) {
+                        if (idFilter.validateId(assumption, precursor)) {
+                            if (!goodFirstHit) {
+                                match.setFirstHit(searchEngine, assumption);
+                            }
+                            goodFirstHit = true;
+
+                            double error = Math.abs(assumption.getDeltaMass(precursorMz, true));
+                            if (error > result.maxErrorPpm) {
+                                result.maxErrorPpm = error;
+                            }
+                            error = Math.abs(assumption.getDeltaMass(precursorMz, false));
+                            if (error > result.maxErrorDa) {
+                                result.maxErrorDa = error;
+                            }
+
+                            int currentCharge = assumption.getIdentificationCharge().value;
+                            if (!result.charges.contains(currentCharge)) {
+                                result.charges.add(currentCharge);
+                            }
+
+                            Peptide peptide = assumption.getPeptide();
+                            ArrayList<String> proteins = getProteins(peptide.getSequence(), ilEquivalent);
+                            if (!proteins.isEmpty()) {
+                                peptide.setParentProteins(proteins);
+                            }
+                            result.proteins.addAll(peptide.getParentProteins());
+                        }
+                    }
+
+                    if (goodFirstHit) {
+                        // the PTMs are mapped by the importing thread
+                        for (PeptideAssumption assumptions : match.getAllAssumptions()) {
+                            for (ModificationMatch seMod : assumptions.getPeptide().getModificationMatches()) {
+                                if (seMod.getTheoreticPtm().equals(PTMFactory.unknownPTM.getName())) {
+                                    result.unknownPtm = true;
+                                }
+                            }
+                        }
+                        result.matchesToMap.add(match);
+
+                        if (idFilter.validateId(firstHit, precursor)) {
+                            result.retainedMatches.add(match);
+                            result.retainedFirstHits.add(firstHit);
+                        }
+                    }
+
+                    if (waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                }
+
+                return result;
+            }
         }
 
         /**
@@ -905,6 +1099,56 @@ public class FileImporter {
         }
     }
 
+    /**
+     * The result of the filtering of a list of spectrum matches.
+     */
+    private static class MatchFilterResult {
+
+        /**
+         * The number of matches inspected.
+         */
+        private int nMatches = 0;
+        /**
+         * The number of secondary hits inspected.
+         */
+        private int nSecondary = 0;
+        /**
+         * The matches with a valid first hit in the original order, their
+         * modifications are mapped to the PeptideShaker PTMs by the importing
+         * thread.
+         */
+        private ArrayList<SpectrumMatch> matchesToMap = new ArrayList<SpectrumMatch>();
+        /**
+         * The matches retained in the original order.
+         */
+        private ArrayList<SpectrumMatch> retainedMatches = new ArrayList<SpectrumMatch>();
+        /**
+         * The search engine first hits of the retained matches.
+         */
+        private ArrayList<PeptideAssumption> retainedFirstHits = new ArrayList<PeptideAssumption>();
+        /**
+         * The parent proteins of the validated assumptions, one entry per
+         * occurrence.
+         */
+        private ArrayList<String> proteins = new ArrayList<String>();
+        /**
+         * The charges found.
+         */
+        private ArrayList<Integer> charges = new ArrayList<Integer>();
+        /**
+         * The maximal precursor error in ppm.
+         */
+        private double maxErrorPpm = 0;
+        /**
+         * The maximal precursor error in Da.
+         */
+        private double maxErrorDa = 0;
+        /**
+         * Indicates whether an unknown modification was encountered.
+         */
+        private boolean unknownPtm = false;
+    }
+
     /**
      * Show a simple dialog saying that UniProt databases is recommended and
      * display a link to the Database Help web page.
@@ -108,6 +108,19 @@ public class IdFilter implements Serializable {
      * @throws MzMLUnmarshallerException
      */
     public boolean validateId(PeptideAssumption assumption, String spectrumKey) throws IOException, MzMLUnmarshallerException {
+        return validateId(assumption, spectrumFactory.getPrecursor(spectrumKey));
+    }
+
+    /**
+     * Validates a peptide assumption against the precursor of its spectrum.
+     * This method does not access the spectrum factory.
+     *
+     * @param assumption the considered peptide assumption
+     * @param precursor the precursor of the spectrum
+     * @return a boolean indicating whether the given assumption passes the
+     * filter
+     */
+    public boolean validateId(PeptideAssumption assumption, Precursor precursor) {
 
         int pepLength = assumption.getPeptide().getSequence().length();
 
@@ -147,8 +160,6 @@ public class IdFilter implements Serializable {
             }
         }
 
-        Precursor precursor = spectrumFactory.getPrecursor(spectrumKey);
-        
         if (Math.abs(assumption.getDeltaMass(precursor.getMz(), isPpm)) > maxMassDeviation && maxMassDeviation > 0) {
             return false;
         }
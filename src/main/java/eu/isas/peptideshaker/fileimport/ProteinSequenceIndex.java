@@ -0,0 +1,538 @@
+package eu.isas.peptideshaker.fileimport;
+
+import com.compomics.util.experiment.identification.SequenceFactory;
+import com.compomics.util.gui.waiting.WaitingHandler;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Suffix array index of the protein sequences of a FASTA file allowing the
+ * retrieval of the proteins containing a given peptide sequence. The index is
+ * built once per FASTA file and saved next to it, the sequences and suffix
+ * array are then memory mapped.
+ *
+ * Isoleucine and leucine are indexed as the same residue, exact matches are
+ * obtained by verifying the candidate positions in the original sequences.
+ *
+ * Building the index requires about 17 bytes of heap per residue of the
+ * database: the text (1 byte) and four integer arrays used by the suffix
+ * sorting (16 bytes). The sequences are read twice from the sequence factory
+ * instead of being kept in memory.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinSequenceIndex {
+
+    /**
+     * The extension of the index file.
+     */
+    public static final String EXTENSION = ".psi";
+    /**
+     * The version of the index file format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The character separating protein sequences in the indexed text.
+     */
+    private static final byte SEPARATOR = 0;
+    /**
+     * The accessions of the proteins in the FASTA file order.
+     */
+    private String[] accessions;
+    /**
+     * The start index of every protein in the text.
+     */
+    private int[] proteinStarts;
+    /**
+     * The concatenated protein sequences.
+     */
+    private ByteBuffer text;
+    /**
+     * The suffix array of the text.
+     */
+    private IntBuffer suffixArray;
+    /**
+     * The length of the text.
+     */
+    private int length;
+
+    /**
+     * Constructor, private use loadIndex() instead.
+     */
+    private ProteinSequenceIndex() {
+    }
+
+    /**
+     * Returns the index file corresponding to a FASTA file.
+     *
+     * @param fastaFile the FASTA file
+     * @return the corresponding index file
+     */
+    public static File getIndexFile(File fastaFile) {
+        return new File(fastaFile.getParentFile(), fastaFile.getName() + EXTENSION);
+    }
+
+    /**
+     * Loads the index of the sequences currently loaded in the sequence
+     * factory. The index is built and saved next to the FASTA file if not
+     * present or outdated. If the index cannot be saved, e.g. if the database
+     * folder is read only, the index built in memory is used and the failure
+     * is reported.
+     *
+     * @param fastaFile the FASTA file loaded in the sequence factory
+     * @param waitingHandler the handler displaying feedback to the user
+     * @return the protein sequence index, null if the process was canceled
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     * @throws InterruptedException exception thrown whenever an error occurred
+     * while reading a protein from the sequence factory
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a protein from the sequence factory
+     */
+    public static ProteinSequenceIndex loadIndex(File fastaFile, WaitingHandler waitingHandler) throws IOException, InterruptedException, ClassNotFoundException {
+
+        File indexFile = getIndexFile(fastaFile);
+
+        if (indexFile.exists()) {
+            try {
+                ProteinSequenceIndex index = readIndex(indexFile, fastaFile);
+                if (index != null) {
+                    return index;
+                }
+            } catch (IOException e) {
+                // the index is corrupted, rebuild it
+                e.printStackTrace();
+            }
+        }
+
+        waitingHandler.appendReport("Indexing protein sequences.", true, true);
+        ProteinSequenceIndex index = buildIndex(waitingHandler);
+        if (index == null) {
+            return null;
+        }
+
+        try {
+            index.write(indexFile, fastaFile);
+        } catch (IOException e) {
+            // the database folder might not be writable, the index will be rebuilt next time
+            e.printStackTrace();
+            indexFile.delete();
+            waitingHandler.appendReport("The protein sequence index could not be saved to " + indexFile.getAbsolutePath()
+                    + " (" + e.getLocalizedMessage() + "). The index will be kept in memory and rebuilt next time.", true, true);
+        }
+
+        return index;
+    }
+
+    /**
+     * Builds the index of the sequences loaded in the sequence factory in
+     * memory. The sequences are read once to compute the length of the text
+     * and once to fill it.
+     *
+     * @param waitingHandler the handler displaying feedback to the user
+     * @return the index, null if the process was canceled
+     */
+    private static ProteinSequenceIndex buildIndex(WaitingHandler waitingHandler) throws IOException, InterruptedException, ClassNotFoundException {
+
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        ArrayList<String> proteinAccessions = sequenceFactory.getAccessions();
+        int nProteins = proteinAccessions.size();
+        int[] starts = new int[nProteins];
+
+        waitingHandler.setSecondaryProgressDialogIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressValue(2 * nProteins);
+
+        long totalLength = 0;
+        for (int i = 0; i < nProteins; i++) {
+            totalLength += sequenceFactory.getProtein(proteinAccessions.get(i)).getSequence().length() + 1;
+            waitingHandler.increaseSecondaryProgressValue();
+            if (waitingHandler.isRunCanceled()) {
+                return null;
+            }
+        }
+
+        if (totalLength >= Integer.MAX_VALUE / 4) {
+            throw new IllegalArgumentException("The database is too large to be indexed.");
+        }
+
+        byte[] sequenceBytes = new byte[(int) totalLength];
+        int position = 0;
+        for (int i = 0; i < nProteins; i++) {
+            starts[i] = position;
+            String sequence = sequenceFactory.getProtein(proteinAccessions.get(i)).getSequence();
+            if (position + sequence.length() >= sequenceBytes.length) {
+                throw new IllegalArgumentException("The sequence of " + proteinAccessions.get(i) + " changed while indexing.");
+            }
+            for (int j = 0; j < sequence.length(); j++) {
+                sequenceBytes[position++] = (byte) Character.toUpperCase(sequence.charAt(j));
+            }
+            sequenceBytes[position++] = SEPARATOR;
+            waitingHandler.increaseSecondaryProgressValue();
+            if (waitingHandler.isRunCanceled()) {
+                return null;
+            }
+        }
+
+        waitingHandler.setSecondaryProgressDialogIndeterminate(true);
+
+        ProteinSequenceIndex index = new ProteinSequenceIndex();
+        index.accessions = proteinAccessions.toArray(new String[nProteins]);
+        index.proteinStarts = starts;
+        index.length = sequenceBytes.length;
+        index.text = ByteBuffer.wrap(sequenceBytes);
+        index.suffixArray = IntBuffer.wrap(buildSuffixArray(sequenceBytes));
+        return index;
+    }
+
+    /**
+     * Writes the index to the given file. The file is deleted if an error
+     * occurs.
+     *
+     * @param indexFile the file where to save the index
+     * @param fastaFile the indexed FASTA file
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void write(File indexFile, File fastaFile) throws IOException {
+
+        boolean written = false;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+        try {
+            out.writeInt(VERSION);
+            out.writeLong(fastaFile.length());
+            out.writeLong(fastaFile.lastModified());
+            out.writeInt(accessions.length);
+            for (int i = 0; i < accessions.length; i++) {
+                out.writeUTF(accessions[i]);
+                out.writeInt(proteinStarts[i]);
+            }
+            out.writeInt(length);
+            for (int i = 0; i < length; i++) {
+                out.write(text.get(i));
+            }
+            for (int i = 0; i < length; i++) {
+                out.writeInt(suffixArray.get(i));
+            }
+            written = true;
+        } finally {
+            out.close();
+            if (!written) {
+                indexFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads an index from a file. Returns null if the index does not
+     * correspond to the FASTA file.
+     *
+     * @param indexFile the index file
+     * @param fastaFile the FASTA file
+     * @return the index, null if outdated
+     */
+    private static ProteinSequenceIndex readIndex(File indexFile, File fastaFile) throws IOException {
+
+        ProteinSequenceIndex index = new ProteinSequenceIndex();
+        long headerLength;
+
+        CountingInputStream countingStream = new CountingInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        DataInputStream in = new DataInputStream(countingStream);
+        try {
+            if (in.readInt() != VERSION
+                    || in.readLong() != fastaFile.length()
+                    || in.readLong() != fastaFile.lastModified()) {
+                return null;
+            }
+            int nProteins = in.readInt();
+            index.accessions = new String[nProteins];
+            index.proteinStarts = new int[nProteins];
+            for (int i = 0; i < nProteins; i++) {
+                index.accessions[i] = in.readUTF();
+                index.proteinStarts[i] = in.readInt();
+            }
+            index.length = in.readInt();
+            headerLength = countingStream.getCount();
+        } finally {
+            in.close();
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            index.text = channel.map(FileChannel.MapMode.READ_ONLY, headerLength, index.length);
+            MappedByteBuffer saBuffer = channel.map(FileChannel.MapMode.READ_ONLY, headerLength + index.length, 4L * index.length);
+            index.suffixArray = saBuffer.asIntBuffer();
+        } finally {
+            raf.close();
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns the accessions of the proteins containing the given peptide
+     * sequence in the FASTA file order.
+     *
+     * @param peptideSequence the peptide sequence
+     * @param ilEquivalent if true isoleucine and leucine will be considered
+     * as indistinguishable
+     * @return the accessions of the proteins containing the peptide
+     */
+    public ArrayList<String> getProteins(String peptideSequence, boolean ilEquivalent) {
+
+        ArrayList<String> result = new ArrayList<String>();
+        int m = peptideSequence.length();
+        if (m == 0) {
+            return result;
+        }
+        byte[] pattern = new byte[m];
+        for (int i = 0; i < m; i++) {
+            pattern[i] = (byte) Character.toUpperCase(peptideSequence.charAt(i));
+        }
+
+        // lower bound
+        int low = 0, high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareSuffix(suffixArray.get(mid), pattern) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int first = low;
+
+        // upper bound
+        high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareSuffix(suffixArray.get(mid), pattern) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int last = low;
+
+        if (first == last) {
+            return result;
+        }
+
+        int[] proteinIndexes = new int[last - first];
+        int nFound = 0;
+        for (int i = first; i < last; i++) {
+            int position = suffixArray.get(i);
+            if (ilEquivalent || exactMatch(position, pattern)) {
+                proteinIndexes[nFound++] = getProteinIndex(position);
+            }
+        }
+        Arrays.sort(proteinIndexes, 0, nFound);
+        int previous = -1;
+        for (int i = 0; i < nFound; i++) {
+            if (proteinIndexes[i] != previous) {
+                previous = proteinIndexes[i];
+                result.add(accessions[previous]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compares the suffix starting at the given position to the pattern
+     * considering only the pattern length. I and L are considered equal.
+     *
+     * @param position the start of the suffix
+     * @param pattern the pattern
+     * @return a negative integer, zero, or a positive integer as the suffix is
+     * less than, starts with, or is greater than the pattern
+     */
+    private int compareSuffix(int position, byte[] pattern) {
+        for (int i = 0; i < pattern.length; i++) {
+            if (position + i >= length) {
+                return -1;
+            }
+            int a = normalize(text.get(position + i));
+            int b = normalize(pattern[i]);
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Indicates whether the text at the given position matches the pattern
+     * exactly.
+     *
+     * @param position the position in the text
+     * @param pattern the pattern
+     * @return true if the text matches the pattern exactly
+     */
+    private boolean exactMatch(int position, byte[] pattern) {
+        for (int i = 0; i < pattern.length; i++) {
+            if (text.get(position + i) != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index of the protein containing the given text position.
+     *
+     * @param position the position in the text
+     * @return the index of the protein
+     */
+    private int getProteinIndex(int position) {
+        int index = Arrays.binarySearch(proteinStarts, position);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the indexed value of a residue, I is indexed as L.
+     *
+     * @param residue the residue
+     * @return the indexed value
+     */
+    private static int normalize(byte residue) {
+        if (residue == 'I') {
+            return 'L';
+        }
+        return residue & 0xff;
+    }
+
+    /**
+     * Builds the suffix array of a text using prefix doubling with radix
+     * sorting. I and L are sorted as the same residue.
+     *
+     * @param text the text
+     * @return the suffix array
+     */
+    private static int[] buildSuffixArray(byte[] text) {
+
+        int n = text.length;
+        int[] sa = new int[n];
+        int[] x = new int[n];
+        int[] y = new int[n];
+        int alphabetSize = 256;
+        int[] count = new int[Math.max(alphabetSize, n) + 1];
+
+        for (int i = 0; i < n; i++) {
+            x[i] = normalize(text[i]);
+            count[x[i]]++;
+        }
+        for (int i = 1; i < alphabetSize; i++) {
+            count[i] += count[i - 1];
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            sa[--count[x[i]]] = i;
+        }
+
+        for (int k = 1; k < n; k <<= 1) {
+
+            // order by second key
+            int p = 0;
+            for (int i = n - k; i < n; i++) {
+                y[p++] = i;
+            }
+            for (int i = 0; i < n; i++) {
+                if (sa[i] >= k) {
+                    y[p++] = sa[i] - k;
+                }
+            }
+
+            // stable order by first key
+            Arrays.fill(count, 0, alphabetSize, 0);
+            for (int i = 0; i < n; i++) {
+                count[x[i]]++;
+            }
+            for (int i = 1; i < alphabetSize; i++) {
+                count[i] += count[i - 1];
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                sa[--count[x[y[i]]]] = y[i];
+            }
+
+            // new ranks
+            int[] temp = x;
+            x = y;
+            y = temp;
+            p = 1;
+            x[sa[0]] = 0;
+            for (int i = 1; i < n; i++) {
+                int a = sa[i - 1], b = sa[i];
+                int a2 = a + k < n ? y[a + k] : -1;
+                int b2 = b + k < n ? y[b + k] : -1;
+                x[b] = (y[a] == y[b] && a2 == b2) ? p - 1 : p++;
+            }
+            if (p >= n) {
+                break;
+            }
+            alphabetSize = p;
+        }
+
+        return sa;
+    }
+
+    /**
+     * Input stream counting the bytes read.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        /**
+         * The number of bytes read.
+         */
+        private long count = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param in the underlying stream
+         */
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result != -1) {
+                count++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            if (result > 0) {
+                count += result;
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long result = super.skip(n);
+            count += result;
+            return result;
+        }
+
+        /**
+         * Returns the number of bytes read.
+         *
+         * @return the number of bytes read
+         */
+        public long getCount() {
+            return count;
+        }
+    }
+}
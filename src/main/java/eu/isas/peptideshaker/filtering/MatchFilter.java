@@ -3,8 +3,15 @@ package eu.isas.peptideshaker.filtering;
 import com.compomics.util.experiment.identification.IdentificationMatch;
 import eu.isas.peptideshaker.PeptideShaker;
 import eu.isas.peptideshaker.gui.PeptideShakerGUI;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * Abstract representing a filter
@@ -30,13 +37,23 @@ public abstract class MatchFilter implements Serializable {
      */
     private boolean active = true;
     /**
-     * The key of the manually validated matches
+     * The key of the manually validated matches as serialized, only updated
+     * when the filter is written
      */
     private ArrayList<String> manualValidation = new ArrayList<String>();
     /**
-     * The exceptions to the rule
+     * The exceptions to the rule as serialized, only updated when the filter
+     * is written
      */
     private ArrayList<String> exceptions = new ArrayList<String>();
+    /**
+     * The key of the manually validated matches
+     */
+    private transient LinkedHashSet<String> manualValidationSet = new LinkedHashSet<String>();
+    /**
+     * The exceptions to the rule
+     */
+    private transient LinkedHashSet<String> exceptionsSet = new LinkedHashSet<String>();
 
     /**
      * Name of the manual selection filter
@@ -121,19 +138,21 @@ public abstract class MatchFilter implements Serializable {
     }
 
     /**
-     * Returns the exceptions to the rule
+     * Returns an unmodifiable view of the exceptions to the rule, use the add
+     * and remove methods to edit them.
      * @return the exceptions to the rule 
      */
-    public ArrayList<String> getExceptions() {
-        return exceptions;
+    public Set<String> getExceptions() {
+        return Collections.unmodifiableSet(exceptionsSet);
     }
 
     /**
-     * Returns the manually validated items
+     * Returns an unmodifiable view of the manually validated items, use the
+     * add and remove methods to edit them.
      * @return the manually validated items
      */
-    public ArrayList<String> getManualValidation() {
-        return manualValidation;
+    public Set<String> getManualValidation() {
+        return Collections.unmodifiableSet(manualValidationSet);
     }
 
     /**
@@ -141,37 +160,63 @@ public abstract class MatchFilter implements Serializable {
      * @param matchKey the key of the match to add
      */
     public void addManualValidation(String matchKey) {
-        manualValidation.add(matchKey);
+        manualValidationSet.add(matchKey);
+    }
+
+    /**
+     * Adds manually validated matches
+     * @param matchKeys the keys of the matches to add
+     */
+    public void addManualValidation(Collection<String> matchKeys) {
+        manualValidationSet.addAll(matchKeys);
     }
 
     /**
      * Sets the list of manually validated keys
      * @param manualValidation list of manually validated keys
      */
-    public void setManualValidation(ArrayList<String> manualValidation) {
-        this.manualValidation = manualValidation;
+    public void setManualValidation(Collection<String> manualValidation) {
+        manualValidationSet = new LinkedHashSet<String>(manualValidation);
     }
+
     /**
      * Adds an exception
      * @param matchKey the key of the exception to add
      */
     public void addException(String matchKey) {
-        exceptions.add(matchKey);
+        exceptionsSet.add(matchKey);
+    }
+
+    /**
+     * Adds exceptions
+     * @param matchKeys the keys of the exceptions to add
+     */
+    public void addExceptions(Collection<String> matchKeys) {
+        exceptionsSet.addAll(matchKeys);
     }
 
     /**
      * Sets the excepted matches
      * @param exceptions the excepted matches
      */
-    public void setExceptions(ArrayList<String> exceptions) {
-        this.exceptions = exceptions;
+    public void setExceptions(Collection<String> exceptions) {
+        exceptionsSet = new LinkedHashSet<String>(exceptions);
     }
+
     /**
      * Removes a manually validated Match
      * @param matchKey the key of the match to remove
      */
     public void removeManualValidation(String matchKey) {
-        manualValidation.remove(matchKey);
+        manualValidationSet.remove(matchKey);
+    }
+
+    /**
+     * Removes manually validated matches
+     * @param matchKeys the keys of the matches to remove
+     */
+    public void removeManualValidation(Collection<String> matchKeys) {
+        manualValidationSet.removeAll(matchKeys);
     }
 
     /**
@@ -179,6 +224,39 @@ public abstract class MatchFilter implements Serializable {
      * @param matchKey the key of the exception to remove
      */
     public void removeException(String matchKey) {
-        exceptions.remove(matchKey);
+        exceptionsSet.remove(matchKey);
+    }
+
+    /**
+     * Removes exceptions
+     * @param matchKeys the keys of the exceptions to remove
+     */
+    public void removeExceptions(Collection<String> matchKeys) {
+        exceptionsSet.removeAll(matchKeys);
+    }
+
+    /**
+     * Writes the filter, the manually validated matches and exceptions are
+     * written as lists like in former versions.
+     * @param out the stream to write to
+     * @throws IOException 
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        manualValidation = new ArrayList<String>(manualValidationSet);
+        exceptions = new ArrayList<String>(exceptionsSet);
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Reads the filter and indexes the manually validated matches and
+     * exceptions.
+     * @param in the stream to read from
+     * @throws IOException
+     * @throws ClassNotFoundException 
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        manualValidationSet = manualValidation != null ? new LinkedHashSet<String>(manualValidation) : new LinkedHashSet<String>();
+        exceptionsSet = exceptions != null ? new LinkedHashSet<String>(exceptions) : new LinkedHashSet<String>();
     }
 }
@@ -19,6 +19,7 @@ import eu.isas.peptideshaker.myparameters.PSParameter;
 import java.awt.Color;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.regex.PatternSyntaxException;
@@ -522,32 +523,8 @@ public class FindDialog extends javax.swing.JDialog {
             proteinConfidenceCmb.setSelectedIndex(getComparisonIndex(proteinFilter.getProteinConfidenceComparison()));
         }
 
-        boolean first = true;
-        String text = "";
-
-        for (String key : proteinFilter.getManualValidation()) {
-            if (first) {
-                first = false;
-            } else {
-                text += "; ";
-            }
-            text += key;
-        }
-
-        proteinManualValidationTxt.setText(text);
-        first = true;
-        text = "";
-
-        for (String key : proteinFilter.getExceptions()) {
-            if (first) {
-                first = false;
-            } else {
-                text += "; ";
-            }
-            text += key;
-        }
-
-        proteinExceptionsTxt.setText(text);
+        proteinManualValidationTxt.setText(getKeysText(proteinFilter.getManualValidation()));
+        proteinExceptionsTxt.setText(getKeysText(proteinFilter.getExceptions()));
     }
 
     /**
@@ -587,32 +564,8 @@ public class FindDialog extends javax.swing.JDialog {
             }
         }
 
-        boolean first = true;
-        String text = "";
-
-        for (String key : peptideFilter.getManualValidation()) {
-            if (first) {
-                first = false;
-            } else {
-                text += "; ";
-            }
-            text += key;
-        }
-
-        peptideManualValidationTxt.setText(text);
-        first = true;
-        text = "";
-
-        for (String accession : peptideFilter.getExceptions()) {
-            if (first) {
-                first = false;
-            } else {
-                text += "; ";
-            }
-            text += accession;
-        }
-
-        peptideExceptionsTxt.setText(text);
+        peptideManualValidationTxt.setText(getKeysText(peptideFilter.getManualValidation()));
+        peptideExceptionsTxt.setText(getKeysText(peptideFilter.getExceptions()));
     }
 
     /**
@@ -651,32 +604,8 @@ public class FindDialog extends javax.swing.JDialog {
             }
         }
 
-        boolean first = true;
-        String text = "";
-
-        for (String key : psmFilter.getManualValidation()) {
-            if (first) {
-                first = false;
-            } else {
-                text += "; ";
-            }
-            text += key;
-        }
-
-        psmManualValidationTxt.setText(text);
-        first = true;
-        text = "";
-
-        for (String accession : psmFilter.getExceptions()) {
-            if (first) {
-                first = false;
-            } else {
-                text += "; ";
-            }
-            text += accession;
-        }
-
-        psmExceptionsTxt.setText(text);
+        psmManualValidationTxt.setText(getKeysText(psmFilter.getManualValidation()));
+        psmExceptionsTxt.setText(getKeysText(psmFilter.getExceptions()));
     }
 
     /**
@@ -1696,6 +1625,24 @@ public class FindDialog extends javax.swing.JDialog {
         return false;
     }
 
+    /**
+     * Convenience method writing keys in the manual validation/exception text
+     * fields.
+     *
+     * @param keys the keys to write
+     * @return the text for the text field
+     */
+    private String getKeysText(Collection<String> keys) {
+        StringBuilder text = new StringBuilder();
+        for (String key : keys) {
+            if (text.length() > 0) {
+                text.append("; ");
+            }
+            text.append(key);
+        }
+        return text.toString();
+    }
+
     /**
      * Convenience method parsing keys in the manual validation/exception text
      * fields.
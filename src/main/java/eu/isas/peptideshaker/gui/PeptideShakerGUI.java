@@ -5171,6 +5171,7 @@ public class PeptideShakerGUI extends javax.swing.JFrame implements ClipboardOwn
                     setFilterPreferences(experimentSettings.getFilterPreferences());
                     setDisplayPreferences(experimentSettings.getDisplayPreferences());
                     setMetrics(experimentSettings.getMetrics());
+                    identificationFeaturesGenerator.cancelFeaturesPrecomputation();
                     identificationFeaturesGenerator = new IdentificationFeaturesGenerator(peptideShakerGUI);
                     if (experimentSettings.getIdentificationFeaturesCache() != null) {
                         identificationFeaturesGenerator.setIdentificationFeaturesCache(experimentSettings.getIdentificationFeaturesCache());
@@ -5973,6 +5974,7 @@ public class PeptideShakerGUI extends javax.swing.JFrame implements ClipboardOwn
      * Resets the feature generator.
      */
     public void resetFeatureGenerator() {
+        identificationFeaturesGenerator.cancelFeaturesPrecomputation();
         identificationFeaturesGenerator = new IdentificationFeaturesGenerator(this);
     }
 
@@ -1252,7 +1252,7 @@ public class FeaturesPreferencesDialog extends javax.swing.JDialog {
 
                     CsvExporter exporter = new CsvExporter(peptideShakerGUI.getExperiment(), peptideShakerGUI.getSample(),
                             peptideShakerGUI.getReplicateNumber(), peptideShakerGUI.getSearchParameters().getEnzyme(), peptideShakerGUI.getIdentificationFeaturesGenerator());
-                    boolean exported = exporter.exportResults(progressDialog, fileChooser.getSelectedFile());
+                    boolean exported = exporter.exportResults(progressDialog, fileChooser.getSelectedFile(), peptideShakerGUI.getProcessingPreferences().getnThreads());
 
                     boolean processCancelled = progressDialog.isRunCanceled();
                     progressDialog.setRunFinished();
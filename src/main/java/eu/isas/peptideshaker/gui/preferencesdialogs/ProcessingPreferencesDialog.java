@@ -39,6 +39,13 @@ public class ProcessingPreferencesDialog extends javax.swing.JDialog {
         proteinFdrTxt.setText(processingPreferences.getProteinFDR() + "");
         peptideFdrTxt.setText(processingPreferences.getPeptideFDR() + "");
         psmFdrTxt.setText(processingPreferences.getPsmFDR() + "");
+        nThreadsTxt.setText(processingPreferences.getnThreads() + "");
+
+        if (processingPreferences.isIsoleucineLeucineEquivalent()) {
+            ilEquivalentCmb.setSelectedIndex(0);
+        } else {
+            ilEquivalentCmb.setSelectedIndex(1);
+        }
 
         if (ptmScoringPreferences.aScoreCalculation()) {
             ascoreCmb.setSelectedIndex(0);
@@ -58,10 +65,12 @@ public class ProcessingPreferencesDialog extends javax.swing.JDialog {
         proteinFdrTxt.setEnabled(editable);
         peptideFdrTxt.setEnabled(editable);
         psmFdrTxt.setEnabled(editable);
+        ilEquivalentCmb.setEnabled(editable);
         ascoreCmb.setEnabled(editable);
         neutralLossesCmb.setEnabled(editable);
         aScoreThreshold.setEnabled(editable);
 
+        ilEquivalentCmb.setRenderer(new AlignedListCellRenderer(SwingConstants.CENTER));
         ascoreCmb.setRenderer(new AlignedListCellRenderer(SwingConstants.CENTER));
         neutralLossesCmb.setRenderer(new AlignedListCellRenderer(SwingConstants.CENTER));
 
@@ -99,6 +108,16 @@ public class ProcessingPreferencesDialog extends javax.swing.JDialog {
                     "Input Error", JOptionPane.ERROR_MESSAGE);
             return false;
         }
+        try {
+            int nThreads = new Integer(nThreadsTxt.getText().trim());
+            if (nThreads < 1) {
+                throw new IllegalArgumentException("The number of threads must be positive.");
+            }
+        } catch (Exception e) {
+            JOptionPane.showMessageDialog(this, "Please verify the input for the number of threads.",
+                    "Input Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
         try {
             new Double(aScoreThreshold.getText().trim());
         } catch (Exception e) {
@@ -130,6 +149,10 @@ public class ProcessingPreferencesDialog extends javax.swing.JDialog {
         percentLabel2 = new javax.swing.JLabel();
         proteinFdrTxt = new javax.swing.JTextField();
         percentLabel3 = new javax.swing.JLabel();
+        ilEquivalentLabel = new javax.swing.JLabel();
+        ilEquivalentCmb = new javax.swing.JComboBox();
+        nThreadsLabel = new javax.swing.JLabel();
+        nThreadsTxt = new javax.swing.JTextField();
         jPanel1 = new javax.swing.JPanel();
         neutralLossesCmb = new javax.swing.JComboBox();
         aScoreThreshold = new javax.swing.JTextField();
@@ -175,6 +198,16 @@ public class ProcessingPreferencesDialog extends javax.swing.JDialog {
 
         percentLabel3.setText("%");
 
+        ilEquivalentLabel.setText("I/L Equivalent:");
+        ilEquivalentLabel.setToolTipText("Consider isoleucine and leucine as indistinguishable when mapping peptides to proteins");
+
+        ilEquivalentCmb.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "Yes", "No" }));
+
+        nThreadsLabel.setText("Number of Threads:");
+
+        nThreadsTxt.setHorizontalAlignment(javax.swing.JTextField.CENTER);
+        nThreadsTxt.setText("1");
+
         javax.swing.GroupLayout processingParamsPanelLayout = new javax.swing.GroupLayout(processingParamsPanel);
         processingParamsPanel.setLayout(processingParamsPanelLayout);
         processingParamsPanelLayout.setHorizontalGroup(
@@ -184,7 +217,9 @@ public class ProcessingPreferencesDialog extends javax.swing.JDialog {
                 .addGroup(processingParamsPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                     .addComponent(proteinFdrLabel)
                     .addComponent(peptideFdrLabel)
-                    .addComponent(psmFdrLabel))
+                    .addComponent(psmFdrLabel)
+                    .addComponent(ilEquivalentLabel)
+                    .addComponent(nThreadsLabel))
                 .addGap(32, 79, Short.MAX_VALUE)
                 .addGroup(processingParamsPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING, false)
                     .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, processingParamsPanelLayout.createSequentialGroup()
@@ -198,7 +233,9 @@ public class ProcessingPreferencesDialog extends javax.swing.JDialog {
                     .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, processingParamsPanelLayout.createSequentialGroup()
                         .addComponent(psmFdrTxt, javax.swing.GroupLayout.PREFERRED_SIZE, 185, javax.swing.GroupLayout.PREFERRED_SIZE)
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-                        .addComponent(percentLabel)))
+                        .addComponent(percentLabel))
+                    .addComponent(ilEquivalentCmb, javax.swing.GroupLayout.PREFERRED_SIZE, 185, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(nThreadsTxt, javax.swing.GroupLayout.PREFERRED_SIZE, 185, javax.swing.GroupLayout.PREFERRED_SIZE))
                 .addContainerGap())
         );
         processingParamsPanelLayout.setVerticalGroup(
@@ -219,6 +256,14 @@ public class ProcessingPreferencesDialog extends javax.swing.JDialog {
                     .addComponent(psmFdrLabel)
                     .addComponent(psmFdrTxt, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                     .addComponent(percentLabel))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addGroup(processingParamsPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(ilEquivalentLabel)
+                    .addComponent(ilEquivalentCmb, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addGroup(processingParamsPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(nThreadsLabel)
+                    .addComponent(nThreadsTxt, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
 
@@ -329,6 +374,8 @@ public class ProcessingPreferencesDialog extends javax.swing.JDialog {
             processingPreferences.setProteinFDR(new Double(proteinFdrTxt.getText().trim()));
             processingPreferences.setPeptideFDR(new Double(peptideFdrTxt.getText().trim()));
             processingPreferences.setPsmFDR(new Double(psmFdrTxt.getText().trim()));
+            processingPreferences.setIsoleucineLeucineEquivalent(ilEquivalentCmb.getSelectedIndex() == 0);
+            processingPreferences.setnThreads(new Integer(nThreadsTxt.getText().trim()));
             ptmScoringPreferences.setaScoreCalculation(ascoreCmb.getSelectedIndex() == 0);
             ptmScoringPreferences.setaScoreNeutralLosses(neutralLossesCmb.getSelectedIndex() == 0);
             ptmScoringPreferences.setaScoreThreshold(new Double(aScoreThreshold.getText().trim()));
@@ -341,8 +388,12 @@ public class ProcessingPreferencesDialog extends javax.swing.JDialog {
     private javax.swing.JComboBox ascoreCmb;
     private javax.swing.JPanel backgroundPanel;
     private javax.swing.JLabel estimateAScoreLabel;
+    private javax.swing.JComboBox ilEquivalentCmb;
+    private javax.swing.JLabel ilEquivalentLabel;
     private javax.swing.JPanel jPanel1;
     private javax.swing.JComboBox neutralLossesCmb;
+    private javax.swing.JLabel nThreadsLabel;
+    private javax.swing.JTextField nThreadsTxt;
     private javax.swing.JLabel neutralLossesLabel;
     private javax.swing.JButton okButton;
     private javax.swing.JLabel peptideFdrLabel;
@@ -261,6 +261,7 @@ public class PrideExportDialog extends javax.swing.JDialog {
         jPanel1 = new javax.swing.JPanel();
         outpitFolderLabel = new javax.swing.JLabel();
         outputFolderJTextField = new javax.swing.JTextField();
+        gzipJCheckBox = new javax.swing.JCheckBox();
         browseOutputFolderJButton = new javax.swing.JButton();
 
         refEditJMenuItem.setMnemonic('E');
@@ -644,6 +645,10 @@ public class PrideExportDialog extends javax.swing.JDialog {
         outputFolderJTextField.setToolTipText("The folder where the PRIDE XML file will be saved");
         outputFolderJTextField.setMargin(new java.awt.Insets(2, 4, 2, 2));
 
+        gzipJCheckBox.setText("Gzip");
+        gzipJCheckBox.setToolTipText("Compress the PRIDE XML file using gzip (.xml.gz)");
+        gzipJCheckBox.setOpaque(false);
+
         browseOutputFolderJButton.setText("Browse");
         browseOutputFolderJButton.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
@@ -661,6 +666,8 @@ public class PrideExportDialog extends javax.swing.JDialog {
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(outputFolderJTextField)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addComponent(gzipJCheckBox)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(browseOutputFolderJButton, javax.swing.GroupLayout.PREFERRED_SIZE, 80, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addContainerGap())
         );
@@ -671,6 +678,7 @@ public class PrideExportDialog extends javax.swing.JDialog {
                 .addGroup(jPanel1Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(outpitFolderLabel)
                     .addComponent(outputFolderJTextField, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(gzipJCheckBox)
                     .addComponent(browseOutputFolderJButton))
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
@@ -1117,7 +1125,13 @@ public class PrideExportDialog extends javax.swing.JDialog {
         for (String part : splittedName) {
             fileName += part;
         }
-        File prideFile = new File(outputFolderJTextField.getText(), fileName + ".xml");
+        final boolean gzip = gzipJCheckBox.isSelected();
+        final File prideFile;
+        if (gzip) {
+            prideFile = new File(outputFolderJTextField.getText(), fileName + ".xml.gz");
+        } else {
+            prideFile = new File(outputFolderJTextField.getText(), fileName + ".xml");
+        }
         if (prideFile.exists()) {
             int selection = JOptionPane.showConfirmDialog(this, "The file \'"
                     + prideFile.getAbsolutePath() + "\' already exists."
@@ -1186,7 +1200,7 @@ public class PrideExportDialog extends javax.swing.JDialog {
                 try {
                     PRIDEExport prideExport = new PRIDEExport(peptideShakerGUI, prideExportDialog, titleJTextField.getText(),
                             labelJTextField.getText(), descriptionJTextArea.getText(), projectJTextField.getText(),
-                            references, contact, sample, protocol, instrument, new File(outputFolderJTextField.getText()), prideFileName);
+                            references, contact, sample, protocol, instrument, new File(outputFolderJTextField.getText()), prideFileName, gzip);
                     prideExport.createPrideXmlFile(progressDialog);
                     conversionCompleted = true;
                 } catch (Exception e) {
@@ -1210,7 +1224,7 @@ public class PrideExportDialog extends javax.swing.JDialog {
                     // html content 
                     JEditorPane ep = new JEditorPane("text/html", "<html><body bgcolor=\"#" + Util.color2Hex(label.getBackground()) + "\">"
                             + "PRIDE XML file \'"
-                            + new File(outputFolderJTextField.getText(), titleJTextField.getText() + ".xml").getAbsolutePath() + "\' created.<br><br>"
+                            + prideFile.getAbsolutePath() + "\' created.<br><br>"
                             + "Please see <a href=\"http://www.ebi.ac.uk/pride\">www.ebi.ac.uk/pride</a> for how to submit data to PRIDE."
                             + "</body></html>");
 
@@ -1255,6 +1269,7 @@ public class PrideExportDialog extends javax.swing.JDialog {
     private javax.swing.JLabel experimentLabel;
     private javax.swing.JLabel experimentPropertiesLabel;
     private javax.swing.JPanel experimentPropertiesPanel;
+    private javax.swing.JCheckBox gzipJCheckBox;
     private javax.swing.JLabel helpLabel;
     private javax.swing.JComboBox instrumentJComboBox;
     private javax.swing.JLabel instrumentLabel;
@@ -162,21 +162,33 @@ public class ProteinTableModel extends DefaultTableModel {
                     return description;
                 case 5:
                     proteinKey = proteinKeys.get(row);
+                    if (peptideShakerGUI.getIdentificationFeaturesGenerator().isPending(proteinKey)) {
+                        return new XYDataPoint(0, 0, true);
+                    }
                     double sequenceCoverage = 100 * peptideShakerGUI.getIdentificationFeaturesGenerator().getSequenceCoverage(proteinKey);
                     double possibleCoverage = 100 * peptideShakerGUI.getIdentificationFeaturesGenerator().getObservableCoverage(proteinKey);
                     return new XYDataPoint(sequenceCoverage, possibleCoverage - sequenceCoverage, true);
                 case 6:
                     proteinKey = proteinKeys.get(row);
+                    if (peptideShakerGUI.getIdentificationFeaturesGenerator().isPending(proteinKey)) {
+                        return new XYDataPoint(0, 0, false);
+                    }
                     int nValidatedPeptides = peptideShakerGUI.getIdentificationFeaturesGenerator().getNValidatedPeptides(proteinKey);
                     proteinMatch = identification.getProteinMatch(proteinKey);
                     return new XYDataPoint(nValidatedPeptides, proteinMatch.getPeptideCount() - nValidatedPeptides, false);
                 case 7:
                     proteinKey = proteinKeys.get(row);
+                    if (peptideShakerGUI.getIdentificationFeaturesGenerator().isPending(proteinKey)) {
+                        return new XYDataPoint(0, 0, false);
+                    }
                     int nValidatedSpectra = peptideShakerGUI.getIdentificationFeaturesGenerator().getNValidatedSpectra(proteinKey);
                     int nSpectra = peptideShakerGUI.getIdentificationFeaturesGenerator().getNSpectra(proteinKey);
                     return new XYDataPoint(nValidatedSpectra, nSpectra - nValidatedSpectra, false);
                 case 8:
                     proteinKey = proteinKeys.get(row);
+                    if (peptideShakerGUI.getIdentificationFeaturesGenerator().isPending(proteinKey)) {
+                        return null;
+                    }
                     return peptideShakerGUI.getIdentificationFeaturesGenerator().getSpectrumCounting(proteinKey);
                 case 9:
                     proteinKey = proteinKeys.get(row);
@@ -13,6 +13,9 @@ import eu.isas.peptideshaker.gui.HelpDialog;
 import eu.isas.peptideshaker.gui.PeptideShakerGUI;
 import eu.isas.peptideshaker.gui.tablemodels.ProteinGoTableModel;
 import eu.isas.peptideshaker.myparameters.PSParameter;
+import eu.isas.peptideshaker.utils.GeneOntology;
+import eu.isas.peptideshaker.utils.GoEnrichment;
+import eu.isas.peptideshaker.utils.GoMappingIndex;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.ComponentOrientation;
@@ -23,7 +26,6 @@ import java.awt.datatransfer.StringSelection;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.*;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.text.DecimalFormat;
@@ -34,11 +36,6 @@ import javax.swing.event.RowSorterEvent;
 import javax.swing.event.RowSorterListener;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.JTableHeader;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 import no.uib.jsparklines.data.JSparklinesDataSeries;
 import no.uib.jsparklines.data.JSparklinesDataset;
 import no.uib.jsparklines.data.ValueAndBooleanDataPoint;
@@ -49,7 +46,6 @@ import no.uib.jsparklines.renderers.JSparklinesBarChartTableCellRenderer;
 import no.uib.jsparklines.renderers.JSparklinesTableCellRenderer;
 import no.uib.jsparklines.renderers.JSparklinesTwoValueBarChartTableCellRenderer;
 import no.uib.jsparklines.renderers.util.BarChartColorRenderer;
-import org.apache.commons.math.distribution.HypergeometricDistributionImpl;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartMouseEvent;
 import org.jfree.chart.ChartMouseListener;
@@ -64,8 +60,6 @@ import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.renderer.category.BarRenderer3D;
 import org.jfree.data.category.DefaultCategoryDataset;
 import org.jfree.ui.Layer;
-import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
 
 /**
  * The PeptideShaker GO Enrichment Analysis tab.
@@ -91,9 +85,9 @@ public class GOEAPanel extends javax.swing.JPanel {
      */
     private ArrayList<String> mappingsTableToolTips;
     /**
-     * GO table tooltips.
+     * The index of the GO mappings of the selected species.
      */
-    private TreeMap<String, Integer> totalGoTermUsage;
+    private GoMappingIndex goMappingIndex;
     /**
      * GO term to protein mapping, key: GO accession number, element: list of
      * proteins.
@@ -115,6 +109,16 @@ public class GOEAPanel extends javax.swing.JPanel {
      * The GO domain map.
      */
     private HashMap<String, String> goDomainMap;
+    /**
+     * The gene ontology, loaded from the OBO file of the mappings folder when
+     * first needed. Null if not loaded. Only the domains found are added to
+     * the GO domain map.
+     */
+    private GeneOntology geneOntology = null;
+    /**
+     * Indicates whether the loading of the gene ontology has been attempted.
+     */
+    private boolean geneOntologyLoaded = false;
     /**
      * The species map, key: latin name, element: ensembl database name.
      */
@@ -480,103 +484,38 @@ public class GOEAPanel extends javax.swing.JPanel {
                             return;
                         }
 
-                        totalGoTermUsage = new TreeMap<String, Integer>();
                         goProteinMappings = new HashMap<String, HashSet<String>>();
-                        TreeMap<String, Integer> datasetGoTermUsage = new TreeMap<String, Integer>();
-                        HashMap<String, String> goTermToAccessionMap = new HashMap<String, String>();
-                        HashMap<String, ArrayList<String>> proteinToGoMappings = new HashMap<String, ArrayList<String>>();
-
-                        int totalNumberOfProteins = 0;
 
                         try {
 
                             progressDialog.setTitle("Getting GO Mappings. Please Wait...");
 
-                            // read the GO mappings
-                            FileReader r = new FileReader(goMappingsFile);
-                            BufferedReader br = new BufferedReader(r);
-
-                            // read and ignore the header
-                            br.readLine();
-
-                            String line = br.readLine();
-
-                            PSParameter psParameter = new PSParameter();
-
-                            // find the number of lines in the file
-                            int numberOfLines = Util.getNumberOfLines(goMappingsFile);
-
-                            progressDialog.setIndeterminate(false);
-                            progressDialog.setMaxProgressValue(numberOfLines);
-                            progressDialog.setValue(0);
-
-                            while (line != null && !progressDialog.isRunCanceled()) {
-
-                                progressDialog.increaseProgressValue();
-
-                                String[] elements = line.split("\\t");
-
-                                if (elements.length == 3) {
-
-                                    String proteinAccession = elements[0];
-                                    String goAccession = elements[1];
-                                    String goTerm = elements[2].toLowerCase();
-
-                                    if (proteinAccession.length() > 0) {
-
-                                        if (!proteinToGoMappings.containsKey(proteinAccession)) {
-                                            ArrayList<String> proteinGoMappings = new ArrayList<String>();
-                                            proteinGoMappings.add(goTerm);
-                                            proteinToGoMappings.put(proteinAccession, proteinGoMappings);
-                                        } else {
-                                            proteinToGoMappings.get(proteinAccession).add(goTerm);
-                                        }
-
-                                        goTermToAccessionMap.put(goTerm, goAccession);
-
-                                        if (totalGoTermUsage.containsKey(goTerm)) {
-                                            totalGoTermUsage.put(goTerm, totalGoTermUsage.get(goTerm) + 1);
-                                        } else {
-                                            totalGoTermUsage.put(goTerm, 1);
-                                        }
-
-                                        totalNumberOfProteins++;
-
-                                        // store the go term to protein mappings
-                                        if (peptideShakerGUI.getIdentification().matchExists(proteinAccession)) { // @TODO: this might be slow?? but i don't see i way around this?
-
-                                            try {
-                                                // @TODO: replace with batch selection?
-                                                psParameter = (PSParameter) peptideShakerGUI.getIdentification().getProteinMatchParameter(proteinAccession, psParameter);
-                                            } catch (Exception e) {
-                                                peptideShakerGUI.catchException(e);
-                                            }
-
-                                            if (psParameter.isValidated() && !ProteinMatch.isDecoy(proteinAccession) && !psParameter.isHidden()) {
-
-                                                if (goProteinMappings.containsKey(goAccession)) {
-                                                    if (!goProteinMappings.get(goAccession).contains(proteinAccession)) {
-                                                        goProteinMappings.get(goAccession).add(proteinAccession);
-                                                    }
-                                                } else {
-                                                    HashSet<String> tempProteinList = new HashSet<String>();
-                                                    tempProteinList.add(proteinAccession);
-                                                    goProteinMappings.put(goAccession, tempProteinList);
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
+                            // get the index of the GO mappings, built when the mapping file is used for the first time
+                            goMappingIndex = GoMappingIndex.getIndex(goMappingsFile, progressDialog);
 
-                                line = br.readLine();
+                            if (goMappingIndex == null) {
+                                progressDialog.setRunFinished();
+                                return;
                             }
 
-
                             // get go terms for dataset
                             Identification identification = peptideShakerGUI.getIdentification();
+                            int[] datasetGoTermUsage = new int[goMappingIndex.getNTerms()];
                             int totalNumberOfGoMappedProteinsInProject = 0;
 
                             progressDialog.setTitle("Mapping GO Terms. Please Wait...");
+                            progressDialog.setIndeterminate(true);
+
+                            PSParameter psParameter = new PSParameter();
+
+                            try {
+                                // load the protein matches and parameters in one batch instead of one by one
+                                identification.loadProteinMatches(progressDialog);
+                                identification.loadProteinMatchParameters(psParameter, progressDialog);
+                            } catch (Exception e) {
+                                peptideShakerGUI.catchException(e);
+                            }
+
                             progressDialog.setIndeterminate(false);
                             progressDialog.setValue(0);
                             progressDialog.setMaxProgressValue(identification.getProteinIdentification().size());
@@ -591,7 +530,6 @@ public class GOEAPanel extends javax.swing.JPanel {
 
                                 try {
                                     try {
-                                        // @TODO: replace with batch selection?
                                         psParameter = (PSParameter) identification.getProteinMatchParameter(matchKey, psParameter);
                                     } catch (Exception e) {
                                         peptideShakerGUI.catchException(e);
@@ -603,7 +541,6 @@ public class GOEAPanel extends javax.swing.JPanel {
 
                                         if (ProteinMatch.getNProteins(matchKey) > 1) {
                                             try {
-                                                // @TODO: replace with batch selection?
                                                 mainAccession = identification.getProteinMatch(matchKey).getMainMatch();
                                             } catch (Exception e) {
                                                 peptideShakerGUI.catchException(e);
@@ -613,15 +550,26 @@ public class GOEAPanel extends javax.swing.JPanel {
                                             mainAccession = matchKey;
                                         }
 
-                                        if (proteinToGoMappings.containsKey(mainAccession)) {
+                                        int proteinIndex = goMappingIndex.getProteinIndex(mainAccession);
+
+                                        if (proteinIndex != -1) {
 
-                                            ArrayList<String> goTerms = proteinToGoMappings.get(mainAccession);
+                                            int[] goTerms = goMappingIndex.getProteinTerms(proteinIndex);
 
-                                            for (int j = 0; j < goTerms.size(); j++) {
-                                                if (datasetGoTermUsage.containsKey(goTerms.get(j))) {
-                                                    datasetGoTermUsage.put(goTerms.get(j), datasetGoTermUsage.get(goTerms.get(j)) + 1);
-                                                } else {
-                                                    datasetGoTermUsage.put(goTerms.get(j), 1);
+                                            for (int goTerm : goTerms) {
+                                                datasetGoTermUsage[goTerm]++;
+                                            }
+
+                                            // store the go term to protein mappings of the single protein matches
+                                            if (mainAccession.equals(matchKey)) {
+                                                for (int goTerm : goTerms) {
+                                                    String goAccession = goMappingIndex.getTermAccession(goTerm);
+                                                    HashSet<String> tempProteinList = goProteinMappings.get(goAccession);
+                                                    if (tempProteinList == null) {
+                                                        tempProteinList = new HashSet<String>();
+                                                        goProteinMappings.put(goAccession, tempProteinList);
+                                                    }
+                                                    tempProteinList.add(matchKey);
                                                 }
                                             }
 
@@ -638,7 +586,7 @@ public class GOEAPanel extends javax.swing.JPanel {
 
                             progressDialog.setTitle("Creating GO Plots. Please Wait...");
                             progressDialog.setValue(0);
-                            progressDialog.setMaxProgressValue(totalGoTermUsage.entrySet().size());
+                            progressDialog.setMaxProgressValue(goMappingIndex.getNTerms());
 
 
                             // update the table
@@ -646,11 +594,22 @@ public class GOEAPanel extends javax.swing.JPanel {
                             ArrayList<Integer> indexes = new ArrayList<Integer>();
                             ArrayList<Double> pValues = new ArrayList<Double>();
 
+                            // load the local gene ontology used to get the GO domains
+                            loadGeneOntology();
+
+                            // estimate the probabilities of all terms at once
+                            int[] termCounts = new int[goMappingIndex.getNTerms()];
+                            for (int goTermIndex = 0; goTermIndex < termCounts.length; goTermIndex++) {
+                                termCounts[goTermIndex] = goMappingIndex.getTermCount(goTermIndex);
+                            }
+                            double[] termPValues = new GoEnrichment(goMappingIndex).getProbabilities(termCounts, datasetGoTermUsage,
+                                    totalNumberOfGoMappedProteinsInProject, peptideShakerGUI.getProcessingPreferences().getnThreads());
+
                             // display the number of go mapped proteins
-                            goProteinCountLabel.setText("[GO Proteins: Ensembl: " + proteinToGoMappings.size()
+                            goProteinCountLabel.setText("[GO Proteins: Ensembl: " + goMappingIndex.getNProteins()
                                     + ", Project: " + totalNumberOfGoMappedProteinsInProject + "]");
 
-                            for (Map.Entry<String, Integer> entry : totalGoTermUsage.entrySet()) {
+                            for (int goTermIndex = 0; goTermIndex < goMappingIndex.getNTerms(); goTermIndex++) {
 
                                 if (progressDialog.isRunCanceled()) {
                                     break;
@@ -658,24 +617,20 @@ public class GOEAPanel extends javax.swing.JPanel {
 
                                 progressDialog.increaseProgressValue();
 
-                                String goTerm = entry.getKey();
-                                Integer frequencyAll = entry.getValue();
+                                String goTerm = goMappingIndex.getTermName(goTermIndex);
+                                Integer frequencyAll = goMappingIndex.getTermCount(goTermIndex);
 
-                                String goAccession = goTermToAccessionMap.get(goTerm);
+                                String goAccession = goMappingIndex.getTermAccession(goTermIndex);
                                 Integer frequencyDataset = 0;
                                 Double percentDataset = 0.0;
 
-                                if (datasetGoTermUsage.get(goTerm) != null) {
-                                    frequencyDataset = datasetGoTermUsage.get(goTerm);
+                                if (datasetGoTermUsage[goTermIndex] > 0) {
+                                    frequencyDataset = datasetGoTermUsage[goTermIndex];
                                     percentDataset = ((double) frequencyDataset / totalNumberOfGoMappedProteinsInProject) * 100;
                                 }
 
-                                Double percentAll = ((double) frequencyAll / proteinToGoMappings.size()) * 100;
-                                Double pValue = new HypergeometricDistributionImpl(
-                                        proteinToGoMappings.size(), // population size
-                                        frequencyAll, // number of successes
-                                        totalNumberOfGoMappedProteinsInProject // sample size
-                                        ).probability(frequencyDataset);
+                                Double percentAll = ((double) frequencyAll / goMappingIndex.getNProteins()) * 100;
+                                Double pValue = termPValues[goTermIndex];
                                 Double log2Diff = Math.log(percentDataset / percentAll) / Math.log(2);
 
                                 if (!log2Diff.isInfinite() && Math.abs(log2Diff) > maxLog2Diff) {
@@ -688,39 +643,15 @@ public class GOEAPanel extends javax.swing.JPanel {
                                     goDomain = goDomainMap.get(goAccession);
                                 } else {
 
-                                    // URL a GO Term in OBO xml format
-                                    URL u = new URL("http://www.ebi.ac.uk/QuickGO/GTerm?id=" + goAccession + "&format=oboxml");
-
-                                    // connect
-                                    HttpURLConnection urlConnection = (HttpURLConnection) u.openConnection();
-
-                                    // parse an XML document from the connection
-                                    InputStream inputStream = urlConnection.getInputStream();
-                                    Document xml = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(inputStream);
-                                    inputStream.close();
-
-                                    // XPath is here used to locate parts of an XML document
-                                    XPath xpath = XPathFactory.newInstance().newXPath();
-
-                                    // locate the domain
-                                    goDomain = xpath.compile("/obo/term/namespace").evaluate(xml);
-
-                                    goDomainMap.put(goAccession, goDomain);
-
-                                    File goDomainsFile = new File(mappingsFolderPath + File.separator + "go_domains");
-
-                                    if (!goDomainsFile.exists()) {
-                                        JOptionPane.showMessageDialog(peptideShakerGUI, "GO domains file \"" + goDomainsFile.getName() + "\" not found!\n"
-                                                + "Continuing without GO domains.", "File Not Found", JOptionPane.ERROR_MESSAGE);
+                                    // look up the domain in the local gene ontology
+                                    goDomain = null;
+                                    if (geneOntology != null) {
+                                        goDomain = geneOntology.getDomain(goAccession);
+                                    }
+                                    if (goDomain != null) {
+                                        goDomainMap.put(goAccession, goDomain);
                                     } else {
-
-                                        // read the GO domains
-                                        FileWriter fr = new FileWriter(goDomainsFile, true);
-                                        BufferedWriter dbr = new BufferedWriter(fr);
-                                        dbr.write(goAccession + "\t" + goDomain + System.getProperty("line.separator"));
-
-                                        dbr.close();
-                                        fr.close();
+                                        goDomain = "";
                                     }
                                 }
 
@@ -770,25 +701,19 @@ public class GOEAPanel extends javax.swing.JPanel {
                                 ((DefaultTableModel) goMappingsTable.getModel()).fireTableDataChanged();
 
                                 // correct the p-values for multiple testing using benjamini-hochberg
-                                sortPValues(pValues, indexes);
-
-                                ((ValueAndBooleanDataPoint) ((DefaultTableModel) goMappingsTable.getModel()).getValueAt(
-                                        indexes.get(0), goMappingsTable.getColumn("Log2 Diff").getModelIndex())).setSignificant(
-                                        pValues.get(0) < significanceLevel);
-                                ((DefaultTableModel) goMappingsTable.getModel()).setValueAt(new XYDataPoint(pValues.get(0), pValues.get(0)), indexes.get(0),
-                                        goMappingsTable.getColumn("p-value").getModelIndex());
-
-                                if (pValues.get(0) < significanceLevel) {
-                                    significantCounter++;
+                                double[] tablePValues = new double[pValues.size()];
+                                for (int i = 0; i < pValues.size(); i++) {
+                                    tablePValues[i] = pValues.get(i);
                                 }
+                                double[] correctedPValues = GoEnrichment.getBenjaminiHochbergCorrection(tablePValues);
 
-                                for (int i = 1; i < pValues.size(); i++) {
+                                for (int i = 0; i < correctedPValues.length; i++) {
 
                                     if (progressDialog.isRunCanceled()) {
                                         break;
                                     }
 
-                                    double tempPvalue = pValues.get(i) * pValues.size() / (pValues.size() - i);
+                                    double tempPvalue = correctedPValues[i];
 
                                     ((ValueAndBooleanDataPoint) ((DefaultTableModel) goMappingsTable.getModel()).getValueAt(
                                             indexes.get(i), goMappingsTable.getColumn("Log2 Diff").getModelIndex())).setSignificant(tempPvalue < significanceLevel);
@@ -799,9 +724,6 @@ public class GOEAPanel extends javax.swing.JPanel {
                                         significantCounter++;
                                     }
                                 }
-
-                                br.close();
-                                r.close();
                             }
 
                             if (!progressDialog.isRunCanceled()) {
@@ -856,18 +778,6 @@ public class GOEAPanel extends javax.swing.JPanel {
                         } catch (IndexOutOfBoundsException e) {
                             e.printStackTrace();
 
-                            if (progressDialog != null) {
-                                progressDialog.setRunFinished();
-                            }
-                        } catch (ParserConfigurationException e) {
-                            e.printStackTrace();
-
-                            if (progressDialog != null) {
-                                progressDialog.setRunFinished();
-                            }
-                        } catch (XPathExpressionException e) {
-                            e.printStackTrace();
-
                             if (progressDialog != null) {
                                 progressDialog.setRunFinished();
                             }
@@ -877,7 +787,7 @@ public class GOEAPanel extends javax.swing.JPanel {
                             if (progressDialog != null) {
                                 progressDialog.setRunFinished();
                             }
-                        } catch (SAXException e) {
+                        } catch (InterruptedException e) {
                             e.printStackTrace();
 
                             if (progressDialog != null) {
@@ -2488,35 +2398,28 @@ public class GOEAPanel extends javax.swing.JPanel {
     }
 
     /**
-     * Sort the p-values and make the same changes to the table indexes.
-     *
-     * @param pValues
-     * @param tableIndexes
+     * Loads the gene ontology from the OBO file of the mappings folder if not
+     * done already, the complete ontology if downloaded, the slim ontology
+     * distributed with the tool otherwise. The GO domains are then looked up
+     * locally, terms not found are displayed without domain.
      */
-    private void sortPValues(ArrayList<Double> pValues, ArrayList<Integer> tableIndexes) {
+    private void loadGeneOntology() {
 
-        // iterate p-value list
-        for (int i = 0; i < pValues.size(); i++) {
+        if (!geneOntologyLoaded) {
 
-            double maxValue = -1;
-            int maxIndex = -1;
+            geneOntologyLoaded = true;
 
-            // find max p-value in sublist
-            for (int j = i; j < pValues.size(); j++) {
-                if (pValues.get(j) > maxValue) {
-                    maxValue = pValues.get(j);
-                    maxIndex = j;
-                }
+            try {
+                geneOntology = GeneOntology.getGeneOntology(new File(mappingsFolderPath));
+            } catch (IOException e) {
+                e.printStackTrace();
+                geneOntology = null;
             }
 
-            // move in both lists
-            double oldValue = pValues.get(i);
-            pValues.set(i, pValues.get(maxIndex));
-            pValues.set(maxIndex, oldValue);
-
-            int oldIntValue = tableIndexes.get(i);
-            tableIndexes.set(i, tableIndexes.get(maxIndex));
-            tableIndexes.set(maxIndex, oldIntValue);
+            if (geneOntology == null) {
+                JOptionPane.showMessageDialog(this, "Gene ontology file \"" + GeneOntology.SLIM_OBO_FILE_NAME + "\" not found or not readable!\n"
+                        + "Continuing with the GO domains of the \"go_domains\" file only.", "File Not Found", JOptionPane.WARNING_MESSAGE);
+            }
         }
     }
 
@@ -33,6 +33,7 @@ import eu.isas.peptideshaker.myparameters.PSMaps;
 import eu.isas.peptideshaker.myparameters.PSParameter;
 import eu.isas.peptideshaker.myparameters.PSPtmScores;
 import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences.SpectralCountingMethod;
+import eu.isas.peptideshaker.utils.PeptidePositions;
 import java.awt.*;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
@@ -3803,7 +3804,8 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
 
             if (currentProteinSequence.length() < MAX_SEQUENCE_LENGTH) {
 
-                String tempSequence = currentProteinSequence;
+                // the positions of the peptides, located once per protein
+                PeptidePositions peptidePositions = peptideShakerGUI.getIdentificationFeaturesGenerator().getPeptidePositions(proteinKey);
 
                 if (peptideTable.getSelectedRow() != -1) {
 
@@ -3811,11 +3813,10 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                     String peptideKey = peptideKeys.get(peptideIndex);
                     String peptideSequence = Peptide.getSequence(peptideKey);
 
-                    while (tempSequence.lastIndexOf(peptideSequence) >= 0) {
-                        int startIndex = tempSequence.lastIndexOf(peptideSequence) + 1;
+                    for (int start : peptidePositions.getStarts(peptideSequence)) {
+                        int startIndex = start + 1;
                         selectedPeptideStart.add(startIndex);
                         selectedPeptideEnd.add(startIndex + peptideSequence.length());
-                        tempSequence = currentProteinSequence.substring(0, startIndex);
                     }
                 }
 
@@ -3833,7 +3834,6 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
 
                     if (psParameter.isValidated()) {
                         String peptideSequence = Peptide.getSequence(peptideKey);
-                        tempSequence = currentProteinSequence;
 
                         boolean includePeptide = false;
 
@@ -3850,8 +3850,8 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                         }
 
                         if (includePeptide) {
-                            while (tempSequence.lastIndexOf(peptideSequence) >= 0) {
-                                int peptideTempStart = tempSequence.lastIndexOf(peptideSequence) + 1;
+                            for (int start : peptidePositions.getStarts(peptideSequence)) {
+                                int peptideTempStart = start + 1;
                                 int peptideTempEnd = peptideTempStart + peptideSequence.length();
                                 for (int j = peptideTempStart; j < peptideTempEnd; j++) {
                                     coverage[j]++;
@@ -3860,7 +3860,6 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                                         maxCoverageValue = coverage[j];
                                     }
                                 }
-                                tempSequence = currentProteinSequence.substring(0, peptideTempStart);
                             }
                         }
                     }
@@ -4454,6 +4453,14 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                     peptideShakerGUI.getIdentificationFeaturesGenerator().setProteinKeys(peptideShakerGUI.getMetrics().getProteinKeys());
                     proteinKeys = peptideShakerGUI.getIdentificationFeaturesGenerator().getProcessedProteinKeys(progressDialog);
 
+                    // compute the protein features in the background, the table shows placeholders until they are available
+                    peptideShakerGUI.getIdentificationFeaturesGenerator().startFeaturesPrecomputation(proteinKeys, new Runnable() {
+
+                        public void run() {
+                            proteinTable.repaint();
+                        }
+                    });
+
                     // update the table model
                     if (proteinTable.getModel() instanceof ProteinTableModel) {
                         ((ProteinTableModel) proteinTable.getModel()).updateDataModel(peptideShakerGUI);
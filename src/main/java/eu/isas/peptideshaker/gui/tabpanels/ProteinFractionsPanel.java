@@ -18,6 +18,7 @@ import eu.isas.peptideshaker.gui.protein_sequence.ProteinSequencePanelParent;
 import eu.isas.peptideshaker.gui.protein_sequence.ResidueAnnotation;
 import eu.isas.peptideshaker.gui.tablemodels.ProteinTableModel;
 import eu.isas.peptideshaker.myparameters.PSParameter;
+import eu.isas.peptideshaker.utils.FractionIndex;
 import java.awt.*;
 import java.awt.event.MouseEvent;
 import java.io.IOException;
@@ -394,6 +395,13 @@ public class ProteinFractionsPanel extends javax.swing.JPanel implements Protein
 
             int[] selectedRows = proteinTable.getSelectedRows();
 
+            // map the fraction ids of the fraction index to the plot columns
+            FractionIndex fractionIndex = peptideShakerGUI.getMetrics().getFractionIndex();
+            int[] fractionColumns = new int[fractionIndex.getNFractions()];
+            for (int fractionId = 0; fractionId < fractionColumns.length; fractionId++) {
+                fractionColumns[fractionId] = fileNames.indexOf(fractionIndex.getFractionName(fractionId));
+            }
+
             // disable the coverage tab if more than one protein is selected
             plotsTabbedPane.setEnabledAt(1, selectedRows.length == 1);
 
@@ -421,41 +429,43 @@ public class ProteinFractionsPanel extends javax.swing.JPanel implements Protein
                 int[][] coverage = new int[fileNames.size()][currentProteinSequence.length() + 1];
 
                 // get the chart data
-                for (int i = 0; i < fileNames.size(); i++) {
+                for (int j = 0; j < peptideKeys.size(); j++) {
 
-                    String fraction = fileNames.get(i);
-                    int validatedPeptideCounter = 0;
-                    int notValidatedPeptideCounter = 0;
+                    String peptideKey = peptideKeys.get(j);
+                    int peptideIndex = fractionIndex.getPeptideIndex(peptideKey);
+
+                    if (peptideIndex == -1) {
+                        continue;
+                    }
 
-                    for (int j = 0; j < peptideKeys.size(); j++) {
+                    try {
+                        psParameter = (PSParameter) peptideShakerGUI.getIdentification().getPeptideMatchParameter(peptideKey, psParameter);
 
-                        String peptideKey = peptideKeys.get(j);
+                        if (psParameter.isValidated() && selectedRows.length == 1) {
 
-                        try {
-                            psParameter = (PSParameter) peptideShakerGUI.getIdentification().getPeptideMatchParameter(peptideKey, psParameter);
+                            String peptideSequence = Peptide.getSequence(peptideKey);
 
-                            if (psParameter.getFractions() != null && psParameter.getFractions().contains(fraction)) {
-                                if (psParameter.isValidated()) {
-                                    validatedPeptideCounter++;
+                            boolean includePeptide = false;
 
-                                    String peptideSequence = Peptide.getSequence(peptideKey);
-                                    String tempSequence = currentProteinSequence;
+                            if (coverageShowAllPeptidesJRadioButtonMenuItem.isSelected()) {
+                                includePeptide = true;
+                            } else if (coverageShowEnzymaticPeptidesOnlyJRadioButtonMenuItem.isSelected()) {
+                                if (peptideSequence.endsWith("R") || peptideSequence.endsWith("K")) { // @TODO: this test should be made more generic!!!
+                                    includePeptide = true;
+                                }
+                            } else if (coverageShowTruncatedPeptidesOnlyJRadioButtonMenuItem.isSelected()) {
+                                if (!peptideSequence.endsWith("R") && !peptideSequence.endsWith("K")) { // @TODO: this test should be made more generic!!!
+                                    includePeptide = true;
+                                }
+                            }
 
-                                    boolean includePeptide = false;
+                            if (includePeptide) {
+                                for (int fractionId : fractionIndex.getPeptideFractions(peptideIndex)) {
 
-                                    if (coverageShowAllPeptidesJRadioButtonMenuItem.isSelected()) {
-                                        includePeptide = true;
-                                    } else if (coverageShowEnzymaticPeptidesOnlyJRadioButtonMenuItem.isSelected()) {
-                                        if (peptideSequence.endsWith("R") || peptideSequence.endsWith("K")) { // @TODO: this test should be made more generic!!!
-                                            includePeptide = true;
-                                        }
-                                    } else if (coverageShowTruncatedPeptidesOnlyJRadioButtonMenuItem.isSelected()) {
-                                        if (!peptideSequence.endsWith("R") && !peptideSequence.endsWith("K")) { // @TODO: this test should be made more generic!!!
-                                            includePeptide = true;
-                                        }
-                                    }
+                                    int i = fractionColumns[fractionId];
 
-                                    if (includePeptide && selectedRows.length == 1) {
+                                    if (i != -1) {
+                                        String tempSequence = currentProteinSequence;
 
                                         while (tempSequence.lastIndexOf(peptideSequence) >= 0) {
                                             int peptideTempStart = tempSequence.lastIndexOf(peptideSequence) + 1;
@@ -466,13 +476,11 @@ public class ProteinFractionsPanel extends javax.swing.JPanel implements Protein
                                             tempSequence = currentProteinSequence.substring(0, peptideTempStart);
                                         }
                                     }
-                                } else {
-                                    notValidatedPeptideCounter++;
                                 }
                             }
-                        } catch (Exception e) {
-                            peptideShakerGUI.catchException(e);
                         }
+                    } catch (Exception e) {
+                        peptideShakerGUI.catchException(e);
                     }
                 }
 
@@ -481,7 +489,6 @@ public class ProteinFractionsPanel extends javax.swing.JPanel implements Protein
 
                 for (int i = 0; i < fileNames.size(); i++) {
                     String fraction = fileNames.get(i);
-                    psParameter = (PSParameter) peptideShakerGUI.getIdentification().getProteinMatchParameter(proteinKey, psParameter);
 
                     if (selectedRows.length == 1) {
                         peptidePlotDataset.addValue(psParameter.getFractionValidatedPeptides(fraction), "Validated Peptides", "" + (i + 1));
@@ -546,7 +553,6 @@ public class ProteinFractionsPanel extends javax.swing.JPanel implements Protein
                 // get the psms per fraction
                 for (int i = 0; i < fileNames.size(); i++) {
                     String fraction = fileNames.get(i);
-                    psParameter = (PSParameter) peptideShakerGUI.getIdentification().getProteinMatchParameter(proteinKey, psParameter);
 
                     if (selectedRows.length == 1) {
                         spectrumPlotDataset.addValue(psParameter.getFractionValidatedSpectra(fraction), "Validated Spectra", "" + (i + 1));
@@ -1988,6 +1988,8 @@ public class StatsPanel extends javax.swing.JPanel {
                         PSMaps pSMaps = new PSMaps();
                         pSMaps = (PSMaps) peptideShakerGUI.getIdentification().getUrParam(pSMaps);
                         PeptideShaker miniShaker = new PeptideShaker(peptideShakerGUI.getExperiment(), peptideShakerGUI.getSample(), peptideShakerGUI.getReplicateNumber(), pSMaps);
+                        miniShaker.setProcessingPreferences(peptideShakerGUI.getProcessingPreferences());
+                        miniShaker.setMetrics(peptideShakerGUI.getMetrics());
 
                         miniShaker.validateIdentifications(progressDialog.getProgressBar());
 
@@ -3570,6 +3572,7 @@ public class StatsPanel extends javax.swing.JPanel {
                 PSMaps pSMaps = new PSMaps();
                 pSMaps = (PSMaps) peptideShakerGUI.getIdentification().getUrParam(pSMaps);
                 PeptideShaker miniShaker = new PeptideShaker(peptideShakerGUI.getExperiment(), peptideShakerGUI.getSample(), peptideShakerGUI.getReplicateNumber(), pSMaps);
+                miniShaker.setProcessingPreferences(peptideShakerGUI.getProcessingPreferences());
 
                 try {
                     miniShaker.spectrumMapChanged(progressDialog);
@@ -3621,6 +3624,7 @@ public class StatsPanel extends javax.swing.JPanel {
                 PSMaps pSMaps = new PSMaps();
                 pSMaps = (PSMaps) peptideShakerGUI.getIdentification().getUrParam(pSMaps);
                 PeptideShaker miniShaker = new PeptideShaker(peptideShakerGUI.getExperiment(), peptideShakerGUI.getSample(), peptideShakerGUI.getReplicateNumber(), pSMaps);
+                miniShaker.setProcessingPreferences(peptideShakerGUI.getProcessingPreferences());
 
                 try {
                     miniShaker.peptideMapChanged(progressDialog);
@@ -3673,6 +3677,7 @@ public class StatsPanel extends javax.swing.JPanel {
                     PSMaps pSMaps = new PSMaps();
                     pSMaps = (PSMaps) peptideShakerGUI.getIdentification().getUrParam(pSMaps);
                     PeptideShaker miniShaker = new PeptideShaker(peptideShakerGUI.getExperiment(), peptideShakerGUI.getSample(), peptideShakerGUI.getReplicateNumber(), pSMaps);
+                    miniShaker.setProcessingPreferences(peptideShakerGUI.getProcessingPreferences());
 
                     miniShaker.proteinMapChanged(progressDialog);
                     modifiedMaps.put(0, false);
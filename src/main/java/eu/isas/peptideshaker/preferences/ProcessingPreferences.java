@@ -31,6 +31,16 @@ public class ProcessingPreferences implements Serializable {
      * The default PSM FDR.
      */
     private double psmFDR = 1.0;
+    /**
+     * Boolean indicating whether isoleucine and leucine should be considered
+     * as indistinguishable when mapping peptides to proteins.
+     */
+    private boolean isoleucineLeucineEquivalent = false;
+    /**
+     * The number of threads to use for the processing. If null, all available
+     * processors are used.
+     */
+    private Integer nThreads = null;
 
     /**
      * Constructor with default settings.
@@ -111,4 +121,49 @@ public class ProcessingPreferences implements Serializable {
     public void setPsmFDR(double psmFDR) {
         this.psmFDR = psmFDR;
     }
+
+    /**
+     * Indicates whether isoleucine and leucine should be considered as
+     * indistinguishable when mapping peptides to proteins.
+     *
+     * @return a boolean indicating whether isoleucine and leucine are
+     * considered as indistinguishable
+     */
+    public boolean isIsoleucineLeucineEquivalent() {
+        return isoleucineLeucineEquivalent;
+    }
+
+    /**
+     * Sets whether isoleucine and leucine should be considered as
+     * indistinguishable when mapping peptides to proteins.
+     *
+     * @param isoleucineLeucineEquivalent a boolean indicating whether
+     * isoleucine and leucine are considered as indistinguishable
+     */
+    public void setIsoleucineLeucineEquivalent(boolean isoleucineLeucineEquivalent) {
+        this.isoleucineLeucineEquivalent = isoleucineLeucineEquivalent;
+    }
+
+    /**
+     * Returns the number of threads to use for the processing. By default all
+     * available processors are used.
+     *
+     * @return the number of threads to use for the processing
+     */
+    public int getnThreads() {
+        if (nThreads == null || nThreads < 1) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return nThreads;
+    }
+
+    /**
+     * Sets the number of threads to use for the processing. 1 results in a
+     * serial processing.
+     *
+     * @param nThreads the number of threads to use for the processing
+     */
+    public void setnThreads(int nThreads) {
+        this.nThreads = nThreads;
+    }
 }
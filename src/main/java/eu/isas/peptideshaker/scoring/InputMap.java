@@ -42,22 +42,22 @@ public class InputMap {
     }
 
     /**
-     * Estimates the posterior error probability for each search engine
+     * Estimates the posterior error probability for each search engine. The
+     * search engine maps are estimated concurrently.
      *
      * @param waitingHandler the handler displaying feedback to the user
+     * @param nThreads the number of threads to use
      */
-    public void estimateProbabilities(WaitingHandler waitingHandler) {
+    public void estimateProbabilities(WaitingHandler waitingHandler, int nThreads) {
 
         int max = getNEntries();
         waitingHandler.setSecondaryProgressDialogIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressValue(max);
 
-        for (TargetDecoyMap hitmap : inputMap.values()) {
-            waitingHandler.increaseSecondaryProgressValue();
-            hitmap.estimateProbabilities(waitingHandler);
-            if (waitingHandler.isRunCanceled()) {
-                return;
-            }
+        waitingHandler.increaseSecondaryProgressValue(inputMap.size());
+        TargetDecoyMap.estimateProbabilities(inputMap.values(), waitingHandler, nThreads);
+        if (waitingHandler.isRunCanceled()) {
+            return;
         }
 
         waitingHandler.setSecondaryProgressDialogIndeterminate(true);
@@ -46,11 +46,13 @@ public class PeptideSpecificMap implements Serializable {
     }
 
     /**
-     * Estimate the posterior error probabilities.
+     * Estimate the posterior error probabilities. The modification specific
+     * maps are estimated concurrently.
      *
      * @param waitingHandler the handler displaying feedback to the user
+     * @param nThreads the number of threads to use
      */
-    public void estimateProbabilities(WaitingHandler waitingHandler) {
+    public void estimateProbabilities(WaitingHandler waitingHandler, int nThreads) {
 
         waitingHandler.setWaitingText("Estimating Probabilities. Please Wait...");
 
@@ -58,15 +60,19 @@ public class PeptideSpecificMap implements Serializable {
         waitingHandler.setSecondaryProgressDialogIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressValue(max);
 
+        ArrayList<TargetDecoyMap> toEstimate = new ArrayList<TargetDecoyMap>();
+
         for (String modifications : peptideMaps.keySet()) {
 
             waitingHandler.increaseSecondaryProgressValue();
 
             if (!groupedMaps.contains(modifications)) {
-                peptideMaps.get(modifications).estimateProbabilities(waitingHandler);
+                toEstimate.add(peptideMaps.get(modifications));
             }
         }
 
+        TargetDecoyMap.estimateProbabilities(toEstimate, waitingHandler, nThreads);
+
         waitingHandler.setSecondaryProgressDialogIndeterminate(true);
     }
 
@@ -37,25 +37,31 @@ public class PsmSpecificMap implements Serializable {
     }
 
     /**
-     * Estimate the posterior error probabilities of the psms.
+     * Estimate the posterior error probabilities of the psms. The charge
+     * specific maps are estimated concurrently.
      *
      * @param waitingHandler the handler displaying feedback to the user
+     * @param nThreads the number of threads to use
      */
-    public void estimateProbabilities(WaitingHandler waitingHandler) {
+    public void estimateProbabilities(WaitingHandler waitingHandler, int nThreads) {
 
         int max = getMapsSize();
         waitingHandler.setSecondaryProgressDialogIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressValue(max);
 
+        ArrayList<TargetDecoyMap> toEstimate = new ArrayList<TargetDecoyMap>();
+
         for (int charge : psmsMaps.keySet()) {
 
             waitingHandler.increaseSecondaryProgressValue();
 
             if (!grouping.keySet().contains(charge)) {
-                psmsMaps.get(charge).estimateProbabilities(waitingHandler);
+                toEstimate.add(psmsMaps.get(charge));
             }
         }
 
+        TargetDecoyMap.estimateProbabilities(toEstimate, waitingHandler, nThreads);
+
         waitingHandler.setSecondaryProgressDialogIndeterminate(true);
     }
 
@@ -97,6 +103,21 @@ public class PsmSpecificMap implements Serializable {
         psmsMaps.get(key).put(probabilityScore, spectrumMatch.getBestAssumption().isDecoy());
     }
 
+    /**
+     * Adds all the points of another psm specific map. The other map should
+     * not be cured.
+     *
+     * @param anOtherMap another psm specific map
+     */
+    public void addAll(PsmSpecificMap anOtherMap) {
+        for (int key : anOtherMap.psmsMaps.keySet()) {
+            if (!psmsMaps.containsKey(key)) {
+                psmsMaps.put(key, new TargetDecoyMap());
+            }
+            psmsMaps.get(key).addAll(anOtherMap.psmsMaps.get(key));
+        }
+    }
+
     /**
      * Returns a list of keys from maps presenting a suspicious input.
      *
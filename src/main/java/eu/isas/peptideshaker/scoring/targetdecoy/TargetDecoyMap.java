@@ -1,13 +1,23 @@
 package eu.isas.peptideshaker.scoring.targetdecoy;
 
 import com.compomics.util.gui.waiting.WaitingHandler;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * This map contains the information of a target/decoy strategy
+ * This map contains the information of a target/decoy strategy. Hits are
+ * accumulated in a hit map and sorted once in primitive arrays for the
+ * estimation of the probabilities and for lookups.
  *
  * @author Marc Vaudel
  */
@@ -17,14 +27,37 @@ public class TargetDecoyMap implements Serializable {
      * Serial version UID for post-serialization compatibility.
      */
     static final long serialVersionUID = 7333389442377322662L;
+    /**
+     * The number of points estimated by a thread between two progress
+     * updates when estimating several maps concurrently.
+     */
+    private static final int PROGRESS_STEP = 1000;
     /**
      * The hit map containing the indexed target/decoy points.
      */
     private HashMap<Double, TargetDecoyPoint> hitMap = new HashMap<Double, TargetDecoyPoint>();
     /**
-     * The scores imported in the map.
+     * The sorted scores as saved by former versions. Not used anymore, kept
+     * for post-serialization compatibility only.
      */
     private ArrayList<Double> scores;
+    /**
+     * The scores of the points sorted in ascending order, null if the points
+     * need to be sorted. Assigned last when sorting the points.
+     */
+    private transient volatile double[] scoreArray = null;
+    /**
+     * The number of target hits at every score of scoreArray.
+     */
+    private transient int[] nTargetArray = null;
+    /**
+     * The number of decoy hits at every score of scoreArray.
+     */
+    private transient int[] nDecoyArray = null;
+    /**
+     * The posterior error probability at every score of scoreArray.
+     */
+    private transient double[] pepArray = null;
     /**
      * The maximal amount of target hits comprised between two subsequent decoy
      * hits.
@@ -49,25 +82,21 @@ public class TargetDecoyMap implements Serializable {
      * @param score the given score
      * @return the estimated posterior error probability
      */
-    public Double getProbability(double score) {
-        TargetDecoyPoint point = hitMap.get(score);
-        if (point != null) {
-            return point.p;
-        } else if (score >= scores.get(scores.size() - 1)) {
-            return hitMap.get(scores.get(scores.size() - 1)).p;
+    public double getProbability(double score) {
+        double[] sortedScores = getSortedScores();
+        double[] peps = pepArray;
+        int index = Arrays.binarySearch(sortedScores, score);
+        if (index >= 0) {
+            return peps[index];
+        } else if (score >= sortedScores[sortedScores.length - 1]) {
+            return peps[sortedScores.length - 1];
         } else {
-            int indexInf = 0;
-            int indexSup = scores.size() - 1;
-            int indexTemp;
-            while (indexSup - indexInf > 1) {
-                indexTemp = (indexSup - indexInf) / 2 + indexInf;
-                if (scores.get(indexTemp) > score) {
-                    indexSup = indexTemp;
-                } else {
-                    indexInf = indexTemp;
-                }
+            int indexSup = -index - 1;
+            int indexInf = indexSup > 0 ? indexSup - 1 : 0;
+            if (indexSup == 0 && sortedScores.length > 1) {
+                indexSup = 1;
             }
-            return (hitMap.get(scores.get(indexSup)).p + hitMap.get(scores.get(indexInf)).p) / 2;
+            return (peps[indexSup] + peps[indexInf]) / 2;
         }
     }
 
@@ -106,6 +135,25 @@ public class TargetDecoyMap implements Serializable {
         } else {
             hitMap.get(score).nTarget++;
         }
+        scoreArray = null;
+    }
+
+    /**
+     * Adds target and decoy hits at the given score.
+     *
+     * @param score the given score
+     * @param nTarget the number of target hits to add
+     * @param nDecoy the number of decoy hits to add
+     */
+    private void put(double score, int nTarget, int nDecoy) {
+        TargetDecoyPoint point = hitMap.get(score);
+        if (point == null) {
+            point = new TargetDecoyPoint();
+            hitMap.put(score, point);
+        }
+        point.nTarget += nTarget;
+        point.nDecoy += nDecoy;
+        scoreArray = null;
     }
 
     /**
@@ -124,7 +172,7 @@ public class TargetDecoyMap implements Serializable {
                 && hitMap.get(score).nDecoy == 0) {
             hitMap.remove(score);
         }
-        scores = null;
+        scoreArray = null;
         nmax = null;
         windowSize = null;
     }
@@ -139,32 +187,30 @@ public class TargetDecoyMap implements Serializable {
      * Estimates the metrics of the map: Nmax and NtargetOnly.
      */
     private void estimateNs() {
-        if (scores == null) {
-            estimateScores();
-        }
-        double scoreMax = scores.get(scores.size() - 1); // used to avoid side effects at p=1
+        double[] sortedScores = getSortedScores();
+        double scoreMax = sortedScores[sortedScores.length - 1]; // used to avoid side effects at p=1
         boolean onlyTarget = true;
         int nMax1 = 0;
         int targetCpt = 0;
-        nTargetOnly = 0;
+        int nTargetOnly1 = 0;
 
-        for (double peptideP : scores) {
-            TargetDecoyPoint point = hitMap.get(peptideP);
+        for (int i = 0; i < sortedScores.length; i++) {
             if (onlyTarget) {
-                nTargetOnly += point.nTarget;
-                if (point.nDecoy > 0) {
+                nTargetOnly1 += nTargetArray[i];
+                if (nDecoyArray[i] > 0) {
                     onlyTarget = false;
                 }
             } else {
-                targetCpt += point.nTarget;
-                if (point.nDecoy > 0) {
-                    if (targetCpt > nMax1 && peptideP < scoreMax) {
+                targetCpt += nTargetArray[i];
+                if (nDecoyArray[i] > 0) {
+                    if (targetCpt > nMax1 && sortedScores[i] < scoreMax) {
                         nMax1 = targetCpt;
                     }
-                    targetCpt = point.nTarget;
+                    targetCpt = nTargetArray[i];
                 }
             }
         }
+        nTargetOnly = nTargetOnly1;
         nmax = nMax1;
     }
 
@@ -174,12 +220,76 @@ public class TargetDecoyMap implements Serializable {
      * @param waitingHandler the handler displaying feedback to the user
      */
     public void estimateProbabilities(WaitingHandler waitingHandler) {
+        waitingHandler.setWaitingText("Estimating Probabilities. Please Wait...");
+        estimateProbabilities(waitingHandler, false);
+    }
+
+    /**
+     * Estimates the posterior error probabilities of the given maps, one task
+     * per map. The maps are independent and are estimated concurrently on
+     * the given number of threads. The secondary progress of the waiting
+     * handler is increased by the number of points of every map.
+     *
+     * @param targetDecoyMaps the maps to estimate
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param nThreads the number of threads to use
+     */
+    public static void estimateProbabilities(Collection<TargetDecoyMap> targetDecoyMaps, final WaitingHandler waitingHandler, int nThreads) {
 
         waitingHandler.setWaitingText("Estimating Probabilities. Please Wait...");
 
-        if (scores == null) {
-            estimateScores();
+        int poolSize = Math.min(nThreads, targetDecoyMaps.size());
+        if (poolSize <= 1) {
+            for (TargetDecoyMap targetDecoyMap : targetDecoyMaps) {
+                targetDecoyMap.estimateProbabilities(waitingHandler, false);
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
+            }
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+        try {
+            ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(targetDecoyMaps.size());
+            for (final TargetDecoyMap targetDecoyMap : targetDecoyMaps) {
+                futures.add(pool.submit(new Callable<Object>() {
+                    public Object call() {
+                        targetDecoyMap.estimateProbabilities(waitingHandler, true);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            waitingHandler.setRunCanceled();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            pool.shutdownNow();
         }
+    }
+
+    /**
+     * Estimates the posterior error probabilities in this map.
+     *
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param concurrent indicates whether other maps are being estimated on
+     * other threads, in which case the progress is reported by steps and
+     * synchronized on the waiting handler
+     */
+    private void estimateProbabilities(WaitingHandler waitingHandler, boolean concurrent) {
+
+        double[] sortedScores = getSortedScores();
         if (nmax == null) {
             estimateNs();
         }
@@ -188,27 +298,27 @@ public class TargetDecoyMap implements Serializable {
         }
 
         // estimate p
-        TargetDecoyPoint tempPoint, previousPoint = hitMap.get(scores.get(0));
+        int nPoints = sortedScores.length;
         double nLimit = 0.5 * windowSize;
-        double nTargetSup = 1.5 * previousPoint.nTarget;
-        double nTargetInf = -0.5 * previousPoint.nTarget;
-        double nDecoy = previousPoint.nDecoy;
+        double nTargetSup = 1.5 * nTargetArray[0];
+        double nTargetInf = -0.5 * nTargetArray[0];
+        double nDecoy = nDecoyArray[0];
+        int previousTarget = nTargetArray[0];
         int cptInf = 0;
         int cptSup = 1;
         boolean oneReached = false;
-        
-        for (int cpt = 0; cpt < scores.size(); cpt++) {
-            TargetDecoyPoint point = hitMap.get(scores.get(cpt));
+
+        for (int cpt = 0; cpt < nPoints; cpt++) {
+            int pointTarget = nTargetArray[cpt];
             if (!oneReached) {
-                double change = 0.5 * (previousPoint.nTarget + point.nTarget);
+                double change = 0.5 * (previousTarget + pointTarget);
                 nTargetInf += change;
                 nTargetSup -= change;
                 while (nTargetInf > nLimit) {
                     if (cptInf < cpt) {
-                        tempPoint = hitMap.get(scores.get(cptInf));
-                        double nTargetInfTemp = nTargetInf - tempPoint.nTarget;
+                        double nTargetInfTemp = nTargetInf - nTargetArray[cptInf];
                         if (nTargetInfTemp >= nLimit) {
-                            nDecoy -= tempPoint.nDecoy;
+                            nDecoy -= nDecoyArray[cptInf];
                             nTargetInf = nTargetInfTemp;
                             cptInf++;
                         } else {
@@ -219,27 +329,36 @@ public class TargetDecoyMap implements Serializable {
                     }
                 }
                 while (nTargetSup < nLimit) {
-                    if (cptSup < scores.size()) {
-                        tempPoint = hitMap.get(scores.get(cptSup));
-                        nTargetSup += tempPoint.nTarget;
-                        nDecoy += tempPoint.nDecoy;
+                    if (cptSup < nPoints) {
+                        nTargetSup += nTargetArray[cptSup];
+                        nDecoy += nDecoyArray[cptSup];
                         cptSup++;
                     } else {
                         break;
                     }
                 }
-                point.p = Math.min(nDecoy / (nTargetInf + nTargetSup), 1);
-                if (point.p >= 0.98) {
+                pepArray[cpt] = Math.min(nDecoy / (nTargetInf + nTargetSup), 1);
+                if (pepArray[cpt] >= 0.98) {
                     oneReached = true;
                 }
             } else {
-                point.p = 1;
+                pepArray[cpt] = 1;
             }
-            previousPoint = point;
+            hitMap.get(sortedScores[cpt]).p = pepArray[cpt];
+            previousTarget = pointTarget;
 
-            waitingHandler.increaseSecondaryProgressValue();
-            if (waitingHandler.isRunCanceled()) {
-                return;
+            if (!concurrent) {
+                waitingHandler.increaseSecondaryProgressValue();
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
+            } else if ((cpt + 1) % PROGRESS_STEP == 0 || cpt == nPoints - 1) {
+                synchronized (waitingHandler) {
+                    waitingHandler.increaseSecondaryProgressValue(cpt % PROGRESS_STEP + 1);
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                }
             }
         }
     }
@@ -266,23 +385,59 @@ public class TargetDecoyMap implements Serializable {
     }
 
     /**
-     * Sorts the scores implemented in this map.
+     * Sorts the points of the hit map in the primitive arrays. The score
+     * array is assigned last so that concurrent readers always see complete
+     * arrays.
+     */
+    private synchronized void sortPoints() {
+        if (scoreArray != null) {
+            return;
+        }
+        double[] sortedScores = new double[hitMap.size()];
+        int cpt = 0;
+        for (double score : hitMap.keySet()) {
+            sortedScores[cpt] = score;
+            cpt++;
+        }
+        Arrays.sort(sortedScores);
+        int[] nTargets = new int[sortedScores.length];
+        int[] nDecoys = new int[sortedScores.length];
+        double[] peps = new double[sortedScores.length];
+        for (int i = 0; i < sortedScores.length; i++) {
+            TargetDecoyPoint point = hitMap.get(sortedScores[i]);
+            nTargets[i] = point.nTarget;
+            nDecoys[i] = point.nDecoy;
+            peps[i] = point.p;
+        }
+        nTargetArray = nTargets;
+        nDecoyArray = nDecoys;
+        pepArray = peps;
+        scoreArray = sortedScores;
+    }
+
+    /**
+     * Returns the scores implemented in this map sorted in ascending order,
+     * sorting the points if needed.
+     *
+     * @return the sorted scores
      */
-    private void estimateScores() {
-        scores = new ArrayList<Double>(hitMap.keySet());
-        Collections.sort(scores);
+    private double[] getSortedScores() {
+        double[] sortedScores = scoreArray;
+        if (sortedScores == null) {
+            sortPoints();
+            sortedScores = scoreArray;
+        }
+        return sortedScores;
     }
 
     /**
-     * Returns the sorted scores implemented in this map.
+     * Returns the sorted scores implemented in this map. The returned array
+     * is used by the map and should not be modified.
      *
      * @return the sorted scores implemented in this map.
      */
-    public ArrayList<Double> getScores() {
-        if (scores == null) {
-            estimateScores();
-        }
-        return scores;
+    public double[] getScores() {
+        return getSortedScores();
     }
 
     /**
@@ -291,15 +446,11 @@ public class TargetDecoyMap implements Serializable {
      * @param anOtherMap another target/decoy map
      */
     public void addAll(TargetDecoyMap anOtherMap) {
-        for (double score : anOtherMap.getScores()) {
-            for (int i = 0; i < anOtherMap.getNDecoy(score); i++) {
-                put(score, true);
-            }
-            for (int i = 0; i < anOtherMap.getNTarget(score); i++) {
-                put(score, false);
-            }
+        double[] otherScores = anOtherMap.getSortedScores();
+        for (int i = 0; i < otherScores.length; i++) {
+            put(otherScores[i], anOtherMap.nTargetArray[i], anOtherMap.nDecoyArray[i]);
         }
-        scores = null;
+        scoreArray = null;
         nmax = null;
         windowSize = null;
     }
@@ -336,7 +487,8 @@ public class TargetDecoyMap implements Serializable {
      * @return the target decoy series
      */
     public TargetDecoySeries getTargetDecoySeries() {
-        return new TargetDecoySeries(hitMap);
+        double[] sortedScores = getSortedScores();
+        return new TargetDecoySeries(sortedScores, nTargetArray, nDecoyArray, pepArray);
     }
 
     /**
@@ -368,4 +520,20 @@ public class TargetDecoyMap implements Serializable {
     public int getMapSize() {
         return hitMap.size();
     }
+
+    /**
+     * Reads the map from a stream. Maps saved by former versions contain a
+     * boxed list of sorted scores which is discarded, the primitive arrays
+     * are rebuilt from the hit map when needed.
+     *
+     * @param in the object input stream
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the stream
+     * @throws ClassNotFoundException exception thrown whenever a class of the
+     * stream could not be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        scores = null;
+    }
 }
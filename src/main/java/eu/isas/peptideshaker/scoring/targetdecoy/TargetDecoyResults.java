@@ -61,6 +61,16 @@ public class TargetDecoyResults implements Serializable {
      * The type of input 0 -> confidence 1 -> FDR 2 -> FNR
      */
     private Integer inputType;
+    /**
+     * The score limit used at the last validation of the matches, null if the
+     * matches were not validated using these results
+     */
+    private Double appliedScoreLimit = null;
+    /**
+     * Boolean indicating whether nothing was validated at the last validation
+     * of the matches
+     */
+    private Boolean appliedNoValidated = null;
 
     /**
      * Constructor
@@ -272,4 +282,59 @@ public class TargetDecoyResults implements Serializable {
     public void setUserInput(Double userInput) {
         this.userInput = userInput;
     }
+
+    /**
+     * Indicates whether a match with the given score is validated using the
+     * current validation settings
+     * @param score the probabilistic score of the match
+     * @return a boolean indicating whether the match is validated
+     */
+    public boolean isValidated(double score) {
+        return !noValidated() && score <= scoreLimit;
+    }
+
+    /**
+     * Indicates whether the validation settings were applied to the matches
+     * @return a boolean indicating whether the validation settings were applied to the matches
+     */
+    public boolean isValidationApplied() {
+        return appliedScoreLimit != null && appliedNoValidated != null;
+    }
+
+    /**
+     * Indicates whether the validation settings changed since they were last applied to the matches
+     * @return a boolean indicating whether the validation settings changed
+     */
+    public boolean validationChanged() {
+        return !isValidationApplied() || appliedNoValidated != noValidated() || appliedScoreLimit != scoreLimit;
+    }
+
+    /**
+     * Indicates whether the validation of a match with the given score can differ from the one obtained when the settings were last applied,
+     * i.e. whether the score lies between the former and the current score limits
+     * @param score the probabilistic score of the match
+     * @return a boolean indicating whether the validation of the match can change
+     */
+    public boolean validationMayChange(double score) {
+        if (!isValidationApplied() || appliedNoValidated != noValidated()) {
+            return true;
+        }
+        return score > Math.min(appliedScoreLimit, scoreLimit) && score <= Math.max(appliedScoreLimit, scoreLimit);
+    }
+
+    /**
+     * Records that the current validation settings were applied to the matches
+     */
+    public void setValidationApplied() {
+        appliedScoreLimit = scoreLimit;
+        appliedNoValidated = noValidated();
+    }
+
+    /**
+     * Records that the matches need to be validated again, typically when their scores changed
+     */
+    public void resetValidationApplied() {
+        appliedScoreLimit = null;
+        appliedNoValidated = null;
+    }
 }
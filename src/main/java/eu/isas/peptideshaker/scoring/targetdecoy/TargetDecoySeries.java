@@ -1,8 +1,5 @@
 package eu.isas.peptideshaker.scoring.targetdecoy;
 
-import java.util.Arrays;
-import java.util.HashMap;
-
 /**
  * This class will contain the PEP, FDR and FNR values of a target decoy 
  * map directly available for plotting.
@@ -61,26 +58,23 @@ public class TargetDecoySeries {
     private double probaNTotal;
 
     /**
-     * Constructor.
+     * Constructor from the sorted primitive arrays of a target decoy map. The
+     * arrays are not modified.
      * 
-     * @param hitMap A map as present in target decoy maps
+     * @param sortedScores the scores sorted in ascending order
+     * @param nTargets the number of target hits at every score
+     * @param nDecoys the number of decoy hits at every score
+     * @param peps the posterior error probability at every score
      */
-    public TargetDecoySeries(HashMap<Double, TargetDecoyPoint> hitMap) {
+    public TargetDecoySeries(double[] sortedScores, int[] nTargets, int[] nDecoys, double[] peps) {
 
-        scores = new double[hitMap.size()];
+        scores = sortedScores;
         probaNTotal = 0;
-        int cpt = 0;
-        TargetDecoyPoint currentPoint;
 
-        for (double score : hitMap.keySet()) {
-            currentPoint = hitMap.get(score);
-            scores[cpt] = score;
-            probaNTotal += (1 - currentPoint.p) * currentPoint.nTarget;
-            cpt++;
+        for (int i = 0; i < scores.length; i++) {
+            probaNTotal += (1 - peps[i]) * nTargets[i];
         }
 
-        Arrays.sort(scores);
-
         confidence = new double[scores.length];
         classicalFDR = new double[scores.length];
         probaFDR = new double[scores.length];
@@ -99,14 +93,13 @@ public class TargetDecoySeries {
         double probaFnrTemp;
 
         for (int i = 0; i < scores.length; i++) {
-            currentPoint = hitMap.get(scores[i]);
-            nTemp += currentPoint.nTarget;
-            classicalFPTemp += currentPoint.nDecoy;
-            probaFPTemp += currentPoint.nTarget * (currentPoint.p);
-            probaTP += currentPoint.nTarget * (1 - currentPoint.p);
+            nTemp += nTargets[i];
+            classicalFPTemp += nDecoys[i];
+            probaFPTemp += nTargets[i] * (peps[i]);
+            probaTP += nTargets[i] * (1 - peps[i]);
             probaFnrTemp = 100 * (probaNTotal - probaTP) / probaNTotal;
-            pep[i] = 100 * currentPoint.p;
-            confidence[i] = 100 * (1 - currentPoint.p);
+            pep[i] = 100 * peps[i];
+            confidence[i] = 100 * (1 - peps[i]);
             n[i] = nTemp;
             classicalFP[i] = classicalFPTemp;
             probaFP[i] = probaFPTemp;
@@ -114,7 +107,7 @@ public class TargetDecoySeries {
             probaFDR[i] = 100 * probaFPTemp / nTemp;
             probaFNR[i] = probaFnrTemp;
             probaBenefit[i] = 100 - probaFnrTemp;
-            decoy[i] = currentPoint.nTarget == 0;
+            decoy[i] = nTargets[i] == 0;
         }
     }
 
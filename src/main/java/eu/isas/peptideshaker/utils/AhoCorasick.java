@@ -0,0 +1,215 @@
+package eu.isas.peptideshaker.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton locating all occurrences of a set of patterns in a
+ * text in a single pass, typically the peptide sequences of a protein in the
+ * protein sequence. The automaton is built over the 26 upper case letters,
+ * other characters share a common transition and the corresponding matches
+ * are verified.
+ *
+ * @author Marc Vaudel
+ */
+public class AhoCorasick {
+
+    /**
+     * The size of the alphabet: the 26 letters and one symbol for all other
+     * characters.
+     */
+    private static final int ALPHABET_SIZE = 27;
+    /**
+     * The patterns.
+     */
+    private String[] patterns;
+    /**
+     * Indicates whether a pattern contains characters which are not letters
+     * and must be verified.
+     */
+    private boolean[] verify;
+    /**
+     * The transitions of every node.
+     */
+    private int[][] transitions;
+    /**
+     * The index of a pattern ending at every node, -1 if none.
+     */
+    private int[] output;
+    /**
+     * The index of the next pattern ending at the same node as every
+     * pattern, -1 if none. Different patterns end at the same node only when
+     * they differ by characters which are not letters.
+     */
+    private int[] nextPatterns;
+    /**
+     * The next node along the failure links where a pattern ends, -1 if none.
+     */
+    private int[] outputLinks;
+
+    /**
+     * Constructor. Builds the automaton for the given patterns, the patterns
+     * should be unique and not empty.
+     *
+     * @param patterns the patterns
+     */
+    public AhoCorasick(List<String> patterns) {
+
+        this.patterns = patterns.toArray(new String[patterns.size()]);
+        verify = new boolean[this.patterns.length];
+        nextPatterns = new int[this.patterns.length];
+
+        int maxNodes = 1;
+        for (String pattern : this.patterns) {
+            maxNodes += pattern.length();
+        }
+
+        // build the trie
+        int[][] trie = new int[maxNodes][];
+        trie[0] = newNode();
+        output = new int[maxNodes];
+        Arrays.fill(output, -1);
+        int nNodes = 1;
+
+        for (int patternIndex = 0; patternIndex < this.patterns.length; patternIndex++) {
+            String pattern = this.patterns[patternIndex];
+            int node = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                int symbol = getSymbol(pattern.charAt(i));
+                if (symbol == ALPHABET_SIZE - 1) {
+                    verify[patternIndex] = true;
+                }
+                if (trie[node][symbol] == -1) {
+                    trie[nNodes] = newNode();
+                    trie[node][symbol] = nNodes++;
+                }
+                node = trie[node][symbol];
+            }
+            nextPatterns[patternIndex] = output[node];
+            output[node] = patternIndex;
+        }
+
+        // compute the failure links breadth first and complete the transitions
+        transitions = Arrays.copyOf(trie, nNodes);
+        output = Arrays.copyOf(output, nNodes);
+        outputLinks = new int[nNodes];
+        int[] failure = new int[nNodes];
+        int[] queue = new int[nNodes];
+        int queueStart = 0, queueEnd = 0;
+
+        outputLinks[0] = -1;
+        for (int symbol = 0; symbol < ALPHABET_SIZE; symbol++) {
+            int child = transitions[0][symbol];
+            if (child == -1) {
+                transitions[0][symbol] = 0;
+            } else {
+                failure[child] = 0;
+                outputLinks[child] = -1;
+                queue[queueEnd++] = child;
+            }
+        }
+
+        while (queueStart < queueEnd) {
+            int node = queue[queueStart++];
+            for (int symbol = 0; symbol < ALPHABET_SIZE; symbol++) {
+                int child = transitions[node][symbol];
+                int fallback = transitions[failure[node]][symbol];
+                if (child == -1) {
+                    transitions[node][symbol] = fallback;
+                } else {
+                    failure[child] = fallback;
+                    outputLinks[child] = output[fallback] != -1 ? fallback : outputLinks[fallback];
+                    queue[queueEnd++] = child;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of patterns.
+     *
+     * @return the number of patterns
+     */
+    public int getNPatterns() {
+        return patterns.length;
+    }
+
+    /**
+     * Returns the pattern at the given index.
+     *
+     * @param patternIndex the index of the pattern
+     * @return the pattern
+     */
+    public String getPattern(int patternIndex) {
+        return patterns[patternIndex];
+    }
+
+    /**
+     * Locates all occurrences of the patterns in the given text, overlapping
+     * occurrences included.
+     *
+     * @param text the text to search
+     * @return the 0 based start indexes of every pattern in the text, in
+     * increasing order, indexed by pattern index
+     */
+    public int[][] search(String text) {
+
+        int[][] starts = new int[patterns.length][];
+        int[] nStarts = new int[patterns.length];
+        int state = 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            state = transitions[state][getSymbol(text.charAt(i))];
+            int node = output[state] != -1 ? state : outputLinks[state];
+            while (node != -1) {
+                for (int patternIndex = output[node]; patternIndex != -1; patternIndex = nextPatterns[patternIndex]) {
+                    String pattern = patterns[patternIndex];
+                    int start = i - pattern.length() + 1;
+                    if (!verify[patternIndex] || text.regionMatches(start, pattern, 0, pattern.length())) {
+                        if (starts[patternIndex] == null) {
+                            starts[patternIndex] = new int[2];
+                        } else if (nStarts[patternIndex] == starts[patternIndex].length) {
+                            starts[patternIndex] = Arrays.copyOf(starts[patternIndex], 2 * nStarts[patternIndex]);
+                        }
+                        starts[patternIndex][nStarts[patternIndex]++] = start;
+                    }
+                }
+                node = outputLinks[node];
+            }
+        }
+
+        for (int patternIndex = 0; patternIndex < patterns.length; patternIndex++) {
+            if (starts[patternIndex] == null) {
+                starts[patternIndex] = new int[0];
+            } else if (nStarts[patternIndex] < starts[patternIndex].length) {
+                starts[patternIndex] = Arrays.copyOf(starts[patternIndex], nStarts[patternIndex]);
+            }
+        }
+
+        return starts;
+    }
+
+    /**
+     * Returns a new node without transitions.
+     *
+     * @return a new node without transitions
+     */
+    private static int[] newNode() {
+        int[] node = new int[ALPHABET_SIZE];
+        Arrays.fill(node, -1);
+        return node;
+    }
+
+    /**
+     * Returns the symbol of a character in the alphabet.
+     *
+     * @param character the character
+     * @return the symbol of the character
+     */
+    private static int getSymbol(char character) {
+        if (character >= 'A' && character <= 'Z') {
+            return character - 'A';
+        }
+        return ALPHABET_SIZE - 1;
+    }
+}
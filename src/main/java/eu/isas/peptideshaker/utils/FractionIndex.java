@@ -0,0 +1,322 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Index of the spectra of every peptide per fraction. Fractions, peptides and
+ * spectra are numbered when added, the spectra of a peptide in a fraction are
+ * stored as an array of spectrum numbers and the precursor intensity of every
+ * spectrum is stored in a primitive array.
+ *
+ * @author Marc Vaudel
+ */
+public class FractionIndex implements Serializable {
+
+    /**
+     * Serial number for versions compatibility.
+     */
+    static final long serialVersionUID = -4426812394529312377L;
+    /**
+     * Value of the precursor intensities not yet known.
+     */
+    public static final double UNKNOWN_INTENSITY = Double.NaN;
+    /**
+     * Empty array returned when a peptide has no spectrum in a fraction.
+     */
+    private static final int[] NO_SPECTRA = new int[0];
+    /**
+     * The names of the fractions indexed by fraction id.
+     */
+    private ArrayList<String> fractionNames = new ArrayList<String>();
+    /**
+     * The fraction ids indexed by fraction name.
+     */
+    private HashMap<String, Integer> fractionIds = new HashMap<String, Integer>();
+    /**
+     * The peptide indexes indexed by peptide key.
+     */
+    private HashMap<String, Integer> peptideIndexes = new HashMap<String, Integer>();
+    /**
+     * The spectra of every peptide: peptide index &gt; fraction id &gt;
+     * spectrum indexes. Null where the peptide has no spectrum in the
+     * fraction.
+     */
+    private ArrayList<int[][]> peptideSpectra = new ArrayList<int[][]>();
+    /**
+     * The spectrum keys indexed by spectrum index.
+     */
+    private ArrayList<String> spectrumKeys = new ArrayList<String>();
+    /**
+     * The spectrum indexes indexed by spectrum key.
+     */
+    private HashMap<String, Integer> spectrumIndexes = new HashMap<String, Integer>();
+    /**
+     * The precursor intensities indexed by spectrum index.
+     */
+    private double[] precursorIntensities = new double[1024];
+
+    /**
+     * Constructor.
+     */
+    public FractionIndex() {
+    }
+
+    /**
+     * Builds an index from the fraction psm matches of former versions. The
+     * precursor intensities are not known and set to UNKNOWN_INTENSITY.
+     *
+     * @param fractionPsmMatches the fraction psm matches, key: 'fraction
+     * name'_'peptide key', values: arraylist of spectrum keys
+     * @return the corresponding fraction index
+     */
+    public static FractionIndex fromFractionPsmMatches(HashMap<String, ArrayList<String>> fractionPsmMatches) {
+        HashMap<String, ArrayList<String>> spectraPerPeptide = new HashMap<String, ArrayList<String>>();
+        for (String key : fractionPsmMatches.keySet()) {
+            ArrayList<String> keys = fractionPsmMatches.get(key);
+            if (!keys.isEmpty()) {
+                String fraction = Spectrum.getSpectrumFile(keys.get(0));
+                String peptideKey = key.substring(fraction.length() + 1);
+                ArrayList<String> peptideSpectrumKeys = spectraPerPeptide.get(peptideKey);
+                if (peptideSpectrumKeys == null) {
+                    peptideSpectrumKeys = new ArrayList<String>();
+                    spectraPerPeptide.put(peptideKey, peptideSpectrumKeys);
+                }
+                peptideSpectrumKeys.addAll(keys);
+            }
+        }
+        FractionIndex fractionIndex = new FractionIndex();
+        for (String peptideKey : spectraPerPeptide.keySet()) {
+            ArrayList<String> keys = spectraPerPeptide.get(peptideKey);
+            double[] intensities = new double[keys.size()];
+            Arrays.fill(intensities, UNKNOWN_INTENSITY);
+            fractionIndex.addPeptide(peptideKey, keys, intensities);
+        }
+        return fractionIndex;
+    }
+
+    /**
+     * Adds a peptide with its spectra. The fraction of every spectrum is the
+     * spectrum file.
+     *
+     * @param peptideKey the key of the peptide match
+     * @param peptideSpectrumKeys the keys of the spectra of the peptide
+     * @param intensities the precursor intensities of the spectra in the same
+     * order
+     */
+    public void addPeptide(String peptideKey, ArrayList<String> peptideSpectrumKeys, double[] intensities) {
+
+        int[] spectrumFractions = new int[peptideSpectrumKeys.size()];
+        int[] spectrumIndexesOfPeptide = new int[peptideSpectrumKeys.size()];
+        for (int i = 0; i < peptideSpectrumKeys.size(); i++) {
+            String spectrumKey = peptideSpectrumKeys.get(i);
+            spectrumFractions[i] = getOrAddFraction(Spectrum.getSpectrumFile(spectrumKey));
+            spectrumIndexesOfPeptide[i] = getOrAddSpectrum(spectrumKey, intensities[i]);
+        }
+
+        int[] counts = new int[fractionNames.size()];
+        for (int fractionId : spectrumFractions) {
+            counts[fractionId]++;
+        }
+        int[][] spectraPerFraction = new int[fractionNames.size()][];
+        for (int fractionId = 0; fractionId < counts.length; fractionId++) {
+            if (counts[fractionId] > 0) {
+                spectraPerFraction[fractionId] = new int[counts[fractionId]];
+                counts[fractionId] = 0;
+            }
+        }
+        for (int i = 0; i < spectrumFractions.length; i++) {
+            int fractionId = spectrumFractions[i];
+            spectraPerFraction[fractionId][counts[fractionId]++] = spectrumIndexesOfPeptide[i];
+        }
+
+        Integer peptideIndex = peptideIndexes.get(peptideKey);
+        if (peptideIndex == null) {
+            peptideIndexes.put(peptideKey, peptideSpectra.size());
+            peptideSpectra.add(spectraPerFraction);
+        } else {
+            peptideSpectra.set(peptideIndex, spectraPerFraction);
+        }
+    }
+
+    /**
+     * Returns the number of fractions.
+     *
+     * @return the number of fractions
+     */
+    public int getNFractions() {
+        return fractionNames.size();
+    }
+
+    /**
+     * Returns the name of a fraction.
+     *
+     * @param fractionId the id of the fraction
+     * @return the name of the fraction
+     */
+    public String getFractionName(int fractionId) {
+        return fractionNames.get(fractionId);
+    }
+
+    /**
+     * Returns the id of a fraction, -1 if not indexed.
+     *
+     * @param fractionName the name of the fraction
+     * @return the id of the fraction
+     */
+    public int getFractionId(String fractionName) {
+        Integer fractionId = fractionIds.get(fractionName);
+        if (fractionId == null) {
+            return -1;
+        }
+        return fractionId;
+    }
+
+    /**
+     * Returns the index of a peptide, -1 if not indexed.
+     *
+     * @param peptideKey the key of the peptide match
+     * @return the index of the peptide
+     */
+    public int getPeptideIndex(String peptideKey) {
+        Integer peptideIndex = peptideIndexes.get(peptideKey);
+        if (peptideIndex == null) {
+            return -1;
+        }
+        return peptideIndex;
+    }
+
+    /**
+     * Returns the ids of the fractions where a peptide has spectra.
+     *
+     * @param peptideIndex the index of the peptide
+     * @return the ids of the fractions
+     */
+    public int[] getPeptideFractions(int peptideIndex) {
+        int[][] spectraPerFraction = peptideSpectra.get(peptideIndex);
+        int nFractions = 0;
+        for (int[] spectra : spectraPerFraction) {
+            if (spectra != null) {
+                nFractions++;
+            }
+        }
+        int[] result = new int[nFractions];
+        nFractions = 0;
+        for (int fractionId = 0; fractionId < spectraPerFraction.length; fractionId++) {
+            if (spectraPerFraction[fractionId] != null) {
+                result[nFractions++] = fractionId;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the indexes of the spectra of a peptide in a fraction. The
+     * returned array should not be modified.
+     *
+     * @param peptideIndex the index of the peptide
+     * @param fractionId the id of the fraction
+     * @return the indexes of the spectra, an empty array if none
+     */
+    public int[] getSpectra(int peptideIndex, int fractionId) {
+        int[][] spectraPerFraction = peptideSpectra.get(peptideIndex);
+        if (fractionId >= spectraPerFraction.length || spectraPerFraction[fractionId] == null) {
+            return NO_SPECTRA;
+        }
+        return spectraPerFraction[fractionId];
+    }
+
+    /**
+     * Returns the number of spectra.
+     *
+     * @return the number of spectra
+     */
+    public int getNSpectra() {
+        return spectrumKeys.size();
+    }
+
+    /**
+     * Returns the key of a spectrum.
+     *
+     * @param spectrumIndex the index of the spectrum
+     * @return the key of the spectrum
+     */
+    public String getSpectrumKey(int spectrumIndex) {
+        return spectrumKeys.get(spectrumIndex);
+    }
+
+    /**
+     * Returns the index of a spectrum, -1 if not indexed.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @return the index of the spectrum
+     */
+    public int getSpectrumIndex(String spectrumKey) {
+        Integer spectrumIndex = spectrumIndexes.get(spectrumKey);
+        if (spectrumIndex == null) {
+            return -1;
+        }
+        return spectrumIndex;
+    }
+
+    /**
+     * Returns the precursor intensity of a spectrum, UNKNOWN_INTENSITY if not
+     * known.
+     *
+     * @param spectrumIndex the index of the spectrum
+     * @return the precursor intensity
+     */
+    public double getPrecursorIntensity(int spectrumIndex) {
+        return precursorIntensities[spectrumIndex];
+    }
+
+    /**
+     * Sets the precursor intensity of a spectrum.
+     *
+     * @param spectrumIndex the index of the spectrum
+     * @param intensity the precursor intensity
+     */
+    public void setPrecursorIntensity(int spectrumIndex, double intensity) {
+        precursorIntensities[spectrumIndex] = intensity;
+    }
+
+    /**
+     * Returns the id of a fraction, adding it if needed.
+     *
+     * @param fractionName the name of the fraction
+     * @return the id of the fraction
+     */
+    private int getOrAddFraction(String fractionName) {
+        Integer fractionId = fractionIds.get(fractionName);
+        if (fractionId == null) {
+            fractionId = fractionNames.size();
+            fractionNames.add(fractionName);
+            fractionIds.put(fractionName, fractionId);
+        }
+        return fractionId;
+    }
+
+    /**
+     * Returns the index of a spectrum, adding it if needed.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param intensity the precursor intensity of the spectrum
+     * @return the index of the spectrum
+     */
+    private int getOrAddSpectrum(String spectrumKey, double intensity) {
+        Integer spectrumIndex = spectrumIndexes.get(spectrumKey);
+        if (spectrumIndex == null) {
+            spectrumIndex = spectrumKeys.size();
+            spectrumKeys.add(spectrumKey);
+            spectrumIndexes.put(spectrumKey, spectrumIndex);
+            if (spectrumIndex == precursorIntensities.length) {
+                precursorIntensities = Arrays.copyOf(precursorIntensities, 2 * precursorIntensities.length);
+            }
+        }
+        precursorIntensities[spectrumIndex] = intensity;
+        return spectrumIndex;
+    }
+}
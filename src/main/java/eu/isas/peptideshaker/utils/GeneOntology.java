@@ -0,0 +1,271 @@
+package eu.isas.peptideshaker.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * In memory store of the Gene Ontology parsed from an OBO file. Provides the
+ * domain (namespace), name and parents of every term without network access.
+ * Alternative accessions are resolved to their primary term.
+ *
+ * @author Harald Barsnes
+ * @author Marc Vaudel
+ */
+public class GeneOntology {
+
+    /**
+     * The name of the OBO file of the complete ontology in the gene ontology
+     * folder, to be downloaded from geneontology.org.
+     */
+    public static final String OBO_FILE_NAME = "gene_ontology.obo";
+    /**
+     * The name of the OBO file of the slim ontology distributed with the
+     * tool in the gene ontology folder, used when the complete ontology is
+     * not available.
+     */
+    public static final String SLIM_OBO_FILE_NAME = "gene_ontology_slim.obo";
+    /**
+     * The index of every term indexed by accession, including the alternative
+     * accessions.
+     */
+    private HashMap<String, Integer> termIndexes = new HashMap<String, Integer>();
+    /**
+     * The primary accession of every term.
+     */
+    private ArrayList<String> termAccessions = new ArrayList<String>();
+    /**
+     * The name of every term.
+     */
+    private ArrayList<String> termNames = new ArrayList<String>();
+    /**
+     * The domain of every term.
+     */
+    private ArrayList<String> termDomains = new ArrayList<String>();
+    /**
+     * The accessions of the parents of every term (is_a and part_of
+     * relationships).
+     */
+    private ArrayList<String[]> termParents = new ArrayList<String[]>();
+
+    /**
+     * Constructor. Parses the given OBO file.
+     *
+     * @param oboFile the OBO file
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public GeneOntology(File oboFile) throws IOException {
+
+        // the domains are shared between terms
+        HashMap<String, String> domains = new HashMap<String, String>();
+
+        BufferedReader br = new BufferedReader(new FileReader(oboFile));
+
+        try {
+            boolean inTerm = false;
+            String accession = null, name = null, domain = null;
+            ArrayList<String> alternativeAccessions = new ArrayList<String>();
+            ArrayList<String> parents = new ArrayList<String>();
+
+            String line;
+            while ((line = br.readLine()) != null) {
+
+                line = line.trim();
+
+                if (line.startsWith("[")) {
+                    if (inTerm) {
+                        addTerm(accession, name, domain, alternativeAccessions, parents);
+                    }
+                    inTerm = line.equals("[Term]");
+                    accession = null;
+                    name = null;
+                    domain = null;
+                    alternativeAccessions.clear();
+                    parents.clear();
+                } else if (inTerm) {
+                    if (line.startsWith("id:")) {
+                        accession = getAccession(line, 3);
+                    } else if (line.startsWith("name:")) {
+                        name = getValue(line, 5);
+                    } else if (line.startsWith("namespace:")) {
+                        domain = getValue(line, 10);
+                        String sharedDomain = domains.get(domain);
+                        if (sharedDomain == null) {
+                            domains.put(domain, domain);
+                        } else {
+                            domain = sharedDomain;
+                        }
+                    } else if (line.startsWith("alt_id:")) {
+                        alternativeAccessions.add(getAccession(line, 7));
+                    } else if (line.startsWith("is_a:")) {
+                        parents.add(getAccession(line, 5));
+                    } else if (line.startsWith("relationship: part_of ")) {
+                        parents.add(getAccession(line, 22));
+                    }
+                }
+            }
+
+            if (inTerm) {
+                addTerm(accession, name, domain, alternativeAccessions, parents);
+            }
+        } finally {
+            br.close();
+        }
+    }
+
+    /**
+     * Returns the gene ontology of the given gene ontology folder, null if the
+     * folder does not contain an OBO file. The complete ontology is used if
+     * available, the slim ontology otherwise.
+     *
+     * @param geneOntologyFolder the gene ontology folder
+     * @return the gene ontology
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public static GeneOntology getGeneOntology(File geneOntologyFolder) throws IOException {
+        File oboFile = new File(geneOntologyFolder, OBO_FILE_NAME);
+        if (!oboFile.exists()) {
+            oboFile = new File(geneOntologyFolder, SLIM_OBO_FILE_NAME);
+            if (!oboFile.exists()) {
+                return null;
+            }
+        }
+        return new GeneOntology(oboFile);
+    }
+
+    /**
+     * Returns the number of terms.
+     *
+     * @return the number of terms
+     */
+    public int getNTerms() {
+        return termAccessions.size();
+    }
+
+    /**
+     * Indicates whether the ontology contains the given accession.
+     *
+     * @param accession the GO accession
+     * @return true if the ontology contains the given accession
+     */
+    public boolean contains(String accession) {
+        return termIndexes.containsKey(accession);
+    }
+
+    /**
+     * Returns the primary accession of a term, null if not found.
+     *
+     * @param accession the GO accession, primary or alternative
+     * @return the primary accession
+     */
+    public String getPrimaryAccession(String accession) {
+        Integer index = termIndexes.get(accession);
+        if (index == null) {
+            return null;
+        }
+        return termAccessions.get(index);
+    }
+
+    /**
+     * Returns the domain of a term, e.g., biological_process, null if not
+     * found.
+     *
+     * @param accession the GO accession
+     * @return the domain of the term
+     */
+    public String getDomain(String accession) {
+        Integer index = termIndexes.get(accession);
+        if (index == null) {
+            return null;
+        }
+        return termDomains.get(index);
+    }
+
+    /**
+     * Returns the name of a term, null if not found.
+     *
+     * @param accession the GO accession
+     * @return the name of the term
+     */
+    public String getName(String accession) {
+        Integer index = termIndexes.get(accession);
+        if (index == null) {
+            return null;
+        }
+        return termNames.get(index);
+    }
+
+    /**
+     * Returns the accessions of the parents of a term, an empty array if none
+     * or if the term is not found.
+     *
+     * @param accession the GO accession
+     * @return the accessions of the parents of the term
+     */
+    public String[] getParents(String accession) {
+        Integer index = termIndexes.get(accession);
+        if (index == null) {
+            return new String[0];
+        }
+        return termParents.get(index).clone();
+    }
+
+    /**
+     * Adds a term.
+     *
+     * @param accession the primary accession
+     * @param name the name
+     * @param domain the domain
+     * @param alternativeAccessions the alternative accessions
+     * @param parents the accessions of the parents
+     */
+    private void addTerm(String accession, String name, String domain, ArrayList<String> alternativeAccessions, ArrayList<String> parents) {
+        if (accession == null) {
+            return;
+        }
+        int index = termAccessions.size();
+        termAccessions.add(accession);
+        termNames.add(name);
+        termDomains.add(domain);
+        termParents.add(parents.toArray(new String[parents.size()]));
+        termIndexes.put(accession, index);
+        for (String alternativeAccession : alternativeAccessions) {
+            if (!termIndexes.containsKey(alternativeAccession)) {
+                termIndexes.put(alternativeAccession, index);
+            }
+        }
+    }
+
+    /**
+     * Returns the value of an OBO tag line, i.e., the text after the tag.
+     *
+     * @param line the line
+     * @param start the index where the value starts
+     * @return the value
+     */
+    private static String getValue(String line, int start) {
+        return line.substring(start).trim();
+    }
+
+    /**
+     * Returns the accession in an OBO tag line, i.e., the first word after the
+     * tag, without trailing qualifiers or comments.
+     *
+     * @param line the line
+     * @param start the index where the value starts
+     * @return the accession
+     */
+    private static String getAccession(String line, int start) {
+        String value = getValue(line, start);
+        int end = value.indexOf(' ');
+        if (end == -1) {
+            return value;
+        }
+        return value.substring(0, end);
+    }
+}
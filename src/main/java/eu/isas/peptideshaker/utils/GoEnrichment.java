@@ -0,0 +1,182 @@
+package eu.isas.peptideshaker.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Estimates the enrichment of GO terms in a sample of proteins using the
+ * hypergeometric distribution. The logarithms of the factorials up to the
+ * population size are computed once and reused for all terms, the terms are
+ * evaluated concurrently.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class GoEnrichment {
+
+    /**
+     * The population size.
+     */
+    private int populationSize;
+    /**
+     * The logarithm of the factorial of every number from 0 to the population
+     * size.
+     */
+    private double[] logFactorials;
+
+    /**
+     * Constructor.
+     *
+     * @param populationSize the population size, i.e. the number of proteins
+     * mapped to GO terms
+     */
+    public GoEnrichment(int populationSize) {
+        this.populationSize = populationSize;
+        logFactorials = new double[populationSize + 1];
+        for (int i = 2; i <= populationSize; i++) {
+            logFactorials[i] = logFactorials[i - 1] + Math.log(i);
+        }
+    }
+
+    /**
+     * Creates an enrichment engine for the proteins of a GO mapping index.
+     *
+     * @param goMappingIndex the GO mapping index
+     */
+    public GoEnrichment(GoMappingIndex goMappingIndex) {
+        this(goMappingIndex.getNProteins());
+    }
+
+    /**
+     * Returns the population size.
+     *
+     * @return the population size
+     */
+    public int getPopulationSize() {
+        return populationSize;
+    }
+
+    /**
+     * Returns the hypergeometric probability of drawing the given number of
+     * successes in a sample, as HypergeometricDistributionImpl.probability.
+     *
+     * @param nSuccesses the number of successes in the population, i.e. the
+     * number of proteins mapped to the term
+     * @param sampleSize the sample size, i.e. the number of mapped proteins
+     * in the dataset
+     * @param nSampleSuccesses the number of successes in the sample, i.e. the
+     * number of proteins of the dataset mapped to the term
+     * @return the probability
+     * @throws IllegalArgumentException exception thrown if the number of
+     * successes or the sample size exceeds the population size
+     */
+    public double getProbability(int nSuccesses, int sampleSize, int nSampleSuccesses) {
+        if (nSuccesses > populationSize || sampleSize > populationSize) {
+            throw new IllegalArgumentException("The number of successes and the sample size cannot exceed the population size.");
+        }
+        if (nSampleSuccesses < Math.max(0, sampleSize + nSuccesses - populationSize)
+                || nSampleSuccesses > Math.min(nSuccesses, sampleSize)) {
+            return 0;
+        }
+        return Math.exp(getLogBinomial(nSuccesses, nSampleSuccesses)
+                + getLogBinomial(populationSize - nSuccesses, sampleSize - nSampleSuccesses)
+                - getLogBinomial(populationSize, sampleSize));
+    }
+
+    /**
+     * Returns the hypergeometric probabilities of all terms, evaluated on the
+     * given number of threads.
+     *
+     * @param termCounts the number of proteins mapped to every term in the
+     * population
+     * @param sampleCounts the number of proteins mapped to every term in the
+     * sample
+     * @param sampleSize the sample size
+     * @param nThreads the number of threads to use
+     * @return the probability of every term
+     * @throws InterruptedException exception thrown if a thread is
+     * interrupted
+     */
+    public double[] getProbabilities(final int[] termCounts, final int[] sampleCounts, final int sampleSize, int nThreads) throws InterruptedException {
+
+        final double[] probabilities = new double[termCounts.length];
+        int chunkSize = Math.max(1, (termCounts.length + nThreads - 1) / nThreads);
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+        try {
+            ArrayList<Future<Object>> tasks = new ArrayList<Future<Object>>(nThreads);
+            for (int start = 0; start < termCounts.length; start += chunkSize) {
+                final int chunkStart = start;
+                final int chunkEnd = Math.min(start + chunkSize, termCounts.length);
+                tasks.add(pool.submit(new Callable<Object>() {
+                    public Object call() {
+                        for (int term = chunkStart; term < chunkEnd; term++) {
+                            probabilities[term] = getProbability(termCounts[term], sampleSize, sampleCounts[term]);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalArgumentException("Error while estimating the GO term probabilities.", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return probabilities;
+    }
+
+    /**
+     * Corrects p-values for multiple testing using the Benjamini-Hochberg
+     * method: every p-value is multiplied by the number of p-values and
+     * divided by its rank in ascending order, the corrected value of a rank is
+     * then the minimum of the values of the higher ranks so that the
+     * corrected p-values are monotone, and it is capped at 1.
+     *
+     * @param pValues the p-values
+     * @return the corrected p-values in the same order
+     */
+    public static double[] getBenjaminiHochbergCorrection(final double[] pValues) {
+
+        Integer[] order = new Integer[pValues.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(pValues[o1], pValues[o2]);
+            }
+        });
+
+        double[] correctedPValues = new double[pValues.length];
+        double minimum = 1;
+        for (int rank = order.length; rank >= 1; rank--) {
+            int index = order[rank - 1];
+            minimum = Math.min(minimum, pValues[index] * pValues.length / rank);
+            correctedPValues[index] = minimum;
+        }
+        return correctedPValues;
+    }
+
+    /**
+     * Returns the logarithm of the binomial coefficient n choose k.
+     *
+     * @param n the number of elements
+     * @param k the number of elements chosen
+     * @return the logarithm of the binomial coefficient
+     */
+    private double getLogBinomial(int n, int k) {
+        return logFactorials[n] - logFactorials[k] - logFactorials[n - k];
+    }
+}
@@ -0,0 +1,450 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.gui.waiting.WaitingHandler;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * Index of the GO mappings of a species. The terms and proteins are numbered,
+ * the terms of every protein are stored as arrays of term numbers and the
+ * number of mappings of every term is precomputed.
+ *
+ * The index is built once from the tab separated mapping file (protein
+ * accession, GO accession, GO term) and saved next to it in a binary file
+ * which is memory mapped when the species is selected again. The index is
+ * rebuilt when the mapping file changes.
+ *
+ * @author Harald Barsnes
+ * @author Marc Vaudel
+ */
+public class GoMappingIndex {
+
+    /**
+     * The extension of the index files.
+     */
+    public static final String INDEX_EXTENSION = ".index";
+    /**
+     * The magic number starting every index file.
+     */
+    private static final int MAGIC_NUMBER = 0x50534749;
+    /**
+     * The version of the index format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The GO accession of every term.
+     */
+    private String[] termAccessions;
+    /**
+     * The lower case name of every term, sorted.
+     */
+    private String[] termNames;
+    /**
+     * The number of mappings of every term in the mapping file.
+     */
+    private int[] termCounts;
+    /**
+     * The protein accessions, sorted.
+     */
+    private String[] proteinAccessions;
+    /**
+     * The start of the terms of every protein in proteinTerms, the terms of
+     * protein i are found between termStarts[i] and termStarts[i+1].
+     */
+    private int[] termStarts;
+    /**
+     * The terms of all proteins.
+     */
+    private int[] proteinTerms;
+
+    /**
+     * Constructor.
+     */
+    private GoMappingIndex() {
+    }
+
+    /**
+     * Returns the index of a mapping file. The index file is read if up to
+     * date, otherwise the index is built from the mapping file and saved.
+     *
+     * @param mappingFile the mapping file
+     * @param waitingHandler the handler displaying feedback to the user
+     * @return the index, null if the process was canceled
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the mapping file
+     */
+    public static GoMappingIndex getIndex(File mappingFile, WaitingHandler waitingHandler) throws IOException {
+
+        File indexFile = new File(mappingFile.getParentFile(), mappingFile.getName() + INDEX_EXTENSION);
+
+        if (indexFile.exists()) {
+            try {
+                GoMappingIndex goMappingIndex = read(indexFile, mappingFile);
+                if (goMappingIndex != null) {
+                    return goMappingIndex;
+                }
+            } catch (IOException e) {
+                // the index is corrupted, rebuild it
+                e.printStackTrace();
+            }
+        }
+
+        GoMappingIndex goMappingIndex = build(mappingFile, waitingHandler);
+
+        if (goMappingIndex != null) {
+            try {
+                goMappingIndex.write(indexFile, mappingFile);
+            } catch (IOException e) {
+                // the mappings folder might not be writable, the index will be rebuilt next time
+                e.printStackTrace();
+                indexFile.delete();
+            }
+        }
+
+        return goMappingIndex;
+    }
+
+    /**
+     * Builds the index of a mapping file. The header line is ignored and only
+     * lines with three fields and a protein accession are indexed.
+     *
+     * @param mappingFile the mapping file
+     * @param waitingHandler the handler displaying feedback to the user
+     * @return the index, null if the process was canceled
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the mapping file
+     */
+    public static GoMappingIndex build(File mappingFile, WaitingHandler waitingHandler) throws IOException {
+
+        HashMap<String, Integer> termIds = new HashMap<String, Integer>();
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<String> accessions = new ArrayList<String>();
+        HashMap<String, Integer> proteinIds = new HashMap<String, Integer>();
+        ArrayList<String> proteins = new ArrayList<String>();
+        int[] lineProteins = new int[1024];
+        int[] lineTerms = new int[1024];
+        int nLines = 0;
+
+        waitingHandler.setSecondaryProgressDialogIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressValue((int) Math.min(Integer.MAX_VALUE, mappingFile.length()));
+        waitingHandler.setSecondaryProgressValue(0);
+        long progress = 0;
+
+        BufferedReader br = new BufferedReader(new FileReader(mappingFile));
+
+        try {
+            // read and ignore the header
+            String line = br.readLine();
+            if (line != null) {
+                progress += line.length() + 1;
+                line = br.readLine();
+            }
+
+            while (line != null) {
+
+                if (waitingHandler.isRunCanceled()) {
+                    return null;
+                }
+
+                int firstTab = line.indexOf('\t');
+                int secondTab = firstTab == -1 ? -1 : line.indexOf('\t', firstTab + 1);
+
+                if (firstTab > 0 && secondTab != -1 && secondTab < line.length() - 1
+                        && line.indexOf('\t', secondTab + 1) == -1) {
+
+                    String proteinAccession = line.substring(0, firstTab);
+                    String goAccession = line.substring(firstTab + 1, secondTab);
+                    String goTerm = line.substring(secondTab + 1).toLowerCase();
+
+                    Integer termId = termIds.get(goTerm);
+                    if (termId == null) {
+                        termId = names.size();
+                        termIds.put(goTerm, termId);
+                        names.add(goTerm);
+                        accessions.add(goAccession);
+                    } else {
+                        accessions.set(termId, goAccession);
+                    }
+
+                    Integer proteinId = proteinIds.get(proteinAccession);
+                    if (proteinId == null) {
+                        proteinId = proteins.size();
+                        proteinIds.put(proteinAccession, proteinId);
+                        proteins.add(proteinAccession);
+                    }
+
+                    if (nLines == lineProteins.length) {
+                        lineProteins = Arrays.copyOf(lineProteins, 2 * nLines);
+                        lineTerms = Arrays.copyOf(lineTerms, 2 * nLines);
+                    }
+                    lineProteins[nLines] = proteinId;
+                    lineTerms[nLines] = termId;
+                    nLines++;
+                }
+
+                progress += line.length() + 1;
+                waitingHandler.setSecondaryProgressValue((int) Math.min(Integer.MAX_VALUE, progress));
+                line = br.readLine();
+            }
+        } finally {
+            br.close();
+        }
+
+        GoMappingIndex goMappingIndex = new GoMappingIndex();
+
+        // number the terms and proteins in alphabetical order
+        ArrayList<String> sortedNames = new ArrayList<String>(names);
+        Collections.sort(sortedNames);
+        int[] termRanks = new int[names.size()];
+        goMappingIndex.termNames = new String[names.size()];
+        goMappingIndex.termAccessions = new String[names.size()];
+        goMappingIndex.termCounts = new int[names.size()];
+        for (int rank = 0; rank < sortedNames.size(); rank++) {
+            int termId = termIds.get(sortedNames.get(rank));
+            termRanks[termId] = rank;
+            goMappingIndex.termNames[rank] = sortedNames.get(rank);
+            goMappingIndex.termAccessions[rank] = accessions.get(termId);
+        }
+
+        ArrayList<String> sortedProteins = new ArrayList<String>(proteins);
+        Collections.sort(sortedProteins);
+        int[] proteinRanks = new int[proteins.size()];
+        goMappingIndex.proteinAccessions = new String[proteins.size()];
+        for (int rank = 0; rank < sortedProteins.size(); rank++) {
+            proteinRanks[proteinIds.get(sortedProteins.get(rank))] = rank;
+            goMappingIndex.proteinAccessions[rank] = sortedProteins.get(rank);
+        }
+
+        // group the terms per protein, keeping the order of the file
+        goMappingIndex.termStarts = new int[proteins.size() + 1];
+        for (int i = 0; i < nLines; i++) {
+            goMappingIndex.termStarts[proteinRanks[lineProteins[i]] + 1]++;
+        }
+        for (int rank = 0; rank < proteins.size(); rank++) {
+            goMappingIndex.termStarts[rank + 1] += goMappingIndex.termStarts[rank];
+        }
+        int[] positions = Arrays.copyOf(goMappingIndex.termStarts, proteins.size());
+        goMappingIndex.proteinTerms = new int[nLines];
+        for (int i = 0; i < nLines; i++) {
+            int term = termRanks[lineTerms[i]];
+            goMappingIndex.proteinTerms[positions[proteinRanks[lineProteins[i]]]++] = term;
+            goMappingIndex.termCounts[term]++;
+        }
+
+        return goMappingIndex;
+    }
+
+    /**
+     * Writes the index.
+     *
+     * @param indexFile the file where to write the index
+     * @param mappingFile the indexed mapping file
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void write(File indexFile, File mappingFile) throws IOException {
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+
+        try {
+            out.writeInt(MAGIC_NUMBER);
+            out.writeInt(VERSION);
+            out.writeLong(mappingFile.length());
+            out.writeLong(mappingFile.lastModified());
+
+            out.writeInt(termNames.length);
+            for (int term = 0; term < termNames.length; term++) {
+                writeString(out, termAccessions[term]);
+                writeString(out, termNames[term]);
+                out.writeInt(termCounts[term]);
+            }
+
+            out.writeInt(proteinAccessions.length);
+            for (String proteinAccession : proteinAccessions) {
+                writeString(out, proteinAccession);
+            }
+            for (int start : termStarts) {
+                out.writeInt(start);
+            }
+
+            out.writeInt(proteinTerms.length);
+            for (int term : proteinTerms) {
+                out.writeInt(term);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads an index file by memory mapping.
+     *
+     * @param indexFile the index file
+     * @param mappingFile the indexed mapping file
+     * @return the index, null if the index is not up to date
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public static GoMappingIndex read(File indexFile, File mappingFile) throws IOException {
+
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+
+        try {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC_NUMBER
+                    || buffer.getInt() != VERSION
+                    || buffer.getLong() != mappingFile.length()
+                    || buffer.getLong() != mappingFile.lastModified()) {
+                return null;
+            }
+
+            GoMappingIndex goMappingIndex = new GoMappingIndex();
+
+            int nTerms = buffer.getInt();
+            goMappingIndex.termAccessions = new String[nTerms];
+            goMappingIndex.termNames = new String[nTerms];
+            goMappingIndex.termCounts = new int[nTerms];
+            for (int term = 0; term < nTerms; term++) {
+                goMappingIndex.termAccessions[term] = readString(buffer);
+                goMappingIndex.termNames[term] = readString(buffer);
+                goMappingIndex.termCounts[term] = buffer.getInt();
+            }
+
+            int nProteins = buffer.getInt();
+            goMappingIndex.proteinAccessions = new String[nProteins];
+            for (int protein = 0; protein < nProteins; protein++) {
+                goMappingIndex.proteinAccessions[protein] = readString(buffer);
+            }
+            goMappingIndex.termStarts = new int[nProteins + 1];
+            buffer.asIntBuffer().get(goMappingIndex.termStarts);
+            buffer.position(buffer.position() + 4 * (nProteins + 1));
+
+            goMappingIndex.proteinTerms = new int[buffer.getInt()];
+            buffer.asIntBuffer().get(goMappingIndex.proteinTerms);
+
+            return goMappingIndex;
+
+        } catch (RuntimeException e) {
+            throw new IOException("Error while reading " + indexFile.getName() + ": " + e.getMessage());
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Returns the number of GO terms.
+     *
+     * @return the number of GO terms
+     */
+    public int getNTerms() {
+        return termNames.length;
+    }
+
+    /**
+     * Returns the GO accession of a term.
+     *
+     * @param term the number of the term
+     * @return the GO accession of the term
+     */
+    public String getTermAccession(int term) {
+        return termAccessions[term];
+    }
+
+    /**
+     * Returns the lower case name of a term. The terms are numbered in
+     * alphabetical order of their names.
+     *
+     * @param term the number of the term
+     * @return the name of the term
+     */
+    public String getTermName(int term) {
+        return termNames[term];
+    }
+
+    /**
+     * Returns the number of mappings of a term in the mapping file.
+     *
+     * @param term the number of the term
+     * @return the number of mappings of the term
+     */
+    public int getTermCount(int term) {
+        return termCounts[term];
+    }
+
+    /**
+     * Returns the number of mapped proteins.
+     *
+     * @return the number of mapped proteins
+     */
+    public int getNProteins() {
+        return proteinAccessions.length;
+    }
+
+    /**
+     * Returns the number of a protein, -1 if the protein is not mapped.
+     *
+     * @param proteinAccession the accession of the protein
+     * @return the number of the protein
+     */
+    public int getProteinIndex(String proteinAccession) {
+        int index = Arrays.binarySearch(proteinAccessions, proteinAccession);
+        if (index < 0) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the terms of a protein in the order of the mapping file, a term
+     * mapped several times to the protein is repeated.
+     *
+     * @param protein the number of the protein
+     * @return the numbers of the terms of the protein
+     */
+    public int[] getProteinTerms(int protein) {
+        return Arrays.copyOfRange(proteinTerms, termStarts[protein], termStarts[protein + 1]);
+    }
+
+    /**
+     * Writes a string as its number of UTF-8 bytes followed by the bytes.
+     *
+     * @param out the stream to write to
+     * @param string the string to write
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the string
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written as its number of UTF-8 bytes followed by the
+     * bytes.
+     *
+     * @param buffer the buffer to read from
+     * @return the string
+     * @throws IOException exception thrown whenever an error occurred while
+     * decoding the string
+     */
+    private static String readString(MappedByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -1,12 +1,24 @@
 package eu.isas.peptideshaker.utils;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * This class caches the identification features calculated by the
- * IdentificationFeaturesGenerator for later reuse.
+ * IdentificationFeaturesGenerator for later reuse. Every object type has its
+ * own least recently used cache bounded by a number of entries and an
+ * estimated memory budget. As the per type budgets add up to more than the
+ * total budget, the estimated memory of all types together is bounded by the
+ * total budget, 96MB by default, the least recently used objects of the type
+ * using most memory being removed first. The peptide positions are not saved
+ * with the project.
  *
  * @author Marc Vaudel
  */
@@ -58,36 +70,71 @@ public class IdentificationFeaturesCache implements Serializable {
          * The max mx value for all the psms for a given peptide stored as small
          * object..
          */
-        max_psm_mz_for_peptides
+        max_psm_mz_for_peptides,
+        /**
+         * The positions of the peptides of a given protein stored as small
+         * object.
+         */
+        peptide_positions
     }
     /**
-     * The number of values kept in memory for small objects.
+     * The number of values kept in memory per type of small object.
+     */
+    private int smallObjectsCacheSize = 10000;
+    /**
+     * The number of values kept in memory per type of big object.
+     */
+    private int bigObjectsCacheSize = 10;
+    /**
+     * The estimated memory in bytes available per type of small object.
+     */
+    private long smallObjectsMemoryBudget = DEFAULT_SMALL_OBJECTS_MEMORY_BUDGET;
+    /**
+     * The estimated memory in bytes available per type of big object.
      */
-    private final int smallObjectsCacheSize = 10000; // @TODO: should perhaps be made bigger now that number_of_validated_peptides and max_psm_mz_for_peptides have been added??
+    private long bigObjectsMemoryBudget = DEFAULT_BIG_OBJECTS_MEMORY_BUDGET;
     /**
-     * The number of values kept in memory for big objects.
+     * The estimated memory in bytes available for all types of objects
+     * together.
      */
-    private final int bigObjectsCacheSize = 10;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
     /**
-     * Separator used to concatenate strings.
+     * The default estimated memory in bytes available per type of small
+     * object.
      */
-    private static final String cacheSeparator = "_ccs_";
+    public static final long DEFAULT_SMALL_OBJECTS_MEMORY_BUDGET = 16 * 1024 * 1024;
     /**
-     * The cached protein matches for small objects.
+     * The default estimated memory in bytes available per type of big object.
      */
-    private ArrayList<String> smallObjectsInCache = new ArrayList<String>();
+    public static final long DEFAULT_BIG_OBJECTS_MEMORY_BUDGET = 64 * 1024 * 1024;
     /**
-     * The cached protein matches for big objects.
+     * The default estimated memory in bytes available for all types of
+     * objects together.
      */
-    private ArrayList<String> bigObjectsInCache = new ArrayList<String>();
+    public static final long DEFAULT_MEMORY_BUDGET = 96 * 1024 * 1024;
     /**
-     * Mapping of the stored big objects.
+     * Mapping of the stored big objects. The objects of every type are stored
+     * in an access ordered LinkedHashMap, the least recently used first.
      */
     private HashMap<ObjectType, HashMap<String, Object>> bigObjectsCache = new HashMap<ObjectType, HashMap<String, Object>>();
     /**
-     * Mapping of the stored small objects.
+     * Mapping of the stored small objects. The objects of every type are
+     * stored in an access ordered LinkedHashMap, the least recently used
+     * first.
      */
     private HashMap<ObjectType, HashMap<String, Object>> smallObjectsCache = new HashMap<ObjectType, HashMap<String, Object>>();
+    /**
+     * The estimated memory used by every object type, indexed by ordinal.
+     */
+    private transient long[] memoryUsed = new long[ObjectType.values().length];
+    /**
+     * The number of cache hits of every object type, indexed by ordinal.
+     */
+    private transient long[] hits = new long[ObjectType.values().length];
+    /**
+     * The number of cache misses of every object type, indexed by ordinal.
+     */
+    private transient long[] misses = new long[ObjectType.values().length];
     /**
      * The protein list.
      */
@@ -136,111 +183,37 @@ public class IdentificationFeaturesCache implements Serializable {
      *
      * @param type the object type
      */
-    public void removeObjects(ObjectType type) {
-
-        String typeKey = getTypeAsString(type);
-        ArrayList<String> toRemove = new ArrayList<String>();
-
-        switch (type) {
-            case coverable_AA:
-                bigObjectsCache.remove(type);
-                for (String key : bigObjectsInCache) {
-                    if (key.contains(typeKey)) {
-                        toRemove.add(key);
-                    }
-                }
-                for (String key : toRemove) {
-                    bigObjectsInCache.remove(key);
-                }
-                break;
-            case sequence_coverage:
-            case expected_coverage:
-            case spectrum_counting:
-            case number_of_spectra:
-            case number_of_validated_spectra:
-            case number_of_validated_peptides:
-            case max_psm_mz_for_peptides:
-                smallObjectsCache.remove(type);
-                for (String key : smallObjectsInCache) {
-                    if (key.contains(typeKey)) {
-                        toRemove.add(key);
-                    }
-                }
-                for (String key : toRemove) {
-                    bigObjectsInCache.remove(key);
-                }
-                break;
-        }
+    public synchronized void removeObjects(ObjectType type) {
+        getCache(type).remove(type);
+        memoryUsed[type.ordinal()] = 0;
     }
 
     /**
-     * Adds an object in the cache.
+     * Adds an object in the cache. The least recently used objects of the same
+     * type are removed if the cache size or memory budget is exceeded.
      *
      * @param type the type of the object
      * @param objectKey the object key
      * @param object the object to store
      */
-    public void addObject(ObjectType type, String objectKey, Object object) {
-        switch (type) {
-            case coverable_AA:
-                if (!bigObjectsCache.containsKey(type)) {
-                    bigObjectsCache.put(type, new HashMap<String, Object>());
-                }
-
-                Object oldValue = bigObjectsCache.get(type).put(objectKey, object);
+    public synchronized void addObject(ObjectType type, String objectKey, Object object) {
 
-                if (oldValue == null) {
-                    bigObjectsInCache.add(getCacheKey(type, objectKey)); // don't add if the object was already in the cache
-                }
-
-                while (bigObjectsInCache.size() >= bigObjectsCacheSize) {
-                    ObjectType oldType = getType(bigObjectsInCache.get(0));
-                    String oldKey = getObjectKey(bigObjectsInCache.get(0));
-                    if (bigObjectsCache.containsKey(oldType)) { //Should always be true. Should...
-                        bigObjectsCache.get(oldType).remove(oldKey);
-                        if (bigObjectsCache.get(oldType).isEmpty()) {
-                            bigObjectsCache.remove(oldType);
-                        }
-                    }
-                    bigObjectsInCache.remove(0);
-                    if (bigObjectsInCache.isEmpty()) {
-                        break;
-                    }
-                }
-                break;
-            case sequence_coverage:
-            case expected_coverage:
-            case spectrum_counting:
-            case number_of_spectra:
-            case number_of_validated_spectra:
-            case number_of_validated_peptides:
-            case max_psm_mz_for_peptides:
-                if (!smallObjectsCache.containsKey(type)) {
-                    smallObjectsCache.put(type, new HashMap<String, Object>());
-                }
+        HashMap<ObjectType, HashMap<String, Object>> cache = getCache(type);
+        HashMap<String, Object> typeCache = cache.get(type);
 
-                oldValue = smallObjectsCache.get(type).put(objectKey, object);
+        if (typeCache == null) {
+            typeCache = new LinkedHashMap<String, Object>(16, 0.75f, true);
+            cache.put(type, typeCache);
+        }
 
-                if (oldValue == null) {
-                    smallObjectsInCache.add(getCacheKey(type, objectKey));
-                }
+        Object oldValue = typeCache.put(objectKey, object);
 
-                while (smallObjectsInCache.size() >= smallObjectsCacheSize) {
-                    ObjectType oldType = getType(smallObjectsInCache.get(0));
-                    String oldKey = getObjectKey(smallObjectsInCache.get(0));
-                    if (smallObjectsCache.containsKey(oldType)) { //Should always be true. Should...
-                        smallObjectsCache.get(oldType).remove(oldKey);
-                        if (smallObjectsCache.get(oldType).isEmpty()) {
-                            smallObjectsCache.remove(oldType);
-                        }
-                    }
-                    smallObjectsInCache.remove(0);
-                    if (smallObjectsInCache.isEmpty()) {
-                        break;
-                    }
-                }
-                break;
+        if (oldValue != null) {
+            memoryUsed[type.ordinal()] -= getSize(objectKey, oldValue);
         }
+        memoryUsed[type.ordinal()] += getSize(objectKey, object);
+
+        reduceMemoryConsumption(type);
     }
 
     /**
@@ -250,48 +223,212 @@ public class IdentificationFeaturesCache implements Serializable {
      * @param objectKey the key of the object
      * @return the desired object
      */
-    public Object getObject(ObjectType type, String objectKey) {
+    public synchronized Object getObject(ObjectType type, String objectKey) {
+
         Object result = null;
-        switch (type) {
-            case coverable_AA:
-                if (bigObjectsCache.containsKey(type)) {
-                    result = bigObjectsCache.get(type).get(objectKey);
-                }
-                if (result != null && bigObjectsInCache.size() >= bigObjectsCacheSize) {
-                    String cacheKey = getCacheKey(type, objectKey);
-                    for (int i = 0; i < Math.min(bigObjectsInCache.size(), 100); i++) {
-                        if (bigObjectsInCache.get(i).equals(cacheKey)) {
-                            bigObjectsInCache.remove(i);
-                            bigObjectsInCache.add(cacheKey);
-                            break;
-                        }
-                    }
-                }
-                return result;
-            case sequence_coverage:
-            case expected_coverage:
-            case spectrum_counting:
-            case number_of_spectra:
-            case number_of_validated_spectra:
-            case number_of_validated_peptides:
-            case max_psm_mz_for_peptides:
-                if (smallObjectsCache.containsKey(type)) {
-                    result = smallObjectsCache.get(type).get(objectKey);
-                }
-                if (result != null && smallObjectsInCache.size() >= smallObjectsCacheSize) {
-                    String cacheKey = getCacheKey(type, objectKey);
-                    for (int i = 0; i < Math.min(smallObjectsInCache.size(), 100); i++) {
-                        if (smallObjectsInCache.get(i).equals(cacheKey)) {
-                            smallObjectsInCache.remove(i);
-                            smallObjectsInCache.add(cacheKey);
-                            break;
-                        }
-                    }
-                }
-                return result;
-            default:
-                return result;
+        HashMap<String, Object> typeCache = getCache(type).get(type);
+
+        if (typeCache != null) {
+            result = typeCache.get(objectKey); // moves the object to the end of the access order
+        }
+
+        if (result != null) {
+            hits[type.ordinal()]++;
+        } else {
+            misses[type.ordinal()]++;
         }
+
+        return result;
+    }
+
+    /**
+     * Returns the number of objects of the given type in cache.
+     *
+     * @param type the object type
+     * @return the number of objects of the given type in cache
+     */
+    public synchronized int getNObjects(ObjectType type) {
+        HashMap<String, Object> typeCache = getCache(type).get(type);
+        if (typeCache == null) {
+            return 0;
+        }
+        return typeCache.size();
+    }
+
+    /**
+     * Returns the estimated memory used by the objects of the given type in
+     * bytes.
+     *
+     * @param type the object type
+     * @return the estimated memory used in bytes
+     */
+    public synchronized long getMemoryUsed(ObjectType type) {
+        return memoryUsed[type.ordinal()];
+    }
+
+    /**
+     * Returns the number of times an object of the given type was found in
+     * cache since the cache was created or loaded.
+     *
+     * @param type the object type
+     * @return the number of hits
+     */
+    public synchronized long getHits(ObjectType type) {
+        return hits[type.ordinal()];
+    }
+
+    /**
+     * Returns the number of times an object of the given type was not found
+     * in cache since the cache was created or loaded.
+     *
+     * @param type the object type
+     * @return the number of misses
+     */
+    public synchronized long getMisses(ObjectType type) {
+        return misses[type.ordinal()];
+    }
+
+    /**
+     * Returns the estimated memory used by all objects in bytes.
+     *
+     * @return the estimated memory used in bytes
+     */
+    public synchronized long getMemoryUsed() {
+        long total = 0;
+        for (long typeMemory : memoryUsed) {
+            total += typeMemory;
+        }
+        return total;
+    }
+
+    /**
+     * Returns a summary of the content of the cache: the number of objects,
+     * estimated memory, hits and misses of every type and the memory budgets.
+     *
+     * @return a summary of the content of the cache
+     */
+    public synchronized String getStatistics() {
+        StringBuilder statistics = new StringBuilder();
+        statistics.append("Identification features cache: ").append(getMemoryUsed() / 1024).append(" kB used of ").append(memoryBudget / 1024)
+                .append(" kB (").append(smallObjectsMemoryBudget / 1024).append(" kB and ").append(smallObjectsCacheSize).append(" objects per small type, ")
+                .append(bigObjectsMemoryBudget / 1024).append(" kB and ").append(bigObjectsCacheSize).append(" objects per big type)");
+        for (ObjectType type : ObjectType.values()) {
+            statistics.append(System.getProperty("line.separator")).append("    ").append(type).append(": ").append(getNObjects(type))
+                    .append(" objects, ").append(memoryUsed[type.ordinal()] / 1024).append(" kB, ")
+                    .append(hits[type.ordinal()]).append(" hits, ").append(misses[type.ordinal()]).append(" misses");
+        }
+        return statistics.toString();
+    }
+
+    /**
+     * Resets the hit and miss counters.
+     */
+    public synchronized void resetStatistics() {
+        hits = new long[ObjectType.values().length];
+        misses = new long[ObjectType.values().length];
+    }
+
+    /**
+     * Returns the number of values kept in memory per type of small object.
+     *
+     * @return the number of values kept in memory per type of small object
+     */
+    public int getSmallObjectsCacheSize() {
+        return smallObjectsCacheSize;
+    }
+
+    /**
+     * Sets the number of values kept in memory per type of small object.
+     *
+     * @param smallObjectsCacheSize the number of values kept in memory per
+     * type of small object
+     */
+    public synchronized void setSmallObjectsCacheSize(int smallObjectsCacheSize) {
+        this.smallObjectsCacheSize = smallObjectsCacheSize;
+        reduceMemoryConsumption();
+    }
+
+    /**
+     * Returns the number of values kept in memory per type of big object.
+     *
+     * @return the number of values kept in memory per type of big object
+     */
+    public int getBigObjectsCacheSize() {
+        return bigObjectsCacheSize;
+    }
+
+    /**
+     * Sets the number of values kept in memory per type of big object.
+     *
+     * @param bigObjectsCacheSize the number of values kept in memory per type
+     * of big object
+     */
+    public synchronized void setBigObjectsCacheSize(int bigObjectsCacheSize) {
+        this.bigObjectsCacheSize = bigObjectsCacheSize;
+        reduceMemoryConsumption();
+    }
+
+    /**
+     * Returns the estimated memory in bytes available per type of small
+     * object.
+     *
+     * @return the estimated memory in bytes available per type of small object
+     */
+    public long getSmallObjectsMemoryBudget() {
+        return smallObjectsMemoryBudget;
+    }
+
+    /**
+     * Sets the estimated memory in bytes available per type of small object.
+     *
+     * @param smallObjectsMemoryBudget the estimated memory in bytes available
+     * per type of small object
+     */
+    public synchronized void setSmallObjectsMemoryBudget(long smallObjectsMemoryBudget) {
+        this.smallObjectsMemoryBudget = smallObjectsMemoryBudget;
+        reduceMemoryConsumption();
+    }
+
+    /**
+     * Returns the estimated memory in bytes available per type of big object.
+     *
+     * @return the estimated memory in bytes available per type of big object
+     */
+    public long getBigObjectsMemoryBudget() {
+        return bigObjectsMemoryBudget;
+    }
+
+    /**
+     * Sets the estimated memory in bytes available per type of big object.
+     *
+     * @param bigObjectsMemoryBudget the estimated memory in bytes available per
+     * type of big object
+     */
+    public synchronized void setBigObjectsMemoryBudget(long bigObjectsMemoryBudget) {
+        this.bigObjectsMemoryBudget = bigObjectsMemoryBudget;
+        reduceMemoryConsumption();
+    }
+
+    /**
+     * Returns the estimated memory in bytes available for all types of objects
+     * together.
+     *
+     * @return the estimated memory in bytes available for all objects
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the estimated memory in bytes available for all types of objects
+     * together.
+     *
+     * @param memoryBudget the estimated memory in bytes available for all
+     * objects
+     */
+    public synchronized void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        reduceMemoryConsumption();
     }
 
     /**
@@ -480,88 +617,221 @@ public class IdentificationFeaturesCache implements Serializable {
     }
 
     /**
-     * Convenience method returning a string as key for the object of the given
-     * type identified by the given key.
+     * Indicates whether the objects of the given type are stored as big
+     * objects.
      *
      * @param type the type of object
-     * @param objectKey the key of the object
-     * @return the key to be used in cache
+     * @return true if the objects are stored as big objects
      */
-    private String getCacheKey(ObjectType type, String objectKey) {
-        return getTypeAsString(type) + cacheSeparator + objectKey;
+    private static boolean isBigObject(ObjectType type) {
+        return type == ObjectType.coverable_AA;
     }
 
     /**
-     * Returns the object type as string.
+     * Returns the cache where the objects of the given type are stored.
      *
      * @param type the type of object
-     * @return the corresponding key
-     */
-    private String getTypeAsString(ObjectType type) {
-        switch (type) {
-            case coverable_AA:
-                return "coverable_AA";
-            case sequence_coverage:
-                return "sequence_coverage";
-            case expected_coverage:
-                return "expected_coverage";
-            case spectrum_counting:
-                return "spectrum_counting";
-            case number_of_spectra:
-                return "#spectra";
-            case number_of_validated_spectra:
-                return "#validated_spectra";
-            case number_of_validated_peptides:
-                return "#validated_peptides";
-            case max_psm_mz_for_peptides:
-                return "max_psm_mz_for_peptides";
-            default:
-                return "default";
+     * @return the cache of the given type of object
+     */
+    private HashMap<ObjectType, HashMap<String, Object>> getCache(ObjectType type) {
+        if (isBigObject(type)) {
+            return bigObjectsCache;
+        }
+        return smallObjectsCache;
+    }
+
+    /**
+     * Removes the least recently used objects of all types until the cache
+     * sizes and memory budgets are respected.
+     */
+    private void reduceMemoryConsumption() {
+        for (ObjectType type : ObjectType.values()) {
+            HashMap<String, Object> typeCache = getCache(type).get(type);
+            if (typeCache != null) {
+                reduceTypeMemoryConsumption(type, typeCache);
+            }
         }
+        reduceTotalMemoryConsumption();
     }
 
     /**
-     * Convenience method returning the type of object base on the objects cache
-     * key.
-     *
-     * @param cacheKey the object cache key
-     * @return the type of object
-     */
-    private ObjectType getType(String cacheKey) {
-        String objectTypeAsString = cacheKey.split(cacheSeparator)[0];
-        if (objectTypeAsString.equals("coverable_AA")) {
-            return ObjectType.coverable_AA;
-        } else if (objectTypeAsString.equals("sequence_coverage")) {
-            return ObjectType.sequence_coverage;
-        } else if (objectTypeAsString.equals("expected_coverage")) {
-            return ObjectType.expected_coverage;
-        } else if (objectTypeAsString.equals("spectrum_counting")) {
-            return ObjectType.sequence_coverage;
-        } else if (objectTypeAsString.equals("#spectra")) {
-            return ObjectType.number_of_spectra;
-        } else if (objectTypeAsString.equals("#validated_spectra")) {
-            return ObjectType.number_of_validated_spectra;
-        } else if (objectTypeAsString.equals("#validated_peptides")) {
-            return ObjectType.number_of_validated_peptides;
-        } else if (objectTypeAsString.equals("max_psm_mz_for_peptides")) {
-            return ObjectType.max_psm_mz_for_peptides;
+     * Removes the least recently used objects of the given type until the
+     * cache size and memory budget of the type are respected, then the least
+     * recently used objects of the types using most memory until the total
+     * memory budget is respected. The most recently used object of every type
+     * is always kept.
+     *
+     * @param type the type of object
+     */
+    private void reduceMemoryConsumption(ObjectType type) {
+
+        HashMap<String, Object> typeCache = getCache(type).get(type);
+
+        if (typeCache != null) {
+            reduceTypeMemoryConsumption(type, typeCache);
+        }
+
+        reduceTotalMemoryConsumption();
+    }
+
+    /**
+     * Removes the least recently used objects of the given type until the
+     * cache size and memory budget of the type are respected. The most
+     * recently used object is always kept.
+     *
+     * @param type the type of object
+     * @param typeCache the cache of the objects of this type
+     */
+    private void reduceTypeMemoryConsumption(ObjectType type, HashMap<String, Object> typeCache) {
+
+        int cacheSize = isBigObject(type) ? bigObjectsCacheSize : smallObjectsCacheSize;
+        long memoryBudget = isBigObject(type) ? bigObjectsMemoryBudget : smallObjectsMemoryBudget;
+        Iterator<Map.Entry<String, Object>> iterator = typeCache.entrySet().iterator();
+
+        while (typeCache.size() > 1
+                && (typeCache.size() > cacheSize || memoryUsed[type.ordinal()] > memoryBudget)) {
+            Map.Entry<String, Object> eldest = iterator.next();
+            memoryUsed[type.ordinal()] -= getSize(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes the least recently used object of the type using most memory
+     * until the total memory budget is respected. The most recently used
+     * object of every type is always kept.
+     */
+    private void reduceTotalMemoryConsumption() {
+
+        long total = getMemoryUsed();
+
+        while (total > memoryBudget) {
+
+            ObjectType largestType = null;
+            HashMap<String, Object> largestCache = null;
+
+            for (ObjectType type : ObjectType.values()) {
+                HashMap<String, Object> typeCache = getCache(type).get(type);
+                if (typeCache != null && typeCache.size() > 1
+                        && (largestType == null || memoryUsed[type.ordinal()] > memoryUsed[largestType.ordinal()])) {
+                    largestType = type;
+                    largestCache = typeCache;
+                }
+            }
+
+            if (largestType == null) {
+                return;
+            }
+
+            Iterator<Map.Entry<String, Object>> iterator = largestCache.entrySet().iterator();
+            Map.Entry<String, Object> eldest = iterator.next();
+            long size = getSize(eldest.getKey(), eldest.getValue());
+            memoryUsed[largestType.ordinal()] -= size;
+            total -= size;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Returns an estimation of the memory used by a cache entry in bytes.
+     *
+     * @param objectKey the key of the object
+     * @param object the object
+     * @return the estimated memory used in bytes
+     */
+    private static long getSize(String objectKey, Object object) {
+
+        long size = 64 + 2 * objectKey.length(); // map entry, key string and character array
+
+        if (object instanceof boolean[]) {
+            size += 16 + ((boolean[]) object).length;
+        } else if (object instanceof double[]) {
+            size += 16 + 8 * ((double[]) object).length;
+        } else if (object instanceof int[]) {
+            size += 16 + 4 * ((int[]) object).length;
+        } else if (object instanceof String) {
+            size += 56 + 2 * ((String) object).length();
+        } else if (object instanceof PeptidePositions) {
+            size += ((PeptidePositions) object).getSize();
         } else {
-            return null;
+            size += 16; // boxed primitive
+        }
+
+        return size;
+    }
+
+    /**
+     * Writes the cache to a stream. The peptide positions are left out, they
+     * are quickly recomputed and would otherwise inflate the saved project.
+     *
+     * @param out the object output stream
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the stream
+     */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        HashMap<String, Object> peptidePositions = smallObjectsCache.remove(ObjectType.peptide_positions);
+        try {
+            out.defaultWriteObject();
+        } finally {
+            if (peptidePositions != null) {
+                smallObjectsCache.put(ObjectType.peptide_positions, peptidePositions);
+            }
         }
     }
 
     /**
-     * Convenience method returning the object key based on the cache key.
+     * Reads the cache from a stream. Caches saved by former versions contain
+     * unordered maps which are converted to access ordered maps, and no memory
+     * budgets which are set to the default values. Peptide positions saved by
+     * former versions are discarded.
      *
-     * @param cacheKey the cache key
-     * @return the object key
+     * @param in the object input stream
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the stream
+     * @throws ClassNotFoundException exception thrown whenever a class of the
+     * stream could not be found
      */
-    private String getObjectKey(String cacheKey) {
-        String result = "";
-        String[] splittedKey = cacheKey.split(cacheKey);
-        for (int i = 1; i < splittedKey.length; i++) {
-            result += splittedKey[i];
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+
+        in.defaultReadObject();
+
+        memoryUsed = new long[ObjectType.values().length];
+        hits = new long[ObjectType.values().length];
+        misses = new long[ObjectType.values().length];
+
+        if (smallObjectsMemoryBudget <= 0) {
+            smallObjectsMemoryBudget = DEFAULT_SMALL_OBJECTS_MEMORY_BUDGET;
         }
-        return result;
+        if (bigObjectsMemoryBudget <= 0) {
+            bigObjectsMemoryBudget = DEFAULT_BIG_OBJECTS_MEMORY_BUDGET;
+        }
+        if (memoryBudget <= 0) {
+            memoryBudget = DEFAULT_MEMORY_BUDGET;
+        }
+        if (smallObjectsCache == null) {
+            smallObjectsCache = new HashMap<ObjectType, HashMap<String, Object>>();
+        }
+        smallObjectsCache.remove(ObjectType.peptide_positions);
+        if (bigObjectsCache == null) {
+            bigObjectsCache = new HashMap<ObjectType, HashMap<String, Object>>();
+        }
+
+        for (ObjectType type : ObjectType.values()) {
+            HashMap<ObjectType, HashMap<String, Object>> cache = getCache(type);
+            HashMap<String, Object> typeCache = cache.get(type);
+            if (typeCache != null) {
+                if (!(typeCache instanceof LinkedHashMap)) {
+                    HashMap<String, Object> orderedCache = new LinkedHashMap<String, Object>(typeCache.size(), 0.75f, true);
+                    orderedCache.putAll(typeCache);
+                    cache.put(type, orderedCache);
+                    typeCache = orderedCache;
+                }
+                for (Map.Entry<String, Object> entry : typeCache.entrySet()) {
+                    memoryUsed[type.ordinal()] += getSize(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        reduceMemoryConsumption();
     }
 }
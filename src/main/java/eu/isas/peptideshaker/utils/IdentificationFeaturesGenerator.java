@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 
 /**
@@ -55,6 +56,15 @@ public class IdentificationFeaturesGenerator {
      * identification features are stored
      */
     private IdentificationFeaturesCache identificationFeaturesCache = new IdentificationFeaturesCache();
+    /**
+     * The service computing the features in the background.
+     */
+    private IdentificationFeaturesPrecomputer featuresPrecomputer;
+    /**
+     * The index of the peptide occurrences in the protein groups, null until
+     * first needed.
+     */
+    private PeptideOccurrenceIndex peptideOccurrenceIndex = null;
 
     /**
      * Constructor.
@@ -63,6 +73,7 @@ public class IdentificationFeaturesGenerator {
      */
     public IdentificationFeaturesGenerator(PeptideShakerGUI peptideShakerGUI) {
         this.peptideShakerGUI = peptideShakerGUI;
+        featuresPrecomputer = new IdentificationFeaturesPrecomputer(this, peptideShakerGUI);
     }
 
     /**
@@ -157,6 +168,94 @@ public class IdentificationFeaturesGenerator {
         }
     }
 
+    /**
+     * Returns the positions of the peptides of the protein of interest on the
+     * sequence of its main match.
+     *
+     * @param proteinMatchKey the key of the protein of interest
+     * @return the positions of the peptides
+     * @throws IOException
+     * @throws IllegalArgumentException
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public PeptidePositions getPeptidePositions(String proteinMatchKey) throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException {
+        PeptidePositions result = (PeptidePositions) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.peptide_positions, proteinMatchKey);
+        if (result == null) {
+            result = estimatePeptidePositions(proteinMatchKey);
+            identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.peptide_positions, proteinMatchKey, result);
+        }
+        return result;
+    }
+
+    /**
+     * Locates the peptides of the given protein match on the sequence of its
+     * main match.
+     *
+     * @param proteinMatchKey the key of the protein match
+     * @return the positions of the peptides
+     * @throws IOException
+     * @throws IllegalArgumentException
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    private PeptidePositions estimatePeptidePositions(String proteinMatchKey) throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException {
+        ProteinMatch proteinMatch = peptideShakerGUI.getIdentification().getProteinMatch(proteinMatchKey);
+        String sequence = sequenceFactory.getProtein(proteinMatch.getMainMatch()).getSequence();
+        ArrayList<String> peptideSequences = new ArrayList<String>();
+        for (String peptideKey : proteinMatch.getPeptideMatches()) {
+            peptideSequences.add(Peptide.getSequence(peptideKey));
+        }
+        return new PeptidePositions(sequence, peptideSequences);
+    }
+
+    /**
+     * Returns the index of the peptide occurrences in the protein groups. The
+     * index is built on the first call, it is built up front with a progress
+     * dialog by getProcessedProteinKeys when NSAF is selected. An index
+     * canceled while building is not kept.
+     *
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * while building the index, can be null
+     * @return the index of the peptide occurrences
+     * @throws IOException
+     * @throws IllegalArgumentException
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public synchronized PeptideOccurrenceIndex getPeptideOccurrenceIndex(WaitingHandler waitingHandler) throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException {
+        if (peptideOccurrenceIndex == null) {
+            PeptideOccurrenceIndex index = new PeptideOccurrenceIndex(peptideShakerGUI.getIdentification(), sequenceFactory, waitingHandler);
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return index;
+            }
+            peptideOccurrenceIndex = index;
+        }
+        return peptideOccurrenceIndex;
+    }
+
+    /**
+     * Returns the index of the peptide occurrences in the protein groups if
+     * needed by the given spectrum counting method, null otherwise.
+     *
+     * @param method the spectrum counting method
+     * @return the index of the peptide occurrences if needed
+     * @throws IOException
+     * @throws IllegalArgumentException
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    private PeptideOccurrenceIndex getPeptideOccurrenceIndex(SpectralCountingMethod method) throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException {
+        if (method == SpectralCountingMethod.NSAF) {
+            return getPeptideOccurrenceIndex((WaitingHandler) null);
+        }
+        return null;
+    }
+
     /**
      * Returns the sequence coverage of the protein of interest.
      *
@@ -185,6 +284,12 @@ public class IdentificationFeaturesGenerator {
      */
     public void updateSequenceCoverage(String proteinMatchKey) {
         try {
+            identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.peptide_positions, proteinMatchKey, estimatePeptidePositions(proteinMatchKey));
+            synchronized (this) {
+                if (peptideOccurrenceIndex != null) {
+                    peptideOccurrenceIndex.updateGroup(peptideShakerGUI.getIdentification(), sequenceFactory, proteinMatchKey);
+                }
+            }
             Double result = estimateSequenceCoverage(proteinMatchKey);
             identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.sequence_coverage, proteinMatchKey, result);
         } catch (Exception e) {
@@ -202,37 +307,17 @@ public class IdentificationFeaturesGenerator {
         try {
             Identification identification = peptideShakerGUI.getIdentification();
             ProteinMatch proteinMatch = identification.getProteinMatch(proteinMatchKey);
-            String sequence = sequenceFactory.getProtein(proteinMatch.getMainMatch()).getSequence();
-            // an array containing the coverage index for each residue
-            int[] coverage = new int[sequence.length() + 1];
-            int peptideTempStart, peptideTempEnd;
-            String tempSequence, peptideSequence;
+            ArrayList<String> validatedSequences = new ArrayList<String>();
             PSParameter pSParameter = new PSParameter();
 
-            // iterate the peptide table and store the coverage for each peptide
             for (String peptideKey : proteinMatch.getPeptideMatches()) {
                 pSParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, pSParameter);
                 if (pSParameter.isValidated()) {
-                    tempSequence = sequence;
-                    peptideSequence = Peptide.getSequence(peptideKey);
-                    while (tempSequence.lastIndexOf(peptideSequence) >= 0) {
-                        peptideTempStart = tempSequence.lastIndexOf(peptideSequence) + 1;
-                        peptideTempEnd = peptideTempStart + peptideSequence.length();
-                        for (int j = peptideTempStart; j < peptideTempEnd; j++) {
-                            coverage[j] = 1;
-                        }
-                        tempSequence = sequence.substring(0, peptideTempStart);
-                    }
+                    validatedSequences.add(Peptide.getSequence(peptideKey));
                 }
             }
 
-            double covered = 0.0;
-
-            for (int aa : coverage) {
-                covered += aa;
-            }
-
-            return covered / ((double) sequence.length());
+            return getPeptidePositions(proteinMatchKey).getSequenceCoverage(validatedSequences);
         } catch (Exception e) {
             peptideShakerGUI.catchException(e);
             return 0;
@@ -272,7 +357,7 @@ public class IdentificationFeaturesGenerator {
                 SpectrumCountingPreferences tempPreferences = new SpectrumCountingPreferences();
                 tempPreferences.setSelectedMethod(method);
                 return estimateSpectrumCounting(peptideShakerGUI.getIdentification(), sequenceFactory, proteinMatchKey, tempPreferences,
-                        peptideShakerGUI.getSearchParameters().getEnzyme(), peptideShakerGUI.getIdFilter().getMaxPepLength());
+                        peptideShakerGUI.getSearchParameters().getEnzyme(), peptideShakerGUI.getIdFilter().getMaxPepLength(), getPeptideOccurrenceIndex(method));
             }
         } catch (Exception e) {
             peptideShakerGUI.catchException(e);
@@ -290,7 +375,7 @@ public class IdentificationFeaturesGenerator {
         try {
             return estimateSpectrumCounting(peptideShakerGUI.getIdentification(), sequenceFactory, proteinMatchKey,
                     peptideShakerGUI.getSpectrumCountingPreferences(), peptideShakerGUI.getSearchParameters().getEnzyme(),
-                    peptideShakerGUI.getIdFilter().getMaxPepLength());
+                    peptideShakerGUI.getIdFilter().getMaxPepLength(), getPeptideOccurrenceIndex(peptideShakerGUI.getSpectrumCountingPreferences().getSelectedMethod()));
         } catch (Exception e) {
             peptideShakerGUI.catchException(e);
             return 0.0;
@@ -315,6 +400,32 @@ public class IdentificationFeaturesGenerator {
      */
     public static Double estimateSpectrumCounting(Identification identification, SequenceFactory sequenceFactory, String proteinMatchKey,
             SpectrumCountingPreferences spectrumCountingPreferences, Enzyme enzyme, int maxPepLength) throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException {
+        return estimateSpectrumCounting(identification, sequenceFactory, proteinMatchKey, spectrumCountingPreferences, enzyme, maxPepLength, null);
+    }
+
+    /**
+     * Returns the spectrum counting index based on the project settings. If a
+     * peptide occurrence index is given, the NSAF is estimated using the
+     * index.
+     *
+     * @param identification the identification
+     * @param sequenceFactory the sequence factory
+     * @param proteinMatchKey the protein match key
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param enzyme the enzyme used
+     * @param maxPepLength the maximal length accepted for a peptide
+     * @param peptideOccurrenceIndex the index of the peptide occurrences in
+     * the protein groups, can be null
+     * @return the spectrum counting index
+     * @throws IOException
+     * @throws IllegalArgumentException
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public static Double estimateSpectrumCounting(Identification identification, SequenceFactory sequenceFactory, String proteinMatchKey,
+            SpectrumCountingPreferences spectrumCountingPreferences, Enzyme enzyme, int maxPepLength, PeptideOccurrenceIndex peptideOccurrenceIndex)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException {
 
         PSParameter pSParameter = new PSParameter();
         ProteinMatch testMatch, proteinMatch = identification.getProteinMatch(proteinMatchKey);
@@ -323,11 +434,15 @@ public class IdentificationFeaturesGenerator {
 
             // NSAF
 
+            if (peptideOccurrenceIndex != null) {
+                return peptideOccurrenceIndex.getNsaf(identification, sequenceFactory, proteinMatchKey, spectrumCountingPreferences, enzyme, maxPepLength);
+            }
+
             double result = 0;
-            int peptideOccurrence = 0;
 
             for (String peptideKey : proteinMatch.getPeptideMatches()) {
 
+                int peptideOccurrence = 0;
                 PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
                 ArrayList<String> possibleProteinMatches = new ArrayList<String>();
 
@@ -1197,6 +1312,15 @@ public class IdentificationFeaturesGenerator {
      */
     public ArrayList<String> getProcessedProteinKeys(ProgressDialogX progressDialog) {
         try {
+            // build the index needed by NSAF while the progress is displayed, also when the protein list was loaded with the project
+            if (progressDialog != null
+                    && peptideShakerGUI.getSpectrumCountingPreferences().getSelectedMethod() == SpectralCountingMethod.NSAF) {
+                String title = progressDialog.getTitle();
+                progressDialog.setTitle("Indexing Peptides. Please Wait...");
+                getPeptideOccurrenceIndex(progressDialog);
+                progressDialog.setTitle(title);
+            }
+
             if (identificationFeaturesCache.getProteinList() == null) {
                 if (progressDialog != null) {
                     progressDialog.setIndeterminate(false);
@@ -1213,80 +1337,62 @@ public class IdentificationFeaturesGenerator {
                         || (peptideShakerGUI.getMetrics().getMaxMW() == null)
                         || (peptideShakerGUI.getMetrics().getMaxMW() <= 0);
 
-                // sort the proteins according to the protein score, then number of peptides (inverted), then number of spectra (inverted).
-                HashMap<Double, HashMap<Integer, HashMap<Integer, ArrayList<String>>>> orderMap =
-                        new HashMap<Double, HashMap<Integer, HashMap<Integer, ArrayList<String>>>>();
-                ArrayList<Double> scores = new ArrayList<Double>();
-                PSParameter probabilities = new PSParameter();
-                int maxPeptides = 0, maxSpectra = 0;
-                double maxSpectrumCounting = 0, maxMW = 0;
-                Protein currentProtein = null;
-                int nValidatedProteins = 0;
+                Identification identification = peptideShakerGUI.getIdentification();
 
-                for (String proteinKey : peptideShakerGUI.getIdentification().getProteinIdentification()) {
+                if (progressDialog != null) {
+                    identification.loadProteinMatches(progressDialog);
+                    identification.loadProteinMatchParameters(new PSParameter(), progressDialog);
+                }
 
+                ArrayList<String> keys = new ArrayList<String>(identification.getProteinIdentification().size());
+                for (String proteinKey : identification.getProteinIdentification()) {
                     if (!SequenceFactory.isDecoy(proteinKey)) {
-                        probabilities = (PSParameter) peptideShakerGUI.getIdentification().getProteinMatchParameter(proteinKey, probabilities);
-                        if (!probabilities.isHidden()) {
-                            ProteinMatch proteinMatch = peptideShakerGUI.getIdentification().getProteinMatch(proteinKey);
-                            double score = probabilities.getProteinProbabilityScore();
-                            int nPeptides = -proteinMatch.getPeptideMatches().size();
-                            int nSpectra = -peptideShakerGUI.getIdentificationFeaturesGenerator().getNSpectra(proteinKey);
-
-                            if (needMaxValues) {
-
-                                if (-nPeptides > maxPeptides) {
-                                    maxPeptides = -nPeptides;
-                                }
-
-                                if (-nSpectra > maxSpectra) {
-                                    maxSpectra = -nSpectra;
-                                }
-
-                                double tempSpectrumCounting = estimateSpectrumCounting(proteinKey);
-
-                                if (tempSpectrumCounting > maxSpectrumCounting) {
-                                    maxSpectrumCounting = tempSpectrumCounting;
-                                }
-
-                                try {
-                                    currentProtein = sequenceFactory.getProtein(proteinMatch.getMainMatch());
-                                } catch (Exception e) {
-                                    peptideShakerGUI.catchException(e);
-                                }
+                        keys.add(proteinKey);
+                    }
+                }
 
-                                if (currentProtein != null) {
-                                    double mw = sequenceFactory.computeMolecularWeight(proteinMatch.getMainMatch());
-                                    if (mw > maxMW) {
-                                        maxMW = mw;
-                                    }
-                                }
+                if (progressDialog != null) {
+                    progressDialog.setIndeterminate(false);
+                    progressDialog.setMaxProgressValue(keys.size());
+                    progressDialog.setValue(0);
+                }
 
-                                if (probabilities.isValidated()) {
-                                    nValidatedProteins++;
-                                }
-                            }
+                // estimate the NSAF of all proteins in a single pass
+                HashMap<String, Double> spectrumCounting = null;
+                if (needMaxValues && peptideShakerGUI.getSpectrumCountingPreferences().getSelectedMethod() == SpectralCountingMethod.NSAF) {
+                    spectrumCounting = getPeptideOccurrenceIndex(progressDialog).getNsaf(identification, sequenceFactory, keys,
+                            peptideShakerGUI.getSpectrumCountingPreferences(), peptideShakerGUI.getSearchParameters().getEnzyme(),
+                            peptideShakerGUI.getIdFilter().getMaxPepLength(), progressDialog);
+                }
 
-                            if (!orderMap.containsKey(score)) {
-                                orderMap.put(score, new HashMap<Integer, HashMap<Integer, ArrayList<String>>>());
-                                scores.add(score);
-                            }
+                // fill the sort records of the proteins from the loaded matches, the records of protein i are found at index i
+                ProteinRecords records = new ProteinRecords(keys, needMaxValues, spectrumCounting);
+                for (int i = 0; i < keys.size(); i++) {
+                    fillRecords(records, i);
+                    if (progressDialog != null) {
+                        progressDialog.increaseProgressValue();
+                    }
+                }
 
-                            if (!orderMap.get(score).containsKey(nPeptides)) {
-                                orderMap.get(score).put(nPeptides, new HashMap<Integer, ArrayList<String>>());
-                            }
+                // sort the proteins according to the protein score, then number of peptides (inverted), then number of spectra (inverted), then key.
+                ArrayList<Integer> order = new ArrayList<Integer>(keys.size());
+                int maxPeptides = 0, maxSpectra = 0;
+                double maxSpectrumCounting = 0, maxMW = 0;
+                int nValidatedProteins = 0;
 
-                            if (!orderMap.get(score).get(nPeptides).containsKey(nSpectra)) {
-                                orderMap.get(score).get(nPeptides).put(nSpectra, new ArrayList<String>());
+                for (int i = 0; i < keys.size(); i++) {
+                    if (!records.hidden[i]) {
+                        order.add(i);
+                        if (needMaxValues) {
+                            maxPeptides = Math.max(maxPeptides, -records.nPeptides[i]);
+                            maxSpectra = Math.max(maxSpectra, -records.nSpectra[i]);
+                            maxSpectrumCounting = Math.max(maxSpectrumCounting, records.spectrumCounting[i]);
+                            maxMW = Math.max(maxMW, records.molecularWeights[i]);
+                            if (records.validated[i]) {
+                                nValidatedProteins++;
                             }
-
-                            orderMap.get(score).get(nPeptides).get(nSpectra).add(proteinKey);
                         }
                     }
-
-                    if (progressDialog != null) {
-                        progressDialog.increaseProgressValue();
-                    }
                 }
 
                 if (needMaxValues) {
@@ -1297,37 +1403,16 @@ public class IdentificationFeaturesGenerator {
                     peptideShakerGUI.getMetrics().setnValidatedProteins(nValidatedProteins);
                 }
 
-                ArrayList<String> proteinList = new ArrayList<String>();
-
-                ArrayList<Double> scoreList = new ArrayList<Double>(orderMap.keySet());
-                Collections.sort(scoreList);
-
                 if (progressDialog != null) {
-                    progressDialog.setIndeterminate(false);
+                    progressDialog.setIndeterminate(true);
                     progressDialog.setTitle("Updating Protein Table. Please Wait...");
-                    progressDialog.setMaxProgressValue(peptideShakerGUI.getIdentification().getProteinIdentification().size());
-                    progressDialog.setValue(0);
                 }
 
-                for (double currentScore : scoreList) {
-
-                    ArrayList<Integer> nPeptideList = new ArrayList<Integer>(orderMap.get(currentScore).keySet());
-                    Collections.sort(nPeptideList);
+                Collections.sort(order, records);
 
-                    for (int currentNPeptides : nPeptideList) {
-
-                        ArrayList<Integer> nPsmList = new ArrayList<Integer>(orderMap.get(currentScore).get(currentNPeptides).keySet());
-                        Collections.sort(nPsmList);
-
-                        for (int currentNPsms : nPsmList) {
-                            ArrayList<String> tempList = orderMap.get(currentScore).get(currentNPeptides).get(currentNPsms);
-                            Collections.sort(tempList);
-                            proteinList.addAll(tempList);
-                            if (progressDialog != null) {
-                                progressDialog.increaseProgressValue(tempList.size());
-                            }
-                        }
-                    }
+                ArrayList<String> proteinList = new ArrayList<String>(order.size());
+                for (int i : order) {
+                    proteinList.add(keys.get(i));
                 }
 
                 identificationFeaturesCache.setProteinList(proteinList);
@@ -1365,6 +1450,138 @@ public class IdentificationFeaturesGenerator {
         return identificationFeaturesCache.getProteinListAfterHiding();
     }
 
+    /**
+     * The attributes of the proteins used to sort the protein list, stored in
+     * primitive arrays indexed by protein. Compares protein indexes by score,
+     * then inverted number of peptides, then inverted number of spectra, then
+     * key.
+     */
+    private static class ProteinRecords implements Comparator<Integer> {
+
+        /**
+         * The keys of the proteins.
+         */
+        private final ArrayList<String> keys;
+        /**
+         * Indicates whether the maximal values of the metrics are needed.
+         */
+        private final boolean needMaxValues;
+        /**
+         * The protein probability score of every protein.
+         */
+        private final double[] scores;
+        /**
+         * The inverted number of peptides of every protein.
+         */
+        private final int[] nPeptides;
+        /**
+         * The inverted number of spectra of every protein.
+         */
+        private final int[] nSpectra;
+        /**
+         * The spectrum counting of every protein, only if needMaxValues.
+         */
+        private final double[] spectrumCounting;
+        /**
+         * The molecular weight of every protein, only if needMaxValues.
+         */
+        private final double[] molecularWeights;
+        /**
+         * Indicates whether every protein is hidden.
+         */
+        private final boolean[] hidden;
+        /**
+         * Indicates whether every protein is validated.
+         */
+        private final boolean[] validated;
+        /**
+         * The spectrum counting values already estimated indexed by protein
+         * key, can be null.
+         */
+        private final HashMap<String, Double> estimatedSpectrumCounting;
+
+        /**
+         * Constructor.
+         *
+         * @param keys the keys of the proteins
+         * @param needMaxValues indicates whether the maximal values of the
+         * metrics are needed
+         * @param estimatedSpectrumCounting the spectrum counting values
+         * already estimated indexed by protein key, can be null
+         */
+        private ProteinRecords(ArrayList<String> keys, boolean needMaxValues, HashMap<String, Double> estimatedSpectrumCounting) {
+            this.keys = keys;
+            this.needMaxValues = needMaxValues;
+            this.estimatedSpectrumCounting = estimatedSpectrumCounting;
+            scores = new double[keys.size()];
+            nPeptides = new int[keys.size()];
+            nSpectra = new int[keys.size()];
+            spectrumCounting = new double[keys.size()];
+            molecularWeights = new double[keys.size()];
+            hidden = new boolean[keys.size()];
+            validated = new boolean[keys.size()];
+        }
+
+        public int compare(Integer o1, Integer o2) {
+            int result = Double.compare(scores[o1], scores[o2]);
+            if (result != 0) {
+                return result;
+            }
+            if (nPeptides[o1] != nPeptides[o2]) {
+                return nPeptides[o1] < nPeptides[o2] ? -1 : 1;
+            }
+            if (nSpectra[o1] != nSpectra[o2]) {
+                return nSpectra[o1] < nSpectra[o2] ? -1 : 1;
+            }
+            return keys.get(o1).compareTo(keys.get(o2));
+        }
+    }
+
+    /**
+     * Fills the sort records of a protein. The identification and the
+     * sequence factory are read on the calling thread only.
+     *
+     * @param records the records to fill
+     * @param i the index of the protein
+     * @throws Exception exception thrown whenever an error occurred while
+     * reading the identification
+     */
+    private void fillRecords(ProteinRecords records, int i) throws Exception {
+
+        Identification identification = peptideShakerGUI.getIdentification();
+        String proteinKey = records.keys.get(i);
+        PSParameter probabilities = (PSParameter) identification.getProteinMatchParameter(proteinKey, new PSParameter());
+        records.hidden[i] = probabilities.isHidden();
+
+        if (!records.hidden[i]) {
+            ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
+            records.scores[i] = probabilities.getProteinProbabilityScore();
+            records.nPeptides[i] = -proteinMatch.getPeptideMatches().size();
+            records.nSpectra[i] = -getNSpectra(proteinKey);
+            records.validated[i] = probabilities.isValidated();
+
+            if (records.needMaxValues) {
+                Double spectrumCounting = null;
+                if (records.estimatedSpectrumCounting != null) {
+                    spectrumCounting = records.estimatedSpectrumCounting.get(proteinKey);
+                }
+                if (spectrumCounting == null) {
+                    spectrumCounting = estimateSpectrumCounting(proteinKey);
+                }
+                records.spectrumCounting[i] = spectrumCounting;
+                Protein currentProtein = null;
+                try {
+                    currentProtein = sequenceFactory.getProtein(proteinMatch.getMainMatch());
+                } catch (Exception e) {
+                    peptideShakerGUI.catchException(e);
+                }
+                if (currentProtein != null) {
+                    records.molecularWeights[i] = sequenceFactory.computeMolecularWeight(proteinMatch.getMainMatch());
+                }
+            }
+        }
+    }
+
     /**
      * Returns the ordered protein keys to display when no filtering is applied.
      *
@@ -1380,7 +1597,7 @@ public class IdentificationFeaturesGenerator {
 
     /**
      * Repopulates the cache with the details of nProteins proteins first
-     * proteins
+     * proteins.
      *
      * @param nProteins the number of proteins to load in the cache
      * @param waitingHandler a waiting handler displaying progress to the user.
@@ -1388,55 +1605,41 @@ public class IdentificationFeaturesGenerator {
      */
     public void repopulateCache(int nProteins, WaitingHandler waitingHandler) {
 
-        //long start = System.currentTimeMillis();
-
-        try {
-            if (waitingHandler != null) {
-                waitingHandler.setSecondaryProgressDialogIndeterminate(false);
-                waitingHandler.setMaxSecondaryProgressValue(2 * nProteins);
-                waitingHandler.setSecondaryProgressValue(0);
-            }
-
-            for (int i = 0; i < nProteins; i++) {
-
-                String proteinKey = identificationFeaturesCache.getProteinList().get(i);
-                ProteinMatch proteinMatch = peptideShakerGUI.getIdentification().getProteinMatch(proteinKey);
-
-                if (proteinMatch == null) {
-                    throw new IllegalArgumentException("Protein match " + proteinKey + " not found.");
-                }
-
-                getSequenceCoverage(proteinKey);
-                getObservableCoverage(proteinKey);
-
-                if (waitingHandler != null) {
-                    waitingHandler.increaseSecondaryProgressValue();
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
-                    }
-                }
-
-                getNValidatedPeptides(proteinKey);
-                getNValidatedSpectra(proteinKey);
-                getSpectrumCounting(proteinKey);
+        ArrayList<String> proteinKeys = identificationFeaturesCache.getProteinList();
+        featuresPrecomputer.precompute(proteinKeys.subList(0, Math.min(nProteins, proteinKeys.size())), waitingHandler);
+    }
 
-                if (waitingHandler != null) {
-                    waitingHandler.increaseSecondaryProgressValue();
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
-                    }
-                }
+    /**
+     * Starts the computation of the features of the given proteins in the
+     * background. The proteins not processed yet are reported as pending by
+     * isPending.
+     *
+     * @param proteinKeys the keys of the proteins in display order
+     * @param updateListener runnable executed on the event dispatch thread
+     * every time a batch of features is available, can be null
+     */
+    public void startFeaturesPrecomputation(ArrayList<String> proteinKeys, Runnable updateListener) {
+        featuresPrecomputer.start(proteinKeys, updateListener);
+    }
 
-                if (!peptideShakerGUI.getCache().memoryCheck()) {
-                    break;
-                }
-            }
-        } catch (Exception e) {
-            peptideShakerGUI.catchException(e);
-        }
+    /**
+     * Cancels the background computation of the features if running.
+     */
+    public void cancelFeaturesPrecomputation() {
+        featuresPrecomputer.cancel();
+    }
 
-        //long end = System.currentTimeMillis();  
-        //System.out.println("loading proteins total: " + (end-start));
+    /**
+     * Indicates whether the features of the given protein are waiting for the
+     * background computation. The tables can then display a placeholder
+     * instead of computing the features on the event dispatch thread.
+     *
+     * @param proteinKey the key of the protein match
+     * @return true if the features of the protein are waiting for the
+     * background computation
+     */
+    public boolean isPending(String proteinKey) {
+        return featuresPrecomputer.isPending(proteinKey);
     }
 
     /**
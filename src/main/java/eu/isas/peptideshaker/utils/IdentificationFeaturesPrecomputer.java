@@ -0,0 +1,258 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.gui.waiting.WaitingHandler;
+import eu.isas.peptideshaker.gui.PeptideShakerGUI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
+
+/**
+ * Computes the features of proteins ahead of display and publishes them in
+ * the identification features cache. The proteins are processed by batches in
+ * display order, the proteins not processed yet are marked as pending so that
+ * the tables can display a placeholder instead of waiting for the database.
+ *
+ * The identification is not thread safe and is read by the tables on the
+ * event dispatch thread. A background precomputation therefore only paces the
+ * work: the features of every protein are computed on the event dispatch
+ * thread, one protein at a time so that the user interface stays responsive.
+ *
+ * @author Marc Vaudel
+ */
+public class IdentificationFeaturesPrecomputer {
+
+    /**
+     * The number of proteins processed between two updates of the display.
+     */
+    private static final int BATCH_SIZE = 100;
+    /**
+     * The identification features generator publishing the features in cache.
+     */
+    private IdentificationFeaturesGenerator identificationFeaturesGenerator;
+    /**
+     * Instance of the main GUI class.
+     */
+    private PeptideShakerGUI peptideShakerGUI;
+    /**
+     * The keys of the proteins waiting for precomputation.
+     */
+    private final Set<String> pendingProteins = Collections.synchronizedSet(new HashSet<String>());
+    /**
+     * The cancel flag of the running precomputation, null if none.
+     */
+    private AtomicBoolean runningPrecomputation = null;
+
+    /**
+     * Constructor.
+     *
+     * @param identificationFeaturesGenerator the identification features
+     * generator publishing the features in cache
+     * @param peptideShakerGUI instance of the main GUI class
+     */
+    public IdentificationFeaturesPrecomputer(IdentificationFeaturesGenerator identificationFeaturesGenerator, PeptideShakerGUI peptideShakerGUI) {
+        this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+        this.peptideShakerGUI = peptideShakerGUI;
+    }
+
+    /**
+     * Starts the precomputation of the features of the given proteins in the
+     * background, canceling any running precomputation. The number of proteins
+     * is limited to the size of the cache.
+     *
+     * @param proteinKeys the keys of the proteins in display order
+     * @param updateListener runnable executed on the event dispatch thread
+     * every time a batch of features is published, can be null
+     */
+    public synchronized void start(ArrayList<String> proteinKeys, final Runnable updateListener) {
+
+        cancel();
+
+        int nProteins = Math.min(proteinKeys.size(), identificationFeaturesGenerator.getIdentificationFeaturesCache().getSmallObjectsCacheSize());
+        final List<String> keys = new ArrayList<String>(proteinKeys.subList(0, nProteins));
+        final AtomicBoolean canceled = new AtomicBoolean(false);
+        runningPrecomputation = canceled;
+        pendingProteins.addAll(keys);
+
+        Thread precomputationThread = new Thread("FeaturesPrecomputation") {
+
+            @Override
+            public void run() {
+                try {
+                    precompute(keys, null, updateListener, canceled, true);
+                } finally {
+                    finished(canceled);
+                }
+            }
+        };
+        precomputationThread.setPriority(Thread.MIN_PRIORITY);
+        precomputationThread.start();
+    }
+
+    /**
+     * Cancels the running precomputation if any. The proteins not processed
+     * are no longer marked as pending.
+     */
+    public synchronized void cancel() {
+        if (runningPrecomputation != null) {
+            runningPrecomputation.set(true);
+            runningPrecomputation = null;
+        }
+        pendingProteins.clear();
+    }
+
+    /**
+     * Indicates whether the features of the given protein are waiting for
+     * precomputation.
+     *
+     * @param proteinKey the key of the protein match
+     * @return true if the features of the protein are waiting for
+     * precomputation
+     */
+    public boolean isPending(String proteinKey) {
+        return pendingProteins.contains(proteinKey);
+    }
+
+    /**
+     * Computes the features of the given proteins on the calling thread, like
+     * the other tasks run behind a progress dialog.
+     *
+     * @param proteinKeys the keys of the proteins in display order
+     * @param waitingHandler a waiting handler displaying progress to the user.
+     * can be null. The progress will be displayed as secondary progress.
+     */
+    public void precompute(List<String> proteinKeys, WaitingHandler waitingHandler) {
+        precompute(proteinKeys, waitingHandler, null, new AtomicBoolean(false), false);
+    }
+
+    /**
+     * Computes the features of the given proteins in display order. The
+     * precomputation stops at the first error.
+     *
+     * @param proteinKeys the keys of the proteins in display order
+     * @param waitingHandler a waiting handler displaying progress to the user,
+     * can be null
+     * @param updateListener runnable executed on the event dispatch thread
+     * every time a batch is published, can be null
+     * @param canceled the cancel flag of this precomputation
+     * @param onEventDispatchThread if true the features of every protein are
+     * computed on the event dispatch thread, otherwise on the calling thread
+     */
+    private void precompute(List<String> proteinKeys, WaitingHandler waitingHandler, Runnable updateListener, AtomicBoolean canceled, boolean onEventDispatchThread) {
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressDialogIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressValue(proteinKeys.size());
+            waitingHandler.setSecondaryProgressValue(0);
+        }
+
+        try {
+            for (int start = 0; start < proteinKeys.size(); start += BATCH_SIZE) {
+
+                if (isCanceled(canceled, waitingHandler) || !peptideShakerGUI.getCache().memoryCheck()) {
+                    return;
+                }
+
+                List<String> batch = proteinKeys.subList(start, Math.min(start + BATCH_SIZE, proteinKeys.size()));
+
+                for (String proteinKey : batch) {
+                    if (isCanceled(canceled, waitingHandler)) {
+                        return;
+                    }
+                    if (onEventDispatchThread) {
+                        computeFeaturesOnEventDispatchThread(proteinKey, canceled);
+                    } else {
+                        computeFeatures(proteinKey);
+                    }
+                    pendingProteins.remove(proteinKey);
+                }
+
+                if (waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressValue(batch.size());
+                }
+                if (updateListener != null) {
+                    SwingUtilities.invokeLater(updateListener);
+                }
+            }
+        } catch (Exception e) {
+            peptideShakerGUI.catchException(e);
+        }
+    }
+
+    /**
+     * Computes the features of a protein, the features are stored in cache by
+     * the identification features generator. The number of validated spectra
+     * of the peptides is not precomputed as peptides and proteins share the
+     * same cache entries for this feature.
+     *
+     * @param proteinKey the key of the protein match
+     * @throws Exception exception thrown whenever an error occurred while
+     * computing a feature
+     */
+    private void computeFeatures(String proteinKey) throws Exception {
+        identificationFeaturesGenerator.getSequenceCoverage(proteinKey);
+        identificationFeaturesGenerator.getObservableCoverage(proteinKey);
+        identificationFeaturesGenerator.getNValidatedPeptides(proteinKey);
+        identificationFeaturesGenerator.getNSpectra(proteinKey);
+        identificationFeaturesGenerator.getNValidatedSpectra(proteinKey);
+        identificationFeaturesGenerator.getSpectrumCounting(proteinKey);
+    }
+
+    /**
+     * Computes the features of a protein on the event dispatch thread and
+     * waits for the result. Nothing is computed if the precomputation was
+     * canceled in the meantime, for example when the project was closed.
+     *
+     * @param proteinKey the key of the protein match
+     * @param canceled the cancel flag of the precomputation
+     * @throws Exception exception thrown whenever an error occurred while
+     * computing a feature
+     */
+    private void computeFeaturesOnEventDispatchThread(final String proteinKey, final AtomicBoolean canceled) throws Exception {
+
+        final Exception[] exception = new Exception[1];
+
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                try {
+                    if (!canceled.get()) {
+                        computeFeatures(proteinKey);
+                    }
+                } catch (Exception e) {
+                    exception[0] = e;
+                }
+            }
+        });
+
+        if (exception[0] != null) {
+            throw exception[0];
+        }
+    }
+
+    /**
+     * Indicates whether a precomputation was canceled.
+     *
+     * @param canceled the cancel flag of the precomputation
+     * @param waitingHandler the waiting handler, can be null
+     * @return true if the precomputation was canceled
+     */
+    private boolean isCanceled(AtomicBoolean canceled, WaitingHandler waitingHandler) {
+        return canceled.get() || waitingHandler != null && waitingHandler.isRunCanceled();
+    }
+
+    /**
+     * Clears the pending proteins when the given precomputation is finished,
+     * unless another precomputation was started in the meantime.
+     *
+     * @param canceled the cancel flag of the finished precomputation
+     */
+    private synchronized void finished(AtomicBoolean canceled) {
+        if (runningPrecomputation == canceled) {
+            runningPrecomputation = null;
+            pendingProteins.clear();
+        }
+    }
+}
@@ -67,9 +67,15 @@ public class Metrics implements Serializable {
     private ArrayList<String> foundModifications = null;
     /**
      * The psm matches for each fraction for each peptide. Key: 'fraction
-     * name'_'peptide key'. Values: arraylist of spectrum keys.
+     * name'_'peptide key'. Values: arraylist of spectrum keys. Replaced by the
+     * fraction index, kept for backward compatibility.
      */
     private HashMap<String, ArrayList<String>> fractionPsmMatches;
+    /**
+     * The spectra of every peptide per fraction with their precursor
+     * intensities.
+     */
+    private FractionIndex fractionIndex;
     /**
      * The observed average molecular masses in kDa for each fraction.
      */
@@ -325,16 +331,19 @@ public class Metrics implements Serializable {
      * Set the fraction psm matches. Key: 'fraction name'_'peptide key'. Values:
      * arraylist of spectrum keys.
      *
+     * @deprecated use setFractionIndex instead
      * @param fractionPsmMatches the fraction psm matches
      */
     public void setFractionPsmMatches(HashMap<String, ArrayList<String>> fractionPsmMatches) {
         this.fractionPsmMatches = fractionPsmMatches;
+        fractionIndex = null;
     }
 
     /**
      * Returns the list of fraction psm matches. Key: 'fraction name'_'peptide
      * key'. Values: arraylist of spectrum keys.
      *
+     * @deprecated use getFractionIndex instead
      * @return he list of fraction psm matches
      */
     public HashMap<String, ArrayList<String>> getFractionPsmMatches() {
@@ -345,6 +354,35 @@ public class Metrics implements Serializable {
         }
     }
 
+    /**
+     * Sets the index of the spectra of every peptide per fraction.
+     *
+     * @param fractionIndex the fraction index
+     */
+    public void setFractionIndex(FractionIndex fractionIndex) {
+        this.fractionIndex = fractionIndex;
+        fractionPsmMatches = null;
+    }
+
+    /**
+     * Returns the index of the spectra of every peptide per fraction. For
+     * projects from former versions the index is built from the fraction psm
+     * matches, without precursor intensities.
+     *
+     * @return the fraction index
+     */
+    public FractionIndex getFractionIndex() {
+        if (fractionIndex == null) {
+            if (fractionPsmMatches != null) {
+                fractionIndex = FractionIndex.fromFractionPsmMatches(fractionPsmMatches);
+                fractionPsmMatches = null;
+            } else {
+                fractionIndex = new FractionIndex();
+            }
+        }
+        return fractionIndex;
+    }
+
     /**
      * Returns the observed average molecular masses in kDa for each fraction. The key 
      * is the file path of the fraction.
@@ -0,0 +1,331 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.experiment.biology.Enzyme;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.SequenceFactory;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.gui.waiting.WaitingHandler;
+import eu.isas.peptideshaker.myparameters.PSParameter;
+import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * Index of the number of occurrences of every peptide in the protein groups
+ * containing it, built in a single pass over the protein matches after protein
+ * inference. The occurrences of a peptide in a group are counted on the
+ * sequence of the main match of the group. The index allows the estimation of
+ * the NSAF of all proteins without searching the protein groups of every
+ * peptide.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideOccurrenceIndex {
+
+    /**
+     * The total number of occurrences of every peptide in the protein groups
+     * indexed by peptide key.
+     */
+    private HashMap<String, Integer> peptideOccurrences = new HashMap<String, Integer>();
+    /**
+     * The number of occurrences of the peptides of every protein group in the
+     * order of ProteinMatch.getPeptideMatches() indexed by protein key.
+     */
+    private HashMap<String, int[]> groupOccurrences = new HashMap<String, int[]>();
+
+    /**
+     * Constructor. Indexes all protein groups of the given identification.
+     *
+     * @param identification the identification
+     * @param sequenceFactory the sequence factory
+     * @param waitingHandler a waiting handler displaying progress to the user,
+     * can be null. The progress will be displayed as secondary progress.
+     * @throws IOException
+     * @throws IllegalArgumentException
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public PeptideOccurrenceIndex(Identification identification, SequenceFactory sequenceFactory, WaitingHandler waitingHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException {
+
+        if (waitingHandler != null) {
+            identification.loadProteinMatches(waitingHandler);
+            waitingHandler.setSecondaryProgressDialogIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressValue(identification.getProteinIdentification().size());
+            waitingHandler.setSecondaryProgressValue(0);
+        }
+
+        for (String proteinKey : identification.getProteinIdentification()) {
+
+            addGroup(proteinKey, identification.getProteinMatch(proteinKey), sequenceFactory);
+
+            if (waitingHandler != null) {
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
+                waitingHandler.increaseSecondaryProgressValue();
+            }
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressDialogIndeterminate(true);
+        }
+    }
+
+    /**
+     * Returns the total number of occurrences of a peptide in the protein
+     * groups containing it.
+     *
+     * @param peptideKey the key of the peptide match
+     * @return the number of occurrences of the peptide
+     */
+    public synchronized int getNOccurrences(String peptideKey) {
+        Integer occurrences = peptideOccurrences.get(peptideKey);
+        if (occurrences == null) {
+            return 0;
+        }
+        return occurrences;
+    }
+
+    /**
+     * Returns the number of occurrences of the peptides of a protein group on
+     * the sequence of its main match, in the order of
+     * ProteinMatch.getPeptideMatches(), null if the group is not indexed.
+     *
+     * @param proteinKey the key of the protein match
+     * @return the number of occurrences of the peptides of the group
+     */
+    public synchronized int[] getGroupOccurrences(String proteinKey) {
+        int[] occurrences = groupOccurrences.get(proteinKey);
+        if (occurrences == null) {
+            return null;
+        }
+        return occurrences.clone();
+    }
+
+    /**
+     * Updates the occurrences of the peptides of a protein group, to be used
+     * when the main match of the group has been altered.
+     *
+     * @param identification the identification
+     * @param sequenceFactory the sequence factory
+     * @param proteinKey the key of the protein match
+     * @throws IOException
+     * @throws IllegalArgumentException
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public synchronized void updateGroup(Identification identification, SequenceFactory sequenceFactory, String proteinKey)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException {
+
+        ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
+        int[] oldOccurrences = groupOccurrences.get(proteinKey);
+
+        if (oldOccurrences != null) {
+            ArrayList<String> peptideKeys = proteinMatch.getPeptideMatches();
+            for (int i = 0; i < oldOccurrences.length; i++) {
+                String peptideKey = peptideKeys.get(i);
+                peptideOccurrences.put(peptideKey, peptideOccurrences.get(peptideKey) - oldOccurrences[i]);
+            }
+        }
+
+        addGroup(proteinKey, proteinMatch, sequenceFactory);
+    }
+
+    /**
+     * Estimates the NSAF of the given proteins in a single pass. The weight
+     * of every peptide, i.e. its number of spectra divided by its number of
+     * occurrences, is computed once and shared by all proteins containing it.
+     *
+     * @param identification the identification
+     * @param sequenceFactory the sequence factory
+     * @param proteinKeys the keys of the protein matches
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param enzyme the enzyme used
+     * @param maxPepLength the maximal length accepted for a peptide
+     * @param waitingHandler a waiting handler displaying progress to the user,
+     * can be null. The progress will be displayed as secondary progress.
+     * @return the NSAF of every protein indexed by protein key, empty if
+     * canceled
+     * @throws IOException
+     * @throws IllegalArgumentException
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public HashMap<String, Double> getNsaf(Identification identification, SequenceFactory sequenceFactory, Collection<String> proteinKeys,
+            SpectrumCountingPreferences spectrumCountingPreferences, Enzyme enzyme, int maxPepLength, WaitingHandler waitingHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException {
+
+        HashMap<String, Double> result = new HashMap<String, Double>(proteinKeys.size());
+        HashMap<String, Double> peptideWeights = new HashMap<String, Double>();
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressDialogIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressValue(proteinKeys.size());
+            waitingHandler.setSecondaryProgressValue(0);
+        }
+
+        for (String proteinKey : proteinKeys) {
+
+            ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
+            double nsaf = 0;
+
+            for (String peptideKey : proteinMatch.getPeptideMatches()) {
+                Double weight = peptideWeights.get(peptideKey);
+                if (weight == null) {
+                    weight = getPeptideWeight(identification, peptideKey, spectrumCountingPreferences);
+                    peptideWeights.put(peptideKey, weight);
+                }
+                nsaf += weight;
+            }
+
+            result.put(proteinKey, normalize(nsaf, sequenceFactory.getProtein(proteinMatch.getMainMatch()), enzyme, maxPepLength));
+
+            if (waitingHandler != null) {
+                if (waitingHandler.isRunCanceled()) {
+                    return new HashMap<String, Double>();
+                }
+                waitingHandler.increaseSecondaryProgressValue();
+            }
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressDialogIndeterminate(true);
+        }
+
+        return result;
+    }
+
+    /**
+     * Estimates the NSAF of a protein.
+     *
+     * @param identification the identification
+     * @param sequenceFactory the sequence factory
+     * @param proteinKey the key of the protein match
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param enzyme the enzyme used
+     * @param maxPepLength the maximal length accepted for a peptide
+     * @return the NSAF of the protein
+     * @throws IOException
+     * @throws IllegalArgumentException
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public double getNsaf(Identification identification, SequenceFactory sequenceFactory, String proteinKey,
+            SpectrumCountingPreferences spectrumCountingPreferences, Enzyme enzyme, int maxPepLength)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException {
+
+        ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
+        double nsaf = 0;
+
+        for (String peptideKey : proteinMatch.getPeptideMatches()) {
+            nsaf += getPeptideWeight(identification, peptideKey, spectrumCountingPreferences);
+        }
+
+        return normalize(nsaf, sequenceFactory.getProtein(proteinMatch.getMainMatch()), enzyme, maxPepLength);
+    }
+
+    /**
+     * Indexes the occurrences of the peptides of a protein group.
+     *
+     * @param proteinKey the key of the protein match
+     * @param proteinMatch the protein match
+     * @param sequenceFactory the sequence factory
+     * @throws IOException
+     * @throws IllegalArgumentException
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    private synchronized void addGroup(String proteinKey, ProteinMatch proteinMatch, SequenceFactory sequenceFactory)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException {
+
+        ArrayList<String> peptideKeys = proteinMatch.getPeptideMatches();
+        ArrayList<String> peptideSequences = new ArrayList<String>(peptideKeys.size());
+        for (String peptideKey : peptideKeys) {
+            peptideSequences.add(Peptide.getSequence(peptideKey));
+        }
+
+        String sequence = sequenceFactory.getProtein(proteinMatch.getMainMatch()).getSequence();
+        PeptidePositions peptidePositions = new PeptidePositions(sequence, peptideSequences);
+        int[] occurrences = new int[peptideKeys.size()];
+
+        for (int i = 0; i < occurrences.length; i++) {
+            String peptideKey = peptideKeys.get(i);
+            occurrences[i] = peptidePositions.getNOccurrences(peptideSequences.get(i));
+            Integer total = peptideOccurrences.get(peptideKey);
+            peptideOccurrences.put(peptideKey, total == null ? occurrences[i] : total + occurrences[i]);
+        }
+
+        groupOccurrences.put(proteinKey, occurrences);
+    }
+
+    /**
+     * Returns the number of spectra of a peptide divided by its number of
+     * occurrences in the protein groups.
+     *
+     * @param identification the identification
+     * @param peptideKey the key of the peptide match
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @return the weight of the peptide
+     * @throws IOException
+     * @throws IllegalArgumentException
+     * @throws SQLException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    private double getPeptideWeight(Identification identification, String peptideKey, SpectrumCountingPreferences spectrumCountingPreferences)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException {
+
+        PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+        PSParameter pSParameter = new PSParameter();
+        int nSpectra = 0;
+
+        for (String spectrumMatchKey : peptideMatch.getSpectrumMatches()) {
+            pSParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumMatchKey, pSParameter);
+            if (!spectrumCountingPreferences.isValidatedHits() || pSParameter.isValidated()) {
+                nSpectra++;
+            }
+        }
+
+        return ((double) nSpectra) / getNOccurrences(peptideKey);
+    }
+
+    /**
+     * Normalizes the spectrum counting of a protein by its length, its
+     * observable length if the enzyme cleaves.
+     *
+     * @param spectrumCounting the sum of the weights of the peptides of the
+     * protein
+     * @param protein the main match of the protein group
+     * @param enzyme the enzyme used
+     * @param maxPepLength the maximal length accepted for a peptide
+     * @return the NSAF, 0 if not finite
+     */
+    private static double normalize(double spectrumCounting, Protein protein, Enzyme enzyme, int maxPepLength) {
+
+        double result = spectrumCounting;
+
+        if (enzyme.enzymeCleaves()) {
+            result /= protein.getObservableLength(enzyme, maxPepLength);
+        } else {
+            result /= protein.getLength();
+        }
+
+        if (Double.isInfinite(result) || Double.isNaN(result)) {
+            result = 0.0;
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,167 @@
+package eu.isas.peptideshaker.utils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * The positions of the peptides of a protein on the protein sequence. All
+ * peptides are located in a single pass using an Aho-Corasick automaton and
+ * the table is shared by the sequence coverage, the spectrum counting and the
+ * sequence coverage map.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptidePositions implements Serializable {
+
+    /**
+     * The version UID for serialization/deserialization compatibility.
+     */
+    static final long serialVersionUID = -4812651853764413275L;
+    /**
+     * The length of the protein sequence.
+     */
+    private int proteinLength;
+    /**
+     * The 0 based start indexes of every peptide indexed by peptide sequence.
+     */
+    private HashMap<String, int[]> peptideStarts;
+
+    /**
+     * Constructor. Locates the given peptides on the protein sequence.
+     *
+     * @param proteinSequence the protein sequence
+     * @param peptideSequences the sequences of the peptides to locate
+     */
+    public PeptidePositions(String proteinSequence, Collection<String> peptideSequences) {
+
+        proteinLength = proteinSequence.length();
+
+        ArrayList<String> patterns = new ArrayList<String>(new HashSet<String>(peptideSequences));
+        patterns.remove("");
+        peptideStarts = new HashMap<String, int[]>(patterns.size());
+
+        if (!patterns.isEmpty()) {
+            AhoCorasick automaton = new AhoCorasick(patterns);
+            int[][] starts = automaton.search(proteinSequence);
+            for (int i = 0; i < starts.length; i++) {
+                peptideStarts.put(automaton.getPattern(i), starts[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the length of the protein sequence.
+     *
+     * @return the length of the protein sequence
+     */
+    public int getProteinLength() {
+        return proteinLength;
+    }
+
+    /**
+     * Indicates whether the given peptide was located.
+     *
+     * @param peptideSequence the peptide sequence
+     * @return true if the peptide was located
+     */
+    public boolean contains(String peptideSequence) {
+        return peptideStarts.containsKey(peptideSequence);
+    }
+
+    /**
+     * Returns the 0 based start indexes of a peptide on the protein sequence in
+     * increasing order, an empty array if the peptide was not located.
+     *
+     * @param peptideSequence the peptide sequence
+     * @return the start indexes of the peptide
+     */
+    public int[] getStarts(String peptideSequence) {
+        int[] starts = peptideStarts.get(peptideSequence);
+        if (starts == null) {
+            return new int[0];
+        }
+        return starts.clone();
+    }
+
+    /**
+     * Returns the number of occurrences of a peptide on the protein sequence.
+     *
+     * @param peptideSequence the peptide sequence
+     * @return the number of occurrences of the peptide
+     */
+    public int getNOccurrences(String peptideSequence) {
+        int[] starts = peptideStarts.get(peptideSequence);
+        if (starts == null) {
+            return 0;
+        }
+        return starts.length;
+    }
+
+    /**
+     * Returns the residues covered by the given peptides as a bit set where
+     * bit i is set if the residue at 0 based index i is covered. The peptides
+     * not located are ignored.
+     *
+     * @param peptideSequences the sequences of the peptides
+     * @return the covered residues
+     */
+    public BitSet getCoverage(Collection<String> peptideSequences) {
+        BitSet coverage = new BitSet(proteinLength);
+        for (String peptideSequence : peptideSequences) {
+            int[] starts = peptideStarts.get(peptideSequence);
+            if (starts != null) {
+                for (int start : starts) {
+                    coverage.set(start, start + peptideSequence.length());
+                }
+            }
+        }
+        return coverage;
+    }
+
+    /**
+     * Returns the share of the protein sequence covered by the given peptides.
+     *
+     * @param peptideSequences the sequences of the peptides
+     * @return the sequence coverage
+     */
+    public double getSequenceCoverage(Collection<String> peptideSequences) {
+        return ((double) getCoverage(peptideSequences).cardinality()) / proteinLength;
+    }
+
+    /**
+     * Returns the covered intervals of the protein sequence as pairs of 0
+     * based start index (inclusive) and end index (exclusive), overlapping and
+     * adjacent peptides being merged.
+     *
+     * @param peptideSequences the sequences of the peptides
+     * @return the covered intervals
+     */
+    public ArrayList<int[]> getCoveredIntervals(Collection<String> peptideSequences) {
+        ArrayList<int[]> intervals = new ArrayList<int[]>();
+        BitSet coverage = getCoverage(peptideSequences);
+        int start = coverage.nextSetBit(0);
+        while (start >= 0) {
+            int end = coverage.nextClearBit(start);
+            intervals.add(new int[]{start, end});
+            start = coverage.nextSetBit(end);
+        }
+        return intervals;
+    }
+
+    /**
+     * Returns an estimation of the memory used by the table in bytes.
+     *
+     * @return the estimated memory used in bytes
+     */
+    public long getSize() {
+        long size = 80 + 16 * peptideStarts.size(); // object, map and table
+        for (String peptideSequence : peptideStarts.keySet()) {
+            size += 32 + 56 + 2 * peptideSequence.length() + 16 + 4 * peptideStarts.get(peptideSequence).length;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,429 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.experiment.biology.PTM;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.PeptideAssumption;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.ptm.PTMLocationScores;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.gui.waiting.WaitingHandler;
+import com.compomics.util.preferences.AnnotationPreferences;
+import eu.isas.peptideshaker.myparameters.PSParameter;
+import eu.isas.peptideshaker.myparameters.PSPtmScores;
+import eu.isas.peptideshaker.preferences.PTMScoringPreferences;
+import eu.isas.peptideshaker.preferences.SearchParameters;
+import eu.isas.peptideshaker.scoring.PsmSpecificMap;
+import eu.isas.peptideshaker.scoring.PtmScoring;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class scores the PTM locations of spectrum matches using the delta
+ * score and the A-score. Spectrum matches can be scored concurrently: every
+ * thread works on its own copy of the annotation preferences and the scores
+ * are saved in the identification by batches on the calling thread.
+ *
+ * @author Marc Vaudel
+ */
+public class PtmLocalizationScorer {
+
+    /**
+     * The number of spectrum matches scored in a task.
+     */
+    public static final int BATCH_SIZE = 100;
+    /**
+     * The search parameters containing the m/z tolerances.
+     */
+    private SearchParameters searchParameters;
+    /**
+     * The PTM scoring preferences.
+     */
+    private PTMScoringPreferences scoringPreferences;
+    /**
+     * The annotation preferences of every thread. The settings of the
+     * annotation preferences are changed for every peptide and are therefore
+     * not shared between threads.
+     */
+    private ThreadLocal<AnnotationPreferences> threadAnnotationPreferences;
+    /**
+     * The peptide key and charge for which the annotation preferences of
+     * every thread are currently set.
+     */
+    private ThreadLocal<String> threadCurrentSettings = new ThreadLocal<String>();
+    /**
+     * The compomics PTM factory.
+     */
+    private PTMFactory ptmFactory = PTMFactory.getInstance();
+    /**
+     * The spectrum factory.
+     */
+    private SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+
+    /**
+     * Constructor.
+     *
+     * @param searchParameters the search parameters containing the m/z
+     * tolerances
+     * @param annotationPreferences the spectrum annotation preferences, they
+     * are copied for every thread and never changed
+     * @param scoringPreferences the PTM scoring preferences
+     * @throws Exception exception thrown whenever the annotation preferences
+     * could not be copied
+     */
+    public PtmLocalizationScorer(SearchParameters searchParameters, AnnotationPreferences annotationPreferences, PTMScoringPreferences scoringPreferences) throws Exception {
+        this.searchParameters = searchParameters;
+        this.scoringPreferences = scoringPreferences;
+        final byte[] serializedPreferences = serialize(annotationPreferences);
+        threadAnnotationPreferences = new ThreadLocal<AnnotationPreferences>() {
+            @Override
+            protected AnnotationPreferences initialValue() {
+                try {
+                    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serializedPreferences));
+                    return (AnnotationPreferences) in.readObject();
+                } catch (Exception e) {
+                    throw new IllegalStateException("Impossible to copy the annotation preferences.", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Scores the PTM locations of the given spectrum matches on the given
+     * number of threads and saves them in the identification. The spectrum
+     * matches are loaded and saved on the calling thread.
+     *
+     * @param identification the identification
+     * @param psmMap the psm specific map giving the confidence thresholds
+     * @param spectrumKeys the keys of the spectrum matches to score
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the handler displaying feedback to the user
+     * @throws Exception exception thrown whenever an error occurred while
+     * scoring or reading/writing a spectrum match
+     */
+    public void scorePtms(Identification identification, PsmSpecificMap psmMap, ArrayList<String> spectrumKeys, int nThreads, WaitingHandler waitingHandler) throws Exception {
+
+        waitingHandler.setSecondaryProgressDialogIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressValue(spectrumKeys.size());
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            int maxPendingTasks = 2 * nThreads;
+            LinkedList<Future<ArrayList<SpectrumMatch>>> pendingTasks = new LinkedList<Future<ArrayList<SpectrumMatch>>>();
+            PSParameter psParameter = new PSParameter();
+
+            for (int start = 0; start < spectrumKeys.size(); start += BATCH_SIZE) {
+                int end = Math.min(start + BATCH_SIZE, spectrumKeys.size());
+                final ArrayList<SpectrumMatch> spectrumMatches = new ArrayList<SpectrumMatch>(end - start);
+                final double[] confidenceThresholds = new double[end - start];
+                for (int i = start; i < end; i++) {
+                    String spectrumKey = spectrumKeys.get(i);
+                    spectrumMatches.add(identification.getSpectrumMatch(spectrumKey));
+                    psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                    confidenceThresholds[i - start] = psmMap.getTargetDecoyMap(psmMap.getCorrectedKey(psParameter.getSecificMapKey())).getTargetDecoyResults().getConfidenceLimit();
+                }
+                pendingTasks.add(pool.submit(new Callable<ArrayList<SpectrumMatch>>() {
+                    public ArrayList<SpectrumMatch> call() throws Exception {
+                        ArrayList<SpectrumMatch> scoredMatches = new ArrayList<SpectrumMatch>(spectrumMatches.size());
+                        for (int i = 0; i < spectrumMatches.size(); i++) {
+                            if (scorePtms(spectrumMatches.get(i), confidenceThresholds[i])) {
+                                scoredMatches.add(spectrumMatches.get(i));
+                            }
+                        }
+                        return scoredMatches;
+                    }
+                }));
+                while (pendingTasks.size() >= maxPendingTasks) {
+                    saveBatch(pendingTasks.removeFirst(), identification, waitingHandler);
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                }
+                waitingHandler.increaseSecondaryProgressValue(end - start);
+            }
+            while (!pendingTasks.isEmpty()) {
+                saveBatch(pendingTasks.removeFirst(), identification, waitingHandler);
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        waitingHandler.setSecondaryProgressDialogIndeterminate(true);
+    }
+
+    /**
+     * Saves the spectrum matches scored by a task in the identification.
+     *
+     * @param task the task
+     * @param identification the identification
+     * @param waitingHandler the handler displaying feedback to the user
+     * @throws Exception exception thrown whenever an error occurred while
+     * scoring or writing a spectrum match
+     */
+    private void saveBatch(Future<ArrayList<SpectrumMatch>> task, Identification identification, WaitingHandler waitingHandler) throws Exception {
+        ArrayList<SpectrumMatch> scoredMatches;
+        try {
+            scoredMatches = task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        for (SpectrumMatch spectrumMatch : scoredMatches) {
+            identification.updateSpectrumMatch(spectrumMatch);
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Scores the PTM locations of a spectrum match and attaches the scores to
+     * the match as PSPtmScores. The match is not saved in the identification.
+     * This method can be called concurrently on different spectrum matches.
+     *
+     * @param spectrumMatch the spectrum match of interest
+     * @param confidenceThreshold the confidence validation threshold for this
+     * PSM
+     * @return a boolean indicating whether scores were attached to the match
+     * @throws Exception exception thrown whenever an error occurred while
+     * loading the spectrum
+     */
+    public boolean scorePtms(SpectrumMatch spectrumMatch, double confidenceThreshold) throws Exception {
+
+        boolean scored = attachDeltaScore(spectrumMatch);
+        if (scoringPreferences.aScoreCalculation()) {
+            scored = attachAScore(spectrumMatch) || scored;
+        }
+        PSPtmScores ptmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
+
+        if (ptmScores != null) {
+
+            for (String modification : ptmScores.getScoredPTMs()) {
+
+                PtmScoring ptmScoring = ptmScores.getPtmScoring(modification);
+                String bestAKey = ptmScoring.getBestAScoreLocations();
+                String bestDKey = ptmScoring.getBestDeltaScoreLocations();
+                String retainedKey;
+                int confidence = PtmScoring.RANDOM;
+
+                if (bestAKey != null) {
+                    retainedKey = bestAKey;
+                    if (ptmScoring.getAScore(bestAKey) <= scoringPreferences.getaScoreThreshold()) {
+                        if (bestAKey.equals(bestDKey)) {
+                            confidence = PtmScoring.DOUBTFUL;
+                            if (ptmScoring.getDeltaScore(bestDKey) > 100.0 - confidenceThreshold) {
+                                confidence = PtmScoring.CONFIDENT;
+                            }
+                        }
+                    } else if (bestAKey.equals(bestDKey)) {
+                        confidence = PtmScoring.VERY_CONFIDENT;
+                    } else {
+                        confidence = PtmScoring.CONFIDENT;
+                    }
+                } else {
+                    retainedKey = bestDKey;
+                    if (ptmScoring.getDeltaScore(bestDKey) > 100.0 - confidenceThreshold) {
+                        confidence = PtmScoring.CONFIDENT;
+                    } else {
+                        confidence = PtmScoring.DOUBTFUL;
+                    }
+                }
+                if (retainedKey != null) {
+                    ptmScoring.setPtmSite(retainedKey, confidence);
+                    scored = true;
+                }
+            }
+        }
+
+        return scored;
+    }
+
+    /**
+     * Scores the PTM locations using the delta score.
+     *
+     * @param spectrumMatch the spectrum match of interest
+     * @return a boolean indicating whether scores were attached to the match
+     */
+    private boolean attachDeltaScore(SpectrumMatch spectrumMatch) {
+
+        HashMap<String, ArrayList<Integer>> modificationProfiles = new HashMap<String, ArrayList<Integer>>();
+        PSPtmScores ptmScores = new PSPtmScores();
+
+        if (spectrumMatch.getUrParam(new PSPtmScores()) != null) {
+            ptmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
+        }
+
+        PSParameter psParameter = new PSParameter();
+        psParameter = (PSParameter) spectrumMatch.getBestAssumption().getUrParam(psParameter);
+        double p1 = psParameter.getSearchEngineProbability();
+
+        String mainSequence = spectrumMatch.getBestAssumption().getPeptide().getSequence();
+        double p2 = 1;
+        ArrayList<String> modifications = new ArrayList<String>();
+
+        for (ModificationMatch modificationMatch : spectrumMatch.getBestAssumption().getPeptide().getModificationMatches()) {
+            if (modificationMatch.isVariable()) {
+                PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
+                if (ptm.getType() == PTM.MODAA) {
+                    String modificationName = modificationMatch.getTheoreticPtm();
+                    if (!modifications.contains(modificationName)) {
+                        modifications.add(modificationName);
+                        modificationProfiles.put(modificationName, new ArrayList<Integer>());
+                    }
+                    modificationProfiles.get(modificationName).add(modificationMatch.getModificationSite());
+                }
+            }
+        }
+
+        if (modifications.isEmpty()) {
+            return false;
+        }
+
+        for (String mod : modifications) {
+            for (PeptideAssumption peptideAssumption : spectrumMatch.getAllAssumptions()) {
+                if (peptideAssumption.getPeptide().getSequence().equals(mainSequence)) {
+                    boolean newLocation = false;
+                    for (ModificationMatch modMatch : peptideAssumption.getPeptide().getModificationMatches()) {
+                        if (modMatch.getTheoreticPtm().equals(mod)
+                                && !modificationProfiles.get(mod).contains(modMatch.getModificationSite())) {
+                            newLocation = true;
+                            break;
+                        }
+                    }
+                    if (newLocation) {
+                        psParameter = (PSParameter) peptideAssumption.getUrParam(psParameter);
+                        if (psParameter.getSearchEngineProbability() < p2) {
+                            p2 = psParameter.getSearchEngineProbability();
+                        }
+                    }
+                }
+            }
+            PtmScoring ptmScoring = ptmScores.getPtmScoring(mod);
+            if (ptmScoring == null) {
+                ptmScoring = new PtmScoring(mod);
+            }
+            if (p2 < p1) {
+                p2 = p1;
+            }
+            ptmScoring.addDeltaScore(modificationProfiles.get(mod), (p2 - p1) * 100);
+            ptmScores.addPtmScoring(mod, ptmScoring);
+        }
+
+        spectrumMatch.addUrParam(ptmScores);
+        return true;
+    }
+
+    /**
+     * Attaches the A-score. The annotation preferences of the current thread
+     * are used and are only updated when the peptide or charge changes.
+     *
+     * @param spectrumMatch the spectrum match of interest
+     * @return a boolean indicating whether scores were attached to the match
+     * @throws Exception exception thrown whenever an error occurred while
+     * loading the spectrum
+     */
+    private boolean attachAScore(SpectrumMatch spectrumMatch) throws Exception {
+
+        PSPtmScores ptmScores = new PSPtmScores();
+
+        if (spectrumMatch.getUrParam(new PSPtmScores()) != null) {
+            ptmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
+        }
+
+        HashMap<String, PTM> modifications = new HashMap<String, PTM>();
+        HashMap<String, Integer> nMod = new HashMap<String, Integer>();
+        Peptide peptide = spectrumMatch.getBestAssumption().getPeptide();
+
+        for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+            if (modificationMatch.isVariable()) {
+                PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
+                if (ptm.getType() == PTM.MODAA) {
+                    String modificationName = modificationMatch.getTheoreticPtm();
+                    if (!modifications.keySet().contains(modificationName)) {
+                        modifications.put(modificationName, ptm);
+                        nMod.put(modificationName, 1);
+                    } else {
+                        nMod.put(modificationName, nMod.get(modificationName) + 1);
+                    }
+                }
+            }
+        }
+
+        if (modifications.isEmpty()) {
+            return false;
+        }
+
+        MSnSpectrum spectrum;
+        synchronized (spectrumFactory) {
+            spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumMatch.getKey());
+        }
+
+        int charge = spectrumMatch.getBestAssumption().getIdentificationCharge().value;
+        AnnotationPreferences annotationPreferences = threadAnnotationPreferences.get();
+        String settingsKey = peptide.getKey() + "_" + charge;
+        if (!settingsKey.equals(threadCurrentSettings.get())) {
+            annotationPreferences.setCurrentSettings(peptide, charge, true);
+            threadCurrentSettings.set(settingsKey);
+        }
+
+        for (String mod : modifications.keySet()) {
+            if (nMod.get(mod) == 1) {
+                HashMap<ArrayList<Integer>, Double> aScores = PTMLocationScores.getAScore(peptide,
+                        modifications.get(mod), nMod.get(mod), spectrum, annotationPreferences.getIonTypes(),
+                        annotationPreferences.getNeutralLosses(), annotationPreferences.getValidatedCharges(),
+                        charge, searchParameters.getFragmentIonAccuracy(), scoringPreferences.isaScoreNeutralLosses());
+                PtmScoring ptmScoring = ptmScores.getPtmScoring(mod);
+
+                if (ptmScoring == null) {
+                    ptmScoring = new PtmScoring(mod);
+                }
+
+                for (ArrayList<Integer> modificationProfile : aScores.keySet()) {
+                    ptmScoring.addAScore(modificationProfile, aScores.get(modificationProfile));
+                }
+
+                ptmScores.addPtmScoring(mod, ptmScoring);
+            }
+        }
+
+        spectrumMatch.addUrParam(ptmScores);
+        return true;
+    }
+
+    /**
+     * Serializes an object in a byte array.
+     *
+     * @param object the object to serialize
+     * @return the serialized object
+     * @throws Exception exception thrown whenever the object could not be
+     * serialized
+     */
+    private static byte[] serialize(Object object) throws Exception {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(byteStream);
+        try {
+            out.writeObject(object);
+        } finally {
+            out.close();
+        }
+        return byteStream.toByteArray();
+    }
+}
@@ -0,0 +1,169 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.gui.waiting.WaitingHandler;
+import eu.isas.peptideshaker.myparameters.PSParameter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * This class iterates the spectrum matches of an identification by chunks of
+ * keys in the order of the spectrum identification. When the iteration reaches
+ * a spectrum file, the spectrum match parameters and/or the spectrum matches
+ * of this file are loaded in the cache of the identification with a single
+ * query. Nothing is written back: modified parameters and matches have to be
+ * updated individually in the identification.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumMatchFileIterator {
+
+    /**
+     * The default number of keys per chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    /**
+     * The identification to iterate.
+     */
+    private Identification identification;
+    /**
+     * The keys of the spectra to iterate.
+     */
+    private ArrayList<String> spectrumKeys;
+    /**
+     * Boolean indicating whether the spectrum match parameters should be
+     * loaded.
+     */
+    private boolean loadParameters;
+    /**
+     * Boolean indicating whether the spectrum matches should be loaded.
+     */
+    private boolean loadMatches;
+    /**
+     * The number of keys per chunk.
+     */
+    private int chunkSize;
+    /**
+     * The handler displaying feedback to the user.
+     */
+    private WaitingHandler waitingHandler;
+    /**
+     * The index of the first key of the next chunk.
+     */
+    private int index = 0;
+    /**
+     * The spectrum files already loaded in the cache.
+     */
+    private HashSet<String> loadedFiles = new HashSet<String>();
+    /**
+     * The keys of the current chunk.
+     */
+    private ArrayList<String> chunkKeys = new ArrayList<String>();
+    /**
+     * The parameters of the current chunk indexed by spectrum key.
+     */
+    private HashMap<String, PSParameter> chunkParameters = new HashMap<String, PSParameter>();
+
+    /**
+     * Constructor.
+     *
+     * @param identification the identification to iterate
+     * @param loadParameters boolean indicating whether the spectrum match
+     * parameters should be loaded
+     * @param loadMatches boolean indicating whether the spectrum matches
+     * should be loaded
+     * @param chunkSize the number of keys per chunk
+     * @param waitingHandler the handler displaying feedback to the user
+     */
+    public SpectrumMatchFileIterator(Identification identification, boolean loadParameters, boolean loadMatches, int chunkSize, WaitingHandler waitingHandler) {
+        this.identification = identification;
+        this.spectrumKeys = identification.getSpectrumIdentification();
+        this.loadParameters = loadParameters;
+        this.loadMatches = loadMatches;
+        this.chunkSize = chunkSize;
+        this.waitingHandler = waitingHandler;
+    }
+
+    /**
+     * Indicates whether another chunk is available.
+     *
+     * @return a boolean indicating whether another chunk is available
+     */
+    public boolean hasNext() {
+        return index < spectrumKeys.size();
+    }
+
+    /**
+     * Returns the keys of the next chunk.
+     *
+     * @return the keys of the next chunk
+     * @throws Exception exception thrown whenever an error occurred while
+     * loading the matches
+     */
+    public ArrayList<String> next() throws Exception {
+
+        chunkKeys = new ArrayList<String>(Math.min(chunkSize, spectrumKeys.size() - index));
+        chunkParameters.clear();
+
+        int end = Math.min(index + chunkSize, spectrumKeys.size());
+        boolean filesLoaded = false;
+
+        for (int i = index; i < end; i++) {
+            String spectrumKey = spectrumKeys.get(i);
+            String fileName = Spectrum.getSpectrumFile(spectrumKey);
+            if (!loadedFiles.contains(fileName)) {
+                if (loadParameters) {
+                    identification.loadSpectrumMatchParameters(fileName, new PSParameter(), waitingHandler);
+                }
+                if (loadMatches) {
+                    identification.loadSpectrumMatches(fileName, waitingHandler);
+                }
+                loadedFiles.add(fileName);
+                filesLoaded = true;
+            }
+            chunkKeys.add(spectrumKey);
+        }
+
+        if (filesLoaded && waitingHandler != null) {
+            // the loading uses the secondary progress bar, restore it
+            waitingHandler.setSecondaryProgressDialogIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressValue(spectrumKeys.size());
+            waitingHandler.setSecondaryProgressValue(index);
+        }
+
+        if (loadParameters) {
+            for (String spectrumKey : chunkKeys) {
+                chunkParameters.put(spectrumKey, (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, new PSParameter()));
+            }
+        }
+
+        index = end;
+        return chunkKeys;
+    }
+
+    /**
+     * Returns the parameter of a spectrum match of the current chunk. The
+     * parameters are only available when loaded.
+     *
+     * @param spectrumKey the key of the spectrum match
+     * @return the corresponding parameter
+     */
+    public PSParameter getParameter(String spectrumKey) {
+        return chunkParameters.get(spectrumKey);
+    }
+
+    /**
+     * Returns a spectrum match of the current chunk.
+     *
+     * @param spectrumKey the key of the spectrum match
+     * @return the corresponding spectrum match
+     * @throws Exception exception thrown whenever an error occurred while
+     * loading the match
+     */
+    public SpectrumMatch getSpectrumMatch(String spectrumKey) throws Exception {
+        return identification.getSpectrumMatch(spectrumKey);
+    }
+}
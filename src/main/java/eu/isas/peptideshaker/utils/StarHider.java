@@ -9,6 +9,7 @@ import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.massspectrometry.Precursor;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.gui.waiting.waitinghandlers.ProgressDialogX;
+import com.compomics.util.protein.Header;
 import eu.isas.peptideshaker.filtering.MatchFilter;
 import eu.isas.peptideshaker.filtering.PeptideFilter;
 import eu.isas.peptideshaker.filtering.ProteinFilter;
@@ -18,6 +19,17 @@ import eu.isas.peptideshaker.gui.tabpanels.PtmPanel;
 import eu.isas.peptideshaker.myparameters.PSParameter;
 import eu.isas.peptideshaker.preferences.FilterPreferences;
 import java.awt.Toolkit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 import javax.swing.RowFilter.ComparisonType;
 
 /**
@@ -28,6 +40,10 @@ import javax.swing.RowFilter.ComparisonType;
  */
 public class StarHider {
 
+    /**
+     * The number of matches evaluated in a task.
+     */
+    public static final int BATCH_SIZE = 1000;
     /**
      * PeptideShakerGUI instance.
      */
@@ -51,7 +67,11 @@ public class StarHider {
     }
 
     /**
-     * Updates the star/hide status of all identification items.
+     * Updates the star/hide status of all identification items. The active
+     * filters are compiled once, the attributes needed by the filters are
+     * loaded once per match, all filters are evaluated together on the number
+     * of threads set in the processing preferences and the match parameters
+     * are saved by batches.
      */
     public void starHide() {
 
@@ -78,86 +98,177 @@ public class StarHider {
             @Override
             public void run() {
 
+                int nThreads = peptideShakerGUI.getProcessingPreferences().getnThreads();
+                ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
                 try {
                     Identification identification = peptideShakerGUI.getIdentification();
-                    progressDialog.setIndeterminate(false);
-                    progressDialog.setMaxProgressValue(identification.getProteinIdentification().size());
-
-                    PSParameter psParameter = new PSParameter();
-
-                    for (String proteinKey : identification.getProteinIdentification()) {
-
-                        if (progressDialog.isRunCanceled()) {
-                            break;
+                    FilterPlan filterPlan = new FilterPlan(peptideShakerGUI.getFilterPreferences());
+
+                    // load the parameters file by file instead of one by one
+                    HashMap<String, ArrayList<String>> spectrumKeysPerFile = new HashMap<String, ArrayList<String>>();
+                    for (String spectrumKey : identification.getSpectrumIdentification()) {
+                        String spectrumFile = Spectrum.getSpectrumFile(spectrumKey);
+                        ArrayList<String> fileKeys = spectrumKeysPerFile.get(spectrumFile);
+                        if (fileKeys == null) {
+                            fileKeys = new ArrayList<String>();
+                            spectrumKeysPerFile.put(spectrumFile, fileKeys);
                         }
+                        fileKeys.add(spectrumKey);
+                    }
+                    ArrayList<String> spectrumKeys = new ArrayList<String>(identification.getSpectrumIdentification().size());
+                    for (String spectrumFile : spectrumKeysPerFile.keySet()) {
+                        identification.loadSpectrumMatchParameters(spectrumFile, new PSParameter(), progressDialog);
+                        if (filterPlan.psmSpectrumMatch) {
+                            identification.loadSpectrumMatches(spectrumFile, progressDialog);
+                        }
+                        spectrumKeys.addAll(spectrumKeysPerFile.get(spectrumFile));
+                    }
+                    identification.loadPeptideMatchParameters(new PSParameter(), progressDialog);
+                    identification.loadProteinMatches(progressDialog);
+                    identification.loadProteinMatchParameters(new PSParameter(), progressDialog);
 
-                        ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
-                        boolean peptideSurvived = false;
-
-                        for (String peptideKey : proteinMatch.getPeptideMatches()) {
-
-                            if (progressDialog.isRunCanceled()) {
-                                break;
-                            }
-
-                            PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
-                            boolean psmSurvived = false;
+                    if (progressDialog.isRunCanceled()) {
+                        return;
+                    }
 
-                            for (String spectrumKey : peptideMatch.getSpectrumMatches()) {
+                    progressDialog.setIndeterminate(false);
+                    progressDialog.setMaxProgressValue(spectrumKeys.size()
+                            + identification.getPeptideIdentification().size()
+                            + identification.getProteinIdentification().size());
 
-                                if (progressDialog.isRunCanceled()) {
-                                    break;
-                                }
+                    HashSet<String> hiddenSpectra = starHide(spectrumKeys, new PsmLevel(filterPlan), pool, nThreads);
+                    if (progressDialog.isRunCanceled()) {
+                        return;
+                    }
+                    HashSet<String> hiddenPeptides = starHide(identification.getPeptideIdentification(), new PeptideLevel(filterPlan, hiddenSpectra), pool, nThreads);
+                    if (progressDialog.isRunCanceled()) {
+                        return;
+                    }
+                    starHide(identification.getProteinIdentification(), new ProteinLevel(filterPlan, hiddenPeptides), pool, nThreads);
 
-                                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                } catch (Exception e) {
+                    peptideShakerGUI.catchException(e);
+                } finally {
+                    pool.shutdownNow();
+                    progressDialog.setRunFinished();
+                }
+            }
+        }.start();
+    }
 
-                                if (isPsmHidden(spectrumKey)) {
-                                    psParameter.setHidden(true);
-                                } else {
-                                    psParameter.setHidden(false);
-                                    psmSurvived = true;
-                                }
-                                psParameter.setStarred(isPsmStarred(spectrumKey));
-                                identification.updateSpectrumMatchParameter(spectrumKey, psParameter);
-                            }
+    /**
+     * Returns the description of the given protein as found in the sequence
+     * factory, null if the protein has no header or no description.
+     *
+     * @param accession the accession of the protein
+     * @return the description of the protein, null if not available
+     * @throws Exception exception thrown whenever an error occurred while
+     * reading the header of the protein
+     */
+    private String getDescription(String accession) throws Exception {
+        Header header = sequenceFactory.getHeader(accession);
+        if (header == null) {
+            return null;
+        }
+        return header.getDescription();
+    }
 
-                            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+    /**
+     * Updates the star/hide status of the given matches. The attributes of the
+     * matches are loaded and the parameters saved on the calling thread by
+     * batches, the filters are evaluated on the pool.
+     *
+     * @param keys the keys of the matches
+     * @param matchLevel the level of the matches
+     * @param pool the pool evaluating the filters
+     * @param nThreads the number of threads of the pool
+     * @return the keys of the hidden matches
+     * @throws Exception exception thrown whenever an error occurred while
+     * loading, evaluating or saving a match
+     */
+    private <T extends MatchAttributes> HashSet<String> starHide(Collection<String> keys, final MatchLevel<T> matchLevel, ExecutorService pool, int nThreads) throws Exception {
 
-                            if (!psmSurvived) {
-                                psParameter.setHidden(true);
-                            } else if (isPeptideHidden(peptideKey)) {
-                                psParameter.setHidden(true);
-                            } else {
-                                psParameter.setHidden(false);
-                                peptideSurvived = true;
-                            }
+        HashSet<String> hiddenKeys = new HashSet<String>();
+        LinkedList<Future<ArrayList<T>>> pendingTasks = new LinkedList<Future<ArrayList<T>>>();
+        int maxPendingTasks = 2 * nThreads;
+        ArrayList<T> batch = new ArrayList<T>(BATCH_SIZE);
 
-                            psParameter.setStarred(isPeptideStarred(peptideKey));
+        for (String key : keys) {
 
-                            identification.updatePeptideMatchParameter(peptideKey, psParameter);
-                        }
+            if (progressDialog.isRunCanceled()) {
+                return hiddenKeys;
+            }
 
-                        psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+            batch.add(matchLevel.getAttributes(key));
 
-                        if (!peptideSurvived) {
-                            psParameter.setHidden(true);
-                        } else {
-                            psParameter.setHidden(isProteinHidden(proteinKey));
-                        }
+            if (batch.size() == BATCH_SIZE) {
+                pendingTasks.add(submit(batch, matchLevel, pool));
+                batch = new ArrayList<T>(BATCH_SIZE);
+                while (pendingTasks.size() >= maxPendingTasks) {
+                    saveBatch(pendingTasks.removeFirst(), matchLevel, hiddenKeys);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            pendingTasks.add(submit(batch, matchLevel, pool));
+        }
+        while (!pendingTasks.isEmpty()) {
+            saveBatch(pendingTasks.removeFirst(), matchLevel, hiddenKeys);
+        }
 
-                        psParameter.setStarred(isProteinStarred(proteinKey));
+        return hiddenKeys;
+    }
 
-                        identification.updateProteinMatchParameter(proteinKey, psParameter);
-                        progressDialog.increaseProgressValue();
-                    }
-                    
-                    progressDialog.setRunFinished();
-                    
-                } catch (Exception e) {
-                    peptideShakerGUI.catchException(e);
+    /**
+     * Submits the evaluation of the filters on a batch of matches to the pool.
+     *
+     * @param batch the attributes of the matches
+     * @param matchLevel the level of the matches
+     * @param pool the pool evaluating the filters
+     * @return the future batch of evaluated matches
+     */
+    private <T extends MatchAttributes> Future<ArrayList<T>> submit(final ArrayList<T> batch, final MatchLevel<T> matchLevel, ExecutorService pool) {
+        return pool.submit(new Callable<ArrayList<T>>() {
+            public ArrayList<T> call() throws Exception {
+                for (T attributes : batch) {
+                    attributes.hidden = matchLevel.isHidden(attributes);
+                    attributes.starred = matchLevel.isStarred(attributes);
                 }
+                return batch;
             }
-        }.start();
+        });
+    }
+
+    /**
+     * Saves the star/hide status of an evaluated batch of matches.
+     *
+     * @param task the evaluation task of the batch
+     * @param matchLevel the level of the matches
+     * @param hiddenKeys the keys of the hidden matches, completed with the
+     * hidden matches of the batch
+     * @throws Exception exception thrown whenever an error occurred while
+     * evaluating or saving a match
+     */
+    private <T extends MatchAttributes> void saveBatch(Future<ArrayList<T>> task, MatchLevel<T> matchLevel, HashSet<String> hiddenKeys) throws Exception {
+        ArrayList<T> batch;
+        try {
+            batch = task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        for (T attributes : batch) {
+            attributes.psParameter.setHidden(attributes.hidden);
+            attributes.psParameter.setStarred(attributes.starred);
+            matchLevel.save(attributes);
+            if (attributes.hidden) {
+                hiddenKeys.add(attributes.key);
+            }
+        }
+        progressDialog.increaseProgressValue(batch.size());
     }
 
     /**
@@ -721,486 +832,884 @@ public class StarHider {
      * given filter
      */
     public boolean isValidated(String proteinKey, ProteinFilter proteinFilter) {
+        try {
+            FilterPlan filterPlan = new FilterPlan();
+            CompiledFilter<ProteinFilter> compiledFilter = filterPlan.addProteinFilter(proteinFilter, filterPlan.proteinHideFilters);
+            return isValidated(compiledFilter, new ProteinLevel(filterPlan, null).getAttributes(proteinKey));
+        } catch (Exception e) {
+            e.printStackTrace();
+            peptideShakerGUI.catchException(e);
+            return false;
+        }
+    }
 
+    /**
+     * Tests whether a peptide match is validated by a given filter.
+     *
+     * @param peptideKey the key of the peptide match
+     * @param peptideFilter the filter
+     * @return a boolean indicating whether a peptide match is validated by a
+     * given filter
+     */
+    public boolean isValidated(String peptideKey, PeptideFilter peptideFilter) {
         try {
-            if (proteinFilter.getExceptions().contains(proteinKey)) {
-                return false;
-            }
+            FilterPlan filterPlan = new FilterPlan();
+            CompiledFilter<PeptideFilter> compiledFilter = filterPlan.addPeptideFilter(peptideFilter, filterPlan.peptideHideFilters);
+            return isValidated(compiledFilter, new PeptideLevel(filterPlan, null).getAttributes(peptideKey));
+        } catch (Exception e) {
+            e.printStackTrace();
+            peptideShakerGUI.catchException(e);
+            return false;
+        }
+    }
 
-            if (proteinFilter.getManualValidation().size() > 0) {
-                if (proteinFilter.getManualValidation().contains(proteinKey)) {
-                    return true;
-                } else {
-                    return false;
-                }
-            }
+    /**
+     * Tests whether a spectrum match is validated by a given filter.
+     *
+     * @param spectrumKey the key of the spectrum match
+     * @param psmFilter the filter
+     * @return a boolean indicating whether a spectrum match is validated by a
+     * given filter
+     */
+    public boolean isValidated(String spectrumKey, PsmFilter psmFilter) {
+        try {
+            FilterPlan filterPlan = new FilterPlan();
+            CompiledFilter<PsmFilter> compiledFilter = filterPlan.addPsmFilter(psmFilter, filterPlan.psmHideFilters);
+            return isValidated(compiledFilter, new PsmLevel(filterPlan).getAttributes(spectrumKey));
+        } catch (Exception e) {
+            e.printStackTrace();
+            peptideShakerGUI.catchException(e);
+            return false;
+        }
+    }
 
-            if (proteinFilter.getIdentifierRegex() != null) {
-                String test = "test_" + proteinKey + "_test";
-                if (test.split(proteinFilter.getIdentifierRegex()).length == 1) {
-                    boolean found = false;
-                    for (String accession : ProteinMatch.getAccessions(proteinKey)) {
-                        test = "test_" + sequenceFactory.getHeader(accession).getDescription().toLowerCase() + "_test";
-                        if (test.split(proteinFilter.getIdentifierRegex().toLowerCase()).length > 1) {
-                            found = true;
-                            break;
-                        }
-                    }
-                    if (!found) {
-                        return false;
-                    }
-                }
-            }
+    /**
+     * Tests whether a protein match is validated by a compiled filter. No
+     * identification access is made, this method can be called concurrently.
+     *
+     * @param compiledFilter the compiled filter
+     * @param attributes the attributes of the protein match
+     * @return a boolean indicating whether the protein match is validated by
+     * the filter
+     */
+    private boolean isValidated(CompiledFilter<ProteinFilter> compiledFilter, ProteinAttributes attributes) {
 
-            PSParameter psParameter = new PSParameter();
-            Identification identification = peptideShakerGUI.getIdentification();
-            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+        ProteinFilter proteinFilter = compiledFilter.filter;
+        String proteinKey = attributes.key;
 
-            if (proteinFilter.getPi() != 5) {
-                if (proteinFilter.getPiComparison() == ComparisonType.NOT_EQUAL
-                        && psParameter.getGroupClass() == proteinFilter.getPi()) {
-                    return false;
-                } else if (proteinFilter.getPiComparison() == ComparisonType.EQUAL
-                        && psParameter.getGroupClass() != proteinFilter.getPi()) {
-                    return false;
-                }
-            }
+        if (proteinFilter.getExceptions().contains(proteinKey)) {
+            return false;
+        }
 
-            if (proteinFilter.getProteinScore() != null) {
-                if (proteinFilter.getProteinScoreComparison() == ComparisonType.AFTER) {
-                    if (psParameter.getProteinScore() <= proteinFilter.getProteinScore()) {
-                        return false;
-                    }
-                } else if (proteinFilter.getProteinScoreComparison() == ComparisonType.BEFORE) {
-                    if (psParameter.getProteinScore() >= proteinFilter.getProteinScore()) {
-                        return false;
-                    }
-                } else if (proteinFilter.getProteinScoreComparison() == ComparisonType.EQUAL) {
-                    if (psParameter.getProteinScore() != proteinFilter.getProteinScore()) {
-                        return false;
-                    }
-                } else if (proteinFilter.getProteinScoreComparison() == ComparisonType.NOT_EQUAL) {
-                    if (psParameter.getProteinScore() == proteinFilter.getProteinScore()) {
-                        return false;
+        if (proteinFilter.getManualValidation().size() > 0) {
+            return proteinFilter.getManualValidation().contains(proteinKey);
+        }
+
+        if (compiledFilter.pattern != null) {
+            String test = "test_" + proteinKey + "_test";
+            if (compiledFilter.pattern.split(test).length == 1) {
+                boolean found = false;
+                for (String description : attributes.descriptions) {
+                    test = "test_" + description + "_test";
+                    if (compiledFilter.lowerCasePattern.split(test).length > 1) {
+                        found = true;
+                        break;
                     }
                 }
+                if (!found) {
+                    return false;
+                }
             }
+        }
 
-            if (proteinFilter.getProteinConfidence() != null) {
-                if (proteinFilter.getProteinConfidenceComparison() == ComparisonType.AFTER) {
-                    if (psParameter.getProteinConfidence() <= proteinFilter.getProteinConfidence()) {
-                        return false;
-                    }
-                } else if (proteinFilter.getProteinConfidenceComparison() == ComparisonType.BEFORE) {
-                    if (psParameter.getProteinConfidence() >= proteinFilter.getProteinConfidence()) {
-                        return false;
-                    }
-                } else if (proteinFilter.getProteinConfidenceComparison() == ComparisonType.EQUAL) {
-                    if (psParameter.getProteinConfidence() != proteinFilter.getProteinConfidence()) {
-                        return false;
-                    }
-                } else if (proteinFilter.getProteinConfidenceComparison() == ComparisonType.NOT_EQUAL) {
-                    if (psParameter.getProteinConfidence() == proteinFilter.getProteinConfidence()) {
-                        return false;
-                    }
-                }
+        PSParameter psParameter = attributes.psParameter;
+
+        if (proteinFilter.getPi() != 5) {
+            if (proteinFilter.getPiComparison() == ComparisonType.NOT_EQUAL
+                    && psParameter.getGroupClass() == proteinFilter.getPi()) {
+                return false;
+            } else if (proteinFilter.getPiComparison() == ComparisonType.EQUAL
+                    && psParameter.getGroupClass() != proteinFilter.getPi()) {
+                return false;
             }
+        }
 
-            if (proteinFilter.getnPeptides() != null
-                    || proteinFilter.getProteinNSpectra() != null
-                    || proteinFilter.getProteinCoverage() != null
-                    || proteinFilter.getSpectrumCounting() != null) {
-                ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
+        if (proteinFilter.getProteinScore() != null
+                && !compare(psParameter.getProteinScore(), proteinFilter.getProteinScore(), proteinFilter.getProteinScoreComparison())) {
+            return false;
+        }
 
-                if (proteinFilter.getnPeptides() != null) {
-                    if (proteinFilter.getnPeptidesComparison() == ComparisonType.AFTER) {
-                        if (proteinMatch.getPeptideMatches().size() <= proteinFilter.getnPeptides()) {
-                            return false;
-                        }
-                    } else if (proteinFilter.getnPeptidesComparison() == ComparisonType.BEFORE) {
-                        if (proteinMatch.getPeptideMatches().size() >= proteinFilter.getnPeptides()) {
-                            return false;
-                        }
-                    } else if (proteinFilter.getnPeptidesComparison() == ComparisonType.EQUAL) {
-                        if (proteinMatch.getPeptideMatches().size() != proteinFilter.getnPeptides()) {
-                            return false;
-                        }
-                    } else if (proteinFilter.getnPeptidesComparison() == ComparisonType.NOT_EQUAL) {
-                        if (proteinMatch.getPeptideMatches().size() == proteinFilter.getnPeptides()) {
-                            return false;
-                        }
-                    }
-                }
-                IdentificationFeaturesGenerator identificationFeaturesGenerator = peptideShakerGUI.getIdentificationFeaturesGenerator();
-                if (proteinFilter.getProteinNSpectra() != null) {
-                    if (proteinFilter.getnSpectraComparison() == ComparisonType.AFTER) {
-                        if (identificationFeaturesGenerator.getNSpectra(proteinKey) <= proteinFilter.getProteinNSpectra()) {
-                            return false;
-                        }
-                    } else if (proteinFilter.getnSpectraComparison() == ComparisonType.BEFORE) {
-                        if (identificationFeaturesGenerator.getNSpectra(proteinKey) >= proteinFilter.getProteinNSpectra()) {
-                            return false;
-                        }
-                    } else if (proteinFilter.getnSpectraComparison() == ComparisonType.EQUAL) {
-                        if (identificationFeaturesGenerator.getNSpectra(proteinKey) != proteinFilter.getProteinNSpectra()) {
-                            return false;
-                        }
-                    } else if (proteinFilter.getnSpectraComparison() == ComparisonType.NOT_EQUAL) {
-                        if (identificationFeaturesGenerator.getNSpectra(proteinKey) == proteinFilter.getProteinNSpectra()) {
-                            return false;
-                        }
-                    }
-                }
+        if (proteinFilter.getProteinConfidence() != null
+                && !compare(psParameter.getProteinConfidence(), proteinFilter.getProteinConfidence(), proteinFilter.getProteinConfidenceComparison())) {
+            return false;
+        }
 
-                if (proteinFilter.getProteinCoverage() != null) {
-                    double sequenceCoverage = 100 * identificationFeaturesGenerator.getSequenceCoverage(proteinKey);
-                    if (proteinFilter.getProteinCoverageComparison() == ComparisonType.AFTER) {
-                        if (sequenceCoverage <= proteinFilter.getProteinCoverage()) {
-                            return false;
-                        }
-                    } else if (proteinFilter.getProteinCoverageComparison() == ComparisonType.BEFORE) {
-                        if (sequenceCoverage >= proteinFilter.getProteinCoverage()) {
-                            return false;
-                        }
-                    } else if (proteinFilter.getProteinCoverageComparison() == ComparisonType.EQUAL) {
-                        if (sequenceCoverage != proteinFilter.getProteinCoverage()) {
-                            return false;
-                        }
-                    } else if (proteinFilter.getProteinCoverageComparison() == ComparisonType.NOT_EQUAL) {
-                        if (sequenceCoverage == proteinFilter.getProteinCoverage()) {
-                            return false;
-                        }
-                    }
-                }
+        if (proteinFilter.getnPeptides() != null
+                && !compare(attributes.nPeptides, proteinFilter.getnPeptides(), proteinFilter.getnPeptidesComparison())) {
+            return false;
+        }
 
-                if (proteinFilter.getSpectrumCounting() != null) {
-                    double spectrumCounting = identificationFeaturesGenerator.getSpectrumCounting(proteinKey);
-                    if (proteinFilter.getSpectrumCountingComparison() == ComparisonType.AFTER) {
-                        if (spectrumCounting <= proteinFilter.getSpectrumCounting()) {
-                            return false;
-                        }
-                    } else if (proteinFilter.getSpectrumCountingComparison() == ComparisonType.BEFORE) {
-                        if (spectrumCounting >= proteinFilter.getSpectrumCounting()) {
-                            return false;
-                        }
-                    } else if (proteinFilter.getSpectrumCountingComparison() == ComparisonType.EQUAL) {
-                        if (spectrumCounting != proteinFilter.getSpectrumCounting()) {
-                            return false;
-                        }
-                    } else if (proteinFilter.getSpectrumCountingComparison() == ComparisonType.NOT_EQUAL) {
-                        if (spectrumCounting == proteinFilter.getSpectrumCounting()) {
-                            return false;
-                        }
-                    }
-                }
-            }
+        if (proteinFilter.getProteinNSpectra() != null
+                && !compare(attributes.nSpectra, proteinFilter.getProteinNSpectra(), proteinFilter.getnSpectraComparison())) {
+            return false;
+        }
 
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
-            peptideShakerGUI.catchException(e);
+        if (proteinFilter.getProteinCoverage() != null
+                && !compare(attributes.sequenceCoverage, proteinFilter.getProteinCoverage(), proteinFilter.getProteinCoverageComparison())) {
             return false;
         }
+
+        if (proteinFilter.getSpectrumCounting() != null
+                && !compare(attributes.spectrumCounting, proteinFilter.getSpectrumCounting(), proteinFilter.getSpectrumCountingComparison())) {
+            return false;
+        }
+
+        return true;
     }
 
     /**
-     * Tests whether a peptide match is validated by a given filter.
+     * Tests whether a peptide match is validated by a compiled filter. No
+     * identification access is made, this method can be called concurrently.
      *
-     * @param peptideKey the key of the peptide match
-     * @param peptideFilter the filter
-     * @return a boolean indicating whether a peptide match is validated by a
-     * given filter
+     * @param compiledFilter the compiled filter
+     * @param attributes the attributes of the peptide match
+     * @return a boolean indicating whether the peptide match is validated by
+     * the filter
      */
-    public boolean isValidated(String peptideKey, PeptideFilter peptideFilter) {
+    private boolean isValidated(CompiledFilter<PeptideFilter> compiledFilter, PeptideAttributes attributes) {
 
-        try {
-            if (peptideFilter.getExceptions().contains(peptideKey)) {
+        PeptideFilter peptideFilter = compiledFilter.filter;
+        String peptideKey = attributes.key;
+
+        if (peptideFilter.getExceptions().contains(peptideKey)) {
+            return false;
+        }
+
+        if (peptideFilter.getManualValidation().size() > 0) {
+            return peptideFilter.getManualValidation().contains(peptideKey);
+        }
+
+        boolean found = false;
+
+        for (String ptm : peptideFilter.getModificationStatus()) {
+            if (ptm.equals(PtmPanel.NO_MODIFICATION)) {
+                if (!Peptide.isModified(peptideKey)) {
+                    found = true;
+                    break;
+                }
+            } else {
+                if (Peptide.isModified(peptideKey, ptm)) {
+                    found = true;
+                    break;
+                }
+            }
+        }
+
+        if (!found) {
+            return false;
+        }
+
+        PSParameter psParameter = attributes.psParameter;
+
+        if (peptideFilter.getPi() != 5) {
+            if (peptideFilter.getPiComparison() == ComparisonType.NOT_EQUAL
+                    && psParameter.getGroupClass() == peptideFilter.getPi()) {
+                return false;
+            } else if (peptideFilter.getPiComparison() == ComparisonType.EQUAL
+                    && psParameter.getGroupClass() != peptideFilter.getPi()) {
                 return false;
             }
+        }
 
-            if (peptideFilter.getManualValidation().size() > 0) {
-                if (peptideFilter.getManualValidation().contains(peptideKey)) {
-                    return true;
-                } else {
-                    return false;
+        if (peptideFilter.getPeptideScore() != null
+                && !compare(psParameter.getPeptideScore(), peptideFilter.getPeptideScore(), peptideFilter.getPeptideScoreComparison())) {
+            return false;
+        }
+
+        if (peptideFilter.getPeptideConfidence() != null
+                && !compare(psParameter.getPeptideConfidence(), peptideFilter.getPeptideConfidence(), peptideFilter.getPeptideConfidenceComparison())) {
+            return false;
+        }
+
+        if (peptideFilter.getNSpectra() != null
+                && !compare(attributes.nSpectra, peptideFilter.getNSpectra(), peptideFilter.getnSpectraComparison())) {
+            return false;
+        }
+
+        if (compiledFilter.pattern != null) {
+            found = false;
+            for (int i = 0; i < attributes.accessions.size(); i++) {
+                if (compiledFilter.pattern.split(attributes.accessions.get(i)).length > 1) {
+                    found = true;
+                    break;
+                }
+                String description = attributes.descriptions.get(i);
+                if (description != null
+                        && compiledFilter.pattern.split(description).length > 1) {
+                    found = true;
+                    break;
                 }
             }
+            if (!found) {
+                return false;
+            }
+        }
 
-            PSParameter psParameter = new PSParameter();
-            boolean found = false;
+        return true;
+    }
 
-            for (String ptm : peptideFilter.getModificationStatus()) {
-                if (ptm.equals(PtmPanel.NO_MODIFICATION)) {
-                    if (!Peptide.isModified(peptideKey)) {
-                        found = true;
-                        break;
-                    }
-                } else {
-                    if (Peptide.isModified(peptideKey, ptm)) {
-                        found = true;
-                        break;
-                    }
-                }
+    /**
+     * Tests whether a spectrum match is validated by a compiled filter. No
+     * identification access is made, this method can be called concurrently.
+     *
+     * @param compiledFilter the compiled filter
+     * @param attributes the attributes of the spectrum match
+     * @return a boolean indicating whether the spectrum match is validated by
+     * the filter
+     */
+    private boolean isValidated(CompiledFilter<PsmFilter> compiledFilter, PsmAttributes attributes) {
+
+        PsmFilter psmFilter = compiledFilter.filter;
+        String spectrumKey = attributes.key;
+
+        if (psmFilter.getExceptions().contains(spectrumKey)) {
+            return false;
+        }
+
+        if (psmFilter.getManualValidation().size() > 0) {
+            return psmFilter.getManualValidation().contains(spectrumKey);
+        }
+
+        PSParameter psParameter = attributes.psParameter;
+
+        if (psmFilter.getPsmScore() != null
+                && !compare(psParameter.getPsmScore(), psmFilter.getPsmScore(), psmFilter.getPsmScoreComparison())) {
+            return false;
+        }
+
+        if (psmFilter.getPsmConfidence() != null
+                && !compare(psParameter.getPsmConfidence(), psmFilter.getPsmConfidence(), psmFilter.getPsmConfidenceComparison())) {
+            return false;
+        }
+
+        Precursor precursor = attributes.precursor;
+
+        if (psmFilter.getPrecursorMz() != null
+                && !compare(precursor.getMz(), psmFilter.getPrecursorMz(), psmFilter.getPrecursorMzComparison())) {
+            return false;
+        }
+
+        if (psmFilter.getPrecursorRT() != null
+                && !compare(precursor.getRt(), psmFilter.getPrecursorRT(), psmFilter.getPrecursorRTComparison())) {
+            return false;
+        }
+
+        if (psmFilter.getPrecursorMzError() != null) {
+            double error = Math.abs(attributes.spectrumMatch.getBestAssumption().getDeltaMass(precursor.getMz(), peptideShakerGUI.getSearchParameters().isPrecursorAccuracyTypePpm()));
+            if (!compare(error, psmFilter.getPrecursorMzError(), psmFilter.getPrecursorMzErrorComparison())) {
+                return false;
             }
+        }
 
-            if (!found) {
+        if (compiledFilter.filtersCharges) {
+            int charge = attributes.spectrumMatch.getBestAssumption().getIdentificationCharge().value;
+            if (!psmFilter.getCharges().contains(charge)) {
                 return false;
             }
+        }
 
-            Identification identification = peptideShakerGUI.getIdentification();
-            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+        if (!psmFilter.getFileNames().contains(Spectrum.getSpectrumFile(spectrumKey))) {
+            return false;
+        }
 
-            if (peptideFilter.getPi() != 5) {
-                if (peptideFilter.getPiComparison() == ComparisonType.NOT_EQUAL
-                        && psParameter.getGroupClass() == peptideFilter.getPi()) {
-                    return false;
-                } else if (peptideFilter.getPiComparison() == ComparisonType.EQUAL
-                        && psParameter.getGroupClass() != peptideFilter.getPi()) {
-                    return false;
+        return true;
+    }
+
+    /**
+     * Compares a value to the threshold of a filter.
+     *
+     * @param value the value of the match
+     * @param threshold the threshold of the filter
+     * @param comparison the comparison type of the filter
+     * @return a boolean indicating whether the value passes the threshold
+     */
+    private static boolean compare(double value, double threshold, ComparisonType comparison) {
+        if (comparison == ComparisonType.AFTER) {
+            return value > threshold;
+        } else if (comparison == ComparisonType.BEFORE) {
+            return value < threshold;
+        } else if (comparison == ComparisonType.EQUAL) {
+            return value == threshold;
+        } else if (comparison == ComparisonType.NOT_EQUAL) {
+            return value != threshold;
+        }
+        return true;
+    }
+
+    /**
+     * A filter together with its precompiled patterns.
+     *
+     * @param <F> the type of filter
+     */
+    private static class CompiledFilter<F extends MatchFilter> {
+
+        /**
+         * The filter.
+         */
+        private F filter;
+        /**
+         * The identifier pattern of a protein filter or the protein pattern of
+         * a peptide filter, null if not set.
+         */
+        private Pattern pattern = null;
+        /**
+         * The lower case identifier pattern of a protein filter, null if not
+         * set.
+         */
+        private Pattern lowerCasePattern = null;
+        /**
+         * For PSM filters, indicates whether the filter excludes some of the
+         * charges found.
+         */
+        private boolean filtersCharges = false;
+
+        /**
+         * Constructor.
+         *
+         * @param filter the filter
+         */
+        private CompiledFilter(F filter) {
+            this.filter = filter;
+        }
+    }
+
+    /**
+     * The active filters compiled together with the attributes of the matches
+     * needed to evaluate them.
+     */
+    private class FilterPlan {
+
+        /**
+         * The compiled protein hide filters.
+         */
+        private ArrayList<CompiledFilter<ProteinFilter>> proteinHideFilters = new ArrayList<CompiledFilter<ProteinFilter>>();
+        /**
+         * The compiled protein star filters.
+         */
+        private ArrayList<CompiledFilter<ProteinFilter>> proteinStarFilters = new ArrayList<CompiledFilter<ProteinFilter>>();
+        /**
+         * The compiled peptide hide filters.
+         */
+        private ArrayList<CompiledFilter<PeptideFilter>> peptideHideFilters = new ArrayList<CompiledFilter<PeptideFilter>>();
+        /**
+         * The compiled peptide star filters.
+         */
+        private ArrayList<CompiledFilter<PeptideFilter>> peptideStarFilters = new ArrayList<CompiledFilter<PeptideFilter>>();
+        /**
+         * The compiled PSM hide filters.
+         */
+        private ArrayList<CompiledFilter<PsmFilter>> psmHideFilters = new ArrayList<CompiledFilter<PsmFilter>>();
+        /**
+         * The compiled PSM star filters.
+         */
+        private ArrayList<CompiledFilter<PsmFilter>> psmStarFilters = new ArrayList<CompiledFilter<PsmFilter>>();
+        /**
+         * Indicates whether the descriptions of the proteins are needed.
+         */
+        private boolean proteinDescriptions = false;
+        /**
+         * Indicates whether the number of spectra of the proteins is needed.
+         */
+        private boolean proteinNSpectra = false;
+        /**
+         * Indicates whether the sequence coverage of the proteins is needed.
+         */
+        private boolean proteinCoverage = false;
+        /**
+         * Indicates whether the spectrum counting of the proteins is needed.
+         */
+        private boolean proteinSpectrumCounting = false;
+        /**
+         * Indicates whether the parent proteins of the peptides are needed.
+         */
+        private boolean peptideProteins = false;
+        /**
+         * Indicates whether the precursors of the PSMs are needed.
+         */
+        private boolean psmPrecursor = false;
+        /**
+         * Indicates whether the spectrum matches are needed.
+         */
+        private boolean psmSpectrumMatch = false;
+
+        /**
+         * Creates an empty plan.
+         */
+        private FilterPlan() {
+        }
+
+        /**
+         * Compiles the active filters of the given filter preferences.
+         *
+         * @param filterPreferences the filter preferences
+         */
+        private FilterPlan(FilterPreferences filterPreferences) {
+            for (ProteinFilter proteinFilter : filterPreferences.getProteinHideFilters().values()) {
+                if (proteinFilter.isActive()) {
+                    addProteinFilter(proteinFilter, proteinHideFilters);
                 }
             }
-
-            if (peptideFilter.getPeptideScore() != null) {
-                if (peptideFilter.getPeptideScoreComparison() == ComparisonType.AFTER) {
-                    if (psParameter.getPeptideScore() <= peptideFilter.getPeptideScore()) {
-                        return false;
-                    }
-                } else if (peptideFilter.getPeptideScoreComparison() == ComparisonType.BEFORE) {
-                    if (psParameter.getPeptideScore() >= peptideFilter.getPeptideScore()) {
-                        return false;
-                    }
-                } else if (peptideFilter.getPeptideScoreComparison() == ComparisonType.EQUAL) {
-                    if (psParameter.getPeptideScore() != peptideFilter.getPeptideScore()) {
-                        return false;
-                    }
-                } else if (peptideFilter.getPeptideScoreComparison() == ComparisonType.NOT_EQUAL) {
-                    if (psParameter.getPeptideScore() == peptideFilter.getPeptideScore()) {
-                        return false;
-                    }
+            for (ProteinFilter proteinFilter : filterPreferences.getProteinStarFilters().values()) {
+                if (proteinFilter.isActive()) {
+                    addProteinFilter(proteinFilter, proteinStarFilters);
                 }
             }
-
-            if (peptideFilter.getPeptideConfidence() != null) {
-                if (peptideFilter.getPeptideConfidenceComparison() == ComparisonType.AFTER) {
-                    if (psParameter.getPeptideConfidence() <= peptideFilter.getPeptideConfidence()) {
-                        return false;
-                    }
-                } else if (peptideFilter.getPeptideConfidenceComparison() == ComparisonType.BEFORE) {
-                    if (psParameter.getPeptideConfidence() >= peptideFilter.getPeptideConfidence()) {
-                        return false;
-                    }
-                } else if (peptideFilter.getPeptideConfidenceComparison() == ComparisonType.EQUAL) {
-                    if (psParameter.getPeptideConfidence() != peptideFilter.getPeptideConfidence()) {
-                        return false;
-                    }
-                } else if (peptideFilter.getPeptideConfidenceComparison() == ComparisonType.NOT_EQUAL) {
-                    if (psParameter.getPeptideConfidence() == peptideFilter.getPeptideConfidence()) {
-                        return false;
-                    }
+            for (PeptideFilter peptideFilter : filterPreferences.getPeptideHideFilters().values()) {
+                if (peptideFilter.isActive()) {
+                    addPeptideFilter(peptideFilter, peptideHideFilters);
                 }
             }
-
-            if (peptideFilter.getNSpectra() != null
-                    || peptideFilter.getProtein() != null) {
-                PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
-                if (peptideFilter.getNSpectra() != null) {
-                    if (peptideFilter.getnSpectraComparison() == ComparisonType.AFTER) {
-                        if (peptideMatch.getSpectrumCount() <= peptideFilter.getNSpectra()) {
-                            return false;
-                        }
-                    } else if (peptideFilter.getnSpectraComparison() == ComparisonType.BEFORE) {
-                        if (peptideMatch.getSpectrumCount() >= peptideFilter.getNSpectra()) {
-                            return false;
-                        }
-                    } else if (peptideFilter.getnSpectraComparison() == ComparisonType.EQUAL) {
-                        if (peptideMatch.getSpectrumCount() != peptideFilter.getNSpectra()) {
-                            return false;
-                        }
-                    } else if (peptideFilter.getnSpectraComparison() == ComparisonType.NOT_EQUAL) {
-                        if (peptideMatch.getSpectrumCount() != peptideFilter.getNSpectra()) {
-                            return false;
-                        }
-                    }
+            for (PeptideFilter peptideFilter : filterPreferences.getPeptideStarFilters().values()) {
+                if (peptideFilter.isActive()) {
+                    addPeptideFilter(peptideFilter, peptideStarFilters);
+                }
+            }
+            for (PsmFilter psmFilter : filterPreferences.getPsmHideFilters().values()) {
+                if (psmFilter.isActive()) {
+                    addPsmFilter(psmFilter, psmHideFilters);
+                }
+            }
+            for (PsmFilter psmFilter : filterPreferences.getPsmStarFilters().values()) {
+                if (psmFilter.isActive()) {
+                    addPsmFilter(psmFilter, psmStarFilters);
                 }
+            }
+        }
 
-                if (peptideFilter.getProtein() != null) {
-                    found = false;
-                    for (String accession : peptideMatch.getTheoreticPeptide().getParentProteins()) {
-                        if (accession.split(peptideFilter.getProtein()).length > 1) {
-                            found = true;
-                            break;
-                        }
-                        if (sequenceFactory.getHeader(accession).getDescription() != null
-                                && sequenceFactory.getHeader(accession).getDescription().split(peptideFilter.getProtein()).length > 1) {
-                            found = true;
-                            break;
-                        }
-                    }
-                    if (!found) {
-                        return false;
-                    }
+        /**
+         * Compiles a protein filter and adds it to the given list.
+         *
+         * @param proteinFilter the protein filter
+         * @param compiledFilters the list of compiled filters
+         * @return the compiled filter
+         */
+        private CompiledFilter<ProteinFilter> addProteinFilter(ProteinFilter proteinFilter, ArrayList<CompiledFilter<ProteinFilter>> compiledFilters) {
+            CompiledFilter<ProteinFilter> compiledFilter = new CompiledFilter<ProteinFilter>(proteinFilter);
+            compiledFilters.add(compiledFilter);
+            if (proteinFilter.getManualValidation().isEmpty()) {
+                if (proteinFilter.getIdentifierRegex() != null) {
+                    compiledFilter.pattern = Pattern.compile(proteinFilter.getIdentifierRegex());
+                    compiledFilter.lowerCasePattern = Pattern.compile(proteinFilter.getIdentifierRegex().toLowerCase());
+                    proteinDescriptions = true;
                 }
+                proteinNSpectra = proteinNSpectra || proteinFilter.getProteinNSpectra() != null;
+                proteinCoverage = proteinCoverage || proteinFilter.getProteinCoverage() != null;
+                proteinSpectrumCounting = proteinSpectrumCounting || proteinFilter.getSpectrumCounting() != null;
             }
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
-            peptideShakerGUI.catchException(e);
-            return false;
+            return compiledFilter;
+        }
+
+        /**
+         * Compiles a peptide filter and adds it to the given list.
+         *
+         * @param peptideFilter the peptide filter
+         * @param compiledFilters the list of compiled filters
+         * @return the compiled filter
+         */
+        private CompiledFilter<PeptideFilter> addPeptideFilter(PeptideFilter peptideFilter, ArrayList<CompiledFilter<PeptideFilter>> compiledFilters) {
+            CompiledFilter<PeptideFilter> compiledFilter = new CompiledFilter<PeptideFilter>(peptideFilter);
+            compiledFilters.add(compiledFilter);
+            if (peptideFilter.getManualValidation().isEmpty() && peptideFilter.getProtein() != null) {
+                compiledFilter.pattern = Pattern.compile(peptideFilter.getProtein());
+                peptideProteins = true;
+            }
+            return compiledFilter;
+        }
+
+        /**
+         * Compiles a PSM filter and adds it to the given list.
+         *
+         * @param psmFilter the PSM filter
+         * @param compiledFilters the list of compiled filters
+         * @return the compiled filter
+         */
+        private CompiledFilter<PsmFilter> addPsmFilter(PsmFilter psmFilter, ArrayList<CompiledFilter<PsmFilter>> compiledFilters) {
+            CompiledFilter<PsmFilter> compiledFilter = new CompiledFilter<PsmFilter>(psmFilter);
+            compiledFilters.add(compiledFilter);
+            if (psmFilter.getManualValidation().isEmpty()) {
+                compiledFilter.filtersCharges = psmFilter.getCharges().size() != peptideShakerGUI.getMetrics().getFoundCharges().size();
+                psmPrecursor = psmPrecursor
+                        || psmFilter.getPrecursorMz() != null
+                        || psmFilter.getPrecursorRT() != null
+                        || psmFilter.getPrecursorMzError() != null;
+                psmSpectrumMatch = psmSpectrumMatch
+                        || psmFilter.getPrecursorMzError() != null
+                        || compiledFilter.filtersCharges;
+            }
+            return compiledFilter;
         }
     }
 
     /**
-     * Tests whether a spectrum match is validated by a given filter.
+     * The attributes of a match needed to evaluate the filters and the result
+     * of the evaluation.
+     */
+    private static class MatchAttributes {
+
+        /**
+         * The key of the match.
+         */
+        protected String key;
+        /**
+         * The parameter of the match.
+         */
+        protected PSParameter psParameter;
+        /**
+         * Indicates whether the match should be hidden.
+         */
+        protected boolean hidden = false;
+        /**
+         * Indicates whether the match should be starred.
+         */
+        protected boolean starred = false;
+    }
+
+    /**
+     * The attributes of a protein match.
+     */
+    private static class ProteinAttributes extends MatchAttributes {
+
+        /**
+         * Indicates whether one of the peptides of the protein is not hidden.
+         */
+        private boolean peptideSurvived = true;
+        /**
+         * The number of peptides of the protein.
+         */
+        private int nPeptides;
+        /**
+         * The lower case descriptions of the accessions of the protein, the
+         * accessions without description are skipped.
+         */
+        private ArrayList<String> descriptions;
+        /**
+         * The number of spectra of the protein.
+         */
+        private double nSpectra;
+        /**
+         * The sequence coverage of the protein in percent.
+         */
+        private double sequenceCoverage;
+        /**
+         * The spectrum counting of the protein.
+         */
+        private double spectrumCounting;
+    }
+
+    /**
+     * The attributes of a peptide match.
+     */
+    private static class PeptideAttributes extends MatchAttributes {
+
+        /**
+         * Indicates whether one of the spectra of the peptide is not hidden.
+         */
+        private boolean psmSurvived = true;
+        /**
+         * The number of spectra of the peptide.
+         */
+        private int nSpectra;
+        /**
+         * The accessions of the parent proteins.
+         */
+        private ArrayList<String> accessions;
+        /**
+         * The descriptions of the parent proteins, null if not available.
+         */
+        private ArrayList<String> descriptions;
+    }
+
+    /**
+     * The attributes of a spectrum match.
+     */
+    private static class PsmAttributes extends MatchAttributes {
+
+        /**
+         * The precursor of the spectrum.
+         */
+        private Precursor precursor;
+        /**
+         * The spectrum match.
+         */
+        private SpectrumMatch spectrumMatch;
+    }
+
+    /**
+     * A level of matches: loads the attributes, evaluates the filters and
+     * saves the parameters of the matches. Attributes are loaded and saved on
+     * the calling thread, the filters can be evaluated concurrently.
      *
-     * @param spectrumKey the key of the spectrum match
-     * @param psmFilter the filter
-     * @return a boolean indicating whether a spectrum match is validated by a
-     * given filter
+     * @param <T> the type of attributes
      */
-    public boolean isValidated(String spectrumKey, PsmFilter psmFilter) {
+    private abstract class MatchLevel<T extends MatchAttributes> {
+
+        /**
+         * Loads the attributes of a match needed by the filters.
+         *
+         * @param key the key of the match
+         * @return the attributes of the match
+         * @throws Exception exception thrown whenever an error occurred while
+         * loading the match
+         */
+        protected abstract T getAttributes(String key) throws Exception;
+
+        /**
+         * Indicates whether a match should be hidden.
+         *
+         * @param attributes the attributes of the match
+         * @return a boolean indicating whether a match should be hidden
+         */
+        protected abstract boolean isHidden(T attributes);
+
+        /**
+         * Indicates whether a match should be starred.
+         *
+         * @param attributes the attributes of the match
+         * @return a boolean indicating whether a match should be starred
+         */
+        protected abstract boolean isStarred(T attributes);
+
+        /**
+         * Saves the parameter of a match.
+         *
+         * @param attributes the attributes of the match
+         * @throws Exception exception thrown whenever an error occurred while
+         * saving the match
+         */
+        protected abstract void save(T attributes) throws Exception;
+    }
 
-        try {
-            if (psmFilter.getExceptions().contains(spectrumKey)) {
-                return false;
+    /**
+     * The protein level.
+     */
+    private class ProteinLevel extends MatchLevel<ProteinAttributes> {
+
+        /**
+         * The filter plan.
+         */
+        private FilterPlan filterPlan;
+        /**
+         * The keys of the hidden peptides, null if not known.
+         */
+        private HashSet<String> hiddenPeptides;
+
+        /**
+         * Constructor.
+         *
+         * @param filterPlan the filter plan
+         * @param hiddenPeptides the keys of the hidden peptides, null if not
+         * known
+         */
+        private ProteinLevel(FilterPlan filterPlan, HashSet<String> hiddenPeptides) {
+            this.filterPlan = filterPlan;
+            this.hiddenPeptides = hiddenPeptides;
+        }
+
+        @Override
+        protected ProteinAttributes getAttributes(String proteinKey) throws Exception {
+            Identification identification = peptideShakerGUI.getIdentification();
+            IdentificationFeaturesGenerator identificationFeaturesGenerator = peptideShakerGUI.getIdentificationFeaturesGenerator();
+            ProteinAttributes attributes = new ProteinAttributes();
+            attributes.key = proteinKey;
+            attributes.psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, new PSParameter());
+            ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
+            attributes.nPeptides = proteinMatch.getPeptideMatches().size();
+            if (hiddenPeptides != null) {
+                attributes.peptideSurvived = !hiddenPeptides.containsAll(proteinMatch.getPeptideMatches());
+            }
+            if (filterPlan.proteinDescriptions) {
+                attributes.descriptions = new ArrayList<String>();
+                for (String accession : ProteinMatch.getAccessions(proteinKey)) {
+                    String description = getDescription(accession);
+                    if (description != null) {
+                        attributes.descriptions.add(description.toLowerCase());
+                    }
+                }
+            }
+            if (filterPlan.proteinNSpectra) {
+                attributes.nSpectra = identificationFeaturesGenerator.getNSpectra(proteinKey);
+            }
+            if (filterPlan.proteinCoverage) {
+                attributes.sequenceCoverage = 100 * identificationFeaturesGenerator.getSequenceCoverage(proteinKey);
             }
-            if (psmFilter.getManualValidation().size() > 0) {
-                if (psmFilter.getManualValidation().contains(spectrumKey)) {
+            if (filterPlan.proteinSpectrumCounting) {
+                attributes.spectrumCounting = identificationFeaturesGenerator.getSpectrumCounting(proteinKey);
+            }
+            return attributes;
+        }
+
+        @Override
+        protected boolean isHidden(ProteinAttributes attributes) {
+            if (!attributes.peptideSurvived) {
+                return true;
+            }
+            for (CompiledFilter<ProteinFilter> compiledFilter : filterPlan.proteinHideFilters) {
+                if (isValidated(compiledFilter, attributes)) {
                     return true;
-                } else {
-                    return false;
                 }
             }
+            return false;
+        }
 
-            Identification identification = peptideShakerGUI.getIdentification();
-            PSParameter psParameter = new PSParameter();
+        @Override
+        protected boolean isStarred(ProteinAttributes attributes) {
+            for (CompiledFilter<ProteinFilter> compiledFilter : filterPlan.proteinStarFilters) {
+                if (isValidated(compiledFilter, attributes)) {
+                    return true;
+                }
+            }
+            return false;
+        }
 
-            if (psmFilter.getPsmScore() != null
-                    || psmFilter.getPsmConfidence() != null) {
-                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+        @Override
+        protected void save(ProteinAttributes attributes) throws Exception {
+            peptideShakerGUI.getIdentification().updateProteinMatchParameter(attributes.key, attributes.psParameter);
+        }
+    }
 
-                if (psmFilter.getPsmScore() != null) {
-                    if (psmFilter.getPsmScoreComparison() == ComparisonType.AFTER) {
-                        if (psParameter.getPsmScore() <= psmFilter.getPsmScore()) {
-                            return false;
-                        }
-                    } else if (psmFilter.getPsmScoreComparison() == ComparisonType.BEFORE) {
-                        if (psParameter.getPsmScore() >= psmFilter.getPsmScore()) {
-                            return false;
-                        }
-                    } else if (psmFilter.getPsmScoreComparison() == ComparisonType.EQUAL) {
-                        if (psParameter.getPsmScore() != psmFilter.getPsmScore()) {
-                            return false;
-                        }
-                    } else if (psmFilter.getPsmScoreComparison() == ComparisonType.NOT_EQUAL) {
-                        if (psParameter.getPsmScore() == psmFilter.getPsmScore()) {
-                            return false;
-                        }
-                    }
-                }
+    /**
+     * The peptide level.
+     */
+    private class PeptideLevel extends MatchLevel<PeptideAttributes> {
+
+        /**
+         * The filter plan.
+         */
+        private FilterPlan filterPlan;
+        /**
+         * The keys of the hidden spectra, null if not known.
+         */
+        private HashSet<String> hiddenSpectra;
+
+        /**
+         * Constructor.
+         *
+         * @param filterPlan the filter plan
+         * @param hiddenSpectra the keys of the hidden spectra, null if not
+         * known
+         */
+        private PeptideLevel(FilterPlan filterPlan, HashSet<String> hiddenSpectra) {
+            this.filterPlan = filterPlan;
+            this.hiddenSpectra = hiddenSpectra;
+        }
 
-                if (psmFilter.getPsmConfidence() != null) {
-                    if (psmFilter.getPsmConfidenceComparison() == ComparisonType.AFTER) {
-                        if (psParameter.getPsmConfidence() <= psmFilter.getPsmConfidence()) {
-                            return false;
-                        }
-                    } else if (psmFilter.getPsmConfidenceComparison() == ComparisonType.BEFORE) {
-                        if (psParameter.getPsmConfidence() >= psmFilter.getPsmConfidence()) {
-                            return false;
-                        }
-                    } else if (psmFilter.getPsmConfidenceComparison() == ComparisonType.EQUAL) {
-                        if (psParameter.getPsmConfidence() != psmFilter.getPsmConfidence()) {
-                            return false;
-                        }
-                    } else if (psmFilter.getPsmConfidenceComparison() == ComparisonType.NOT_EQUAL) {
-                        if (psParameter.getPsmConfidence() == psmFilter.getPsmConfidence()) {
-                            return false;
-                        }
-                    }
+        @Override
+        protected PeptideAttributes getAttributes(String peptideKey) throws Exception {
+            Identification identification = peptideShakerGUI.getIdentification();
+            PeptideAttributes attributes = new PeptideAttributes();
+            attributes.key = peptideKey;
+            attributes.psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, new PSParameter());
+            PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+            attributes.nSpectra = peptideMatch.getSpectrumCount();
+            if (hiddenSpectra != null) {
+                attributes.psmSurvived = !hiddenSpectra.containsAll(peptideMatch.getSpectrumMatches());
+            }
+            if (filterPlan.peptideProteins) {
+                attributes.accessions = peptideMatch.getTheoreticPeptide().getParentProteins();
+                attributes.descriptions = new ArrayList<String>(attributes.accessions.size());
+                for (String accession : attributes.accessions) {
+                    attributes.descriptions.add(getDescription(accession));
                 }
             }
+            return attributes;
+        }
 
-            if (psmFilter.getPrecursorMz() != null
-                    || psmFilter.getPrecursorRT() != null
-                    || psmFilter.getPrecursorMzError() != null) {
-                Precursor precursor = peptideShakerGUI.getPrecursor(spectrumKey);
-                if (psmFilter.getPrecursorMz() != null) {
-                    if (psmFilter.getPrecursorMzComparison() == ComparisonType.AFTER) {
-                        if (precursor.getMz() <= psmFilter.getPrecursorMz()) {
-                            return false;
-                        }
-                    } else if (psmFilter.getPrecursorMzComparison() == ComparisonType.BEFORE) {
-                        if (precursor.getMz() >= psmFilter.getPrecursorMz()) {
-                            return false;
-                        }
-                    } else if (psmFilter.getPrecursorMzComparison() == ComparisonType.EQUAL) {
-                        if (precursor.getMz() != psmFilter.getPrecursorMz()) {
-                            return false;
-                        }
-                    } else if (psmFilter.getPrecursorMzComparison() == ComparisonType.NOT_EQUAL) {
-                        if (precursor.getMz() == psmFilter.getPrecursorMz()) {
-                            return false;
-                        }
-                    }
+        @Override
+        protected boolean isHidden(PeptideAttributes attributes) {
+            if (!attributes.psmSurvived) {
+                return true;
+            }
+            for (CompiledFilter<PeptideFilter> compiledFilter : filterPlan.peptideHideFilters) {
+                if (isValidated(compiledFilter, attributes)) {
+                    return true;
                 }
+            }
+            return false;
+        }
 
-                if (psmFilter.getPrecursorRT() != null) {
-                    if (psmFilter.getPrecursorRTComparison() == ComparisonType.AFTER) {
-                        if (precursor.getRt() <= psmFilter.getPrecursorRT()) {
-                            return false;
-                        }
-                    } else if (psmFilter.getPrecursorRTComparison() == ComparisonType.BEFORE) {
-                        if (precursor.getRt() >= psmFilter.getPrecursorRT()) {
-                            return false;
-                        }
-                    } else if (psmFilter.getPrecursorRTComparison() == ComparisonType.EQUAL) {
-                        if (precursor.getRt() != psmFilter.getPrecursorRT()) {
-                            return false;
-                        }
-                    } else if (psmFilter.getPrecursorRTComparison() == ComparisonType.NOT_EQUAL) {
-                        if (precursor.getRt() == psmFilter.getPrecursorRT()) {
-                            return false;
-                        }
-                    }
+        @Override
+        protected boolean isStarred(PeptideAttributes attributes) {
+            for (CompiledFilter<PeptideFilter> compiledFilter : filterPlan.peptideStarFilters) {
+                if (isValidated(compiledFilter, attributes)) {
+                    return true;
                 }
+            }
+            return false;
+        }
 
-                if (psmFilter.getPrecursorMzError() != null) {
-                    SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
-                    double error = Math.abs(spectrumMatch.getBestAssumption().getDeltaMass(precursor.getMz(), peptideShakerGUI.getSearchParameters().isPrecursorAccuracyTypePpm()));
-                    if (psmFilter.getPrecursorMzErrorComparison() == ComparisonType.AFTER) {
-                        if (error <= psmFilter.getPrecursorMzError()) {
-                            return false;
-                        }
-                    } else if (psmFilter.getPrecursorMzErrorComparison() == ComparisonType.BEFORE) {
-                        if (error >= psmFilter.getPrecursorMzError()) {
-                            return false;
-                        }
-                    } else if (psmFilter.getPrecursorMzErrorComparison() == ComparisonType.EQUAL) {
-                        if (error != psmFilter.getPrecursorMzError()) {
-                            return false;
-                        }
-                    } else if (psmFilter.getPrecursorMzErrorComparison() == ComparisonType.NOT_EQUAL) {
-                        if (error == psmFilter.getPrecursorMzError()) {
-                            return false;
-                        }
-                    }
-                }
+        @Override
+        protected void save(PeptideAttributes attributes) throws Exception {
+            peptideShakerGUI.getIdentification().updatePeptideMatchParameter(attributes.key, attributes.psParameter);
+        }
+    }
+
+    /**
+     * The PSM level.
+     */
+    private class PsmLevel extends MatchLevel<PsmAttributes> {
+
+        /**
+         * The filter plan.
+         */
+        private FilterPlan filterPlan;
+
+        /**
+         * Constructor.
+         *
+         * @param filterPlan the filter plan
+         */
+        private PsmLevel(FilterPlan filterPlan) {
+            this.filterPlan = filterPlan;
+        }
+
+        @Override
+        protected PsmAttributes getAttributes(String spectrumKey) throws Exception {
+            Identification identification = peptideShakerGUI.getIdentification();
+            PsmAttributes attributes = new PsmAttributes();
+            attributes.key = spectrumKey;
+            attributes.psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, new PSParameter());
+            if (filterPlan.psmPrecursor) {
+                attributes.precursor = peptideShakerGUI.getPrecursor(spectrumKey);
             }
-            if (psmFilter.getCharges().size() != peptideShakerGUI.getMetrics().getFoundCharges().size()) {
-                SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
-                int charge = spectrumMatch.getBestAssumption().getIdentificationCharge().value;
-                if (!psmFilter.getCharges().contains(charge)) {
-                    return false;
+            if (filterPlan.psmSpectrumMatch) {
+                attributes.spectrumMatch = identification.getSpectrumMatch(spectrumKey);
+            }
+            return attributes;
+        }
+
+        @Override
+        protected boolean isHidden(PsmAttributes attributes) {
+            for (CompiledFilter<PsmFilter> compiledFilter : filterPlan.psmHideFilters) {
+                if (isValidated(compiledFilter, attributes)) {
+                    return true;
                 }
             }
+            return false;
+        }
 
-            if (!psmFilter.getFileNames().contains(Spectrum.getSpectrumFile(spectrumKey))) {
-                return false;
+        @Override
+        protected boolean isStarred(PsmAttributes attributes) {
+            for (CompiledFilter<PsmFilter> compiledFilter : filterPlan.psmStarFilters) {
+                if (isValidated(compiledFilter, attributes)) {
+                    return true;
+                }
             }
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
-            peptideShakerGUI.catchException(e);
             return false;
         }
+
+        @Override
+        protected void save(PsmAttributes attributes) throws Exception {
+            peptideShakerGUI.getIdentification().updateSpectrumMatchParameter(attributes.key, attributes.psParameter);
+        }
     }
 }
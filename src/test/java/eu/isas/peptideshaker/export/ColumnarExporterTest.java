@@ -0,0 +1,123 @@
+package eu.isas.peptideshaker.export;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the files written by the ColumnarExporter are read back by the
+ * ColumnarReader.
+ *
+ * @author Marc Vaudel
+ */
+public class ColumnarExporterTest extends TestCase {
+
+    /**
+     * Writes lines spanning several blocks and checks the values, block
+     * boundaries and block extrema read back.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * writing or reading the file
+     */
+    public void testRoundTrip() throws Exception {
+
+        String[] columnNames = {"Accession", "n spectra", "p", "Description"};
+        HashSet<String> numericColumns = new HashSet<String>(Arrays.asList("n spectra", "p"));
+        int blockSize = 3, nLines = 7;
+
+        File file = File.createTempFile("columnar", ".psc");
+        file.deleteOnExit();
+
+        ColumnarExporter.ColumnarFileWriter writer = new ColumnarExporter.ColumnarFileWriter(file, columnNames, numericColumns, blockSize);
+        try {
+            for (int i = 0; i < nLines; i++) {
+                writer.addText("P" + i);
+                writer.addNumber(nLines - i);
+                if (i == 4) {
+                    writer.addText("not a number");
+                } else {
+                    writer.addNumber(i / 10.0);
+                }
+                if (i == 2) {
+                    writer.addText(null);
+                } else if (i != 5) {
+                    writer.addText("protein " + i);
+                }
+                writer.endLine();
+                writer.flush();
+            }
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+
+        ColumnarReader reader = new ColumnarReader(file);
+        try {
+            assertEquals(Arrays.asList(columnNames), reader.getColumnNames());
+            assertEquals(ColumnarReader.TEXT, reader.getColumnType(reader.getColumnIndex("Accession")));
+            assertEquals(ColumnarReader.NUMERIC, reader.getColumnType(reader.getColumnIndex("n spectra")));
+            assertEquals(blockSize, reader.getBlockSize());
+            assertEquals(nLines, reader.getNRows());
+            assertEquals(3, reader.getNBlocks());
+            assertEquals(3, reader.getNRows(0));
+            assertEquals(3, reader.getNRows(1));
+            assertEquals(1, reader.getNRows(2));
+
+            String[] accessions = reader.getTextColumn("Accession");
+            double[] nSpectra = reader.getNumericColumn("n spectra");
+            double[] p = reader.getNumericColumn("p");
+            String[] descriptions = reader.getTextColumn("Description");
+            for (int i = 0; i < nLines; i++) {
+                assertEquals("P" + i, accessions[i]);
+                assertEquals(nLines - i, nSpectra[i], 0.0);
+                if (i == 4) {
+                    assertTrue(Double.isNaN(p[i]));
+                } else {
+                    assertEquals(i / 10.0, p[i], 0.0);
+                }
+                if (i == 2 || i == 5) {
+                    assertEquals("", descriptions[i]);
+                } else {
+                    assertEquals("protein " + i, descriptions[i]);
+                }
+            }
+
+            int pColumn = reader.getColumnIndex("p");
+            assertEquals(0.3, (Double) reader.getMinimum(1, pColumn), 0.0);
+            assertEquals(0.5, (Double) reader.getMaximum(1, pColumn), 0.0);
+            assertEquals("P3", reader.getMinimum(1, reader.getColumnIndex("Accession")));
+            assertEquals("P5", reader.getMaximum(1, reader.getColumnIndex("Accession")));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Checks that a file without lines contains no block.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * writing or reading the file
+     */
+    public void testEmptyFile() throws Exception {
+
+        File file = File.createTempFile("columnar", ".psc");
+        file.deleteOnExit();
+
+        ColumnarExporter.ColumnarFileWriter writer = new ColumnarExporter.ColumnarFileWriter(file, new String[]{"Accession"}, new HashSet<String>(), 10);
+        try {
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+
+        ColumnarReader reader = new ColumnarReader(file);
+        try {
+            assertEquals(0, reader.getNBlocks());
+            assertEquals(0, reader.getNRows());
+            assertEquals(0, reader.getTextColumn("Accession").length);
+        } finally {
+            reader.close();
+        }
+    }
+}
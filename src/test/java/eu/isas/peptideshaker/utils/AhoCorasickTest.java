@@ -0,0 +1,132 @@
+package eu.isas.peptideshaker.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Tests the search of patterns by the AhoCorasick class against a naive scan
+ * using indexOf.
+ *
+ * @author Marc Vaudel
+ */
+public class AhoCorasickTest extends TestCase {
+
+    /**
+     * Tests overlapping and nested occurrences.
+     */
+    public void testOverlappingPatterns() {
+        assertSameAsNaive(Arrays.asList("AA", "AAA", "A", "ABA", "BAB"), "AAAABABABAAA");
+        assertSameAsNaive(Arrays.asList("PEPTIDE", "PEP", "TIDE", "EPT", "IDEP"), "PEPTIDEPEPTIDEP");
+    }
+
+    /**
+     * Tests patterns and texts containing characters which are not upper case
+     * letters, in particular patterns differing only by such characters.
+     */
+    public void testNonLetterCharacters() {
+        assertSameAsNaive(Arrays.asList("A*C", "A-C", "a", "*", "K-", "X1"), "A*CA-CaK-X1A*C**A+C");
+        assertSameAsNaive(Arrays.asList("AB", "A B"), "ABA BAB");
+    }
+
+    /**
+     * Tests an empty text, a text shorter than the patterns, patterns not
+     * found and an automaton without patterns.
+     */
+    public void testEmptyCases() {
+
+        assertSameAsNaive(Arrays.asList("ACD", "K"), "");
+        assertSameAsNaive(Arrays.asList("ACDEFGHIK"), "ACD");
+        assertSameAsNaive(Arrays.asList("WWW", "YY"), "ACDEFGHIK");
+
+        AhoCorasick automaton = new AhoCorasick(new ArrayList<String>());
+        assertEquals(0, automaton.getNPatterns());
+        assertEquals(0, automaton.search("ACDEFGHIK").length);
+    }
+
+    /**
+     * Tests random peptides on random protein sequences using a reduced
+     * alphabet to obtain many occurrences.
+     */
+    public void testRandomSequences() {
+
+        Random random = new Random(42);
+        String alphabet = "ACDK*";
+
+        for (int test = 0; test < 100; test++) {
+
+            String text = randomSequence(random, alphabet, random.nextInt(200));
+            List<String> patterns = new ArrayList<String>();
+
+            while (patterns.size() < 20) {
+                String pattern = randomSequence(random, alphabet, 1 + random.nextInt(6));
+                if (!patterns.contains(pattern)) {
+                    patterns.add(pattern);
+                }
+            }
+
+            assertSameAsNaive(patterns, text);
+        }
+    }
+
+    /**
+     * Verifies that the automaton finds the same occurrences as a naive scan.
+     *
+     * @param patterns the patterns
+     * @param text the text to search
+     */
+    private void assertSameAsNaive(List<String> patterns, String text) {
+
+        AhoCorasick automaton = new AhoCorasick(patterns);
+        int[][] starts = automaton.search(text);
+
+        assertEquals(patterns.size(), automaton.getNPatterns());
+        assertEquals(patterns.size(), starts.length);
+
+        for (int i = 0; i < patterns.size(); i++) {
+            assertEquals(patterns.get(i), automaton.getPattern(i));
+            assertEquals("Occurrences of " + patterns.get(i) + " in " + text,
+                    Arrays.toString(naiveSearch(patterns.get(i), text)), Arrays.toString(starts[i]));
+        }
+    }
+
+    /**
+     * Returns the start indexes of all occurrences of a pattern in a text,
+     * overlapping occurrences included.
+     *
+     * @param pattern the pattern
+     * @param text the text
+     * @return the start indexes in increasing order
+     */
+    private int[] naiveSearch(String pattern, String text) {
+        ArrayList<Integer> starts = new ArrayList<Integer>();
+        int start = text.indexOf(pattern);
+        while (start >= 0) {
+            starts.add(start);
+            start = text.indexOf(pattern, start + 1);
+        }
+        int[] result = new int[starts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = starts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a random sequence.
+     *
+     * @param random the random number generator
+     * @param alphabet the characters to use
+     * @param length the length of the sequence
+     * @return a random sequence
+     */
+    private String randomSequence(Random random, String alphabet, int length) {
+        StringBuilder sequence = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sequence.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sequence.toString();
+    }
+}
@@ -0,0 +1,77 @@
+package eu.isas.peptideshaker.utils;
+
+import java.io.File;
+import java.io.IOException;
+import junit.framework.TestCase;
+
+/**
+ * Tests the parsing of OBO files by the GeneOntology class.
+ *
+ * @author Marc Vaudel
+ */
+public class GeneOntologyTest extends TestCase {
+
+    /**
+     * The folder containing the test OBO file.
+     */
+    private static final File TEST_FOLDER = new File("src/test/resources/gene_ontology");
+
+    /**
+     * Tests the domains, names and parents of the terms.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the test file
+     */
+    public void testTerms() throws IOException {
+
+        GeneOntology geneOntology = new GeneOntology(new File(TEST_FOLDER, "test.obo"));
+
+        assertEquals(5, geneOntology.getNTerms());
+        assertEquals("biological_process", geneOntology.getDomain("GO:0009987"));
+        assertEquals("cellular_component", geneOntology.getDomain("GO:0005737"));
+        assertEquals("molecular_function", geneOntology.getDomain("GO:0003674"));
+        assertEquals("cellular process", geneOntology.getName("GO:0009987"));
+
+        String[] parents = geneOntology.getParents("GO:0005737");
+        assertEquals(2, parents.length);
+        assertEquals("GO:0005575", parents[0]);
+        assertEquals("GO:0005622", parents[1]);
+        assertEquals(0, geneOntology.getParents("GO:0008150").length);
+    }
+
+    /**
+     * Tests that the alternative accessions are resolved to their primary
+     * term and that the stanzas which are not terms are ignored.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the test file
+     */
+    public void testAccessions() throws IOException {
+
+        GeneOntology geneOntology = new GeneOntology(new File(TEST_FOLDER, "test.obo"));
+
+        assertEquals("GO:0009987", geneOntology.getPrimaryAccession("GO:0008151"));
+        assertEquals("GO:0009987", geneOntology.getPrimaryAccession("GO:0050875"));
+        assertEquals("biological_process", geneOntology.getDomain("GO:0050875"));
+
+        assertFalse(geneOntology.contains("part_of"));
+        assertFalse(geneOntology.contains("GO:0005622"));
+        assertNull(geneOntology.getDomain("GO:0005622"));
+        assertNull(geneOntology.getName("GO:0005622"));
+    }
+
+    /**
+     * Tests the selection of the OBO file in a gene ontology folder.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the files
+     */
+    public void testGetGeneOntology() throws IOException {
+
+        assertNull(GeneOntology.getGeneOntology(TEST_FOLDER));
+
+        GeneOntology slimOntology = GeneOntology.getGeneOntology(new File("resources/conf/gene_ontology"));
+        assertNotNull(slimOntology);
+        assertEquals("biological_process", slimOntology.getDomain("GO:0007568"));
+    }
+}
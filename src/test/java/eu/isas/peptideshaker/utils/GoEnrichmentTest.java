@@ -0,0 +1,156 @@
+package eu.isas.peptideshaker.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Tests the hypergeometric probabilities and the multiple testing correction
+ * of the GoEnrichment class.
+ *
+ * @author Marc Vaudel
+ */
+public class GoEnrichmentTest extends TestCase {
+
+    /**
+     * Tests the probabilities against a direct computation of the binomial
+     * coefficients.
+     */
+    public void testGetProbability() {
+
+        int populationSize = 60;
+        GoEnrichment goEnrichment = new GoEnrichment(populationSize);
+
+        for (int nSuccesses = 0; nSuccesses <= populationSize; nSuccesses += 7) {
+            for (int sampleSize = 0; sampleSize <= populationSize; sampleSize += 11) {
+                double total = 0;
+                for (int nSampleSuccesses = 0; nSampleSuccesses <= sampleSize; nSampleSuccesses++) {
+                    double expected = binomial(nSuccesses, nSampleSuccesses) * binomial(populationSize - nSuccesses, sampleSize - nSampleSuccesses)
+                            / binomial(populationSize, sampleSize);
+                    double probability = goEnrichment.getProbability(nSuccesses, sampleSize, nSampleSuccesses);
+                    assertEquals(expected, probability, 1e-9 * Math.max(1, expected));
+                    total += probability;
+                }
+                assertEquals(1.0, total, 1e-9);
+            }
+        }
+
+        assertEquals(0.0, goEnrichment.getProbability(10, 20, 11), 0.0);
+
+        try {
+            goEnrichment.getProbability(61, 20, 5);
+            fail("A number of successes larger than the population should be rejected.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that the probabilities of all terms evaluated on several threads
+     * are those of the terms evaluated one by one.
+     *
+     * @throws InterruptedException exception thrown if a thread is
+     * interrupted
+     */
+    public void testGetProbabilities() throws InterruptedException {
+
+        Random random = new Random(42);
+        int populationSize = 1000, sampleSize = 100;
+        int[] termCounts = new int[257];
+        int[] sampleCounts = new int[termCounts.length];
+        for (int term = 0; term < termCounts.length; term++) {
+            termCounts[term] = random.nextInt(populationSize);
+            sampleCounts[term] = random.nextInt(Math.min(termCounts[term], sampleSize) + 1);
+        }
+
+        GoEnrichment goEnrichment = new GoEnrichment(populationSize);
+        double[] probabilities = goEnrichment.getProbabilities(termCounts, sampleCounts, sampleSize, 3);
+
+        for (int term = 0; term < termCounts.length; term++) {
+            assertEquals(goEnrichment.getProbability(termCounts[term], sampleSize, sampleCounts[term]), probabilities[term], 0.0);
+        }
+    }
+
+    /**
+     * Tests the Benjamini-Hochberg correction on small examples.
+     */
+    public void testBenjaminiHochbergCorrection() {
+
+        assertEquals("[0.02, 0.04, 0.04, 0.02]",
+                Arrays.toString(round(GoEnrichment.getBenjaminiHochbergCorrection(new double[]{0.01, 0.04, 0.03, 0.005}))));
+
+        // the value of rank 1 (0.02) exceeds the value of rank 2 (0.011)
+        assertEquals("[0.011, 0.011]", Arrays.toString(round(GoEnrichment.getBenjaminiHochbergCorrection(new double[]{0.01, 0.011}))));
+
+        // the values are capped at 1
+        assertEquals("[1.0, 1.0]", Arrays.toString(round(GoEnrichment.getBenjaminiHochbergCorrection(new double[]{1.0, 0.6}))));
+
+        assertEquals(0, GoEnrichment.getBenjaminiHochbergCorrection(new double[0]).length);
+    }
+
+    /**
+     * Tests the Benjamini-Hochberg correction on random p-values against its
+     * definition: the minimum over the higher ranks of p * n / rank, capped
+     * at 1.
+     */
+    public void testBenjaminiHochbergDefinition() {
+
+        Random random = new Random(42);
+        double[] pValues = new double[200];
+        for (int i = 0; i < pValues.length; i++) {
+            pValues[i] = random.nextDouble() * random.nextDouble();
+        }
+        pValues[10] = pValues[20];
+
+        double[] corrected = GoEnrichment.getBenjaminiHochbergCorrection(pValues);
+        double[] sorted = pValues.clone();
+        Arrays.sort(sorted);
+        int n = pValues.length;
+
+        for (int i = 0; i < n; i++) {
+            int rank = Arrays.binarySearch(sorted, pValues[i]) + 1;
+            while (rank < n && sorted[rank] == pValues[i]) {
+                rank++;
+            }
+            double expected = 1;
+            for (int j = rank; j <= n; j++) {
+                expected = Math.min(expected, sorted[j - 1] * n / j);
+            }
+            assertEquals(expected, corrected[i], 1e-12);
+            assertTrue(corrected[i] >= pValues[i]);
+            assertTrue(corrected[i] <= 1);
+        }
+    }
+
+    /**
+     * Returns the binomial coefficient n choose k.
+     *
+     * @param n the number of elements
+     * @param k the number of elements chosen
+     * @return the binomial coefficient
+     */
+    private double binomial(int n, int k) {
+        if (k < 0 || k > n) {
+            return 0;
+        }
+        double result = 1;
+        for (int i = 1; i <= k; i++) {
+            result = result * (n - k + i) / i;
+        }
+        return result;
+    }
+
+    /**
+     * Rounds values to twelve decimals.
+     *
+     * @param values the values
+     * @return the rounded values
+     */
+    private double[] round(double[] values) {
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = Math.round(values[i] * 1e12) / 1e12;
+        }
+        return result;
+    }
+}
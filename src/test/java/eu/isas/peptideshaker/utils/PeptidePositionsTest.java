@@ -0,0 +1,109 @@
+package eu.isas.peptideshaker.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests the location of peptides and the coverage computed by the
+ * PeptidePositions class.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptidePositionsTest extends TestCase {
+
+    /**
+     * The protein sequence used in the tests.
+     */
+    private static final String PROTEIN = "MKPEPTIDEKRPEPTIDEKAAAK";
+
+    /**
+     * Tests the start indexes and number of occurrences of the peptides.
+     */
+    public void testStarts() {
+
+        PeptidePositions positions = new PeptidePositions(PROTEIN, Arrays.asList("PEPTIDEK", "AAAK", "PEPTIDEK", "", "WWW"));
+
+        assertEquals(PROTEIN.length(), positions.getProteinLength());
+        assertTrue(positions.contains("PEPTIDEK"));
+        assertTrue(positions.contains("WWW"));
+        assertFalse(positions.contains(""));
+        assertFalse(positions.contains("MK"));
+
+        assertEquals("[2, 11]", Arrays.toString(positions.getStarts("PEPTIDEK")));
+        assertEquals("[19]", Arrays.toString(positions.getStarts("AAAK")));
+        assertEquals(0, positions.getStarts("WWW").length);
+        assertEquals(0, positions.getStarts("MK").length);
+        assertEquals(2, positions.getNOccurrences("PEPTIDEK"));
+        assertEquals(0, positions.getNOccurrences("MK"));
+
+        positions.getStarts("PEPTIDEK")[0] = -1;
+        assertEquals(2, positions.getStarts("PEPTIDEK")[0]);
+    }
+
+    /**
+     * Tests the covered residues and the sequence coverage, overlapping
+     * peptides being counted once.
+     */
+    public void testGetCoverage() {
+
+        PeptidePositions positions = new PeptidePositions(PROTEIN, Arrays.asList("PEPTIDEK", "TIDEKRP", "AAAK", "WWW"));
+
+        BitSet coverage = positions.getCoverage(Arrays.asList("PEPTIDEK", "TIDEKRP"));
+        assertEquals(2, coverage.nextSetBit(0));
+        assertEquals(19, coverage.nextClearBit(2));
+        assertEquals(17, coverage.cardinality());
+
+        assertEquals(21, positions.getCoverage(Arrays.asList("PEPTIDEK", "TIDEKRP", "AAAK")).cardinality());
+        assertEquals(0, positions.getCoverage(Arrays.asList("WWW", "MK")).cardinality());
+        assertEquals(0, positions.getCoverage(new ArrayList<String>()).cardinality());
+
+        assertEquals(4.0 / PROTEIN.length(), positions.getSequenceCoverage(Arrays.asList("AAAK")), 1e-9);
+        assertEquals(0.0, positions.getSequenceCoverage(Arrays.asList("WWW")), 1e-9);
+    }
+
+    /**
+     * Tests that overlapping and adjacent peptides are merged into intervals
+     * and that separate peptides give separate intervals.
+     */
+    public void testGetCoveredIntervals() {
+
+        PeptidePositions positions = new PeptidePositions(PROTEIN, Arrays.asList("MK", "PEPTIDEK", "RPE", "AAAK", "WWW"));
+
+        assertEquals("[[0, 10], [11, 23]]", toString(positions.getCoveredIntervals(Arrays.asList("MK", "PEPTIDEK", "AAAK"))));
+        assertEquals("[[0, 2], [10, 13], [19, 23]]", toString(positions.getCoveredIntervals(Arrays.asList("MK", "RPE", "AAAK"))));
+        assertEquals("[[2, 19]]", toString(positions.getCoveredIntervals(Arrays.asList("PEPTIDEK", "RPE"))));
+        assertEquals("[]", toString(positions.getCoveredIntervals(Arrays.asList("WWW"))));
+    }
+
+    /**
+     * Tests a protein without located peptides.
+     */
+    public void testNoPeptides() {
+
+        PeptidePositions positions = new PeptidePositions(PROTEIN, new ArrayList<String>());
+
+        assertFalse(positions.contains("PEPTIDEK"));
+        assertEquals(0, positions.getCoverage(Arrays.asList("PEPTIDEK")).cardinality());
+        assertTrue(positions.getCoveredIntervals(Arrays.asList("PEPTIDEK")).isEmpty());
+    }
+
+    /**
+     * Returns a string representation of a list of intervals.
+     *
+     * @param intervals the intervals
+     * @return a string representation of the intervals
+     */
+    private String toString(List<int[]> intervals) {
+        StringBuilder result = new StringBuilder("[");
+        for (int[] interval : intervals) {
+            if (result.length() > 1) {
+                result.append(", ");
+            }
+            result.append(Arrays.toString(interval));
+        }
+        return result.append("]").toString();
+    }
+}